@@ -0,0 +1,50 @@
+package com.rr.eucentralbank.benchmark;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs the benchmarks once for each thread count, with the GC profiler attached so that the 
+ * allocation rate is reported next to each score. Any arguments are passed on to JMH, 
+ * for example a regular expression selecting the benchmarks to run.
+ * 
+ * Run from the root of the repository, so that config.properties is found:
+ * <pre>
+ * java -jar benchmarks/target/benchmarks.jar [JMH options]
+ * </pre>
+ * The thread counts can be changed with -Dbench.threads=1,2,8
+ * 
+ * @author Robert Rodrigues
+ *
+ */
+public class BenchmarkRunner {
+
+	public static void main(String[] args) throws RunnerException, CommandLineOptionException {
+		CommandLineOptions commandLine = new CommandLineOptions(args);
+		List<Integer> threadCounts = new ArrayList<>();
+		String defaultThreads = "1," + Runtime.getRuntime().availableProcessors();
+		for(String count : System.getProperty("bench.threads", defaultThreads).split(",")) {
+			threadCounts.add(Integer.parseInt(count.trim()));
+		}
+		
+		for(int threads : threadCounts) {
+			ChainedOptionsBuilder options = new OptionsBuilder()
+					.parent(commandLine)
+					.threads(threads)
+					.addProfiler(GCProfiler.class);
+			if(commandLine.getIncludes().isEmpty()) {
+				options.include("com\\.rr\\.eucentralbank\\.benchmark\\..*");
+			}
+			new Runner(options.build()).run();
+		}
+	}
+	
+}
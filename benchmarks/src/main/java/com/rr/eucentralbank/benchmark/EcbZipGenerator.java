@@ -0,0 +1,273 @@
+package com.rr.eucentralbank.benchmark;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.DayOfWeek;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Generates zip files in the format published by the ECB: a header of currency codes, 
+ * then one row per business day with the newest first, N/A for missing rates and a 
+ * trailing comma on every line. Rates follow a random walk, so ranges have realistic values.
+ * 
+ * Files far larger than the real history can be generated, up to millions of rows and hundreds 
+ * of currencies: rows are written as they are generated, and the walk is pulled gently back towards 
+ * its starting rate so that the rates stay in range however long the history. Currencies beyond 
+ * the real ones are named XAA, XAB and so on. The years must stay within the four digits of the format.
+ * 
+ * @author Robert Rodrigues
+ *
+ */
+public class EcbZipGenerator {
+
+	private static final String[] ECB_CURRENCIES = {
+			"USD", "JPY", "BGN", "CYP", "CZK", "DKK", "EEK", "GBP", "HUF", "LTL", "LVL", "MTL", "PLN", "ROL", 
+			"RON", "SEK", "SIT", "SKK", "CHF", "ISK", "NOK", "HRK", "RUB", "TRL", "TRY", "AUD", "BRL", "CAD", 
+			"CNY", "HKD", "IDR", "ILS", "INR", "KRW", "MXN", "MYR", "NZD", "PHP", "SGD", "THB", "ZAR"};
+	
+	//Codes from XAA to ZZZ give the generated currencies, skipping ZAR which the ECB uses
+	private static final int FIRST_GENERATED_CODE = ('X' - 'A') * 26 * 26;
+	private static final int MAX_CURRENCIES = ECB_CURRENCIES.length + 26 * 26 * 26 - FIRST_GENERATED_CODE - 1;
+	
+	private static final LocalDate FIRST_DAY = LocalDate.of(1, 1, 1);
+	private static final LocalDate LAST_DAY = LocalDate.of(9999, 12, 31);
+	
+	private static final long[] POWERS_OF_TEN = {1, 10, 100, 1000, 10000, 100000, 1000000, 10000000, 100000000, 1000000000};
+	
+	private int rows = 6000;
+	private int currencies = ECB_CURRENCIES.length;
+	private double missingRatio = 0.1;
+	private long seed = 42;
+	private LocalDate lastDate = LocalDate.of(2021, 10, 15);
+	private boolean weekends = false;
+	
+	public EcbZipGenerator rows(int rows) {
+		this.rows = rows;
+		return this;
+	}
+	
+	public EcbZipGenerator currencies(int currencies) {
+		if(currencies < 0 || currencies > MAX_CURRENCIES) {
+			throw new IllegalArgumentException("Between 0 and "+MAX_CURRENCIES+" currencies can be generated: "+currencies);
+		}
+		this.currencies = currencies;
+		return this;
+	}
+	
+	public EcbZipGenerator missingRatio(double missingRatio) {
+		this.missingRatio = missingRatio;
+		return this;
+	}
+	
+	public EcbZipGenerator seed(long seed) {
+		this.seed = seed;
+		return this;
+	}
+	
+	public EcbZipGenerator lastDate(LocalDate lastDate) {
+		this.lastDate = lastDate;
+		return this;
+	}
+	
+	/**
+	 * Whether to publish rates at weekends too. The ECB doesn't, but with every day included 
+	 * the four digit years allow over three million rows.
+	 */
+	public EcbZipGenerator weekends(boolean weekends) {
+		this.weekends = weekends;
+		return this;
+	}
+	
+	/**
+	 * Generates a row for every publishing day between two dates, in place of setting the 
+	 * number of rows and the last date
+	 * 
+	 * @param firstDate the oldest date (inclusive)
+	 * @param lastDate the newest date (inclusive)
+	 */
+	public EcbZipGenerator between(LocalDate firstDate, LocalDate lastDate) {
+		int count = 0;
+		for(LocalDate date = firstDate; !date.isAfter(lastDate); date = date.plusDays(1)) {
+			if(isPublished(date)) {
+				count++;
+			}
+		}
+		this.rows = count;
+		this.lastDate = lastDate;
+		return this;
+	}
+	
+	/**
+	 * @return the currency codes used in the header
+	 */
+	public List<String> currencyNames() {
+		List<String> names = new ArrayList<>(currencies);
+		List<String> ecb = Arrays.asList(ECB_CURRENCIES);
+		int code = FIRST_GENERATED_CODE;
+		for(int c=0; c<currencies; c++) {
+			if(c < ECB_CURRENCIES.length) {
+				names.add(ECB_CURRENCIES[c]);
+			} else {
+				String name;
+				do {
+					name = new String(new char[] {(char) ('A' + code / 676), (char) ('A' + code / 26 % 26), (char) ('A' + code % 26)});
+					code++;
+				} while(ecb.contains(name));
+				names.add(name);
+			}
+		}
+		return names;
+	}
+	
+	/**
+	 * @return the dates of the rows, newest first
+	 */
+	public List<LocalDate> dates() {
+		List<LocalDate> dates = new ArrayList<>(rows);
+		LocalDate date = lastDate;
+		while(dates.size() < rows) {
+			if(isPublished(date)) {
+				dates.add(date);
+			}
+			date = previousDay(date);
+		}
+		return dates;
+	}
+	
+	private boolean isPublished(LocalDate date) {
+		return weekends || (date.getDayOfWeek() != DayOfWeek.SATURDAY && date.getDayOfWeek() != DayOfWeek.SUNDAY);
+	}
+	
+	private static LocalDate previousDay(LocalDate date) {
+		if(!date.isAfter(FIRST_DAY)) {
+			throw new IllegalStateException("Too many rows for dates with four digit years");
+		}
+		return date.minusDays(1);
+	}
+	
+	/**
+	 * @return the zip file as bytes
+	 * @throws IOException
+	 */
+	public byte[] toZip() throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		writeZip(out, "eurofxref-hist.csv");
+		return out.toByteArray();
+	}
+	
+	/**
+	 * Writes the zip file to a stream, one row at a time
+	 * 
+	 * @param out the destination
+	 * @param entryName the name of the CSV file inside the zip
+	 * @throws IOException
+	 */
+	public void writeZip(OutputStream out, String entryName) throws IOException {
+		if(lastDate.isAfter(LAST_DAY)) {
+			throw new IllegalStateException("The last date must have a four digit year: "+lastDate);
+		}
+		ZipOutputStream zip = new ZipOutputStream(out);
+		zip.putNextEntry(new ZipEntry(entryName));
+		Writer writer = new OutputStreamWriter(zip, StandardCharsets.US_ASCII);
+		writeCsv(writer);
+		writer.flush();
+		zip.closeEntry();
+		zip.finish();
+	}
+	
+	/**
+	 * Writes the zip file, with the CSV file named as the ECB names it
+	 * 
+	 * @param file the destination, replaced if it exists
+	 * @throws IOException
+	 */
+	public void writeZip(Path file) throws IOException {
+		try(OutputStream out = new BufferedOutputStream(Files.newOutputStream(file))) {
+			writeZip(out, "eurofxref-hist.csv");
+		}
+	}
+	
+	private void writeCsv(Writer writer) throws IOException {
+		StringBuilder line = new StringBuilder("Date,");
+		for(String name : currencyNames()) {
+			line.append(name).append(',');
+		}
+		writer.write(line.append("\r\n").toString());
+		
+		Random random = new Random(seed);
+		double[] start = new double[currencies];
+		double[] logRates = new double[currencies];
+		for(int c=0; c<currencies; c++) {
+			//Spread the starting rates over several orders of magnitude, like the real data
+			start[c] = Math.log(Math.pow(10, random.nextInt(5) - 1) * (1 + random.nextDouble()));
+			logRates[c] = start[c];
+		}
+		LocalDate date = lastDate;
+		for(int r=0; r<rows; r++) {
+			while(!isPublished(date)) {
+				date = previousDay(date);
+			}
+			line.setLength(0);
+			line.append(date);
+			for(int c=0; c<currencies; c++) {
+				//Daily moves of about 0.5%, which typically stay within a quarter of the start over any length of history
+				logRates[c] += random.nextGaussian() * 0.005 - (logRates[c] - start[c]) * 0.001;
+				line.append(',');
+				if(random.nextDouble() < missingRatio) {
+					line.append("N/A");
+				} else {
+					appendRate(line, Math.exp(logRates[c]));
+				}
+			}
+			writer.write(line.append(",\r\n").toString());
+			if(r + 1 < rows) {
+				date = previousDay(date);
+			}
+		}
+	}
+	
+	/**
+	 * Appends a rate rounded to five significant figures, as the ECB publishes, keeping any trailing zeros
+	 */
+	private static void appendRate(StringBuilder line, double rate) {
+		int decimals = 4 - (int) Math.floor(Math.log10(rate));
+		long scaled = Math.round(decimals >= 0 ? rate * POWERS_OF_TEN[decimals] : rate / POWERS_OF_TEN[-decimals]);
+		if(scaled >= 100000) {
+			//Rounded up to the next power of ten
+			scaled /= 10;
+			decimals--;
+		}
+		if(decimals <= 0) {
+			line.append(scaled);
+			for(int i=decimals; i<0; i++) {
+				line.append('0');
+			}
+		} else {
+			String digits = Long.toString(scaled);
+			int point = digits.length() - decimals;
+			if(point <= 0) {
+				line.append("0.");
+				for(int i=point; i<0; i++) {
+					line.append('0');
+				}
+				line.append(digits);
+			} else {
+				line.append(digits, 0, point).append('.').append(digits, point, digits.length());
+			}
+		}
+	}
+	
+}
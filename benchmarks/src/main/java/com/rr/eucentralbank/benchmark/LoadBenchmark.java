@@ -0,0 +1,58 @@
+package com.rr.eucentralbank.benchmark;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.rr.eucentralbank.api.ForexImpl;
+
+/**
+ * Measures loading a zip file from memory, for a file the size of the real ECB history 
+ * and for larger generated ones.
+ * 
+ * @author Robert Rodrigues
+ *
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class LoadBenchmark {
+
+	//Rows x currencies; the first matches the real ECB history
+	@Param({"6000x41", "60000x41", "6000x400"})
+	public String size;
+	
+	private byte[] zip;
+	
+	@Setup
+	public void setup() throws IOException {
+		String[] parts = size.split("x");
+		zip = new EcbZipGenerator()
+				.rows(Integer.parseInt(parts[0]))
+				.currencies(Integer.parseInt(parts[1]))
+				.toZip();
+	}
+	
+	@Benchmark
+	public ForexImpl loadDataFromInputStream() throws IOException {
+		ForexImpl forex = new ForexImpl();
+		forex.loadDataFromInputStream(new ByteArrayInputStream(zip));
+		return forex;
+	}
+	
+}
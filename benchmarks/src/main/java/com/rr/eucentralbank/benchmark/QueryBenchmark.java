@@ -0,0 +1,128 @@
+package com.rr.eucentralbank.benchmark;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.util.Date;
+import java.util.DoubleSummaryStatistics;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.rr.eucentralbank.api.ForexImpl;
+import com.rr.eucentralbank.exception.CurrencyUnavailableException;
+
+/**
+ * Measures the query methods against the real ECB history size. Each call picks a random 
+ * date, and range queries cover a random window of the given width.
+ * 
+ * @author Robert Rodrigues
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class QueryBenchmark {
+
+	//Width of the range queries, in days
+	@Param({"7", "365", "7300"})
+	public int rangeDays;
+	
+	private ForexImpl forex;
+	private Date[] dates;
+	private String[] currencies;
+	
+	@Setup
+	public void setup() throws IOException {
+		EcbZipGenerator generator = new EcbZipGenerator().rows(6000);
+		forex = new ForexImpl();
+		forex.loadDataFromInputStream(new ByteArrayInputStream(generator.toZip()));
+		
+		List<LocalDate> generated = generator.dates();
+		dates = new Date[generated.size()];
+		for(int i=0; i<dates.length; i++) {
+			dates[i] = Date.from(generated.get(i).atStartOfDay(ZoneId.systemDefault()).toInstant());
+		}
+		currencies = generator.currencyNames().subList(0, 8).toArray(new String[0]);
+	}
+	
+	private Date randomDate() {
+		return dates[ThreadLocalRandom.current().nextInt(dates.length)];
+	}
+	
+	private Date endOf(Date start) {
+		return new Date(start.getTime() + TimeUnit.DAYS.toMillis(rangeDays));
+	}
+	
+	private String randomCurrency() {
+		return currencies[ThreadLocalRandom.current().nextInt(currencies.length)];
+	}
+	
+	@Benchmark
+	public Map<String, Double> readDataForDate() {
+		return forex.readDataForDate(randomDate());
+	}
+	
+	@Benchmark
+	public Double convertCurrency() {
+		try {
+			return forex.convertCurrency(randomDate(), 100D, randomCurrency(), randomCurrency());
+		} catch(CurrencyUnavailableException e) {
+			return null;
+		}
+	}
+	
+	@Benchmark
+	public Double calculateHighest() {
+		Date start = randomDate();
+		try {
+			return forex.calculateHighest(start, endOf(start), randomCurrency());
+		} catch(CurrencyUnavailableException e) {
+			return null;
+		}
+	}
+	
+	@Benchmark
+	public Double calculateAverageRemoveNulls() {
+		Date start = randomDate();
+		try {
+			return forex.calculateAverage(start, endOf(start), randomCurrency(), true);
+		} catch(CurrencyUnavailableException e) {
+			return null;
+		}
+	}
+	
+	@Benchmark
+	public Double calculateAverageKeepNulls() {
+		Date start = randomDate();
+		try {
+			return forex.calculateAverage(start, endOf(start), randomCurrency(), false);
+		} catch(CurrencyUnavailableException e) {
+			return null;
+		}
+	}
+	
+	@Benchmark
+	public DoubleSummaryStatistics statistics() {
+		Date start = randomDate();
+		return forex.statistics(start, endOf(start), randomCurrency(), true);
+	}
+	
+}
@@ -0,0 +1,361 @@
+package com.rr.eucentralbank.benchmark;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.rr.eucentralbank.api.ForexImpl;
+import com.rr.eucentralbank.api.LoadOptions;
+import com.rr.eucentralbank.exception.CurrencyUnavailableException;
+import com.rr.eucentralbank.metrics.ForexMetrics.Query;
+import com.rr.eucentralbank.metrics.LatencyHistogram;
+import com.rr.eucentralbank.metrics.LoadSummary;
+import com.rr.eucentralbank.metrics.RecordingMetrics;
+
+/**
+ * Runs a mix of queries from many threads against a generated dataset for a fixed time, while the
+ * data is reloaded in the background, to find where throughput, latency or memory give out as the
+ * data grows. Every few seconds it prints the throughput, the 99th percentile latency, the heap used
+ * and the time spent in GC, and at the end a summary of each query type, of the reloads, the heap
+ * high-water mark and the GC totals. Any failure other than a missing rate is counted and the first
+ * one printed; an {@link OutOfMemoryError} stops the run.
+ * 
+ * Latencies are taken from {@link RecordingMetrics}, so they are measured inside the library and
+ * don't include the harness. The settings are system properties:
+ * <pre>
+ * java -Xmx4g -Dsoak.rows=1000000 -Dsoak.currencies=200 -Dsoak.seconds=300 \
+ *     -cp benchmarks/target/benchmarks.jar com.rr.eucentralbank.benchmark.SoakHarness
+ * </pre>
+ * <ul>
+ * <li>soak.rows, soak.currencies, soak.missing (ratio of N/A rates), soak.weekends: the generated dataset</li>
+ * <li>soak.file: a zip file to load instead of generating one</li>
+ * <li>soak.options: all, lazy or compact, as {@link LoadOptions}</li>
+ * <li>soak.threads: query threads, by default one per core</li>
+ * <li>soak.seconds, soak.reload.seconds, soak.report.seconds: length of the run, and the time between reloads and reports</li>
+ * <li>soak.window.days: the longest range queried, the width of each range is random up to this</li>
+ * </ul>
+ * The process exits with 1 if there were any failures.
+ * 
+ * @author Robert Rodrigues
+ *
+ */
+public class SoakHarness {
+	
+	//Relative frequency of each query in the mix
+	private static final Query[] MIX = {
+			Query.READ_DATA_FOR_DATE, Query.READ_DATA_FOR_DATE,
+			Query.READ_DATA_AS_OF,
+			Query.CONVERT_CURRENCY, Query.CONVERT_CURRENCY, Query.CONVERT_CURRENCY,
+			Query.CALCULATE_HIGHEST,
+			Query.CALCULATE_AVERAGE,
+			Query.CALCULATE_PERCENTILE,
+			Query.CALCULATE_PERCENT_RANK};
+	
+	private final ForexImpl forex = new ForexImpl();
+	private final RecordingMetrics metrics = new RecordingMetrics();
+	private final LatencyHistogram reloads = new LatencyHistogram();
+	
+	private final File file;
+	private final LoadOptions options;
+	private final int windowDays;
+	
+	//The rows and currencies of the data, fixed across reloads
+	private int rowCount;
+	private String[] currencies;
+	
+	private volatile boolean running = true;
+	private final LongAdder unavailable = new LongAdder();
+	private final LongAdder failures = new LongAdder();
+	private final AtomicReference<Throwable> firstFailure = new AtomicReference<>();
+	private final LongAccumulator heapPeak = new LongAccumulator(Math::max, 0);
+	
+	private final List<GarbageCollectorMXBean> collectors = ManagementFactory.getGarbageCollectorMXBeans();
+	private final List<MemoryPoolMXBean> pools = ManagementFactory.getMemoryPoolMXBeans();
+	
+	SoakHarness(File file, LoadOptions options, int windowDays) {
+		this.file = file;
+		this.options = options;
+		this.windowDays = windowDays;
+	}
+	
+	public static void main(String[] args) throws IOException, InterruptedException {
+		int rows = Integer.getInteger("soak.rows", 6000);
+		int currencyCount = Integer.getInteger("soak.currencies", 41);
+		double missing = Double.parseDouble(System.getProperty("soak.missing", "0.1"));
+		boolean weekends = Boolean.getBoolean("soak.weekends");
+		int threads = Integer.getInteger("soak.threads", Runtime.getRuntime().availableProcessors());
+		int seconds = Integer.getInteger("soak.seconds", 60);
+		int reloadSeconds = Integer.getInteger("soak.reload.seconds", 10);
+		int reportSeconds = Integer.getInteger("soak.report.seconds", 5);
+		int windowDays = Integer.getInteger("soak.window.days", 5 * 365);
+		
+		String given = System.getProperty("soak.file");
+		File file;
+		if(given != null) {
+			file = new File(given);
+		} else {
+			Path generated = Files.createTempFile("soak", ".zip");
+			generated.toFile().deleteOnExit();
+			long started = System.nanoTime();
+			new EcbZipGenerator()
+					.rows(rows)
+					.currencies(currencyCount)
+					.missingRatio(missing)
+					.weekends(weekends)
+					.writeZip(generated);
+			System.out.printf(Locale.ROOT, "Generated %d rows x %d currencies in %.1fs, %.1fMB zipped%n", rows, currencyCount,
+					(System.nanoTime() - started) / 1e9, Files.size(generated) / 1e6);
+			file = generated.toFile();
+		}
+		
+		SoakHarness harness = new SoakHarness(file, loadOptions(System.getProperty("soak.options", "all")), windowDays);
+		boolean failed = harness.run(threads, seconds, reloadSeconds, reportSeconds);
+		System.exit(failed ? 1 : 0);
+	}
+	
+	private static LoadOptions loadOptions(String name) {
+		switch(name) {
+		case "all":
+			return LoadOptions.ALL;
+		case "lazy":
+			return LoadOptions.ALL.lazy();
+		case "compact":
+			return LoadOptions.ALL.compact();
+		default:
+			throw new IllegalArgumentException("soak.options must be all, lazy or compact: "+name);
+		}
+	}
+	
+	/**
+	 * Loads the data, then runs the queries and reloads for the given time and prints the results
+	 * 
+	 * @return whether anything failed
+	 */
+	boolean run(int threads, int seconds, int reloadSeconds, int reportSeconds) throws IOException, InterruptedException {
+		forex.setMetrics(metrics);
+		long loadStarted = System.nanoTime();
+		forex.loadDataFromZip(file, options);
+		LoadSummary load = metrics.getLastLoad();
+		System.out.printf(Locale.ROOT, "Loaded in %.2fs: %s%n", (System.nanoTime() - loadStarted) / 1e9, load);
+		
+		List<String> names = forex.getCurrencyNames();
+		currencies = names.toArray(new String[0]);
+		rowCount = load.getRows();
+		System.out.printf(Locale.ROOT, "%d currencies from %s to %s, %d query threads for %ds%n", currencies.length, 
+				LocalDate.ofEpochDay(forex.epochDayOf(0)), LocalDate.ofEpochDay(forex.epochDayOf(rowCount - 1)), threads, seconds);
+		
+		for(MemoryPoolMXBean pool : pools) {
+			pool.resetPeakUsage();
+		}
+		long gcCountBefore = gcCount();
+		long gcTimeBefore = gcTime();
+		
+		ScheduledExecutorService background = Executors.newScheduledThreadPool(2, r -> {
+			Thread thread = new Thread(r, "soak-background");
+			thread.setDaemon(true);
+			return thread;
+		});
+		background.scheduleAtFixedRate(this::sampleHeap, 0, 20, TimeUnit.MILLISECONDS);
+		background.scheduleWithFixedDelay(this::reload, reloadSeconds, reloadSeconds, TimeUnit.SECONDS);
+		
+		ExecutorService workers = Executors.newFixedThreadPool(threads);
+		for(int t=0; t<threads; t++) {
+			workers.execute(this::queryLoop);
+		}
+		
+		long started = System.nanoTime();
+		long deadline = started + TimeUnit.SECONDS.toNanos(seconds);
+		long lastCount = 0;
+		long lastReport = started;
+		while(running && System.nanoTime() < deadline) {
+			Thread.sleep(Math.min(TimeUnit.SECONDS.toMillis(reportSeconds), Math.max(1, TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime()))));
+			long now = System.nanoTime();
+			long count = queryCount();
+			System.out.printf(Locale.ROOT, "%6.0fs %12.0f ops/s  p99 %8.1fus  heap %8.1fMB  gc %6dms  reloads %d  failures %d%n",
+					(now - started) / 1e9, (count - lastCount) / ((now - lastReport) / 1e9),
+					maxPercentile(99) / 1e3, heapUsed() / 1e6, gcTime() - gcTimeBefore, reloads.getCount(), failures.sum());
+			lastCount = count;
+			lastReport = now;
+		}
+		running = false;
+		workers.shutdown();
+		workers.awaitTermination(1, TimeUnit.MINUTES);
+		background.shutdown();
+		background.awaitTermination(1, TimeUnit.MINUTES);
+		double elapsed = (System.nanoTime() - started) / 1e9;
+		
+		System.out.println();
+		System.out.printf(Locale.ROOT, "%-24s %12s %12s %10s %10s %10s %10s %10s%n",
+				"query (us)", "count", "ops/s", "mean", "p50", "p99", "p99.9", "max");
+		for(Query query : Query.values()) {
+			LatencyHistogram latency = metrics.getLatency(query);
+			if(latency.getCount() > 0) {
+				printLatency(query.name(), latency, elapsed, 1e3);
+			}
+		}
+		System.out.printf(Locale.ROOT, "%-24s %12s %12s %10s %10s %10s %10s %10s%n",
+				"reload (ms)", "count", "per s", "mean", "p50", "p99", "p99.9", "max");
+		printLatency("loadDataFromZip", reloads, elapsed, 1e6);
+		System.out.println();
+		System.out.printf(Locale.ROOT, "Throughput       %.0f ops/s over %.1fs, %d rates unavailable%n", queryCount() / elapsed, elapsed, unavailable.sum());
+		System.out.printf(Locale.ROOT, "Heap high-water  %.1fMB sampled, %.1fMB summed pool peaks, of %.1fMB max%n",
+				heapPeak.get() / 1e6, poolPeaks() / 1e6, Runtime.getRuntime().maxMemory() / 1e6);
+		System.out.printf(Locale.ROOT, "GC               %d collections, %dms (%.2f%% of the run)%n",
+				gcCount() - gcCountBefore, gcTime() - gcTimeBefore, (gcTime() - gcTimeBefore) / (elapsed * 10));
+		System.out.printf(Locale.ROOT, "Failures         %d%n", failures.sum());
+		Throwable failure = firstFailure.get();
+		if(failure != null) {
+			failure.printStackTrace(System.out);
+		}
+		return failures.sum() > 0;
+	}
+	
+	/**
+	 * Runs random queries from the mix until the run ends
+	 */
+	private void queryLoop() {
+		ThreadLocalRandom random = ThreadLocalRandom.current();
+		while(running) {
+			Query query = MIX[random.nextInt(MIX.length)];
+			//A day with data, or a few days after one for the as of queries
+			int day = forex.epochDayOf(random.nextInt(rowCount)) + (query == Query.READ_DATA_AS_OF ? random.nextInt(4) : 0);
+			int start = day - random.nextInt(windowDays + 1);
+			String currency = currencies[random.nextInt(currencies.length)];
+			try {
+				switch(query) {
+				case READ_DATA_FOR_DATE:
+					forex.readDataForDate(day);
+					break;
+				case READ_DATA_AS_OF:
+					forex.readDataAsOf(day, 7);
+					break;
+				case CONVERT_CURRENCY:
+					forex.convertCurrency(day, 100, currency, currencies[random.nextInt(currencies.length)]);
+					break;
+				case CALCULATE_HIGHEST:
+					forex.calculateHighest(start, day, currency);
+					break;
+				case CALCULATE_AVERAGE:
+					forex.calculateAverage(start, day, currency, random.nextBoolean());
+					break;
+				case CALCULATE_PERCENTILE:
+					forex.calculatePercentile(start, day, currency, random.nextInt(101), random.nextBoolean());
+					break;
+				case CALCULATE_PERCENT_RANK:
+					forex.calculatePercentRank(start, day, currency, 1 + random.nextGaussian() * 0.1, random.nextBoolean());
+					break;
+				default:
+					throw new IllegalStateException("Not in the mix: "+query);
+				}
+			} catch(CurrencyUnavailableException e) {
+				//Expected for N/A rates and dates without data
+				unavailable.increment();
+			} catch(Throwable e) {
+				fail(e);
+			}
+		}
+	}
+	
+	/**
+	 * Reloads the whole file, as a scheduled refresh would
+	 */
+	private void reload() {
+		if(!running) {
+			return;
+		}
+		long started = System.nanoTime();
+		try {
+			forex.loadDataFromZip(file, options);
+			reloads.record(System.nanoTime() - started);
+		} catch(Throwable e) {
+			fail(e);
+		}
+	}
+	
+	private void fail(Throwable e) {
+		failures.increment();
+		firstFailure.compareAndSet(null, e);
+		if(e instanceof OutOfMemoryError) {
+			running = false;
+		}
+	}
+	
+	private void sampleHeap() {
+		heapPeak.accumulate(heapUsed());
+	}
+	
+	private static long heapUsed() {
+		return ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+	}
+	
+	/**
+	 * Sum of the peak of each heap pool, an upper bound of the peak of the whole heap
+	 */
+	private long poolPeaks() {
+		long peaks = 0;
+		for(MemoryPoolMXBean pool : pools) {
+			if(pool.getType() == MemoryType.HEAP) {
+				peaks += pool.getPeakUsage().getUsed();
+			}
+		}
+		return peaks;
+	}
+	
+	private long gcCount() {
+		long count = 0;
+		for(GarbageCollectorMXBean collector : collectors) {
+			count += Math.max(0, collector.getCollectionCount());
+		}
+		return count;
+	}
+	
+	private long gcTime() {
+		long time = 0;
+		for(GarbageCollectorMXBean collector : collectors) {
+			time += Math.max(0, collector.getCollectionTime());
+		}
+		return time;
+	}
+	
+	private long queryCount() {
+		long count = 0;
+		for(Query query : Query.values()) {
+			count += metrics.getLatency(query).getCount();
+		}
+		return count;
+	}
+	
+	/**
+	 * The highest percentile of any query type, since the start of the run
+	 */
+	private long maxPercentile(double percentile) {
+		long max = 0;
+		for(Query query : Query.values()) {
+			max = Math.max(max, metrics.getLatency(query).getPercentile(percentile));
+		}
+		return max;
+	}
+	
+	private static void printLatency(String name, LatencyHistogram latency, double elapsed, double unit) {
+		System.out.printf(Locale.ROOT, "%-24s %12d %12.1f %10.1f %10.1f %10.1f %10.1f %10.1f%n", name, latency.getCount(),
+				latency.getCount() / elapsed, latency.getMean() / unit, latency.getPercentile(50) / unit,
+				latency.getPercentile(99) / unit, latency.getPercentile(99.9) / unit, latency.getMax() / unit);
+	}
+	
+}
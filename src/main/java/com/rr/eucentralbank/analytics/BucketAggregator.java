@@ -0,0 +1,129 @@
+package com.rr.eucentralbank.analytics;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+import com.rr.eucentralbank.model.ExchangeRates;
+import com.rr.eucentralbank.model.RateColumn;
+
+/**
+ * Summarises many currencies over calendar periods in one pass. The period boundaries are found once
+ * with a binary search each, then every selected column is read once over the date range, 
+ * straight from its primitive storage.
+ * 
+ * In parallel mode the work is split into parts of whole periods for each currency, so the parts 
+ * write to separate cells of the result and need no merging.
+ * 
+ * @author Robert Rodrigues
+ *
+ */
+public final class BucketAggregator {
+
+	//Periods per parallel task, enough to outweigh the cost of the task
+	private static final int BUCKETS_PER_TASK = 64;
+	
+	private BucketAggregator() {
+	}
+	
+	/**
+	 * Summarises the given currencies over each period between two dates
+	 * 
+	 * @param rates the model, which must be sorted
+	 * @param startEpochDay first day (inclusive) as days since 1970-01-01
+	 * @param endEpochDay last day (inclusive) as days since 1970-01-01
+	 * @param bucket the calendar period to group by
+	 * @param currencies names of the currencies to summarise, or null for all. Unknown currencies have only nulls.
+	 * @param pool the pool to spread the work over, or null to do it all on the calling thread
+	 * @return the {@link OhlcTable}
+	 */
+	public static OhlcTable aggregate(ExchangeRates rates, int startEpochDay, int endEpochDay, CalendarBucket bucket, 
+			List<String> currencies, ForkJoinPool pool) {
+		List<String> names = currencies == null ? rates.getCurrencyNames() : new ArrayList<>(currencies);
+		int first = rates.lowerBound(startEpochDay);
+		int last = rates.upperBound(endEpochDay);
+		
+		//First row of each period, with the end of the range after the last period
+		int[] bucketStarts = new int[16];
+		int[] bucketRows = new int[17];
+		int buckets = 0;
+		int row = first;
+		while(row < last) {
+			if(buckets == bucketStarts.length) {
+				bucketStarts = Arrays.copyOf(bucketStarts, buckets * 2);
+				bucketRows = Arrays.copyOf(bucketRows, buckets * 2 + 1);
+			}
+			int day = rates.getEpochDay(row);
+			bucketStarts[buckets] = bucket.startOf(day);
+			bucketRows[buckets] = row;
+			buckets++;
+			row = Math.min(last, rates.lowerBound(bucket.nextStart(day)));
+		}
+		bucketRows[buckets] = last;
+		
+		OhlcTable table = new OhlcTable(bucket, names, Arrays.copyOf(bucketStarts, buckets));
+		RateColumn[] columns = new RateColumn[names.size()];
+		for(int c=0; c<columns.length; c++) {
+			int column = rates.indexOfCurrency(names.get(c));
+			columns[c] = column < 0 ? null : rates.getColumn(column);
+		}
+		int[] rowBounds = bucketRows;
+		int parts = (buckets + BUCKETS_PER_TASK - 1) / BUCKETS_PER_TASK;
+		if(pool == null) {
+			for(int c=0; c<columns.length; c++) {
+				summarise(table, c, columns[c], rowBounds, 0, buckets);
+			}
+			return table;
+		}
+		List<ForkJoinTask<?>> tasks = new ArrayList<>();
+		for(int task=0; task<columns.length * parts; task++) {
+			int c = task / parts;
+			int from = (task % parts) * BUCKETS_PER_TASK;
+			tasks.add(ForkJoinTask.adapt(() -> 
+					summarise(table, c, columns[c], rowBounds, from, Math.min(from + BUCKETS_PER_TASK, table.getBucketCount()))));
+		}
+		tasks.forEach(pool::execute);
+		tasks.forEach(ForkJoinTask::join);
+		return table;
+	}
+	
+	/**
+	 * Summarises one currency over a run of periods
+	 * 
+	 * @param column the rates, or null for a column of nulls
+	 * @param bucketRows first row of each period, and the end of the last
+	 */
+	private static void summarise(OhlcTable table, int currency, RateColumn column, int[] bucketRows, int fromBucket, int toBucket) {
+		for(int b=fromBucket; b<toBucket; b++) {
+			double open = Double.NaN;
+			double close = Double.NaN;
+			double high = Double.NEGATIVE_INFINITY;
+			double low = Double.POSITIVE_INFINITY;
+			double sum = 0;
+			int count = 0;
+			for(int r=bucketRows[b]; r<bucketRows[b+1]; r++) {
+				double value = column == null ? Double.NaN : column.get(r);
+				if(Double.isNaN(value)) {
+					continue;
+				}
+				if(count == 0) {
+					open = value;
+				}
+				close = value;
+				high = Math.max(high, value);
+				low = Math.min(low, value);
+				sum += value;
+				count++;
+			}
+			int rows = bucketRows[b+1] - bucketRows[b];
+			if(count == 0) {
+				table.set(currency, b, Double.NaN, Double.NaN, Double.NaN, Double.NaN, 0, 0, rows);
+			} else {
+				table.set(currency, b, open, high, low, close, sum, count, rows - count);
+			}
+		}
+	}
+	
+}
@@ -0,0 +1,72 @@
+package com.rr.eucentralbank.analytics;
+
+import java.time.DayOfWeek;
+import java.time.LocalDate;
+import java.time.temporal.TemporalAdjusters;
+
+/**
+ * Calendar periods that rows can be grouped by
+ * 
+ * @author Robert Rodrigues
+ *
+ */
+public enum CalendarBucket {
+
+	//ISO weeks, starting on Monday
+	WEEK {
+		@Override
+		LocalDate start(LocalDate date) {
+			return date.with(TemporalAdjusters.previousOrSame(DayOfWeek.MONDAY));
+		}
+		
+		@Override
+		LocalDate next(LocalDate start) {
+			return start.plusWeeks(1);
+		}
+	},
+	
+	MONTH {
+		@Override
+		LocalDate start(LocalDate date) {
+			return date.withDayOfMonth(1);
+		}
+		
+		@Override
+		LocalDate next(LocalDate start) {
+			return start.plusMonths(1);
+		}
+	},
+	
+	YEAR {
+		@Override
+		LocalDate start(LocalDate date) {
+			return date.withDayOfYear(1);
+		}
+		
+		@Override
+		LocalDate next(LocalDate start) {
+			return start.plusYears(1);
+		}
+	};
+	
+	abstract LocalDate start(LocalDate date);
+	
+	abstract LocalDate next(LocalDate start);
+	
+	/**
+	 * @param epochDay a day as days since 1970-01-01
+	 * @return the first day of the period holding the day
+	 */
+	public int startOf(int epochDay) {
+		return (int) start(LocalDate.ofEpochDay(epochDay)).toEpochDay();
+	}
+	
+	/**
+	 * @param epochDay a day as days since 1970-01-01
+	 * @return the first day of the period after the one holding the day
+	 */
+	public int nextStart(int epochDay) {
+		return (int) next(start(LocalDate.ofEpochDay(epochDay))).toEpochDay();
+	}
+	
+}
@@ -0,0 +1,126 @@
+package com.rr.eucentralbank.analytics;
+
+import java.util.List;
+
+/**
+ * Summaries of a set of currencies over calendar periods. For each currency and period this holds the 
+ * first (open), highest, lowest and last (close) rate, their sum, and the number of rates and nulls.
+ * Only periods with at least one row of data are included. Statistics of a period where the currency 
+ * has only nulls are NaN.
+ * 
+ * Arrays are indexed by period, and are returned directly rather than copied, so they must not be changed.
+ * 
+ * @author Robert Rodrigues
+ *
+ */
+public final class OhlcTable {
+
+	private final CalendarBucket bucket;
+	private final List<String> currencies;
+	private final int[] bucketStarts;
+	private final double[][] opens;
+	private final double[][] highs;
+	private final double[][] lows;
+	private final double[][] closes;
+	private final double[][] sums;
+	private final int[][] counts;
+	private final int[][] nullCounts;
+	
+	OhlcTable(CalendarBucket bucket, List<String> currencies, int[] bucketStarts) {
+		this.bucket = bucket;
+		this.currencies = currencies;
+		this.bucketStarts = bucketStarts;
+		int n = currencies.size();
+		int buckets = bucketStarts.length;
+		opens = new double[n][buckets];
+		highs = new double[n][buckets];
+		lows = new double[n][buckets];
+		closes = new double[n][buckets];
+		sums = new double[n][buckets];
+		counts = new int[n][buckets];
+		nullCounts = new int[n][buckets];
+	}
+	
+	/**
+	 * Stores the summary of one currency over one period
+	 */
+	void set(int currency, int bucket, double open, double high, double low, double close, double sum, int count, int nullCount) {
+		opens[currency][bucket] = open;
+		highs[currency][bucket] = high;
+		lows[currency][bucket] = low;
+		closes[currency][bucket] = close;
+		sums[currency][bucket] = sum;
+		counts[currency][bucket] = count;
+		nullCounts[currency][bucket] = nullCount;
+	}
+	
+	public CalendarBucket getBucket() {
+		return bucket;
+	}
+	
+	/**
+	 * @return the currency names, in the order of the currency indexes of this table
+	 */
+	public List<String> getCurrencies() {
+		return currencies;
+	}
+	
+	public int getBucketCount() {
+		return bucketStarts.length;
+	}
+	
+	/**
+	 * @return the first day of each period as days since 1970-01-01
+	 */
+	public int[] getBucketStarts() {
+		return bucketStarts;
+	}
+	
+	public double[] getOpens(int currency) {
+		return opens[currency];
+	}
+	
+	public double[] getHighs(int currency) {
+		return highs[currency];
+	}
+	
+	public double[] getLows(int currency) {
+		return lows[currency];
+	}
+	
+	public double[] getCloses(int currency) {
+		return closes[currency];
+	}
+	
+	public double[] getSums(int currency) {
+		return sums[currency];
+	}
+	
+	/**
+	 * @return the number of rates in each period, not counting nulls
+	 */
+	public int[] getCounts(int currency) {
+		return counts[currency];
+	}
+	
+	public int[] getNullCounts(int currency) {
+		return nullCounts[currency];
+	}
+	
+	/**
+	 * Calculates the average rate of each period
+	 * 
+	 * @param currency index of the currency in this table
+	 * @param removeNulls boolean flag to decide what to do with null values, if they are left in they count as zero
+	 * @return the averages, NaN for a period with no values
+	 */
+	public double[] getAverages(int currency, boolean removeNulls) {
+		double[] averages = new double[bucketStarts.length];
+		for(int b=0; b<averages.length; b++) {
+			int n = counts[currency][b] + (removeNulls ? 0 : nullCounts[currency][b]);
+			averages[b] = n == 0 ? Double.NaN : sums[currency][b] / n;
+		}
+		return averages;
+	}
+	
+}
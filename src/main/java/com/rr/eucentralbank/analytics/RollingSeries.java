@@ -0,0 +1,84 @@
+package com.rr.eucentralbank.analytics;
+
+/**
+ * Rolling statistics of one currency, with one element per row of the data in ascending date order.
+ * Element i covers the window of rows ending at row i. Rows before the first full window, 
+ * and windows with no values, are NaN.
+ * 
+ * The arrays are returned directly rather than copied, so they must not be changed.
+ * 
+ * @author Robert Rodrigues
+ *
+ */
+public final class RollingSeries {
+
+	private final String currency;
+	private final int window;
+	private final int[] epochDays;
+	private final int[] counts;
+	private final double[] means;
+	private final double[] standardDeviations;
+	private final double[] minimums;
+	private final double[] maximums;
+	
+	RollingSeries(String currency, int window, int[] epochDays, int[] counts, double[] means, 
+			double[] standardDeviations, double[] minimums, double[] maximums) {
+		this.currency = currency;
+		this.window = window;
+		this.epochDays = epochDays;
+		this.counts = counts;
+		this.means = means;
+		this.standardDeviations = standardDeviations;
+		this.minimums = minimums;
+		this.maximums = maximums;
+	}
+
+	public String getCurrency() {
+		return currency;
+	}
+
+	/**
+	 * @return number of rows in each window
+	 */
+	public int getWindow() {
+		return window;
+	}
+	
+	public int size() {
+		return epochDays.length;
+	}
+
+	/**
+	 * @return the date of each row as days since 1970-01-01
+	 */
+	public int[] getEpochDays() {
+		return epochDays;
+	}
+
+	/**
+	 * @return number of values in each window, which with nulls removed excludes the nulls
+	 */
+	public int[] getCounts() {
+		return counts;
+	}
+
+	public double[] getMeans() {
+		return means;
+	}
+
+	/**
+	 * @return the sample standard deviation of the rates in each window, NaN with fewer than two values
+	 */
+	public double[] getStandardDeviations() {
+		return standardDeviations;
+	}
+
+	public double[] getMinimums() {
+		return minimums;
+	}
+
+	public double[] getMaximums() {
+		return maximums;
+	}
+	
+}
@@ -0,0 +1,232 @@
+package com.rr.eucentralbank.analytics;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+import com.rr.eucentralbank.model.ExchangeRates;
+import com.rr.eucentralbank.model.RateColumn;
+
+/**
+ * Computes rolling statistics over windows of a fixed number of rows in a single pass, 
+ * however long the window. As the window moves on by a row, the new value is added and the 
+ * oldest removed: the mean and variance are updated with Welford's method, and the minimum 
+ * and maximum are kept at the front of monotonic deques. The variance can be off by a rounding 
+ * error relative to the largest variance recently in the window.
+ * 
+ * Nulls follow the removeNulls flag of the other queries: either they are left out of the window, 
+ * or they count as zero.
+ * 
+ * @author Robert Rodrigues
+ *
+ */
+public final class RollingWindow {
+
+	private RollingWindow() {
+	}
+	
+	/**
+	 * Computes the rolling statistics of one currency. An unknown currency behaves like a column of nulls.
+	 * 
+	 * @param rates the model, which must be sorted
+	 * @param currency String value of currency name
+	 * @param window number of rows in each window
+	 * @param removeNulls boolean flag to decide what to do with null values
+	 * @return the {@link RollingSeries} of the currency
+	 */
+	public static RollingSeries compute(ExchangeRates rates, String currency, int window, boolean removeNulls) {
+		int column = rates.indexOfCurrency(currency);
+		return compute(currency, column < 0 ? null : rates.getColumn(column), epochDays(rates), rates.getRowCount(), window, removeNulls);
+	}
+	
+	/**
+	 * Computes the rolling statistics of every currency, one task per currency on the given pool
+	 * 
+	 * @param rates the model, which must be sorted
+	 * @param window number of rows in each window
+	 * @param removeNulls boolean flag to decide what to do with null values
+	 * @param pool the pool to compute the currencies on, or null to compute them on the calling thread
+	 * @return {@link Map} of currency name to its {@link RollingSeries}, in column order
+	 */
+	public static Map<String, RollingSeries> computeAll(ExchangeRates rates, int window, boolean removeNulls, ForkJoinPool pool) {
+		List<String> names = rates.getCurrencyNames();
+		int[] epochDays = epochDays(rates);
+		RollingSeries[] series = new RollingSeries[names.size()];
+		if(pool == null) {
+			for(int c=0; c<series.length; c++) {
+				series[c] = compute(names.get(c), rates.getColumn(c), epochDays, rates.getRowCount(), window, removeNulls);
+			}
+		} else {
+			List<ForkJoinTask<?>> tasks = new ArrayList<>();
+			for(int c=0; c<series.length; c++) {
+				int column = c;
+				tasks.add(ForkJoinTask.adapt(() -> 
+						series[column] = compute(names.get(column), rates.getColumn(column), epochDays, rates.getRowCount(), window, removeNulls)));
+			}
+			tasks.forEach(pool::execute);
+			tasks.forEach(ForkJoinTask::join);
+		}
+		Map<String, RollingSeries> result = new LinkedHashMap<>();
+		for(RollingSeries s : series) {
+			result.put(s.getCurrency(), s);
+		}
+		return result;
+	}
+	
+	private static int[] epochDays(ExchangeRates rates) {
+		int[] epochDays = new int[rates.getRowCount()];
+		for(int r=0; r<epochDays.length; r++) {
+			epochDays[r] = rates.getEpochDay(r);
+		}
+		return epochDays;
+	}
+	
+	/**
+	 * Makes one pass over a column
+	 * 
+	 * @param column the rates, or null for a column of nulls
+	 */
+	private static RollingSeries compute(String currency, RateColumn column, int[] epochDays, int rows, int window, boolean removeNulls) {
+		if(window < 1) {
+			throw new IllegalArgumentException("The window must have at least one row: "+window);
+		}
+		int[] counts = new int[rows];
+		double[] means = new double[rows];
+		double[] deviations = new double[rows];
+		double[] minimums = new double[rows];
+		double[] maximums = new double[rows];
+		int firstFull = Math.min(window - 1, rows);
+		Arrays.fill(means, 0, firstFull, Double.NaN);
+		Arrays.fill(deviations, 0, firstFull, Double.NaN);
+		Arrays.fill(minimums, 0, firstFull, Double.NaN);
+		Arrays.fill(maximums, 0, firstFull, Double.NaN);
+		
+		//Rows whose values could still be the minimum or maximum, values increasing and decreasing from the front
+		//A window longer than the data never holds more than every row
+		IndexDeque lows = new IndexDeque(Math.max(1, Math.min(window, rows)));
+		IndexDeque highs = new IndexDeque(Math.max(1, Math.min(window, rows)));
+		int n = 0;
+		double mean = 0;
+		double m2 = 0;
+		for(int i=0; i<rows; i++) {
+			if(i >= window) {
+				//The oldest row leaves the window
+				double old = value(column, i - window, removeNulls);
+				if(!Double.isNaN(old)) {
+					n--;
+					if(n == 0) {
+						mean = 0;
+						m2 = 0;
+					} else {
+						double delta = old - mean;
+						mean -= delta / n;
+						m2 -= delta * (old - mean);
+					}
+				}
+				lows.removeUpTo(i - window);
+				highs.removeUpTo(i - window);
+			}
+			
+			double x = value(column, i, removeNulls);
+			if(!Double.isNaN(x)) {
+				n++;
+				double delta = x - mean;
+				mean += delta / n;
+				m2 += delta * (x - mean);
+				while(!lows.isEmpty() && value(column, lows.last(), removeNulls) >= x) {
+					lows.removeLast();
+				}
+				lows.add(i);
+				while(!highs.isEmpty() && value(column, highs.last(), removeNulls) <= x) {
+					highs.removeLast();
+				}
+				highs.add(i);
+			}
+			
+			if(i % window == window - 1 && n > 0) {
+				//Removing values lets rounding errors build up, so once per window the mean and 
+				//variance are recalculated from the values, which keeps the pass linear
+				mean = 0;
+				for(int r=i-window+1; r<=i; r++) {
+					double v = value(column, r, removeNulls);
+					mean += Double.isNaN(v) ? 0 : v;
+				}
+				mean /= n;
+				m2 = 0;
+				for(int r=i-window+1; r<=i; r++) {
+					double v = value(column, r, removeNulls);
+					m2 += Double.isNaN(v) ? 0 : (v - mean) * (v - mean);
+				}
+			}
+			
+			counts[i] = n;
+			if(i < firstFull) {
+				continue;
+			}
+			means[i] = n == 0 ? Double.NaN : mean;
+			//Removing values can leave a tiny negative rounding error
+			deviations[i] = n < 2 ? Double.NaN : Math.sqrt(Math.max(0, m2 / (n - 1)));
+			minimums[i] = n == 0 ? Double.NaN : value(column, lows.first(), removeNulls);
+			maximums[i] = n == 0 ? Double.NaN : value(column, highs.first(), removeNulls);
+		}
+		return new RollingSeries(currency, window, epochDays, counts, means, deviations, minimums, maximums);
+	}
+	
+	/**
+	 * Reads a value, with a null either as NaN so that it is skipped, or as zero
+	 */
+	private static double value(RateColumn column, int row, boolean removeNulls) {
+		double value = column == null ? Double.NaN : column.get(row);
+		return Double.isNaN(value) && !removeNulls ? 0 : value;
+	}
+	
+	/**
+	 * Double ended queue of row indexes in a ring buffer, which never holds more than one window of rows
+	 */
+	private static final class IndexDeque {
+		
+		private final int[] rows;
+		private int head;
+		private int size;
+		
+		IndexDeque(int capacity) {
+			rows = new int[capacity];
+		}
+		
+		boolean isEmpty() {
+			return size == 0;
+		}
+		
+		int first() {
+			return rows[head];
+		}
+		
+		int last() {
+			return rows[(head + size - 1) % rows.length];
+		}
+		
+		void add(int row) {
+			rows[(head + size) % rows.length] = row;
+			size++;
+		}
+		
+		void removeLast() {
+			size--;
+		}
+		
+		/**
+		 * Removes rows from the front up to and including the given row
+		 */
+		void removeUpTo(int row) {
+			while(size > 0 && rows[head] <= row) {
+				head = (head + 1) % rows.length;
+				size--;
+			}
+		}
+	}
+	
+}
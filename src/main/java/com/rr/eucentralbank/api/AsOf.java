@@ -0,0 +1,62 @@
+package com.rr.eucentralbank.api;
+
+import java.time.LocalDate;
+
+/**
+ * The result of an as-of query, together with the day whose rates were used. On weekends and
+ * holidays that is the latest earlier day with data.
+ * 
+ * @author Robert Rodrigues
+ *
+ * @param <T> type of the result
+ */
+public final class AsOf<T> {
+
+	private final T value;
+	private final int requestedEpochDay;
+	private final int epochDay;
+	
+	public AsOf(T value, int requestedEpochDay, int epochDay) {
+		this.value = value;
+		this.requestedEpochDay = requestedEpochDay;
+		this.epochDay = epochDay;
+	}
+	
+	public T getValue() {
+		return value;
+	}
+	
+	/**
+	 * @return the day asked for, as days since 1970-01-01
+	 */
+	public int getRequestedEpochDay() {
+		return requestedEpochDay;
+	}
+	
+	/**
+	 * @return the day whose rates were used, as days since 1970-01-01
+	 */
+	public int getEpochDay() {
+		return epochDay;
+	}
+	
+	/**
+	 * @return the day whose rates were used
+	 */
+	public LocalDate getDate() {
+		return LocalDate.ofEpochDay(epochDay);
+	}
+	
+	/**
+	 * @return whether the rates are from an earlier day than the one asked for
+	 */
+	public boolean isFilledForward() {
+		return epochDay != requestedEpochDay;
+	}
+	
+	@Override
+	public String toString() {
+		return value + " as of " + getDate();
+	}
+	
+}
@@ -0,0 +1,203 @@
+package com.rr.eucentralbank.api;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+import com.rr.eucentralbank.model.ExchangeRates;
+
+/**
+ * Converts the batches passed to {@link ForexImpl#convertCurrencies(int[], double[], String[], String[], double[], byte[])}
+ * 
+ * @author Robert Rodrigues
+ * 
+ */
+final class BatchConverter {
+	
+	//Batches of at least this many amounts are split into parts of this size and converted in parallel
+	private static final int PARALLEL_BATCH_SIZE = 1 << 16;
+	
+	private BatchConverter() {
+	}
+	
+	/**
+	 * Converts a batch against one model. Large batches are split into parts converted on the pool.
+	 * 
+	 * @param pool the pool to split large batches across, or null to convert on the calling thread
+	 * @return the number of amounts which could not be converted
+	 */
+	static int convert(ExchangeRates rates, int[] epochDays, double[] amounts, String[] sourceCurrencies,
+			String[] targetCurrencies, double[] results, byte[] statuses, ForkJoinPool pool) {
+		int length = amounts.length;
+		if(pool == null || length < PARALLEL_BATCH_SIZE) {
+			return convertRange(rates, epochDays, amounts, sourceCurrencies, targetCurrencies, results, statuses, 0, length);
+		}
+		List<ForkJoinTask<Integer>> tasks = new ArrayList<>();
+		for(int from=0; from<length; from+=PARALLEL_BATCH_SIZE) {
+			int chunkFrom = from;
+			int chunkTo = Math.min(length, from + PARALLEL_BATCH_SIZE);
+			tasks.add(ForkJoinTask.adapt(() -> convertRange(rates, epochDays, amounts, sourceCurrencies, targetCurrencies,
+					results, statuses, chunkFrom, chunkTo)));
+		}
+		tasks.forEach(pool::execute);
+		int failures = 0;
+		for(ForkJoinTask<Integer> task : tasks) {
+			failures += task.join();
+		}
+		return failures;
+	}
+	
+	/**
+	 * Converts part of a batch. Each distinct date and pair of currencies is resolved once: currencies
+	 * are matched by value to their columns, and the rates and status of each (day, source column,
+	 * target column) are kept in a {@link PairRates} table for the rest of the range. Lines which repeat
+	 * the previous line's date and currencies skip the table altogether.
+	 * The arithmetic is the same as {@link ForexImpl#convertCurrency(java.util.Date, Double, String, String)},
+	 * so both give identical results.
+	 * 
+	 * @return the number of amounts in the range which could not be converted
+	 */
+	private static int convertRange(ExchangeRates rates, int[] epochDays, double[] amounts, String[] sourceCurrencies,
+			String[] targetCurrencies, double[] results, byte[] statuses, int from, int to) {
+		PairRates pairs = new PairRates();
+		int failures = 0;
+		String source = null;
+		String target = null;
+		int sourceColumn = -1;
+		int targetColumn = -1;
+		long key = 0;
+		int slot = -1;
+		for(int i=from; i<to; i++) {
+			boolean changed = i == from;
+			if(changed || !Objects.equals(sourceCurrencies[i], source)) {
+				source = sourceCurrencies[i];
+				sourceColumn = source == null ? -1 : rates.indexOfCurrency(source);
+				changed = true;
+			}
+			if(changed || !Objects.equals(targetCurrencies[i], target)) {
+				target = targetCurrencies[i];
+				targetColumn = target == null ? -1 : rates.indexOfCurrency(target);
+				changed = true;
+			}
+			long nextKey = PairRates.key(epochDays[i], sourceColumn, targetColumn);
+			if(changed || nextKey != key) {
+				key = nextKey;
+				slot = pairs.find(key);
+				if(slot < 0) {
+					slot = pairs.add(key, rates, epochDays[i], sourceColumn, targetColumn);
+				}
+			}
+			byte status = pairs.statuses[slot];
+			statuses[i] = status;
+			if(status == ConversionStatus.OK) {
+				results[i] = amounts[i] / pairs.sourceToEuro[slot] * pairs.targetToEuro[slot];
+			} else {
+				results[i] = Double.NaN;
+				failures++;
+			}
+		}
+		return failures;
+	}
+	
+	/**
+	 * Open addressing table from a (day, source column, target column) key to the rates and
+	 * status of that conversion, used by a single batch range so each distinct key is resolved once
+	 */
+	private static class PairRates {
+		
+		private static final int INITIAL_CAPACITY = 64;
+		
+		private long[] keys = new long[INITIAL_CAPACITY];
+		
+		//Zero marks an empty slot, otherwise the index of the entry plus one
+		private int[] slots = new int[INITIAL_CAPACITY];
+		
+		private double[] sourceToEuro = new double[INITIAL_CAPACITY / 2];
+		private double[] targetToEuro = new double[INITIAL_CAPACITY / 2];
+		private byte[] statuses = new byte[INITIAL_CAPACITY / 2];
+		
+		private int size;
+		
+		/**
+		 * Packs a day and two columns into one key. Columns are offset by one, so an unknown currency fits.
+		 */
+		static long key(int epochDay, int sourceColumn, int targetColumn) {
+			return (long) epochDay << 32 | (long) (sourceColumn + 1 & 0xFFFF) << 16 | (targetColumn + 1 & 0xFFFF);
+		}
+		
+		/**
+		 * @return the entry for the key, or -1 if it has not been added
+		 */
+		int find(long key) {
+			int mask = slots.length - 1;
+			for(int s = hash(key) & mask; slots[s] != 0; s = (s + 1) & mask) {
+				if(keys[s] == key) {
+					return slots[s] - 1;
+				}
+			}
+			return -1;
+		}
+		
+		/**
+		 * Looks up the rates of a key which is not in the table yet, and adds them
+		 * 
+		 * @return the new entry
+		 */
+		int add(long key, ExchangeRates rates, int epochDay, int sourceColumn, int targetColumn) {
+			if(size == sourceToEuro.length) {
+				grow();
+			}
+			int row = rates.indexOf(epochDay);
+			double source = row < 0 || sourceColumn < 0 ? Double.NaN : rates.getRate(sourceColumn, row);
+			double target = row < 0 || targetColumn < 0 ? Double.NaN : rates.getRate(targetColumn, row);
+			int entry = size++;
+			sourceToEuro[entry] = source;
+			targetToEuro[entry] = target;
+			if(row < 0) {
+				statuses[entry] = ConversionStatus.DATE_UNAVAILABLE;
+			} else if(Double.isNaN(source)) {
+				statuses[entry] = ConversionStatus.SOURCE_UNAVAILABLE;
+			} else if(Double.isNaN(target)) {
+				statuses[entry] = ConversionStatus.TARGET_UNAVAILABLE;
+			} else {
+				statuses[entry] = ConversionStatus.OK;
+			}
+			insert(key, entry);
+			return entry;
+		}
+		
+		private void insert(long key, int entry) {
+			int mask = slots.length - 1;
+			int s = hash(key) & mask;
+			while(slots[s] != 0) {
+				s = (s + 1) & mask;
+			}
+			keys[s] = key;
+			slots[s] = entry + 1;
+		}
+		
+		//Keeps the table at most half full
+		private void grow() {
+			long[] oldKeys = keys;
+			int[] oldSlots = slots;
+			keys = new long[oldKeys.length * 2];
+			slots = new int[oldSlots.length * 2];
+			for(int s=0; s<oldSlots.length; s++) {
+				if(oldSlots[s] != 0) {
+					insert(oldKeys[s], oldSlots[s] - 1);
+				}
+			}
+			sourceToEuro = Arrays.copyOf(sourceToEuro, sourceToEuro.length * 2);
+			targetToEuro = Arrays.copyOf(targetToEuro, targetToEuro.length * 2);
+			statuses = Arrays.copyOf(statuses, statuses.length * 2);
+		}
+		
+		private static int hash(long key) {
+			long h = key * 0x9E3779B97F4A7C15L;
+			return (int) (h ^ (h >>> 32));
+		}
+	}
+}
@@ -0,0 +1,26 @@
+package com.rr.eucentralbank.api;
+
+/**
+ * Status codes written by the batch conversion methods of {@link Forex}, one per converted amount.
+ * 
+ * @author Robert Rodrigues
+ *
+ */
+public final class ConversionStatus {
+
+	//The amount was converted
+	public static final byte OK = 0;
+	
+	//There is no data for the date
+	public static final byte DATE_UNAVAILABLE = 1;
+	
+	//The source currency has no rate on the date
+	public static final byte SOURCE_UNAVAILABLE = 2;
+	
+	//The target currency has no rate on the date
+	public static final byte TARGET_UNAVAILABLE = 3;
+	
+	private ConversionStatus() {
+	}
+	
+}
@@ -0,0 +1,248 @@
+package com.rr.eucentralbank.api;
+
+import java.util.Date;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.rr.eucentralbank.exception.CurrencyUnavailableException;
+import com.rr.eucentralbank.model.EpochDay;
+
+/**
+ * A cache in front of an {@link IndexedForex} instance for workloads which convert between many currency pairs
+ * on a small set of dates. On the first conversion for a date, the full matrix of cross rates between 
+ * every pair of currencies is worked out and stored as a flat array; later conversions on that date 
+ * are a single multiplication.
+ * 
+ * Lookups take no lock, so concurrent readers of a hot cache don't wait for each other. Matrices are 
+ * evicted in approximately least recently used order once either the number of dates or the memory 
+ * budget is exceeded: each matrix remembers the tick of the cache's clock when it was last read, the 
+ * clock only moves when a matrix is added, and the matrix with the oldest tick goes first. The cache 
+ * notices when the data of the {@link IndexedForex} instance changes and starts again, so rates from earlier 
+ * data are never returned.
+ * 
+ * Results are amount * (target / source), so they may differ from 
+ * {@link Forex#convertCurrency(Date, Double, String, String)} in the last bit.
+ * 
+ * @author Robert Rodrigues
+ *
+ */
+public class CrossRateCache {
+
+	private final IndexedForex forex;
+	private final int maxDates;
+	private final long maxBytes;
+	
+	//Replaced as a whole when the data of the IndexedForex instance changes
+	private volatile Generation generation;
+	
+	private final LongAdder hits = new LongAdder();
+	private final LongAdder misses = new LongAdder();
+	private final LongAdder evictions = new LongAdder();
+	
+	/**
+	 * @param forex the {@link IndexedForex} instance to read rates from
+	 * @param maxDates the most dates to hold matrices for
+	 * @param maxBytes the most memory the matrices may use
+	 */
+	public CrossRateCache(IndexedForex forex, int maxDates, long maxBytes) {
+		if(maxDates < 1 || maxBytes < 1) {
+			throw new IllegalArgumentException("Cache limits must be positive");
+		}
+		this.forex = forex;
+		this.maxDates = maxDates;
+		this.maxBytes = maxBytes;
+		this.generation = new Generation(forex.pinned());
+	}
+	
+	/**
+	 * Converts an amount between two currencies on a date, as {@link Forex#convertCurrency(Date, Double, String, String)}
+	 * 
+	 * @param date a {@link Date} object to search by
+	 * @param amount in the source currency
+	 * @param sourceCurrency String value of source currency name
+	 * @param targetCurrency String value of target currency name
+	 * @return Double value converted to the target currency
+	 * @throws CurrencyUnavailableException
+	 */
+	public Double convertCurrency(Date date, Double amount, String sourceCurrency, String targetCurrency) throws CurrencyUnavailableException {
+		Generation current = current();
+		int source = current.view.currencyHandle(sourceCurrency);
+		int target = current.view.currencyHandle(targetCurrency);
+		double[] matrix = current.matrix(EpochDay.fromDate(date));
+		int n = current.currencyCount;
+		//A currency's rate to itself is 1, or NaN if it has no rate on the date
+		if(matrix == null || source < 0 || Double.isNaN(matrix[source * n + source])) {
+			throw new CurrencyUnavailableException(sourceCurrency+" not available on "+date);
+		}
+		if(target < 0 || Double.isNaN(matrix[target * n + target])) {
+			throw new CurrencyUnavailableException(targetCurrency+" not available on "+date);
+		}
+		return amount * matrix[source * n + target];
+	}
+	
+	/**
+	 * Converts an amount between two currencies on a date
+	 * 
+	 * @param epochDay date as days since 1970-01-01
+	 * @param amount in the source currency
+	 * @param sourceCurrency String value of source currency name
+	 * @param targetCurrency String value of target currency name
+	 * @return the converted amount, or NaN if either currency has no rate on the date
+	 */
+	public double convert(int epochDay, double amount, String sourceCurrency, String targetCurrency) {
+		Generation current = current();
+		int source = current.view.currencyHandle(sourceCurrency);
+		int target = current.view.currencyHandle(targetCurrency);
+		double[] matrix = current.matrix(epochDay);
+		if(matrix == null || source < 0 || target < 0) {
+			return Double.NaN;
+		}
+		return amount * matrix[source * current.currencyCount + target];
+	}
+	
+	public long getHits() {
+		return hits.sum();
+	}
+	
+	public long getMisses() {
+		return misses.sum();
+	}
+	
+	public long getEvictions() {
+		return evictions.sum();
+	}
+	
+	/**
+	 * @return the number of dates which currently have a matrix
+	 */
+	public int size() {
+		return generation.matrices.size();
+	}
+	
+	/**
+	 * Returns the cache for the current data, starting a new one if the data has changed
+	 */
+	private Generation current() {
+		Generation current = generation;
+		if(current.version != forex.getVersion()) {
+			synchronized(this) {
+				current = generation;
+				if(current.version != forex.getVersion()) {
+					current = new Generation(forex.pinned());
+					generation = current;
+				}
+			}
+		}
+		return current;
+	}
+	
+	/**
+	 * A cross rate matrix and the tick of the cache's clock when it was last read
+	 */
+	private static class Entry {
+		
+		private final double[] matrix;
+		
+		private volatile long lastUsed;
+		
+		Entry(double[] matrix, long lastUsed) {
+			this.matrix = matrix;
+			this.lastUsed = lastUsed;
+		}
+	}
+	
+	/**
+	 * The matrices built from one version of the data
+	 */
+	private class Generation {
+		
+		private final IndexedForex view;
+		private final long version;
+		private final int currencyCount;
+		private final long matrixBytes;
+		
+		//Keyed by the epoch day widened to a long
+		private final ConcurrentHashMap<Long, Entry> matrices = new ConcurrentHashMap<>();
+		
+		//Moves on each new matrix, so a hit only writes its entry when something was added since its last read
+		private final AtomicLong clock = new AtomicLong();
+		
+		Generation(IndexedForex view) {
+			this.view = view;
+			this.version = view.getVersion();
+			this.currencyCount = view.getCurrencyNames().size();
+			this.matrixBytes = (long) currencyCount * currencyCount * Double.BYTES;
+		}
+		
+		/**
+		 * Returns the cross rate matrix for a date, building it if needed
+		 * 
+		 * @return the matrix, or null if there is no data for the date
+		 */
+		double[] matrix(int epochDay) {
+			Long key = (long) epochDay;
+			Entry entry = matrices.get(key);
+			if(entry != null) {
+				hits.increment();
+				long now = clock.get();
+				if(entry.lastUsed != now) {
+					entry.lastUsed = now;
+				}
+				return entry.matrix;
+			}
+			misses.increment();
+			int row = view.dateHandle(epochDay);
+			if(row < 0) {
+				return null;
+			}
+			Entry built = new Entry(build(row), clock.incrementAndGet());
+			//Another thread may have built the same matrix at the same time, in which case theirs is kept
+			Entry existing = matrices.putIfAbsent(key, built);
+			if(existing != null) {
+				return existing.matrix;
+			}
+			evict(key);
+			return built.matrix;
+		}
+		
+		private double[] build(int row) {
+			int n = currencyCount;
+			double[] toEuro = new double[n];
+			for(int c=0; c<n; c++) {
+				toEuro[c] = view.rate(row, c);
+			}
+			double[] matrix = new double[n * n];
+			for(int s=0; s<n; s++) {
+				for(int t=0; t<n; t++) {
+					matrix[s * n + t] = toEuro[t] / toEuro[s];
+				}
+			}
+			return matrix;
+		}
+		
+		/**
+		 * Removes the least recently read matrices while over either limit. Only threads which added a 
+		 * matrix get here, and they take turns, so readers are never held up.
+		 */
+		private synchronized void evict(Long added) {
+			//Always keep the newest matrix, even if it is bigger than the budget on its own
+			while(matrices.size() > 1 && (matrices.size() > maxDates || matrices.size() * matrixBytes > maxBytes)) {
+				Long eldest = null;
+				long oldest = Long.MAX_VALUE;
+				for(Map.Entry<Long, Entry> candidate : matrices.entrySet()) {
+					if(!candidate.getKey().equals(added) && candidate.getValue().lastUsed < oldest) {
+						eldest = candidate.getKey();
+						oldest = candidate.getValue().lastUsed;
+					}
+				}
+				if(eldest == null || matrices.remove(eldest) == null) {
+					return;
+				}
+				evictions.increment();
+			}
+		}
+	}
+	
+}
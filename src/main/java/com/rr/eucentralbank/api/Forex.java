@@ -3,22 +3,62 @@ package com.rr.eucentralbank.api;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
+import java.time.LocalDate;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.Map;
 
 import com.rr.eucentralbank.exception.CurrencyUnavailableException;
+import com.rr.eucentralbank.model.EpochDay;
 
+/**
+ * Loads the ECB reference rates and answers queries on them.
+ * 
+ * The rates are published per calendar day, so each query is available with the day given as a 
+ * {@link LocalDate}, as an epoch day (days since 1970-01-01, as {@link LocalDate#toEpochDay()}), or as a 
+ * {@link Date}. A {@link Date} is an instant, so it is taken as the day it falls on in the JVM's default 
+ * time zone: midnight or any other time of that day gives the same result. The {@link LocalDate} and 
+ * epoch day methods don't depend on the time zone and are the fastest. Days beyond the range of an int, 
+ * such as {@link LocalDate#MIN} and {@link LocalDate#MAX}, are clamped to it, so they can be used as open ended bounds.
+ * 
+ * Methods added since the first release have default implementations built on the original methods, so 
+ * existing implementations still compile: the epoch day forms of the queries call their {@link Date} forms, 
+ * and batches are converted a date at a time. Features which need an index of the data, such as percentiles, 
+ * handles, updates and refreshes, are in {@link IndexedForex}.
+ * 
+ * @author Robert Rodrigues
+ * 
+ */
 public interface Forex {
-
+	
 	/**
 	 * Allows an API caller to retrieve the reference rate data for a given Date for all available Currencies.
 	 * 
-	 * @param date a {@link Date} object to search by
+	 * @param date a {@link Date} object to search by, taken as a day in the default time zone
 	 * @return {@link HashMap} containing all available currencies and their respective rates
 	 */
 	Map<String, Double> readDataForDate(Date date);
-
+	
+	/**
+	 * Allows an API caller to retrieve the reference rate data for a given day for all available Currencies.
+	 * 
+	 * @param epochDay the day as days since 1970-01-01
+	 * @return {@link HashMap} containing all available currencies and their respective rates, empty if there is no data for the day
+	 */
+	default Map<String, Double> readDataForDate(int epochDay) {
+		return readDataForDate(EpochDay.toDate(epochDay));
+	}
+	
+	/**
+	 * As {@link #readDataForDate(int)}
+	 * 
+	 * @param date the day to search by
+	 * @return {@link HashMap} containing all available currencies and their respective rates
+	 */
+	default Map<String, Double> readDataForDate(LocalDate date) {
+		return readDataForDate(EpochDay.of(date));
+	}
+	
 	/**
 	 * Given a Date, source Currency (eg. JPY), target Currency (eg. GBP), and an
 	 * Amount, returns the Amount given converted from the first to the second Currency as
@@ -32,7 +72,35 @@ public interface Forex {
 	 * @throws CurrencyUnavailableException
 	 */
 	Double convertCurrency(Date date, Double amount, String sourceCurrency, String targetCurrency) throws CurrencyUnavailableException;
-
+	
+	/**
+	 * As {@link #convertCurrency(Date, Double, String, String)}, for a day given as an epoch day
+	 * 
+	 * @param epochDay the day as days since 1970-01-01
+	 * @param amount in the source currency
+	 * @param sourceCurrency String value of source currency name
+	 * @param targetCurrency String value of target currency name
+	 * @return value converted to the target currency
+	 * @throws CurrencyUnavailableException
+	 */
+	default double convertCurrency(int epochDay, double amount, String sourceCurrency, String targetCurrency) throws CurrencyUnavailableException {
+		return convertCurrency(EpochDay.toDate(epochDay), amount, sourceCurrency, targetCurrency);
+	}
+	
+	/**
+	 * As {@link #convertCurrency(int, double, String, String)}
+	 * 
+	 * @param date the day of the rates
+	 * @param amount in the source currency
+	 * @param sourceCurrency String value of source currency name
+	 * @param targetCurrency String value of target currency name
+	 * @return value converted to the target currency
+	 * @throws CurrencyUnavailableException
+	 */
+	default double convertCurrency(LocalDate date, double amount, String sourceCurrency, String targetCurrency) throws CurrencyUnavailableException {
+		return convertCurrency(EpochDay.of(date), amount, sourceCurrency, targetCurrency);
+	}
+	
 	/**
 	 * Given a start Date, an end Date and a Currency, return the highest reference
 	 * exchange rate that the Currency achieved for the period.
@@ -44,7 +112,33 @@ public interface Forex {
 	 * @throws CurrencyUnavailableException
 	 */
 	Double calculateHighest(Date start, Date end, String currency) throws CurrencyUnavailableException;
-
+	
+	/**
+	 * As {@link #calculateHighest(Date, Date, String)}, for days given as epoch days
+	 * 
+	 * @param startEpochDay first day (inclusive) as days since 1970-01-01
+	 * @param endEpochDay last day (inclusive) as days since 1970-01-01
+	 * @param currency String value of currency name
+	 * @return the highest exchange rate within the given time period
+	 * @throws CurrencyUnavailableException
+	 */
+	default double calculateHighest(int startEpochDay, int endEpochDay, String currency) throws CurrencyUnavailableException {
+		return calculateHighest(EpochDay.toDate(startEpochDay), EpochDay.toDate(endEpochDay), currency);
+	}
+	
+	/**
+	 * As {@link #calculateHighest(int, int, String)}
+	 * 
+	 * @param start first day (inclusive)
+	 * @param end last day (inclusive)
+	 * @param currency String value of currency name
+	 * @return the highest exchange rate within the given time period
+	 * @throws CurrencyUnavailableException
+	 */
+	default double calculateHighest(LocalDate start, LocalDate end, String currency) throws CurrencyUnavailableException {
+		return calculateHighest(EpochDay.of(start), EpochDay.of(end), currency);
+	}
+	
 	/**
 	 * Given a start Date, an end Date and a Currency, determine and return the average
 	 * reference exchange rate of that Currency for the period.
@@ -61,7 +155,82 @@ public interface Forex {
 	 * @throws CurrencyUnavailableException 
 	 */
 	Double calculateAverage(Date start, Date end, String currency, boolean removeNulls) throws CurrencyUnavailableException;
-
+	
+	/**
+	 * As {@link #calculateAverage(Date, Date, String, boolean)}, for days given as epoch days
+	 * 
+	 * @param startEpochDay first day (inclusive) as days since 1970-01-01
+	 * @param endEpochDay last day (inclusive) as days since 1970-01-01
+	 * @param currency String value of currency name
+	 * @param removeNulls boolean flag to decide what to do with null values
+	 * @return the average exchange rate within the given time period
+	 * @throws CurrencyUnavailableException
+	 */
+	default double calculateAverage(int startEpochDay, int endEpochDay, String currency, boolean removeNulls) throws CurrencyUnavailableException {
+		return calculateAverage(EpochDay.toDate(startEpochDay), EpochDay.toDate(endEpochDay), currency, removeNulls);
+	}
+	
+	/**
+	 * As {@link #calculateAverage(int, int, String, boolean)}
+	 * 
+	 * @param start first day (inclusive)
+	 * @param end last day (inclusive)
+	 * @param currency String value of currency name
+	 * @param removeNulls boolean flag to decide what to do with null values
+	 * @return the average exchange rate within the given time period
+	 * @throws CurrencyUnavailableException
+	 */
+	default double calculateAverage(LocalDate start, LocalDate end, String currency, boolean removeNulls) throws CurrencyUnavailableException {
+		return calculateAverage(EpochDay.of(start), EpochDay.of(end), currency, removeNulls);
+	}
+	
+	/**
+	 * Converts a batch of amounts, each with its own date and pair of currencies, as 
+	 * {@link #convertCurrency(Date, Double, String, String)} would. All arrays are indexed the same way.
+	 * Instead of throwing, a failed conversion writes NaN to the result and a {@link ConversionStatus} 
+	 * code to the status array. By default the rates of each date are read with {@link #readDataForDate(int)}, 
+	 * once for each run of amounts on the same date; {@link ForexImpl} splits large batches across the cores of the machine.
+	 * 
+	 * @param epochDays date of each amount as days since 1970-01-01
+	 * @param amounts amounts in the source currencies
+	 * @param sourceCurrencies String value of each source currency name
+	 * @param targetCurrencies String value of each target currency name
+	 * @param results receives the converted amounts
+	 * @param statuses receives a {@link ConversionStatus} code for each amount
+	 * @return the number of amounts which could not be converted
+	 * @throws IllegalArgumentException if the arrays are not the same length
+	 */
+	default int convertCurrencies(int[] epochDays, double[] amounts, String[] sourceCurrencies, String[] targetCurrencies, double[] results, byte[] statuses) {
+		int length = amounts.length;
+		if(epochDays.length != length || sourceCurrencies.length != length || targetCurrencies.length != length 
+				|| results.length < length || statuses.length < length) {
+			throw new IllegalArgumentException("Batch arrays must have the same length");
+		}
+		int failures = 0;
+		Map<String, Double> rates = null;
+		for(int i=0; i<length; i++) {
+			if(i == 0 || epochDays[i] != epochDays[i-1]) {
+				rates = readDataForDate(epochDays[i]);
+			}
+			Double source = rates.get(sourceCurrencies[i]);
+			Double target = rates.get(targetCurrencies[i]);
+			if(rates.isEmpty()) {
+				statuses[i] = ConversionStatus.DATE_UNAVAILABLE;
+			} else if(source == null) {
+				statuses[i] = ConversionStatus.SOURCE_UNAVAILABLE;
+			} else if(target == null) {
+				statuses[i] = ConversionStatus.TARGET_UNAVAILABLE;
+			} else {
+				statuses[i] = ConversionStatus.OK;
+				results[i] = amounts[i] / source * target;
+				continue;
+			}
+			results[i] = Double.NaN;
+			failures++;
+		}
+		return failures;
+	}
+	
 	/**
 	 * This method accepts a ZIP file, containing the CSV data to be parsed and populates the in-memory data model.
 	 * 
@@ -69,19 +238,18 @@ public interface Forex {
 	 * @throws IOException
 	 */
 	void loadDataFromZip(File zipFile) throws IOException;
-
+	
 	/**
 	 * This method streams the data from the live site and populates the in-memory data model.
 	 * 
 	 * @throws IOException
 	 */
 	void loadDataLiveSite() throws IOException;
-
+	
 	/**
 	 * This method streams the data and populates the in-memory data model.
 	 * 
 	 * @throws IOException
 	 */
 	void loadDataFromInputStream(InputStream in) throws IOException;
-
 }
\ No newline at end of file
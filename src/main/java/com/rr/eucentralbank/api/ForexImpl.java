@@ -1,35 +1,47 @@
 package com.rr.eucentralbank.api;
 
 import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.InputStreamReader;
-import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.net.URI;
 import java.net.URL;
-import java.text.ParseException;
-import java.text.SimpleDateFormat;
+import java.net.http.HttpClient;
+import java.time.LocalDate;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
 import java.util.Date;
 import java.util.DoubleSummaryStatistics;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.Objects;
-import java.util.Optional;
 import java.util.Properties;
-import java.util.function.Function;
-import java.util.stream.Collectors;
-import java.util.zip.ZipEntry;
-import java.util.zip.ZipInputStream;
-
-import org.apache.commons.csv.CSVFormat;
-import org.apache.commons.csv.CSVParser;
-import org.apache.commons.csv.CSVRecord;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Flow;
+import java.util.concurrent.ForkJoinPool;
 
+import com.rr.eucentralbank.analytics.BucketAggregator;
+import com.rr.eucentralbank.analytics.CalendarBucket;
+import com.rr.eucentralbank.analytics.OhlcTable;
+import com.rr.eucentralbank.analytics.RollingSeries;
+import com.rr.eucentralbank.analytics.RollingWindow;
 import com.rr.eucentralbank.exception.CurrencyUnavailableException;
+import com.rr.eucentralbank.exception.UnsupportedLayoutException;
+import com.rr.eucentralbank.model.EpochDay;
 import com.rr.eucentralbank.model.ExchangeRates;
 import com.rr.eucentralbank.model.ExchangeRatesRow;
+import com.rr.eucentralbank.model.OrderStatisticsIndex;
+import com.rr.eucentralbank.model.RangeAggregateIndex;
+import com.rr.eucentralbank.metrics.ForexMetrics;
+import com.rr.eucentralbank.metrics.ForexMetrics.Query;
+import com.rr.eucentralbank.metrics.LoadSummary;
+import com.rr.eucentralbank.metrics.MeteredInputStream;
+import com.rr.eucentralbank.parser.EcbCsvParser;
+import com.rr.eucentralbank.snapshot.Snapshot;
 
 /**
  * This class provides a set of functions which allows the calling code to easily load CSV data, and 
@@ -38,20 +50,205 @@ import com.rr.eucentralbank.model.ExchangeRatesRow;
  * @author Robert Rodrigues
  *
  */
-public class ForexImpl implements Forex {
+public class ForexImpl implements IndexedForex, AutoCloseable {
+	
+	//This is the main model holding he data in memory. A published model is never changed, 
+	//loads replace it with a new one, so each query reads the field once and uses that model throughout.
+	private volatile ExchangeRates exchangeRates = new ExchangeRates(new ArrayList<>()).publish();
+	
+	private final Properties config;
+	
+	//Finds and reads the CSV file in a zip
+	private final ZipCsvReader csv;
+	
+	private static final String ISO_DATE_FORMAT = "yyyy-MM-dd";
+	
+	//Used for any property which is not configured
+	private static final Properties DEFAULT_CONFIG = new Properties();
+	static {
+		DEFAULT_CONFIG.setProperty("zip.url", "https://www.ecb.europa.eu/stats/eurofxref/eurofxref-hist.zip");
+		DEFAULT_CONFIG.setProperty("csv.filename", "eurofxref-hist.csv");
+		DEFAULT_CONFIG.setProperty("date.format", ISO_DATE_FORMAT);
+	}
 	
-	//This is the main model holding he data in memory.
-	private ExchangeRates exchangeRates;
+	//True for views created by pinned(), which can't load data
+	private final boolean pinned;
 	
-	private Properties config;
+	//When set, large files are split into chunks which are parsed concurrently on this pool
+	private volatile ForkJoinPool parsePool;
 	
+	//Receives load timings and query latencies, queries skip the clock entirely while this is NONE
+	private volatile ForexMetrics metrics = ForexMetrics.NONE;
+	
+	//Downloads and parses refreshes
+	private final UriRefresher refresher;
+	
+	//How the current data was loaded, which updates and refreshes keep to
+	private volatile LoadOptions loadOptions = LoadOptions.ALL;
+	
+	//The shared data this instance reads, for instances opened from a ForexRegistry
+	private final ForexRegistry.Dataset dataset;
+	
+	/**
+	 * Creates an instance configured by config.properties in the working directory. 
+	 * Without the file the ECB site and file names are used.
+	 * 
+	 * @throws UncheckedIOException if the file exists but can't be read
+	 */
 	public ForexImpl() {
-		config = new Properties();
-		try(FileInputStream in = new FileInputStream("config.properties")) {
-			config.load(in);
-		} catch (IOException e) {
-			e.printStackTrace();
+		this(readConfig(new File("config.properties")));
+	}
+	
+	/**
+	 * Creates an instance with the given configuration. Properties which are not given keep 
+	 * their defaults: the ECB site for zip.url, eurofxref-hist.csv for csv.filename and yyyy-MM-dd for date.format.
+	 * 
+	 * @param config the configuration, which is copied
+	 */
+	public ForexImpl(Properties config) {
+		this(config, null);
+	}
+	
+	/**
+	 * Constructor for an instance which reads the data shared by a {@link ForexRegistry}
+	 * 
+	 * @param config the configuration, which is copied
+	 * @param dataset the shared data, or null for an instance which loads its own
+	 */
+	ForexImpl(Properties config, ForexRegistry.Dataset dataset) {
+		this.config = withDefaults(config);
+		String pattern = this.config.getProperty("date.format");
+		this.csv = new ZipCsvReader(this.config.getProperty("csv.filename"), 
+				pattern.equals(ISO_DATE_FORMAT) ? null : DateTimeFormatter.ofPattern(pattern));
+		this.refresher = new UriRefresher(this);
+		this.dataset = dataset;
+		this.pinned = false;
+	}
+	
+	/**
+	 * Constructor for a read-only view of a single model
+	 * 
+	 * @param source the instance the view is taken from
+	 * @param exchangeRates the model the view reads
+	 */
+	private ForexImpl(ForexImpl source, ExchangeRates exchangeRates) {
+		this.config = source.config;
+		this.csv = source.csv;
+		this.refresher = new UriRefresher(this);
+		this.exchangeRates = exchangeRates;
+		this.metrics = source.metrics;
+		this.dataset = null;
+		this.pinned = true;
+	}
+	
+	/**
+	 * Copies a configuration, adding the defaults for any properties it does not set
+	 * 
+	 * @param config the configuration
+	 * @return a new {@link Properties}
+	 */
+	static Properties withDefaults(Properties config) {
+		Properties copy = new Properties(DEFAULT_CONFIG);
+		for(String name : config.stringPropertyNames()) {
+			copy.setProperty(name, config.getProperty(name));
+		}
+		return copy;
+	}
+	
+	/**
+	 * Reads a configuration file
+	 * 
+	 * @param file the properties file
+	 * @return the properties in the file, or none if it does not exist
+	 * @throws UncheckedIOException if the file exists but can't be read
+	 */
+	static Properties readConfig(File file) {
+		Properties config = new Properties();
+		if(file.exists()) {
+			try(FileInputStream in = new FileInputStream(file)) {
+				config.load(in);
+			} catch (IOException e) {
+				throw new UncheckedIOException("Can't read the configuration in " + file, e);
+			}
 		}
+		return config;
+	}
+	
+	/**
+	 * Releases the data. An instance opened from a {@link ForexRegistry} gives up its share, and the 
+	 * shared data is freed once every instance sharing it is closed. The instance has no data afterwards.
+	 */
+	@Override
+	public void close() {
+		exchangeRates = new ExchangeRates(new ArrayList<>()).publish();
+		if(dataset != null) {
+			dataset.release(this);
+		}
+	}
+	
+	/**
+	 * Returns the version of the data currently loaded. It changes with every load or update which changes the data.
+	 * 
+	 * @return the version number
+	 */
+	@Override
+	public long getVersion() {
+		return exchangeRates.getVersion();
+	}
+	
+	/**
+	 * Returns a read-only view of the data as it is now. Queries on the view keep using the same
+	 * data even if this instance is reloaded, and {@link #getVersion()} on the view tells which 
+	 * version they used. The view can't load data.
+	 * 
+	 * @return {@link IndexedForex} view of the current data
+	 */
+	@Override
+	public IndexedForex pinned() {
+		return new ForexImpl(this, exchangeRates);
+	}
+	
+	/**
+	 * Enables parallel loading. The CSV file is split on line boundaries and the parts are parsed 
+	 * concurrently on the given pool, then merged in date order. Small files are still parsed on 
+	 * the calling thread. Large batches passed to {@link #convertCurrencies}, parallel aggregates and the 
+	 * rolling statistics of every currency are split across the same pool.
+	 * 
+	 * @param parsePool the {@link ForkJoinPool} to parse on, or null to always parse on the calling thread
+	 */
+	public void setParsePool(ForkJoinPool parsePool) {
+		this.parsePool = parsePool;
+	}
+	
+	/**
+	 * Reports load timings and query latencies to the given {@link ForexMetrics}. Views created by 
+	 * {@link #pinned()} afterwards report to the same one.
+	 * 
+	 * @param metrics where to report, or null to stop reporting
+	 */
+	public void setMetrics(ForexMetrics metrics) {
+		this.metrics = metrics == null ? ForexMetrics.NONE : metrics;
+	}
+	
+	/**
+	 * Sets the client used by {@link #refreshLiveSite()}, for example to use a proxy or a given executor. 
+	 * By default a client which follows redirects is created on first use.
+	 * 
+	 * @param httpClient the {@link HttpClient} to download with
+	 */
+	public void setHttpClient(HttpClient httpClient) {
+		refresher.setHttpClient(httpClient);
+	}
+	
+	/**
+	 * Sets the executor which unzips and parses the data downloaded by {@link #refreshLiveSite()}. 
+	 * Reading the body blocks until the data arrives, so this should not be the executor of the 
+	 * {@link HttpClient}, which delivers the data. By default a shared pool of daemon threads is used.
+	 * 
+	 * @param refreshExecutor the {@link Executor} to parse on, or null for the default
+	 */
+	public void setRefreshExecutor(Executor refreshExecutor) {
+		refresher.setExecutor(refreshExecutor);
 	}
 	
 	/**
@@ -62,12 +259,24 @@ public class ForexImpl implements Forex {
 	 */
 	@Override
 	public Map<String, Double> readDataForDate(Date date) {
-		Optional<ExchangeRatesRow> rowData = exchangeRates.streamRows().filter(e -> e.getDate().equals(date)).findAny();
-		if(rowData.isPresent()) {
-			return rowData.get().toMap();
-		} else {
-			return new HashMap<>();
-		}
+		return readDataForDate(EpochDay.fromDate(date));
+	}
+	
+	/**
+	 * Allows an API caller to retrieve the reference rate data for a given day for all available Currencies.
+	 * 
+	 * @param epochDay the day as days since 1970-01-01
+	 * @return {@link HashMap} containing all available currencies and their respective rates
+	 */
+	@Override
+	public Map<String, Double> readDataForDate(int epochDay) {
+		ForexMetrics metrics = this.metrics;
+		long started = startTimer(metrics);
+		ExchangeRates rates = exchangeRates;
+		int row = rates.indexOf(epochDay);
+		Map<String, Double> result = row >= 0 ? new ExchangeRatesRow(rates, row).toMap() : new HashMap<>();
+		stopTimer(metrics, Query.READ_DATA_FOR_DATE, started, row >= 0 ? 1 : 0);
+		return result;
 	}
 	
 	/**
@@ -84,17 +293,158 @@ public class ForexImpl implements Forex {
 	 */
 	@Override
 	public Double convertCurrency(Date date, Double amount, String sourceCurrency, String targetCurrency) throws CurrencyUnavailableException {
-		Map<String, Double> row = readDataForDate(date);
-		Double sourceToEuro = row.get(sourceCurrency);
-		Double targetToEuro = row.get(targetCurrency);
-		if(sourceToEuro == null) {
-			throw new CurrencyUnavailableException(sourceCurrency+" not available on "+date);
+		return convertCurrency(EpochDay.fromDate(date), amount, sourceCurrency, targetCurrency);
+	}
+	
+	/**
+	 * Given a day, source Currency (eg. JPY), target Currency (eg. GBP), and an
+	 * Amount, returns the Amount given converted from the first to the second Currency as
+	 * it would have been on that day (assuming zero fees).
+	 * 
+	 * @param epochDay the day as days since 1970-01-01
+	 * @param amount in the source currency
+	 * @param sourceCurrency String value of source currency name
+	 * @param targetCurrency String value of target currency name
+	 * @return value converted to the target currency
+	 * @throws CurrencyUnavailableException
+	 */
+	@Override
+	public double convertCurrency(int epochDay, double amount, String sourceCurrency, String targetCurrency) throws CurrencyUnavailableException {
+		ForexMetrics metrics = this.metrics;
+		long started = startTimer(metrics);
+		ExchangeRates rates = exchangeRates;
+		int row = rates.indexOf(epochDay);
+		try {
+			int source = rates.indexOfCurrency(sourceCurrency);
+			int target = rates.indexOfCurrency(targetCurrency);
+			if(Double.isNaN(rate(rates, row, source))) {
+				throw new CurrencyUnavailableException(sourceCurrency+" not available on "+LocalDate.ofEpochDay(epochDay));
+			}
+			if(Double.isNaN(rate(rates, row, target))) {
+				throw new CurrencyUnavailableException(targetCurrency+" not available on "+LocalDate.ofEpochDay(epochDay));
+			}
+			return convert(rates, row, amount, source, target);
+		} finally {
+			stopTimer(metrics, Query.CONVERT_CURRENCY, started, row >= 0 ? 1 : 0);
 		}
-		if(targetToEuro == null) {
-			throw new CurrencyUnavailableException(targetCurrency+" not available on "+date);
+	}
+	
+	/**
+	 * As {@link IndexedForex#aggregate(int, int, CalendarBucket, List, boolean)}. In parallel the work is 
+	 * split across the pool set by {@link #setParsePool(ForkJoinPool)}, or done on the calling thread if there is none.
+	 */
+	@Override
+	public OhlcTable aggregate(int startEpochDay, int endEpochDay, CalendarBucket bucket, List<String> currencies, boolean parallel) {
+		return BucketAggregator.aggregate(exchangeRates, startEpochDay, endEpochDay, bucket, currencies, parallel ? parsePool : null);
+	}
+	
+	@Override
+	public RollingSeries rollingStatistics(String currency, int window, boolean removeNulls) {
+		return RollingWindow.compute(exchangeRates, currency, window, removeNulls);
+	}
+	
+	/**
+	 * As {@link IndexedForex#rollingStatistics(int, boolean)}. The currencies are computed in parallel 
+	 * on the pool set by {@link #setParsePool(ForkJoinPool)}, or one after another if there is none.
+	 */
+	@Override
+	public Map<String, RollingSeries> rollingStatistics(int window, boolean removeNulls) {
+		return RollingWindow.computeAll(exchangeRates, window, removeNulls, parsePool);
+	}
+	
+	/**
+	 * Retrieves the reference rates of the given day, or of the latest earlier day which has them
+	 * 
+	 * @param epochDay the day as days since 1970-01-01
+	 * @param maxLookbackDays how many days before the given day to accept, 0 for that day only
+	 * @return the rates and the day they are from, or null if there is no data in the period
+	 */
+	@Override
+	public AsOf<Map<String, Double>> readDataAsOf(int epochDay, int maxLookbackDays) {
+		ForexMetrics metrics = this.metrics;
+		long started = startTimer(metrics);
+		ExchangeRates rates = exchangeRates;
+		int row = rates.floorIndex(epochDay, checkLookback(maxLookbackDays));
+		AsOf<Map<String, Double>> result = row < 0 ? null 
+				: new AsOf<>(new ExchangeRatesRow(rates, row).toMap(), epochDay, rates.getEpochDay(row));
+		stopTimer(metrics, Query.READ_DATA_AS_OF, started, row >= 0 ? 1 : 0);
+		return result;
+	}
+	
+	/**
+	 * Converts an amount with the rates of the given day, or of the latest earlier day which has them
+	 * 
+	 * @param epochDay the day as days since 1970-01-01
+	 * @param amount in the source currency
+	 * @param sourceCurrency String value of source currency name
+	 * @param targetCurrency String value of target currency name
+	 * @param maxLookbackDays how many days before the given day to accept, 0 for that day only
+	 * @return the converted value and the day of the rates used
+	 * @throws CurrencyUnavailableException
+	 */
+	@Override
+	public AsOf<Double> convertCurrencyAsOf(int epochDay, double amount, String sourceCurrency, String targetCurrency, int maxLookbackDays) 
+			throws CurrencyUnavailableException {
+		ForexMetrics metrics = this.metrics;
+		long started = startTimer(metrics);
+		ExchangeRates rates = exchangeRates;
+		int row = rates.floorIndex(epochDay, checkLookback(maxLookbackDays));
+		try {
+			if(row < 0) {
+				throw new CurrencyUnavailableException("No data in the "+maxLookbackDays+" days up to "+LocalDate.ofEpochDay(epochDay));
+			}
+			int source = rates.indexOfCurrency(sourceCurrency);
+			int target = rates.indexOfCurrency(targetCurrency);
+			LocalDate found = LocalDate.ofEpochDay(rates.getEpochDay(row));
+			if(Double.isNaN(rate(rates, row, source))) {
+				throw new CurrencyUnavailableException(sourceCurrency+" not available on "+found);
+			}
+			if(Double.isNaN(rate(rates, row, target))) {
+				throw new CurrencyUnavailableException(targetCurrency+" not available on "+found);
+			}
+			return new AsOf<>(convert(rates, row, amount, source, target), epochDay, rates.getEpochDay(row));
+		} finally {
+			stopTimer(metrics, Query.CONVERT_CURRENCY_AS_OF, started, row >= 0 ? 1 : 0);
 		}
-		
-		return amount / sourceToEuro * targetToEuro;
+	}
+	
+	private static int checkLookback(int maxLookbackDays) {
+		if(maxLookbackDays < 0) {
+			throw new IllegalArgumentException("The lookback can't be negative: "+maxLookbackDays);
+		}
+		return maxLookbackDays;
+	}
+	
+	/**
+	 * Converts a batch of amounts, each with its own date and pair of currencies, as 
+	 * {@link #convertCurrency(Date, Double, String, String)} would. All arrays are indexed the same way.
+	 * Instead of throwing, a failed conversion writes NaN to the result and a {@link ConversionStatus} 
+	 * code to the status array. When a parse pool is set with {@link #setParsePool(ForkJoinPool)}, 
+	 * large batches are split across that pool, otherwise the batch is converted on the calling thread.
+	 * 
+	 * @param epochDays date of each amount as days since 1970-01-01
+	 * @param amounts amounts in the source currencies
+	 * @param sourceCurrencies String value of each source currency name
+	 * @param targetCurrencies String value of each target currency name
+	 * @param results receives the converted amounts
+	 * @param statuses receives a {@link ConversionStatus} code for each amount
+	 * @return the number of amounts which could not be converted
+	 */
+	@Override
+	public int convertCurrencies(int[] epochDays, double[] amounts, String[] sourceCurrencies, String[] targetCurrencies, double[] results, byte[] statuses) {
+		int length = amounts.length;
+		if(epochDays.length != length || sourceCurrencies.length != length || targetCurrencies.length != length 
+				|| results.length < length || statuses.length < length) {
+			throw new IllegalArgumentException("Batch arrays must have the same length");
+		}
+		ForexMetrics metrics = this.metrics;
+		long started = startTimer(metrics);
+		//Every part of the batch uses the same model, even if a reload happens meanwhile
+		ExchangeRates rates = exchangeRates;
+		int failures = BatchConverter.convert(rates, epochDays, amounts, sourceCurrencies, targetCurrencies, 
+				results, statuses, parsePool);
+		stopTimer(metrics, Query.CONVERT_CURRENCIES, started, length);
+		return failures;
 	}
 	
 	/**
@@ -109,9 +459,25 @@ public class ForexImpl implements Forex {
 	 */
 	@Override
 	public Double calculateHighest(Date start, Date end, String currency) throws CurrencyUnavailableException {
-		DoubleSummaryStatistics statistics = statistics(start, end, currency, true);
+		return calculateHighest(EpochDay.fromDate(start), EpochDay.fromDate(end), currency);
+	}
+	
+	/**
+	 * Given a first and last day and a Currency, return the highest reference
+	 * exchange rate that the Currency achieved for the period.
+	 * 
+	 * @param startEpochDay first day (inclusive) as days since 1970-01-01
+	 * @param endEpochDay last day (inclusive) as days since 1970-01-01
+	 * @param currency String value of currency name
+	 * @return the highest exchange rate within the given time period
+	 * @throws CurrencyUnavailableException
+	 */
+	@Override
+	public double calculateHighest(int startEpochDay, int endEpochDay, String currency) throws CurrencyUnavailableException {
+		DoubleSummaryStatistics statistics = statistics(startEpochDay, endEpochDay, currency, true, Query.CALCULATE_HIGHEST);
 		if(statistics.getCount() == 0) {
-			throw new CurrencyUnavailableException(currency+" not available between "+start+" and "+end);
+			throw new CurrencyUnavailableException(currency+" not available between "
+					+LocalDate.ofEpochDay(startEpochDay)+" and "+LocalDate.ofEpochDay(endEpochDay));
 		} else {
 			return statistics.getMax();
 		}
@@ -134,14 +500,164 @@ public class ForexImpl implements Forex {
 	 */
 	@Override
 	public Double calculateAverage(Date start, Date end, String currency, boolean removeNulls) throws CurrencyUnavailableException {
-		DoubleSummaryStatistics statistics = statistics(start, end, currency, removeNulls);
+		return calculateAverage(EpochDay.fromDate(start), EpochDay.fromDate(end), currency, removeNulls);
+	}
+	
+	/**
+	 * Given a first and last day and a Currency, determine and return the average
+	 * reference exchange rate of that Currency for the period.
+	 * 
+	 * @param startEpochDay first day (inclusive) as days since 1970-01-01
+	 * @param endEpochDay last day (inclusive) as days since 1970-01-01
+	 * @param currency String value of currency name
+	 * @param removeNulls boolean flag to decide what to do with null values
+	 * @return the average exchange rate within the given time period
+	 * @throws CurrencyUnavailableException 
+	 */
+	@Override
+	public double calculateAverage(int startEpochDay, int endEpochDay, String currency, boolean removeNulls) throws CurrencyUnavailableException {
+		DoubleSummaryStatistics statistics = statistics(startEpochDay, endEpochDay, currency, removeNulls, Query.CALCULATE_AVERAGE);
 		if(statistics.getCount() == 0) {
-			throw new CurrencyUnavailableException(currency+" not available between "+start+" and "+end);
+			throw new CurrencyUnavailableException(currency+" not available between "
+					+LocalDate.ofEpochDay(startEpochDay)+" and "+LocalDate.ofEpochDay(endEpochDay));
 		} else {
 			return statistics.getAverage();
 		}
 	}
 	
+	/**
+	 * Given a first and last day and a Currency, return the rate below which the given percentage 
+	 * of the Currency's reference rates for the period fall, interpolated between two rates.
+	 * 
+	 * @param startEpochDay first day (inclusive) as days since 1970-01-01
+	 * @param endEpochDay last day (inclusive) as days since 1970-01-01
+	 * @param currency String value of currency name
+	 * @param percentile from 0 for the lowest rate to 100 for the highest
+	 * @param removeNulls boolean flag to decide what to do with null values
+	 * @return the percentile of the exchange rates within the given time period
+	 * @throws CurrencyUnavailableException 
+	 */
+	@Override
+	public double calculatePercentile(int startEpochDay, int endEpochDay, String currency, double percentile, boolean removeNulls) throws CurrencyUnavailableException {
+		if(!(percentile >= 0 && percentile <= 100)) {
+			throw new IllegalArgumentException("Percentile must be between 0 and 100: "+percentile);
+		}
+		ForexMetrics metrics = this.metrics;
+		long started = startTimer(metrics);
+		ExchangeRates rates = exchangeRates;
+		int first = rates.lowerBound(startEpochDay);
+		int last = rates.upperBound(endEpochDay);
+		OrderStatisticsIndex index = orderStatistics(rates, currency);
+		int nulls = nulls(index, first, last, removeNulls);
+		int count = count(index, first, last) + nulls;
+		double result = count == 0 ? Double.NaN : percentile(index, first, last, nulls, count, percentile);
+		stopTimer(metrics, Query.CALCULATE_PERCENTILE, started, Math.max(0, last - first));
+		if(count == 0) {
+			throw new CurrencyUnavailableException(currency+" not available between "
+					+LocalDate.ofEpochDay(startEpochDay)+" and "+LocalDate.ofEpochDay(endEpochDay));
+		}
+		return result;
+	}
+	
+	/**
+	 * Given a first and last day, a Currency and a rate, return the percentage of the Currency's 
+	 * reference rates for the period which are lower than the rate, with equal rates counted as half lower.
+	 * 
+	 * @param startEpochDay first day (inclusive) as days since 1970-01-01
+	 * @param endEpochDay last day (inclusive) as days since 1970-01-01
+	 * @param currency String value of currency name
+	 * @param rate the rate to rank
+	 * @param removeNulls boolean flag to decide what to do with null values
+	 * @return the percentile rank, from 0 to 100
+	 * @throws CurrencyUnavailableException 
+	 */
+	@Override
+	public double calculatePercentRank(int startEpochDay, int endEpochDay, String currency, double rate, boolean removeNulls) throws CurrencyUnavailableException {
+		if(Double.isNaN(rate)) {
+			throw new IllegalArgumentException("Rate must be a number");
+		}
+		ForexMetrics metrics = this.metrics;
+		long started = startTimer(metrics);
+		ExchangeRates rates = exchangeRates;
+		int first = rates.lowerBound(startEpochDay);
+		int last = rates.upperBound(endEpochDay);
+		OrderStatisticsIndex index = orderStatistics(rates, currency);
+		int nulls = nulls(index, first, last, removeNulls);
+		int count = count(index, first, last) + nulls;
+		int lower = countLower(index, first, last, nulls, rate);
+		int equal = countLowerOrEqual(index, first, last, nulls, rate) - lower;
+		stopTimer(metrics, Query.CALCULATE_PERCENT_RANK, started, Math.max(0, last - first));
+		if(count == 0) {
+			throw new CurrencyUnavailableException(currency+" not available between "
+					+LocalDate.ofEpochDay(startEpochDay)+" and "+LocalDate.ofEpochDay(endEpochDay));
+		}
+		return 100 * (lower + equal / 2.0) / count;
+	}
+	
+	/**
+	 * Returns the order statistics of a currency, or null if the currency is unknown. 
+	 * An unknown currency behaves like a column of nulls.
+	 */
+	private static OrderStatisticsIndex orderStatistics(ExchangeRates rates, String currency) {
+		int column = rates.indexOfCurrency(currency);
+		return column < 0 ? null : rates.getOrderStatistics(column);
+	}
+	
+	/**
+	 * Number of non-null rates in a range of rows
+	 */
+	private static int count(OrderStatisticsIndex index, int first, int last) {
+		return index == null ? 0 : index.count(first, last);
+	}
+	
+	/**
+	 * Number of nulls in a range of rows which are treated as zero, none if they are removed
+	 */
+	private static int nulls(OrderStatisticsIndex index, int first, int last, boolean removeNulls) {
+		return removeNulls ? 0 : Math.max(0, last - first) - count(index, first, last);
+	}
+	
+	/**
+	 * Finds the k-th lowest rate of a range of rows, with the given number of nulls treated as zero
+	 */
+	private static double kthLowest(OrderStatisticsIndex index, int first, int last, int nulls, int k) {
+		//The nulls come straight after any rates below zero
+		int negative = index == null || nulls == 0 ? 0 : index.countLower(first, last, 0);
+		if(k < negative) {
+			return index.kthLowest(first, last, k);
+		} else if(k < negative + nulls) {
+			return 0;
+		} else {
+			return index == null ? Double.NaN : index.kthLowest(first, last, k - nulls);
+		}
+	}
+	
+	/**
+	 * Interpolates between the two rates closest to the percentile, of the count rates of a range of rows
+	 */
+	private static double percentile(OrderStatisticsIndex index, int first, int last, int nulls, int count, double percentile) {
+		double position = percentile / 100 * (count - 1);
+		int lower = (int) position;
+		double rate = kthLowest(index, first, last, nulls, lower);
+		if(position > lower) {
+			rate += (position - lower) * (kthLowest(index, first, last, nulls, lower + 1) - rate);
+		}
+		return rate;
+	}
+	
+	/**
+	 * Counts the rates of a range of rows lower than the given rate, with the given number of nulls treated as zero
+	 */
+	private static int countLower(OrderStatisticsIndex index, int first, int last, int nulls, double rate) {
+		int lower = index == null ? 0 : index.countLower(first, last, rate);
+		return rate > 0 ? lower + nulls : lower;
+	}
+	
+	private static int countLowerOrEqual(OrderStatisticsIndex index, int first, int last, int nulls, double rate) {
+		int lower = index == null ? 0 : index.countLowerOrEqual(first, last, rate);
+		return rate >= 0 ? lower + nulls : lower;
+	}
+	
 	/**
 	 * Given a start Date, an end Date and a Currency, return
 	 * statistics on the exchange rates for the period.
@@ -157,16 +673,182 @@ public class ForexImpl implements Forex {
 	 * @return List<Double> the exchanges rate within the given time period
 	 */
 	public DoubleSummaryStatistics statistics(Date start, Date end, String currency, boolean removeNulls) {
-		return exchangeRates.streamRows()
-			.filter(r -> r.getDate().after(start) || r.getDate().equals(start))
-			.filter(r -> r.getDate().before(end) || r.getDate().equals(end))
-			//At this point we have all ExchangeRateRows between the dates (inclusive)
-			.map(e -> e.toMap().get(currency))
-			//Now just the rate values for given currency
-			.filter(removeNulls ? Objects::nonNull : v -> true)
-			.map(v -> v == null ? 0 : v) //Any nulls not already removed, treat as zero. This effects the average
-			.mapToDouble(v -> v)
-			.summaryStatistics();
+		return statistics(EpochDay.fromDate(start), EpochDay.fromDate(end), currency, removeNulls);
+	}
+	
+	/**
+	 * As {@link #statistics(Date, Date, String, boolean)}, for days given as epoch days
+	 * 
+	 * @param startEpochDay first day (inclusive) as days since 1970-01-01
+	 * @param endEpochDay last day (inclusive) as days since 1970-01-01
+	 * @param currency String value of currency name
+	 * @param removeNulls boolean flag to decide what to do with null values
+	 * @return statistics of the exchange rates within the given time period
+	 */
+	public DoubleSummaryStatistics statistics(int startEpochDay, int endEpochDay, String currency, boolean removeNulls) {
+		return statistics(startEpochDay, endEpochDay, currency, removeNulls, Query.STATISTICS);
+	}
+	
+	/**
+	 * Calculates the statistics, reporting the time taken as the given query
+	 */
+	private DoubleSummaryStatistics statistics(int startEpochDay, int endEpochDay, String currency, boolean removeNulls, Query query) {
+		ForexMetrics metrics = this.metrics;
+		long started = startTimer(metrics);
+		//Rows between the dates (inclusive)
+		ExchangeRates rates = exchangeRates;
+		int first = rates.lowerBound(startEpochDay);
+		int last = rates.upperBound(endEpochDay);
+		int rows = Math.max(0, last - first);
+		DoubleSummaryStatistics statistics = statistics(rates, first, last, currency, removeNulls);
+		stopTimer(metrics, query, started, rows);
+		return statistics;
+	}
+	
+	/**
+	 * Calculates the statistics of a range of rows
+	 */
+	private static DoubleSummaryStatistics statistics(ExchangeRates rates, int first, int last, String currency, boolean removeNulls) {
+		int rows = Math.max(0, last - first);
+		int column = rates.indexOfCurrency(currency);
+		if(column < 0) {
+			//An unknown currency behaves like a column of nulls
+			return removeNulls || rows == 0 ? new DoubleSummaryStatistics() : new DoubleSummaryStatistics(rows, 0, 0, 0);
+		}
+		
+		RangeAggregateIndex aggregates = rates.getAggregates(column);
+		int count = aggregates.count(first, last);
+		double sum = aggregates.sum(first, last);
+		double min = aggregates.min(first, last);
+		double max = aggregates.max(first, last);
+		if(!removeNulls && count < rows) {
+			//Any nulls not already removed, treat as zero. This effects the average
+			count = rows;
+			min = Math.min(min, 0);
+			max = Math.max(max, 0);
+		}
+		return count == 0 ? new DoubleSummaryStatistics() : new DoubleSummaryStatistics(count, min, max, sum);
+	}
+	
+	private static long startTimer(ForexMetrics metrics) {
+		return metrics == ForexMetrics.NONE ? 0 : System.nanoTime();
+	}
+	
+	private static void stopTimer(ForexMetrics metrics, Query query, long started, int rows) {
+		if(metrics != ForexMetrics.NONE) {
+			metrics.query(query, System.nanoTime() - started, rows);
+		}
+	}
+	
+	@Override
+	public List<String> getCurrencyNames() {
+		return exchangeRates.getCurrencyNames();
+	}
+	
+	@Override
+	public int currencyHandle(String currency) {
+		return exchangeRates.indexOfCurrency(currency);
+	}
+	
+	@Override
+	public int dateHandle(int epochDay) {
+		return exchangeRates.indexOf(epochDay);
+	}
+	
+	@Override
+	public int dateHandleAsOf(int epochDay, int maxLookbackDays) {
+		return exchangeRates.floorIndex(epochDay, checkLookback(maxLookbackDays));
+	}
+	
+	@Override
+	public int epochDayOf(int dateHandle) {
+		ExchangeRates rates = exchangeRates;
+		if(dateHandle < 0 || dateHandle >= rates.getRowCount()) {
+			throw new IndexOutOfBoundsException("Invalid date handle "+dateHandle);
+		}
+		return rates.getEpochDay(dateHandle);
+	}
+	
+	@Override
+	public double rate(int dateHandle, int currencyHandle) {
+		return rate(exchangeRates, dateHandle, currencyHandle);
+	}
+	
+	@Override
+	public double convert(int dateHandle, double amount, int sourceHandle, int targetHandle) {
+		return convert(exchangeRates, dateHandle, amount, sourceHandle, targetHandle);
+	}
+	
+	@Override
+	public double highest(int startEpochDay, int endEpochDay, int currencyHandle) {
+		ExchangeRates rates = exchangeRates;
+		if(currencyHandle < 0 || currencyHandle >= rates.getCurrencyCount()) {
+			return Double.NaN;
+		}
+		double max = rates.getAggregates(currencyHandle).max(rates.lowerBound(startEpochDay), rates.upperBound(endEpochDay));
+		return max == Double.NEGATIVE_INFINITY ? Double.NaN : max;
+	}
+	
+	@Override
+	public double average(int startEpochDay, int endEpochDay, int currencyHandle, boolean removeNulls) {
+		ExchangeRates rates = exchangeRates;
+		if(currencyHandle < 0 || currencyHandle >= rates.getCurrencyCount()) {
+			return Double.NaN;
+		}
+		int first = rates.lowerBound(startEpochDay);
+		int last = rates.upperBound(endEpochDay);
+		RangeAggregateIndex aggregates = rates.getAggregates(currencyHandle);
+		int count = removeNulls ? aggregates.count(first, last) : Math.max(0, last - first);
+		return count == 0 ? Double.NaN : aggregates.sum(first, last) / count;
+	}
+	
+	@Override
+	public double kthLowest(int startEpochDay, int endEpochDay, int currencyHandle, int k, boolean removeNulls) {
+		ExchangeRates rates = exchangeRates;
+		if(currencyHandle < 0 || currencyHandle >= rates.getCurrencyCount()) {
+			return Double.NaN;
+		}
+		int first = rates.lowerBound(startEpochDay);
+		int last = rates.upperBound(endEpochDay);
+		OrderStatisticsIndex index = rates.getOrderStatistics(currencyHandle);
+		int nulls = nulls(index, first, last, removeNulls);
+		return k < 0 || k >= index.count(first, last) + nulls ? Double.NaN : kthLowest(index, first, last, nulls, k);
+	}
+	
+	@Override
+	public int rank(int startEpochDay, int endEpochDay, int currencyHandle, double rate, boolean removeNulls) {
+		ExchangeRates rates = exchangeRates;
+		if(currencyHandle < 0 || currencyHandle >= rates.getCurrencyCount()) {
+			return -1;
+		}
+		int first = rates.lowerBound(startEpochDay);
+		int last = rates.upperBound(endEpochDay);
+		OrderStatisticsIndex index = rates.getOrderStatistics(currencyHandle);
+		return countLower(index, first, last, nulls(index, first, last, removeNulls), rate);
+	}
+	
+	/**
+	 * Reads a single rate from the model
+	 * 
+	 * @param rates the model to read
+	 * @param row index of the row, or -1 if there is no row
+	 * @param column index of the currency, or -1 if the currency is unknown
+	 * @return the rate, or NaN if the row or currency is not available
+	 */
+	private static double rate(ExchangeRates rates, int row, int column) {
+		if(row < 0 || column < 0 || row >= rates.getRowCount() || column >= rates.getCurrencyCount()) {
+			return Double.NaN;
+		}
+		return rates.getRate(column, row);
+	}
+	
+	/**
+	 * Converts an amount using the rates of a single row
+	 * 
+	 * @return the converted amount, or NaN if either rate is not available
+	 */
+	private static double convert(ExchangeRates rates, int row, double amount, int source, int target) {
+		return amount / rate(rates, row, source) * rate(rates, row, target);
 	}
 	
 	/**
@@ -177,8 +859,21 @@ public class ForexImpl implements Forex {
 	 */
 	@Override
 	public void loadDataFromZip(File zipFile) throws IOException {
+		loadDataFromZip(zipFile, LoadOptions.ALL);
+	}
+	
+	/**
+	 * This method accepts a ZIP file, containing the CSV data to be parsed and populates the in-memory data model 
+	 * with the currencies chosen by the options.
+	 * 
+	 * @param zipFile The input zip file which is expected to contain a csv file of the currency data.
+	 * @param options which currencies to load, and whether to convert their rates on first use
+	 * @throws IOException
+	 */
+	@Override
+	public void loadDataFromZip(File zipFile, LoadOptions options) throws IOException {
 		try(InputStream in = new FileInputStream(zipFile)) {
-			processInputStream(in);
+			processInputStream(in, options);
 		}
 	}
 	
@@ -189,8 +884,20 @@ public class ForexImpl implements Forex {
 	 */
 	@Override
 	public void loadDataLiveSite() throws IOException {
+		loadDataLiveSite(LoadOptions.ALL);
+	}
+	
+	/**
+	 * This method streams the data from the live site and populates the in-memory data model 
+	 * with the currencies chosen by the options.
+	 * 
+	 * @param options which currencies to load, and whether to convert their rates on first use
+	 * @throws IOException
+	 */
+	@Override
+	public void loadDataLiveSite(LoadOptions options) throws IOException {
 		try(InputStream in = new BufferedInputStream(new URL(config.getProperty("zip.url")).openStream())) {
-			processInputStream(in);
+			processInputStream(in, options);
 		}
 	}
 	
@@ -201,111 +908,333 @@ public class ForexImpl implements Forex {
 	 */
 	@Override
 	public void loadDataFromInputStream(InputStream in) throws IOException {
-		processInputStream(in);
+		processInputStream(in, LoadOptions.ALL);
+	}
+	
+	/**
+	 * This method streams the data and populates the in-memory data model with the currencies 
+	 * chosen by the options.
+	 * 
+	 * @param options which currencies to load, and whether to convert their rates on first use
+	 * @throws IOException
+	 */
+	@Override
+	public void loadDataFromInputStream(InputStream in, LoadOptions options) throws IOException {
+		processInputStream(in, options);
+	}
+
+	/**
+	 * This method streams the data and passes each row to the subscriber as it is parsed, without holding 
+	 * the whole file in memory. The rows are parsed on the calling thread, which waits whenever the 
+	 * subscriber has no outstanding demand.
+	 * 
+	 * @param in The input stream of a zip file
+	 * @param subscriber receives each row, through a {@link RateRow} which is reused for every row
+	 * @param buildModel whether to also load the rows into the in-memory data model
+	 * @return the number of rows passed to the subscriber
+	 * @throws IOException which is also passed to the subscriber's onError
+	 */
+	@Override
+	public int streamFromInputStream(InputStream in, Flow.Subscriber<? super RateRow> subscriber, boolean buildModel) throws IOException {
+		if(!buildModel) {
+			return RowStreamer.stream(in, csv, subscriber, null);
+		}
+		checkNotPinned();
+		synchronized(this) {
+			return RowStreamer.stream(in, csv, subscriber, model -> {
+				exchangeRates = model;
+				loadOptions = LoadOptions.ALL;
+			});
+		}
+	}
+	
+	/**
+	 * This method opens a binary snapshot previously written by {@link #writeSnapshot(File)}. 
+	 * The file is memory mapped, so no parsing is needed and the rates are read directly from the file.
+	 * 
+	 * @param snapshotFile The snapshot file
+	 * @throws IOException
+	 */
+	@Override
+	public synchronized void loadDataFromSnapshot(File snapshotFile) throws IOException {
+		checkNotPinned();
+		exchangeRates = Snapshot.open(snapshotFile).publish();
+		loadOptions = LoadOptions.ALL;
+	}
+	
+	/**
+	 * This method writes the in-memory data model to a binary snapshot file, 
+	 * which can be opened by {@link #loadDataFromSnapshot(File)}.
+	 * 
+	 * @param snapshotFile The destination file, replaced if it exists
+	 * @throws IOException
+	 */
+	@Override
+	public void writeSnapshot(File snapshotFile) throws IOException {
+		Snapshot.write(exchangeRates, snapshotFile);
+	}
+
+	/**
+	 * This method reads a ZIP file in the same format as {@link #loadDataFromZip(File)}, and adds any 
+	 * rows newer than the data already loaded. Older rows are skipped without being parsed.
+	 * 
+	 * @param zipFile The input zip file which is expected to contain a csv file of the currency data.
+	 * @return the number of rows added
+	 * @throws IOException
+	 */
+	@Override
+	public int updateFromZip(File zipFile) throws IOException {
+		try(InputStream in = new FileInputStream(zipFile)) {
+			return processUpdate(in);
+		}
+	}
+	
+	/**
+	 * This method streams the data from the site given by the update.url property (or zip.url if it
+	 * is not set) and adds any rows newer than the data already loaded.
+	 * 
+	 * @return the number of rows added
+	 * @throws IOException
+	 */
+	@Override
+	public int updateLiveSite() throws IOException {
+		String url = config.getProperty("update.url", config.getProperty("zip.url"));
+		try(InputStream in = new BufferedInputStream(new URL(url).openStream())) {
+			return processUpdate(in);
+		}
+	}
+	
+	/**
+	 * This method streams the data and adds any rows newer than the data already loaded.
+	 * 
+	 * @return the number of rows added
+	 * @throws IOException
+	 */
+	@Override
+	public int updateFromInputStream(InputStream in) throws IOException {
+		return processUpdate(in);
+	}
+	
+	/**
+	 * Reloads the data from the site given by the zip.url property in the background, if it has changed 
+	 * since it was last loaded from there.
+	 * 
+	 * @return completes with true once the new data is loaded, or false if it had not changed or another load replaced the data first
+	 */
+	@Override
+	public CompletableFuture<Boolean> refreshLiveSite() {
+		if(dataset != null) {
+			return dataset.refresh();
+		}
+		return refreshFromUri(URI.create(config.getProperty("zip.url")));
+	}
+	
+	/**
+	 * Reloads the data from the given URL in the background, if it has changed since it was last loaded 
+	 * from there. The request carries the ETag and Last-Modified of the last download, so the server can 
+	 * answer 304 Not Modified, in which case nothing is parsed. Otherwise the body is unzipped and parsed 
+	 * as it arrives, on the executor set by {@link #setRefreshExecutor(Executor)}, without holding the whole 
+	 * file in memory. The rates are always decoded as they are parsed, whatever the load options.
+	 * 
+	 * For an instance opened from a {@link ForexRegistry}, this refreshes the shared data from its source, 
+	 * once for all the instances sharing it.
+	 * 
+	 * @param uri the address of a zip file
+	 * @return completes with true once the new data is loaded, or false if it had not changed or another 
+	 * load replaced the data before it was parsed, in which case that load is kept. Completes exceptionally with an {@link IOException} if the download or parse fails.
+	 */
+	@Override
+	public CompletableFuture<Boolean> refreshFromUri(URI uri) {
+		if(dataset != null) {
+			return dataset.refresh();
+		}
+		checkNotPinned();
+		return refresher.refresh(uri);
 	}
 
 	/**
 	 * Reads the input stream and extracts the data into the in-memory model
 	 * 
 	 * @param in the {@link InputStream} to be processed
+	 * @param options which currencies to load, kept for later updates and refreshes
 	 * @throws IOException
 	 */
-	private void processInputStream(InputStream in) throws IOException {
-		try (ZipInputStream zipInStream = new ZipInputStream(in)) {
-			ZipEntry zipEntry;
-			//Although we expect a single csv file in the zip, looping though available files
-			//will catch occasions where there are multiple files.
-			while((zipEntry = zipInStream.getNextEntry()) != null) {
-				if(zipEntry.getName().equalsIgnoreCase(config.getProperty("csv.filename"))) {
-					Reader reader = new InputStreamReader(zipInStream);
-					CSVParser parser = new CSVParser(reader, CSVFormat.DEFAULT);
-					
-					parser.forEach(this::readSingleRecord);
-					
-					parser.close();
-					reader.close();
-					//At this point we've read the CSV file, so no need to loop around to any additional files in the .zip
-					break;
-				}
+	private synchronized void processInputStream(InputStream in, LoadOptions options) throws IOException {
+		checkNotPinned();
+		loadOptions = options;
+		ForexMetrics metrics = this.metrics;
+		MeteredInputStream metered = new MeteredInputStream(in);
+		long started = System.nanoTime();
+		int length = csv.readCsvEntry(metrics == ForexMetrics.NONE ? in : metered, false);
+		if(length < 0) {
+			return;
+		}
+		byte[] buffer = csv.buffer();
+		long inflated = System.nanoTime();
+		ExchangeRates parsed;
+		try {
+			EcbCsvParser csvParser = new EcbCsvParser(options.getCurrencies());
+			if(options.isLazy()) {
+				parsed = csvParser.parseLazy(buffer, length);
+			} else {
+				parsed = parsePool == null ? csvParser.parse(buffer, length) : csvParser.parse(buffer, length, parsePool);
 			}
+		} catch(UnsupportedLayoutException e) {
+			//Not in the usual ECB layout, so let commons-csv deal with it
+			parsed = csv.parseWithCommonsCsv(new ByteArrayInputStream(buffer, 0, length), options.getCurrencies());
+		}
+		long parseEnded = System.nanoTime();
+		parsed = prepare(parsed, options);
+		exchangeRates = parsed.publish();
+		if(metrics != ForexMetrics.NONE) {
+			metrics.loaded(new LoadSummary(false, metered.getNanos(), inflated - started - metered.getNanos(), 
+					parseEnded - inflated, System.nanoTime() - parseEnded, metered.getBytes(), length, 
+					parsed.getRowCount(), parsed.getCurrencyCount()));
 		}
 	}
 	
 	/**
-	 * Process a single {@link CSVRecord}, and update the in-memory data model
+	 * Sorts a parsed model and builds its indexes before it is published, so no query has to wait for one. 
+	 * A lazy model is already sorted, and builds the indexes of a currency when it is first queried. A compact 
+	 * model only builds its order statistics when they are queried, as they take more memory than its columns.
 	 * 
-	 * @param csvRecord a single row from the csv stream
+	 * @param parsed the model as parsed
+	 * @param options the options it was loaded with
+	 * @return the model to publish, which is a new one if it was compacted
 	 */
-	private void readSingleRecord(CSVRecord csvRecord) {		
-		List<String> recordAsList = csvRecord.stream()
-				.skip(1) //Ignore the first field, which is Date
-				.collect(Collectors.toList());
-		
-		//if the csv file has an extra empty string at the end, so filter that out
-		if(recordAsList.get(recordAsList.size()-1).isEmpty()) {
-			recordAsList.remove(recordAsList.size()-1);
-		}
-		
-		if(csvRecord.getRecordNumber() == 1L) {
-			//Instantiate model and keep track of the currency names from the first row of the CSV			
-			exchangeRates = new ExchangeRates(recordAsList);
+	static ExchangeRates prepare(ExchangeRates parsed, LoadOptions options) {
+		if(options.isCompact()) {
+			parsed = parsed.compact();
+			parsed.ensureSorted();
+		} else if(options.isLazy()) {
+			parsed.sortByDate();
 		} else {
-			//Handle row of data
-			
-			//Parse the String date to Date object (yyyy-MM-dd)	
-			Date date = parseDate(csvRecord.get(0));
-			if(date != null) {
-				//Store the actual exchange rates into the model
-				List<Double> recordAsListOfDouble = convertFromString(recordAsList, ForexImpl::parseDouble);
-
-				ExchangeRatesRow rowData = new ExchangeRatesRow(date, recordAsListOfDouble);
-				
-				exchangeRates.addRowData(rowData);
-			}	
+			parsed.ensureIndexed();
 		}
+		return parsed;
 	}
 	
 	/**
-	 * Helper function to parse a string value to a Double, or null if it is not a number
+	 * Reads the input stream and merges any rows newer than the current data into the in-memory model
 	 * 
-	 * @param stringValue input string to be converted
-	 * @return Double value or null
+	 * @param in the {@link InputStream} to be processed
+	 * @return the number of rows added
+	 * @throws IOException
 	 */
-	private static Double parseDouble(String stringValue) {
+	private synchronized int processUpdate(InputStream in) throws IOException {
+		checkNotPinned();
+		ExchangeRates current = exchangeRates;
+		if(current.getCurrencyCount() == 0) {
+			//Nothing to update yet, so this is a full load
+			processInputStream(in, loadOptions);
+			return exchangeRates.getRowCount();
+		}
+		ForexMetrics metrics = this.metrics;
+		MeteredInputStream metered = new MeteredInputStream(in);
+		long started = System.nanoTime();
+		int length = csv.readCsvEntry(metrics == ForexMetrics.NONE ? in : metered, true);
+		if(length < 0) {
+			return 0;
+		}
+		byte[] buffer = csv.buffer();
+		long inflated = System.nanoTime();
+		int lastDay = current.getRowCount() == 0 ? Integer.MIN_VALUE : current.getEpochDay(current.getRowCount() - 1);
+		ExchangeRates newer;
 		try {
-			return Double.parseDouble(stringValue);
-		} catch(NumberFormatException e) {
-			return null;
+			newer = new EcbCsvParser(loadOptions.getCurrencies()).parse(buffer, length, lastDay);
+		} catch(UnsupportedLayoutException e) {
+			newer = csv.parseWithCommonsCsv(new ByteArrayInputStream(buffer, 0, length), loadOptions.getCurrencies());
+		}
+		long parseEnded = System.nanoTime();
+		ExchangeRates next = current.withNewerRows(newer);
+		if(loadOptions.isCompact() && next != current) {
+			next = next.compact();
+		}
+		if(loadOptions.isCompact() || loadOptions.isLazy()) {
+			next.ensureSorted();
+		} else {
+			next.ensureIndexed();
+		}
+		exchangeRates = next.publish();
+		int added = next.getRowCount() - current.getRowCount();
+		if(metrics != ForexMetrics.NONE) {
+			metrics.loaded(new LoadSummary(true, metered.getNanos(), inflated - started - metered.getNanos(), 
+					parseEnded - inflated, System.nanoTime() - parseEnded, metered.getBytes(), length, 
+					added, next.getCurrencyCount()));
 		}
+		return added;
+	}
+	
+	private void checkNotPinned() {
+		if(pinned) {
+			throw new UnsupportedOperationException("A pinned view can't load data");
+		}
+		if(dataset != null) {
+			throw new UnsupportedOperationException("Shared data is loaded by its registry, use refreshLiveSite to reload it");
+		}
+	}
+	
+	/**
+	 * @return the model currently loaded
+	 */
+	ExchangeRates model() {
+		return exchangeRates;
 	}
 	
 	/**
-	 * Helper for converting a List of <T> to <U> as defined by the input function
+	 * Replaces the model this instance reads, when the shared data it reads has been reloaded
 	 * 
-	 * @param <T> the source type
-	 * @param <U> the destination type
-	 * @param source the input List
-	 * @param func the conversion function
-	 * @return List<U> the converted list
+	 * @param model the new model, already sorted and indexed
 	 */
-	private static <T, U> List<U> convertFromString(List<T> source, Function<T, U> func) {
-	    return source.stream().map(func).collect(Collectors.toList());
+	void publish(ExchangeRates model) {
+		exchangeRates = model;
+	}
+	
+	/**
+	 * Replaces the model with one loaded in the background, unless the model it was loaded to 
+	 * replace has been replaced already
+	 * 
+	 * @param expected the model when the background load started
+	 * @param model the new model, already sorted and indexed
+	 * @param options how the model was loaded, which later updates keep to
+	 * @return false if the model had changed, in which case nothing is replaced
+	 */
+	synchronized boolean publishIfCurrent(ExchangeRates expected, ExchangeRates model, LoadOptions options) {
+		if(exchangeRates != expected) {
+			return false;
+		}
+		loadOptions = options;
+		exchangeRates = model;
+		return true;
+	}
+	
+	LoadOptions getLoadOptions() {
+		return loadOptions;
+	}
+	
+	ForexMetrics getMetrics() {
+		return metrics;
+	}
+	
+	ZipCsvReader getCsvReader() {
+		return csv;
+	}
+	
+	/**
+	 * @return the executor refreshes are parsed on, which reloads of shared data also run on
+	 */
+	Executor getRefreshExecutor() {
+		return refresher.getExecutor();
 	}
 	
 	/**
 	 * Helper function to parse the String date to Date object
 	 * 
 	 * @param dateStr String date
-	 * @return converted {@link Date} object 
+	 * @return converted {@link Date} object at midnight in the default time zone, or null if the date is not valid 
 	 */
 	public Date parseDate(String dateStr) {
-		SimpleDateFormat dateFormat = new SimpleDateFormat(config.getProperty("date.format"));
-		try {
-			return dateFormat.parse(dateStr);
-		} catch (ParseException e) {
-			e.printStackTrace();
-			//The date could not be parsed, so skip this row
-			return null;
-		}
+		int epochDay = csv.parseEpochDay(dateStr);
+		return epochDay == Integer.MIN_VALUE ? null : EpochDay.toDate(epochDay);
 	}
 }
@@ -0,0 +1,339 @@
+package com.rr.eucentralbank.api;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.URI;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+import com.rr.eucentralbank.model.ExchangeRates;
+
+/**
+ * Shares loaded data between the components of an application. Each source (a URL, a zip file or a
+ * snapshot) is loaded once, and every instance opened on it reads the same model and indexes.
+ * 
+ * The instances are counted: the data is freed when the last instance opened on a source is closed,
+ * and opening the source again loads it afresh. A refresh through any of the instances reloads the
+ * source once, and all the instances see the new data together. Refreshes asked for while one is
+ * running share its result, as do instances opened while the source is first loading.
+ * <pre>
+ * try(ForexImpl forex = registry.openLiveSite()) {
+ *     ...
+ * }
+ * </pre>
+ * 
+ * @author Robert Rodrigues
+ *
+ */
+public class ForexRegistry {
+	
+	private final Properties config;
+	
+	private final Map<String, Dataset> datasets = new HashMap<>();
+	
+	/**
+	 * Creates a registry configured by config.properties in the working directory
+	 * 
+	 * @throws UncheckedIOException if the file exists but can't be read
+	 */
+	public ForexRegistry() {
+		this(ForexImpl.readConfig(new File("config.properties")));
+	}
+	
+	/**
+	 * Creates a registry with the given configuration, which is passed to every instance it opens
+	 * 
+	 * @param config the configuration, as for {@link ForexImpl#ForexImpl(Properties)}
+	 */
+	public ForexRegistry(Properties config) {
+		this.config = ForexImpl.withDefaults(config);
+	}
+	
+	/**
+	 * Opens the data of the site given by the zip.url property
+	 * 
+	 * @return an instance reading the shared data, to be closed when no longer needed
+	 * @throws IOException if the data has to be loaded and can't be
+	 */
+	public ForexImpl openLiveSite() throws IOException {
+		return openUri(URI.create(config.getProperty("zip.url")));
+	}
+	
+	/**
+	 * Opens the data of a zip file on a web site. Refreshes are conditional, as for {@link ForexImpl#refreshFromUri(URI)}.
+	 * 
+	 * @param uri the address of the zip file
+	 * @return an instance reading the shared data, to be closed when no longer needed
+	 * @throws IOException if the data has to be loaded and can't be
+	 */
+	public ForexImpl openUri(URI uri) throws IOException {
+		return open("uri:" + uri, loader -> loader.refreshFromUri(uri).join(), loader -> loader.refreshFromUri(uri));
+	}
+	
+	/**
+	 * Opens the data of a zip file. Refreshes reload the file if it has been modified.
+	 * 
+	 * @param zipFile the zip file
+	 * @return an instance reading the shared data, to be closed when no longer needed
+	 * @throws IOException if the data has to be loaded and can't be
+	 */
+	public ForexImpl openZip(File zipFile) throws IOException {
+		File file = zipFile.getAbsoluteFile();
+		return open("zip:" + file, loader -> loader.loadDataFromZip(file),
+				new FileReload(file, loader -> loader.loadDataFromZip(file)));
+	}
+	
+	/**
+	 * Opens a snapshot written by {@link ForexImpl#writeSnapshot(File)}. Refreshes reopen the file if it has been modified.
+	 * 
+	 * @param snapshotFile the snapshot file
+	 * @return an instance reading the shared data, to be closed when no longer needed
+	 * @throws IOException if the data has to be loaded and can't be
+	 */
+	public ForexImpl openSnapshot(File snapshotFile) throws IOException {
+		File file = snapshotFile.getAbsoluteFile();
+		return open("snapshot:" + file, loader -> loader.loadDataFromSnapshot(file),
+				new FileReload(file, loader -> loader.loadDataFromSnapshot(file)));
+	}
+	
+	/**
+	 * @return the number of sources currently loaded
+	 */
+	public synchronized int size() {
+		return datasets.size();
+	}
+	
+	/**
+	 * Opens a source, loading it first if no open instance shares it
+	 */
+	private ForexImpl open(String key, Load load, Reload reload) throws IOException {
+		Dataset dataset;
+		synchronized(this) {
+			dataset = datasets.computeIfAbsent(key, k -> new Dataset(k, reload));
+			//Counted straight away, so that the data is not freed while it is loading
+			dataset.references++;
+		}
+		try {
+			return dataset.open(load);
+		} catch(IOException | RuntimeException e) {
+			release(dataset);
+			throw e;
+		}
+	}
+	
+	private synchronized void release(Dataset dataset) {
+		if(--dataset.references == 0) {
+			datasets.remove(dataset.key);
+			dataset.free();
+		}
+	}
+	
+	/**
+	 * Finds the failure behind the wrappers added by {@link CompletableFuture} and {@link FileReload}
+	 */
+	private static Throwable unwrap(Throwable error) {
+		if(error instanceof CompletionException && error.getCause() != null) {
+			error = error.getCause();
+		}
+		if(error instanceof UncheckedIOException) {
+			error = error.getCause();
+		}
+		return error;
+	}
+	
+	/**
+	 * Loads a source for the first time
+	 */
+	@FunctionalInterface
+	private interface Load {
+		void load(ForexImpl loader) throws IOException;
+	}
+	
+	/**
+	 * Reloads a source if it has changed
+	 */
+	@FunctionalInterface
+	private interface Reload {
+		CompletableFuture<Boolean> reload(ForexImpl loader);
+	}
+	
+	/**
+	 * Reloads a file in the background if it has been modified since it was last loaded. The file is read 
+	 * on the loader's refresh executor, as downloads are, rather than on the common pool.
+	 */
+	private static class FileReload implements Reload {
+		
+		private final File file;
+		private final Load load;
+		private volatile long lastModified;
+		
+		FileReload(File file, Load load) {
+			this.file = file;
+			this.load = load;
+			this.lastModified = file.lastModified();
+		}
+		
+		@Override
+		public CompletableFuture<Boolean> reload(ForexImpl loader) {
+			return CompletableFuture.supplyAsync(() -> {
+				long modified = file.lastModified();
+				if(modified == lastModified) {
+					return false;
+				}
+				try {
+					load.load(loader);
+				} catch(IOException e) {
+					throw new UncheckedIOException(e);
+				}
+				lastModified = modified;
+				return true;
+			}, loader.getRefreshExecutor());
+		}
+	}
+	
+	/**
+	 * The data of one source, loaded by an instance of its own and read by the instances opened on it
+	 */
+	final class Dataset {
+		
+		private final String key;
+		private final Reload reload;
+		
+		//Loads the data, and is never given out, null once the data is freed
+		private ForexImpl loader;
+		
+		//Number of instances opened, or being opened, on this source
+		private int references;
+		
+		private final Set<ForexImpl> instances = new HashSet<>();
+		
+		//The first load in progress, if any, which other openers wait for
+		private CompletableFuture<ForexImpl> loading;
+		
+		//The refresh in progress, if any
+		private CompletableFuture<Boolean> refreshing;
+		
+		Dataset(String key, Reload reload) {
+			this.key = key;
+			this.reload = reload;
+		}
+		
+		/**
+		 * Creates an instance reading this data, loading the data first if needed. The data is loaded 
+		 * without the lock, so refreshes and releases carry on meanwhile, and published under it. 
+		 * Instances opened while it loads wait for that load rather than starting their own.
+		 */
+		ForexImpl open(Load load) throws IOException {
+			CompletableFuture<ForexImpl> pending;
+			boolean first;
+			synchronized(this) {
+				if(loader != null) {
+					return newInstance();
+				}
+				first = loading == null;
+				if(first) {
+					loading = new CompletableFuture<>();
+				}
+				pending = loading;
+			}
+			try {
+				if(first) {
+					ForexImpl newLoader = new ForexImpl(config);
+					try {
+						load.load(newLoader);
+					} catch(IOException | RuntimeException e) {
+						synchronized(this) {
+							loading = null;
+						}
+						pending.completeExceptionally(e);
+						throw e;
+					}
+					synchronized(this) {
+						loader = newLoader;
+						loading = null;
+					}
+					pending.complete(newLoader);
+				} else {
+					pending.join();
+				}
+			} catch(CompletionException e) {
+				Throwable cause = unwrap(e);
+				if(cause instanceof IOException) {
+					throw (IOException) cause;
+				}
+				throw e;
+			}
+			synchronized(this) {
+				return newInstance();
+			}
+		}
+		
+		/**
+		 * Creates an instance reading the loaded data
+		 */
+		private ForexImpl newInstance() {
+			ForexImpl instance = new ForexImpl(config, this);
+			instance.publish(loader.model());
+			instances.add(instance);
+			return instance;
+		}
+		
+		/**
+		 * Drops the data once no instance reads it
+		 */
+		synchronized void free() {
+			loader = null;
+		}
+		
+		/**
+		 * Gives up the share of a closed instance
+		 */
+		void release(ForexImpl instance) {
+			synchronized(this) {
+				if(!instances.remove(instance)) {
+					return;
+				}
+			}
+			ForexRegistry.this.release(this);
+		}
+		
+		/**
+		 * Reloads the source unless a reload is already running, and passes any new data to every instance
+		 */
+		synchronized CompletableFuture<Boolean> refresh() {
+			if(refreshing != null) {
+				return refreshing;
+			}
+			ForexImpl current = loader;
+			if(current == null) {
+				return CompletableFuture.completedFuture(false);
+			}
+			CompletableFuture<Boolean> result = new CompletableFuture<>();
+			refreshing = result;
+			reload.reload(current).whenComplete((changed, error) -> {
+				synchronized(this) {
+					if(error == null && changed && loader == current) {
+						ExchangeRates model = current.model();
+						for(ForexImpl instance : instances) {
+							instance.publish(model);
+						}
+					}
+					refreshing = null;
+				}
+				if(error != null) {
+					result.completeExceptionally(unwrap(error));
+				} else {
+					result.complete(changed);
+				}
+			});
+			return result;
+		}
+	}
+	
+}
@@ -0,0 +1,504 @@
+package com.rr.eucentralbank.api;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.time.LocalDate;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Flow;
+
+import com.rr.eucentralbank.analytics.CalendarBucket;
+import com.rr.eucentralbank.analytics.OhlcTable;
+import com.rr.eucentralbank.analytics.RollingSeries;
+import com.rr.eucentralbank.exception.CurrencyUnavailableException;
+import com.rr.eucentralbank.model.EpochDay;
+
+/**
+ * A {@link Forex} which keeps its own indexed model of the rates. Besides the original queries it answers 
+ * percentiles, ranks, calendar and rolling aggregates, and as-of lookups from the index, resolves handles for 
+ * queries which don't allocate, and loads data incrementally: with {@link LoadOptions}, as updates, as background 
+ * refreshes and from snapshots. {@link ForexImpl} is the implementation.
+ * 
+ * @author Robert Rodrigues
+ * 
+ */
+public interface IndexedForex extends Forex {
+	
+	/**
+	 * Given a start Date, an end Date and a Currency, return the rate below which the given percentage 
+	 * of the Currency's reference rates for the period fall. Between two rates the result is interpolated, 
+	 * so the 50th percentile is the median. Found from an index of the currency without sorting the period.
+	 * 
+	 * The removeNulls flag determines how to handle null values, as for {@link #calculateAverage(Date, Date, String, boolean)}. 
+	 * If we leave nulls in, we treat them as zero, so they are the lowest rates.
+	 * 
+	 * @param start {@link Date} (inclusive)
+	 * @param end {@link Date} (inclusive)
+	 * @param currency String value of currency name
+	 * @param percentile from 0 for the lowest rate to 100 for the highest
+	 * @param removeNulls boolean flag to decide what to do with null values
+	 * @return Double the percentile of the exchange rates within the given time period
+	 * @throws CurrencyUnavailableException
+	 */
+	default Double calculatePercentile(Date start, Date end, String currency, double percentile, boolean removeNulls) throws CurrencyUnavailableException {
+		return calculatePercentile(EpochDay.fromDate(start), EpochDay.fromDate(end), currency, percentile, removeNulls);
+	}
+	
+	/**
+	 * As {@link #calculatePercentile(Date, Date, String, double, boolean)}, for days given as epoch days
+	 * 
+	 * @param startEpochDay first day (inclusive) as days since 1970-01-01
+	 * @param endEpochDay last day (inclusive) as days since 1970-01-01
+	 * @param currency String value of currency name
+	 * @param percentile from 0 for the lowest rate to 100 for the highest
+	 * @param removeNulls boolean flag to decide what to do with null values
+	 * @return the percentile of the exchange rates within the given time period
+	 * @throws CurrencyUnavailableException
+	 */
+	double calculatePercentile(int startEpochDay, int endEpochDay, String currency, double percentile, boolean removeNulls) throws CurrencyUnavailableException;
+	
+	/**
+	 * As {@link #calculatePercentile(int, int, String, double, boolean)}
+	 * 
+	 * @param start first day (inclusive)
+	 * @param end last day (inclusive)
+	 * @param currency String value of currency name
+	 * @param percentile from 0 for the lowest rate to 100 for the highest
+	 * @param removeNulls boolean flag to decide what to do with null values
+	 * @return the percentile of the exchange rates within the given time period
+	 * @throws CurrencyUnavailableException
+	 */
+	default double calculatePercentile(LocalDate start, LocalDate end, String currency, double percentile, boolean removeNulls) throws CurrencyUnavailableException {
+		return calculatePercentile(EpochDay.of(start), EpochDay.of(end), currency, percentile, removeNulls);
+	}
+	
+	/**
+	 * Returns the median reference rate of a currency between two Dates, the 50th percentile
+	 * 
+	 * @param start {@link Date} (inclusive)
+	 * @param end {@link Date} (inclusive)
+	 * @param currency String value of currency name
+	 * @param removeNulls boolean flag to decide what to do with null values
+	 * @return Double the median exchange rate within the given time period
+	 * @throws CurrencyUnavailableException
+	 */
+	default Double calculateMedian(Date start, Date end, String currency, boolean removeNulls) throws CurrencyUnavailableException {
+		return calculateMedian(EpochDay.fromDate(start), EpochDay.fromDate(end), currency, removeNulls);
+	}
+	
+	/**
+	 * As {@link #calculateMedian(Date, Date, String, boolean)}, for days given as epoch days
+	 * 
+	 * @param startEpochDay first day (inclusive) as days since 1970-01-01
+	 * @param endEpochDay last day (inclusive) as days since 1970-01-01
+	 * @param currency String value of currency name
+	 * @param removeNulls boolean flag to decide what to do with null values
+	 * @return the median exchange rate within the given time period
+	 * @throws CurrencyUnavailableException
+	 */
+	default double calculateMedian(int startEpochDay, int endEpochDay, String currency, boolean removeNulls) throws CurrencyUnavailableException {
+		return calculatePercentile(startEpochDay, endEpochDay, currency, 50, removeNulls);
+	}
+	
+	/**
+	 * As {@link #calculateMedian(int, int, String, boolean)}
+	 * 
+	 * @param start first day (inclusive)
+	 * @param end last day (inclusive)
+	 * @param currency String value of currency name
+	 * @param removeNulls boolean flag to decide what to do with null values
+	 * @return the median exchange rate within the given time period
+	 * @throws CurrencyUnavailableException
+	 */
+	default double calculateMedian(LocalDate start, LocalDate end, String currency, boolean removeNulls) throws CurrencyUnavailableException {
+		return calculateMedian(EpochDay.of(start), EpochDay.of(end), currency, removeNulls);
+	}
+	
+	/**
+	 * Given a first and last day, a Currency and a rate, return the percentile rank of the rate among 
+	 * the Currency's reference rates for the period: the percentage of them which are lower, with 
+	 * rates equal to it counted as half lower. For example, where today's rate stands within the last five years.
+	 * Nulls are handled as in {@link #calculatePercentile(Date, Date, String, double, boolean)}.
+	 * 
+	 * @param startEpochDay first day (inclusive) as days since 1970-01-01
+	 * @param endEpochDay last day (inclusive) as days since 1970-01-01
+	 * @param currency String value of currency name
+	 * @param rate the rate to rank
+	 * @param removeNulls boolean flag to decide what to do with null values
+	 * @return the percentile rank, from 0 to 100
+	 * @throws CurrencyUnavailableException
+	 */
+	double calculatePercentRank(int startEpochDay, int endEpochDay, String currency, double rate, boolean removeNulls) throws CurrencyUnavailableException;
+	
+	/**
+	 * As {@link #calculatePercentRank(int, int, String, double, boolean)}, for a start and end {@link Date}
+	 * 
+	 * @param start {@link Date} (inclusive)
+	 * @param end {@link Date} (inclusive)
+	 * @param currency String value of currency name
+	 * @param rate the rate to rank
+	 * @param removeNulls boolean flag to decide what to do with null values
+	 * @return Double the percentile rank, from 0 to 100
+	 * @throws CurrencyUnavailableException
+	 */
+	default Double calculatePercentRank(Date start, Date end, String currency, double rate, boolean removeNulls) throws CurrencyUnavailableException {
+		return calculatePercentRank(EpochDay.fromDate(start), EpochDay.fromDate(end), currency, rate, removeNulls);
+	}
+	
+	/**
+	 * As {@link #calculatePercentRank(int, int, String, double, boolean)}
+	 * 
+	 * @param start first day (inclusive)
+	 * @param end last day (inclusive)
+	 * @param currency String value of currency name
+	 * @param rate the rate to rank
+	 * @param removeNulls boolean flag to decide what to do with null values
+	 * @return the percentile rank, from 0 to 100
+	 * @throws CurrencyUnavailableException
+	 */
+	default double calculatePercentRank(LocalDate start, LocalDate end, String currency, double rate, boolean removeNulls) throws CurrencyUnavailableException {
+		return calculatePercentRank(EpochDay.of(start), EpochDay.of(end), currency, rate, removeNulls);
+	}
+	
+	/**
+	 * Summarises currencies over each week, month or year between two days: the first, highest, lowest 
+	 * and last rate, the sum, and the number of rates and nulls. Every selected currency is summarised 
+	 * in the same pass over the date range, rather than one query per currency and period.
+	 * 
+	 * @param startEpochDay first day (inclusive) as days since 1970-01-01
+	 * @param endEpochDay last day (inclusive) as days since 1970-01-01
+	 * @param bucket the calendar period to group by
+	 * @param currencies names of the currencies to summarise, or null for all of them
+	 * @param parallel whether to split the work into tasks which the implementation may run in parallel
+	 * @return {@link OhlcTable} with a row for each period which has data
+	 */
+	OhlcTable aggregate(int startEpochDay, int endEpochDay, CalendarBucket bucket, List<String> currencies, boolean parallel);
+	
+	/**
+	 * As {@link #aggregate(int, int, CalendarBucket, List, boolean)}
+	 * 
+	 * @param start first day (inclusive)
+	 * @param end last day (inclusive)
+	 * @param bucket the calendar period to group by
+	 * @param currencies names of the currencies to summarise, or null for all of them
+	 * @param parallel whether to split the work into tasks which the implementation may run in parallel
+	 * @return {@link OhlcTable} with a row for each period which has data
+	 */
+	default OhlcTable aggregate(LocalDate start, LocalDate end, CalendarBucket bucket, List<String> currencies, boolean parallel) {
+		return aggregate(EpochDay.of(start), EpochDay.of(end), bucket, currencies, parallel);
+	}
+	
+	/**
+	 * Computes the moving average, standard deviation, minimum and maximum of a currency over every 
+	 * window of the given number of rows (days with published rates), in a single pass over the history.
+	 * Use this rather than calling {@link #calculateAverage(int, int, String, boolean)} for each window.
+	 * 
+	 * @param currency String value of currency name
+	 * @param window number of rows in each window, eg. 250 for roughly a year
+	 * @param removeNulls boolean flag to decide what to do with null values, as for calculateAverage
+	 * @return {@link RollingSeries} with one value per row, in ascending date order
+	 */
+	RollingSeries rollingStatistics(String currency, int window, boolean removeNulls);
+	
+	/**
+	 * As {@link #rollingStatistics(String, int, boolean)} for every currency, which implementations may compute in parallel
+	 * 
+	 * @param window number of rows in each window
+	 * @param removeNulls boolean flag to decide what to do with null values
+	 * @return {@link Map} of currency name to its {@link RollingSeries}
+	 */
+	Map<String, RollingSeries> rollingStatistics(int window, boolean removeNulls);
+	
+	/**
+	 * Retrieves the reference rates of the given day, or if there are none (eg. a weekend or holiday) 
+	 * of the latest earlier day which has them. Found with a single search of the dates, 
+	 * rather than by trying one day at a time.
+	 * 
+	 * @param epochDay the day as days since 1970-01-01
+	 * @param maxLookbackDays how many days before the given day to accept, 0 for that day only
+	 * @return the rates of all available currencies and the day they are from, 
+	 * or null if there is no data in the period
+	 */
+	AsOf<Map<String, Double>> readDataAsOf(int epochDay, int maxLookbackDays);
+	
+	/**
+	 * As {@link #readDataAsOf(int, int)}
+	 * 
+	 * @param date the day to search from
+	 * @param maxLookbackDays how many days before the given day to accept, 0 for that day only
+	 * @return the rates of all available currencies and the day they are from, 
+	 * or null if there is no data in the period
+	 */
+	default AsOf<Map<String, Double>> readDataAsOf(LocalDate date, int maxLookbackDays) {
+		return readDataAsOf(EpochDay.of(date), maxLookbackDays);
+	}
+	
+	/**
+	 * Converts an amount with the rates of the given day, or if there are none (eg. a weekend or holiday) 
+	 * of the latest earlier day which has them. Both rates come from the same day. If a currency has 
+	 * no rate on that day, the conversion is not available; earlier days are not searched per currency.
+	 * 
+	 * @param epochDay the day as days since 1970-01-01
+	 * @param amount in the source currency
+	 * @param sourceCurrency String value of source currency name
+	 * @param targetCurrency String value of target currency name
+	 * @param maxLookbackDays how many days before the given day to accept, 0 for that day only
+	 * @return the converted value and the day of the rates used
+	 * @throws CurrencyUnavailableException if there is no data in the period, or a currency has no rate on the day found
+	 */
+	AsOf<Double> convertCurrencyAsOf(int epochDay, double amount, String sourceCurrency, String targetCurrency, int maxLookbackDays) 
+			throws CurrencyUnavailableException;
+	
+	/**
+	 * As {@link #convertCurrencyAsOf(int, double, String, String, int)}
+	 * 
+	 * @param date the day to search from
+	 * @param amount in the source currency
+	 * @param sourceCurrency String value of source currency name
+	 * @param targetCurrency String value of target currency name
+	 * @param maxLookbackDays how many days before the given day to accept, 0 for that day only
+	 * @return the converted value and the day of the rates used
+	 * @throws CurrencyUnavailableException if there is no data in the period, or a currency has no rate on the day found
+	 */
+	default AsOf<Double> convertCurrencyAsOf(LocalDate date, double amount, String sourceCurrency, String targetCurrency, int maxLookbackDays) 
+			throws CurrencyUnavailableException {
+		return convertCurrencyAsOf(EpochDay.of(date), amount, sourceCurrency, targetCurrency, maxLookbackDays);
+	}
+	
+	/**
+	 * Returns the names of all currencies in the data. The position of each name is its currency handle.
+	 * 
+	 * @return {@link List} of currency names
+	 */
+	List<String> getCurrencyNames();
+	
+	/**
+	 * Resolves a currency name to a handle for the primitive query methods. Handles belong to the 
+	 * data they were resolved on; use them with a {@link #pinned()} view if the data may be reloaded.
+	 * 
+	 * @param currency String value of currency name
+	 * @return the currency handle, or -1 if the currency is unknown
+	 */
+	int currencyHandle(String currency);
+	
+	/**
+	 * Resolves a date to a handle for the primitive query methods. Handles belong to the 
+	 * data they were resolved on; use them with a {@link #pinned()} view if the data may be reloaded.
+	 * 
+	 * @param epochDay date as days since 1970-01-01
+	 * @return the date handle, or -1 if there is no data for the date
+	 */
+	int dateHandle(int epochDay);
+	
+	/**
+	 * Resolves a date to a handle for the latest day on or before it which has data, 
+	 * as {@link #readDataAsOf(int, int)} would find it.
+	 * 
+	 * @param epochDay date as days since 1970-01-01
+	 * @param maxLookbackDays how many days before the date to accept, 0 for that day only
+	 * @return the date handle, or -1 if there is no data in the period
+	 */
+	int dateHandleAsOf(int epochDay, int maxLookbackDays);
+	
+	/**
+	 * Returns the date a handle refers to
+	 * 
+	 * @param dateHandle handle from {@link #dateHandle(int)} or {@link #dateHandleAsOf(int, int)}
+	 * @return the date as days since 1970-01-01
+	 * @throws IndexOutOfBoundsException if the handle is not valid
+	 */
+	int epochDayOf(int dateHandle);
+	
+	/**
+	 * Returns the reference rate of a currency on a date, without allocating.
+	 * 
+	 * @param dateHandle handle from {@link #dateHandle(int)}
+	 * @param currencyHandle handle from {@link #currencyHandle(String)}
+	 * @return the rate, or NaN if either handle is invalid or there is no rate
+	 */
+	double rate(int dateHandle, int currencyHandle);
+	
+	/**
+	 * Converts an amount between two currencies on a date, without allocating. 
+	 * Gives the same result as {@link #convertCurrency(Date, Double, String, String)}.
+	 * 
+	 * @param dateHandle handle from {@link #dateHandle(int)}
+	 * @param amount in the source currency
+	 * @param sourceHandle handle of the source currency
+	 * @param targetHandle handle of the target currency
+	 * @return the converted amount, or NaN if either currency has no rate on the date
+	 */
+	double convert(int dateHandle, double amount, int sourceHandle, int targetHandle);
+	
+	/**
+	 * Returns the highest reference rate of a currency between two dates (inclusive), without allocating.
+	 * 
+	 * @param startEpochDay first date as days since 1970-01-01
+	 * @param endEpochDay last date as days since 1970-01-01
+	 * @param currencyHandle handle from {@link #currencyHandle(String)}
+	 * @return the highest rate, or NaN if there are no rates in the period
+	 */
+	double highest(int startEpochDay, int endEpochDay, int currencyHandle);
+	
+	/**
+	 * Returns the average reference rate of a currency between two dates (inclusive), without allocating.
+	 * Nulls are handled as in {@link #calculateAverage(Date, Date, String, boolean)}.
+	 * 
+	 * @param startEpochDay first date as days since 1970-01-01
+	 * @param endEpochDay last date as days since 1970-01-01
+	 * @param currencyHandle handle from {@link #currencyHandle(String)}
+	 * @param removeNulls boolean flag to decide what to do with null values
+	 * @return the average rate, or NaN if there are no rates in the period
+	 */
+	double average(int startEpochDay, int endEpochDay, int currencyHandle, boolean removeNulls);
+	
+	/**
+	 * Returns the k-th lowest reference rate of a currency between two dates (inclusive), without allocating.
+	 * Nulls are handled as in {@link #calculatePercentile(Date, Date, String, double, boolean)}.
+	 * 
+	 * @param startEpochDay first date as days since 1970-01-01
+	 * @param endEpochDay last date as days since 1970-01-01
+	 * @param currencyHandle handle from {@link #currencyHandle(String)}
+	 * @param k position of the rate in ascending order, 0 for the lowest
+	 * @param removeNulls boolean flag to decide what to do with null values
+	 * @return the rate, or NaN if there are k or fewer rates in the period
+	 */
+	double kthLowest(int startEpochDay, int endEpochDay, int currencyHandle, int k, boolean removeNulls);
+	
+	/**
+	 * Counts the reference rates of a currency between two dates (inclusive) which are lower than 
+	 * the given rate, without allocating. Nulls are handled as in {@link #calculatePercentile(Date, Date, String, double, boolean)}.
+	 * 
+	 * @param startEpochDay first date as days since 1970-01-01
+	 * @param endEpochDay last date as days since 1970-01-01
+	 * @param currencyHandle handle from {@link #currencyHandle(String)}
+	 * @param rate the rate to compare with
+	 * @param removeNulls boolean flag to decide what to do with null values
+	 * @return the number of lower rates, or -1 if the handle is invalid
+	 */
+	int rank(int startEpochDay, int endEpochDay, int currencyHandle, double rate, boolean removeNulls);
+	
+	/**
+	 * Returns the version of the data currently loaded. It changes with every load or update which changes the data.
+	 * 
+	 * @return the version number
+	 */
+	long getVersion();
+	
+	/**
+	 * Returns a read-only view of the data as it is now. Queries on the view keep using the same
+	 * data even if this instance is reloaded, and {@link #getVersion()} on the view tells which 
+	 * version they used. The view can't load data.
+	 * 
+	 * @return {@link IndexedForex} view of the current data
+	 */
+	IndexedForex pinned();
+	
+	/**
+	 * This method accepts a ZIP file, containing the CSV data to be parsed and populates the in-memory data model 
+	 * with the currencies chosen by the options. Later updates and refreshes load the same currencies.
+	 * 
+	 * @param zipFile The input zip file which is expected to contain a csv file of the currency data.
+	 * @param options which currencies to load, and whether to convert their rates on first use
+	 * @throws IOException
+	 */
+	void loadDataFromZip(File zipFile, LoadOptions options) throws IOException;
+	
+	/**
+	 * This method streams the data from the live site and populates the in-memory data model 
+	 * with the currencies chosen by the options. Later updates and refreshes load the same currencies.
+	 * 
+	 * @param options which currencies to load, and whether to convert their rates on first use
+	 * @throws IOException
+	 */
+	void loadDataLiveSite(LoadOptions options) throws IOException;
+	
+	/**
+	 * This method streams the data and populates the in-memory data model with the currencies 
+	 * chosen by the options. Later updates and refreshes load the same currencies.
+	 * 
+	 * @param options which currencies to load, and whether to convert their rates on first use
+	 * @throws IOException
+	 */
+	void loadDataFromInputStream(InputStream in, LoadOptions options) throws IOException;
+	
+	/**
+	 * This method streams the data and passes each row to the subscriber as it is parsed, in file order, 
+	 * without holding the whole file in memory. Rows are only parsed as fast as the subscriber requests them. 
+	 * The call returns once the file is finished or the subscription is cancelled.
+	 * 
+	 * @param in The input stream of a zip file, as for {@link #loadDataFromInputStream(InputStream)}
+	 * @param subscriber receives each row, through a {@link RateRow} which is reused for every row
+	 * @param buildModel whether to also load the rows into the in-memory data model. The model is only 
+	 * replaced if the whole file was read.
+	 * @return the number of rows passed to the subscriber
+	 * @throws IOException which is also passed to the subscriber's onError
+	 */
+	int streamFromInputStream(InputStream in, Flow.Subscriber<? super RateRow> subscriber, boolean buildModel) throws IOException;
+	
+	/**
+	 * This method reads a ZIP file in the same format as {@link #loadDataFromZip(File)}, and adds any 
+	 * rows newer than the data already loaded. Older rows are skipped without being parsed.
+	 * 
+	 * @param zipFile The input zip file which is expected to contain a csv file of the currency data.
+	 * @return the number of rows added
+	 * @throws IOException
+	 */
+	int updateFromZip(File zipFile) throws IOException;
+	
+	/**
+	 * This method streams the latest data from the live site and adds any rows newer than the data already loaded.
+	 * 
+	 * @return the number of rows added
+	 * @throws IOException
+	 */
+	int updateLiveSite() throws IOException;
+	
+	/**
+	 * This method streams the data and adds any rows newer than the data already loaded.
+	 * 
+	 * @return the number of rows added
+	 * @throws IOException
+	 */
+	int updateFromInputStream(InputStream in) throws IOException;
+	
+	/**
+	 * Reloads the data from the live site in the background, if it has changed since it was last loaded
+	 * from there. The request is conditional on the ETag and Last-Modified of the previous download, and 
+	 * the response is parsed as it arrives.
+	 * 
+	 * @return completes with true once the new data is loaded, or false if it had not changed or another load replaced the data first
+	 */
+	CompletableFuture<Boolean> refreshLiveSite();
+	
+	/**
+	 * Reloads the data from the given URL in the background, if it has changed since it was last loaded
+	 * from there, as {@link #refreshLiveSite()}.
+	 * 
+	 * @param uri the address of a zip file
+	 * @return completes with true once the new data is loaded, or false if it had not changed or another load replaced the data first
+	 */
+	CompletableFuture<Boolean> refreshFromUri(URI uri);
+	
+	/**
+	 * This method opens a binary snapshot previously written by {@link #writeSnapshot(File)}. 
+	 * The file is memory mapped, so no parsing is needed and the rates are read directly from the file.
+	 * 
+	 * @param snapshotFile The snapshot file
+	 * @throws IOException
+	 */
+	void loadDataFromSnapshot(File snapshotFile) throws IOException;
+	
+	/**
+	 * This method writes the in-memory data model to a binary snapshot file, 
+	 * which can be opened by {@link #loadDataFromSnapshot(File)}.
+	 * 
+	 * @param snapshotFile The destination file, replaced if it exists
+	 * @throws IOException
+	 */
+	void writeSnapshot(File snapshotFile) throws IOException;
+}
@@ -0,0 +1,97 @@
+package com.rr.eucentralbank.api;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+/**
+ * Options for loading the data, for services which only query some of the currencies.
+ * <ul>
+ * <li>A projection loads only the given currencies. The cells of the other currencies are skipped
+ * without being converted, and are not held in memory.</li>
+ * <li>A lazy load keeps the text of the file, and converts the rates of a currency the first time
+ * it is queried. Loading is then little more than finding the dates.</li>
+ * <li>A compact load stores the rates as packed integers, in a fraction of the memory. Queries over 
+ * ranges of dates read totals kept for blocks of rows, rather than a separate index.</li>
+ * </ul>
+ * 
+ * @author Robert Rodrigues
+ *
+ */
+public final class LoadOptions {
+	
+	/**
+	 * Loads every currency straight away
+	 */
+	public static final LoadOptions ALL = new LoadOptions(null, false, false);
+	
+	//The currencies to load, or null for all of them
+	private final Set<String> currencies;
+	private final boolean lazy;
+	private final boolean compact;
+	
+	private LoadOptions(Set<String> currencies, boolean lazy, boolean compact) {
+		this.currencies = currencies;
+		this.lazy = lazy;
+		this.compact = compact;
+	}
+	
+	/**
+	 * Loads only the given currencies. Currencies which are not in the file are ignored.
+	 * 
+	 * @param currencies currency names, eg. USD
+	 * @return {@link LoadOptions} for the currencies
+	 */
+	public static LoadOptions currencies(String... currencies) {
+		return currencies(Arrays.asList(currencies));
+	}
+	
+	/**
+	 * Loads only the given currencies. Currencies which are not in the file are ignored.
+	 * 
+	 * @param currencies currency names, eg. USD
+	 * @return {@link LoadOptions} for the currencies
+	 */
+	public static LoadOptions currencies(Collection<String> currencies) {
+		return new LoadOptions(Collections.unmodifiableSet(new LinkedHashSet<>(currencies)), false, false);
+	}
+	
+	/**
+	 * Returns the same options, but converting the rates of each currency on its first query.
+	 * Updates convert all the currencies, as they copy the rates into the new model.
+	 * 
+	 * @return lazy {@link LoadOptions}
+	 */
+	public LoadOptions lazy() {
+		return new LoadOptions(currencies, true, compact);
+	}
+	
+	/**
+	 * Returns the same options, but storing the rates compactly. Currencies whose rates have more than 
+	 * nine decimals are stored as doubles. Updates copy the data onto the heap and compact it again.
+	 * This converts every currency, so it takes the place of a lazy load.
+	 * 
+	 * @return compact {@link LoadOptions}
+	 */
+	public LoadOptions compact() {
+		return new LoadOptions(currencies, lazy, true);
+	}
+	
+	/**
+	 * @return the currencies to load, or null for all of them
+	 */
+	public Set<String> getCurrencies() {
+		return currencies;
+	}
+	
+	public boolean isLazy() {
+		return lazy;
+	}
+	
+	public boolean isCompact() {
+		return compact;
+	}
+	
+}
@@ -0,0 +1,116 @@
+package com.rr.eucentralbank.api;
+
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.rr.eucentralbank.model.EpochDay;
+
+/**
+ * A single row passed to the subscriber of {@link Forex#streamFromInputStream}. The same instance 
+ * is reused for every row, so it is only valid until the subscriber's onNext returns. Use 
+ * {@link #toMap()} or {@link #copyRates(double[])} to keep the values.
+ * 
+ * @author Robert Rodrigues
+ *
+ */
+public final class RateRow {
+
+	private List<String> currencyNames;
+	private Map<String, Integer> currencyIndex;
+	private int epochDay;
+	private double[] rates;
+	
+	RateRow() {
+	}
+	
+	/**
+	 * Sets the currencies of the following rows
+	 */
+	void setHeader(List<String> currencyNames) {
+		this.currencyNames = currencyNames;
+		this.currencyIndex = new HashMap<>();
+		for(int i=0; i<currencyNames.size(); i++) {
+			currencyIndex.put(currencyNames.get(i), i);
+		}
+	}
+	
+	/**
+	 * Points the view at the next row
+	 */
+	void set(int epochDay, double[] rates) {
+		this.epochDay = epochDay;
+		this.rates = rates;
+	}
+	
+	public List<String> getCurrencyNames() {
+		return currencyNames;
+	}
+	
+	public int getCurrencyCount() {
+		return currencyNames.size();
+	}
+	
+	/**
+	 * @param currency String value of currency name
+	 * @return index of the currency in this row, or -1 if it is not in the file
+	 */
+	public int indexOfCurrency(String currency) {
+		Integer index = currencyIndex.get(currency);
+		return index == null ? -1 : index;
+	}
+	
+	public int getEpochDay() {
+		return epochDay;
+	}
+	
+	public Date getDate() {
+		return EpochDay.toDate(epochDay);
+	}
+	
+	/**
+	 * @param currency index of the currency
+	 * @return the rate, or NaN if it is missing
+	 */
+	public double getRate(int currency) {
+		return rates[currency];
+	}
+	
+	/**
+	 * @param currency String value of currency name
+	 * @return the rate, or NaN if it is missing or the currency is not in the file
+	 */
+	public double getRate(String currency) {
+		int index = indexOfCurrency(currency);
+		return index < 0 ? Double.NaN : rates[index];
+	}
+	
+	/**
+	 * Copies the rates of this row
+	 * 
+	 * @param destination array with at least one element per currency
+	 */
+	public void copyRates(double[] destination) {
+		System.arraycopy(rates, 0, destination, 0, currencyNames.size());
+	}
+	
+	/**
+	 * Converts the current row to a Map<String, Double>
+	 * 
+	 * @return Map where the key is the currency name and the value is the exchange rate (null if missing)
+	 */
+	public Map<String, Double> toMap() {
+		Map<String, Double> map = new HashMap<>();
+		for(int i=0; i<currencyNames.size(); i++) {
+			map.put(currencyNames.get(i), Double.isNaN(rates[i]) ? null : rates[i]);
+		}
+		return map;
+	}
+	
+	@Override
+	public String toString() {
+		return "Date=" + getDate() + " Values=" + toMap();
+	}
+	
+}
@@ -0,0 +1,172 @@
+package com.rr.eucentralbank.api;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.List;
+import java.util.concurrent.Flow;
+import java.util.function.Consumer;
+import java.util.zip.ZipInputStream;
+
+import com.rr.eucentralbank.model.ExchangeRates;
+import com.rr.eucentralbank.parser.EcbCsvParser;
+
+/**
+ * Parses a zip stream row by row for {@link ForexImpl#streamFromInputStream(InputStream, Flow.Subscriber, boolean)},
+ * passing each row to a subscriber as its demand allows
+ * 
+ * @author Robert Rodrigues
+ * 
+ */
+final class RowStreamer {
+	
+	private RowStreamer() {
+	}
+	
+	/**
+	 * Streams the CSV file in the zip to the subscriber
+	 * 
+	 * @param in the {@link InputStream} of the zip file
+	 * @param csv finds the CSV file, and reads it if it is not in the ECB layout
+	 * @param subscriber receives each row
+	 * @param publisher receives the model built from the rows, once it is sorted and indexed and before
+	 * the subscriber completes, or null to not build one
+	 * @return the number of rows passed to the subscriber
+	 * @throws IOException which is also passed to the subscriber's onError
+	 */
+	static int stream(InputStream in, ZipCsvReader csv, Flow.Subscriber<? super RateRow> subscriber,
+			Consumer<ExchangeRates> publisher) throws IOException {
+		RowSubscription subscription = new RowSubscription();
+		StreamingHandler handler = new StreamingHandler(subscriber, subscription, publisher != null);
+		subscriber.onSubscribe(subscription);
+		try(ZipInputStream zipInStream = new ZipInputStream(in)) {
+			if(csv.nextCsvEntry(zipInStream, false)) {
+				//Rows the parser can't read are read from there on by commons-csv
+				new EcbCsvParser().parse(zipInStream, handler, csv::readWithCommonsCsv);
+			}
+		} catch(IOException e) {
+			subscription.cancel();
+			subscriber.onError(e);
+			throw e;
+		} catch(RuntimeException e) {
+			//Most likely thrown by the subscriber, which must not be called again
+			subscription.cancel();
+			throw e;
+		}
+		
+		Exception error = subscription.getError();
+		if(error != null) {
+			subscriber.onError(error);
+			if(error instanceof IOException) {
+				throw (IOException) error;
+			}
+		} else if(!subscription.isCancelled()) {
+			if(handler.model != null) {
+				publisher.accept(ForexImpl.prepare(handler.model, LoadOptions.ALL).publish());
+			}
+			subscriber.onComplete();
+		}
+		return handler.rows;
+	}
+	
+	/**
+	 * Passes each parsed row to a subscriber once it has requested it, and optionally adds it to a new model
+	 */
+	private static class StreamingHandler implements EcbCsvParser.RowHandler {
+		
+		private final Flow.Subscriber<? super RateRow> subscriber;
+		private final RowSubscription subscription;
+		private final boolean buildModel;
+		private final RateRow view = new RateRow();
+		private ExchangeRates model;
+		private int rows;
+		
+		StreamingHandler(Flow.Subscriber<? super RateRow> subscriber, RowSubscription subscription, boolean buildModel) {
+			this.subscriber = subscriber;
+			this.subscription = subscription;
+			this.buildModel = buildModel;
+		}
+		
+		@Override
+		public void header(List<String> currencyNames) {
+			view.setHeader(currencyNames);
+			if(buildModel) {
+				model = new ExchangeRates(currencyNames);
+			}
+		}
+		
+		@Override
+		public boolean row(int epochDay, double[] rates) {
+			if(!subscription.awaitDemand()) {
+				return false;
+			}
+			if(model != null) {
+				model.addRow(epochDay, rates);
+			}
+			view.set(epochDay, rates);
+			rows++;
+			subscriber.onNext(view);
+			return true;
+		}
+	}
+	
+	/**
+	 * Keeps track of the rows requested by a subscriber. The parsing thread waits on it until there is demand.
+	 */
+	private static class RowSubscription implements Flow.Subscription {
+		
+		private long demand;
+		private boolean cancelled;
+		private Exception error;
+		
+		@Override
+		public synchronized void request(long n) {
+			if(n <= 0) {
+				error = new IllegalArgumentException("Requested "+n+" rows, the number must be positive");
+				cancelled = true;
+			} else {
+				//Demand saturates rather than overflowing, Long.MAX_VALUE means unbounded
+				demand = demand + n < 0 ? Long.MAX_VALUE : demand + n;
+			}
+			notifyAll();
+		}
+		
+		@Override
+		public synchronized void cancel() {
+			cancelled = true;
+			notifyAll();
+		}
+		
+		synchronized boolean isCancelled() {
+			return cancelled;
+		}
+		
+		synchronized Exception getError() {
+			return error;
+		}
+		
+		/**
+		 * Waits until a row has been requested and takes it from the demand
+		 * 
+		 * @return false if the subscription was cancelled or the thread interrupted
+		 */
+		synchronized boolean awaitDemand() {
+			while(demand == 0 && !cancelled) {
+				try {
+					wait();
+				} catch(InterruptedException e) {
+					Thread.currentThread().interrupt();
+					error = new InterruptedIOException("Interrupted while waiting for the subscriber");
+					cancelled = true;
+				}
+			}
+			if(cancelled) {
+				return false;
+			}
+			if(demand != Long.MAX_VALUE) {
+				demand--;
+			}
+			return true;
+		}
+	}
+}
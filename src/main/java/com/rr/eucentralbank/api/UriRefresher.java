@@ -0,0 +1,219 @@
+package com.rr.eucentralbank.api;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.ZipInputStream;
+
+import com.rr.eucentralbank.exception.UnsupportedLayoutException;
+import com.rr.eucentralbank.metrics.ForexMetrics;
+import com.rr.eucentralbank.metrics.LoadSummary;
+import com.rr.eucentralbank.metrics.MeteredInputStream;
+import com.rr.eucentralbank.model.ExchangeRates;
+import com.rr.eucentralbank.parser.EcbCsvParser;
+
+/**
+ * Downloads and parses the data for {@link ForexImpl#refreshFromUri(URI)}, keeping the validators of the
+ * last download so that unchanged data is not downloaded again
+ * 
+ * @author Robert Rodrigues
+ * 
+ */
+final class UriRefresher {
+	
+	//Default executor for refreshes. Refreshes are rare, so threads are only kept while they are in use.
+	static final Executor REFRESH_EXECUTOR = Executors.newCachedThreadPool(new ThreadFactory() {
+		private final AtomicInteger count = new AtomicInteger();
+		
+		@Override
+		public Thread newThread(Runnable task) {
+			Thread thread = new Thread(task, "forex-refresh-" + count.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		}
+	});
+	
+	private static final int HTTP_OK = 200;
+	private static final int HTTP_NOT_MODIFIED = 304;
+	
+	//The instance refreshed, which the parsed data is published to
+	private final ForexImpl owner;
+	
+	//Client for refreshes, created on first use unless one is set
+	private HttpClient httpClient;
+	
+	//Parses refreshed data, so the blocking reads of the body never run on the client's executor
+	private volatile Executor executor = REFRESH_EXECUTOR;
+	
+	//The validators of the last download, which are only sent while the model loaded from it is current
+	private volatile Download lastDownload;
+	
+	UriRefresher(ForexImpl owner) {
+		this.owner = owner;
+	}
+	
+	synchronized void setHttpClient(HttpClient httpClient) {
+		this.httpClient = httpClient;
+	}
+	
+	void setExecutor(Executor executor) {
+		this.executor = executor == null ? REFRESH_EXECUTOR : executor;
+	}
+	
+	/**
+	 * @return the executor refreshes are parsed on
+	 */
+	Executor getExecutor() {
+		return executor;
+	}
+	
+	/**
+	 * Reloads the data from the given URL in the background, if it has changed since it was last loaded
+	 * 
+	 * @param uri the address of a zip file
+	 * @return completes with true once the new data is loaded, or false if it had not changed or 
+	 * another load replaced the data first
+	 */
+	CompletableFuture<Boolean> refresh(URI uri) {
+		HttpClient client;
+		synchronized(this) {
+			if(httpClient == null) {
+				httpClient = HttpClient.newBuilder().followRedirects(HttpClient.Redirect.NORMAL).build();
+			}
+			client = httpClient;
+		}
+		//The data being refreshed, which the parsed data is only published over if it is still current
+		ExchangeRates start = owner.model();
+		LoadOptions options = owner.getLoadOptions();
+		HttpRequest.Builder request = HttpRequest.newBuilder(uri).GET();
+		Download previous = lastDownload;
+		//Only revalidate if the data loaded from that download is still the data in use
+		if(previous != null && previous.uri.equals(uri) && previous.model == start) {
+			if(previous.etag != null) {
+				request.header("If-None-Match", previous.etag);
+			}
+			if(previous.lastModified != null) {
+				request.header("If-Modified-Since", previous.lastModified);
+			}
+		}
+		return client.sendAsync(request.build(), HttpResponse.BodyHandlers.ofInputStream())
+				.thenApplyAsync(response -> {
+					try(InputStream in = response.body()) {
+						if(response.statusCode() == HTTP_NOT_MODIFIED) {
+							return false;
+						}
+						if(response.statusCode() != HTTP_OK) {
+							throw new IOException("Unexpected status " + response.statusCode() + " from " + uri);
+						}
+						//Parsed without the lock, so queries and other loads carry on meanwhile
+						ExchangeRates parsed = parse(in, options);
+						if(parsed == null) {
+							throw new IOException("No CSV file found in " + uri);
+						}
+						if(!owner.publishIfCurrent(start, parsed, options)) {
+							//Another load or refresh finished first, and the data it published is kept
+							return false;
+						}
+						lastDownload = new Download(uri, response.headers().firstValue("ETag").orElse(null),
+								response.headers().firstValue("Last-Modified").orElse(null), parsed);
+						return true;
+					} catch(IOException e) {
+						throw new CompletionException(e);
+					}
+				}, executor);
+	}
+	
+	/**
+	 * Parses the CSV file in the zip stream as it is inflated, a buffer at a time, into a new model
+	 * which is ready to publish. A lazy load reads the whole file first. Nothing is changed on the instance.
+	 * 
+	 * @param in the {@link InputStream} of the zip file
+	 * @param options which currencies to load, and whether to load lazily or compact the model
+	 * @return the published model, or null if there was no CSV file
+	 * @throws IOException
+	 */
+	private ExchangeRates parse(InputStream in, LoadOptions options) throws IOException {
+		ZipCsvReader csv = owner.getCsvReader();
+		ForexMetrics metrics = owner.getMetrics();
+		MeteredInputStream metered = new MeteredInputStream(in);
+		long started = System.nanoTime();
+		ExchangeRates parsed;
+		long entryFound;
+		MeteredInputStream csvStream;
+		try(ZipInputStream zipInStream = new ZipInputStream(metrics == ForexMetrics.NONE ? in : metered)) {
+			if(!csv.nextCsvEntry(zipInStream, false)) {
+				return null;
+			}
+			entryFound = System.nanoTime();
+			csvStream = new MeteredInputStream(zipInStream);
+			InputStream entry = metrics == ForexMetrics.NONE ? zipInStream : csvStream;
+			EcbCsvParser csvParser = new EcbCsvParser(options.getCurrencies());
+			if(options.isLazy()) {
+				//A lazy model keeps the text of the rows, so the whole file is read first
+				byte[] data = entry.readAllBytes();
+				try {
+					parsed = csvParser.parseLazy(data, data.length);
+				} catch(UnsupportedLayoutException e) {
+					parsed = csv.parseWithCommonsCsv(new ByteArrayInputStream(data), options.getCurrencies());
+				}
+			} else {
+				ExchangeRates[] model = new ExchangeRates[1];
+				//Rows the parser can't read are read from there on by commons-csv
+				csvParser.parse(entry, new EcbCsvParser.RowHandler() {
+					@Override
+					public void header(List<String> currencyNames) {
+						model[0] = new ExchangeRates(currencyNames);
+					}
+					
+					@Override
+					public boolean row(int epochDay, double[] rates) {
+						model[0].addRow(epochDay, rates);
+						return true;
+					}
+				}, csv::readWithCommonsCsv);
+				parsed = model[0] == null ? new ExchangeRates(new ArrayList<>()) : model[0];
+			}
+		}
+		long parseEnded = System.nanoTime();
+		parsed = ForexImpl.prepare(parsed, options);
+		parsed.publish();
+		if(metrics != ForexMetrics.NONE) {
+			//Inflating and parsing take turns on each buffer, so the time spent reading the CSV file is the inflate phase
+			long inflateNanos = entryFound - started + csvStream.getNanos() - metered.getNanos();
+			metrics.loaded(new LoadSummary(false, metered.getNanos(), inflateNanos, parseEnded - entryFound - csvStream.getNanos(),
+					System.nanoTime() - parseEnded, metered.getBytes(), csvStream.getBytes(),
+					parsed.getRowCount(), parsed.getCurrencyCount()));
+		}
+		return parsed;
+	}
+	
+	/**
+	 * The validators of a download, and the model which was loaded from it
+	 */
+	private static class Download {
+		
+		private final URI uri;
+		private final String etag;
+		private final String lastModified;
+		private final ExchangeRates model;
+		
+		Download(URI uri, String etag, String lastModified, ExchangeRates model) {
+			this.uri = uri;
+			this.etag = etag;
+			this.lastModified = lastModified;
+			this.model = model;
+		}
+	}
+}
@@ -0,0 +1,228 @@
+package com.rr.eucentralbank.api;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.time.LocalDate;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+import org.apache.commons.csv.CSVFormat;
+import org.apache.commons.csv.CSVParser;
+import org.apache.commons.csv.CSVRecord;
+
+import com.rr.eucentralbank.model.EpochDay;
+import com.rr.eucentralbank.model.ExchangeRates;
+import com.rr.eucentralbank.parser.EcbCsvParser;
+
+/**
+ * Finds the CSV file in a zip stream, and reads CSV files with commons-csv when they are not
+ * in the layout {@link EcbCsvParser} expects.
+ * 
+ * @author Robert Rodrigues
+ * 
+ */
+final class ZipCsvReader {
+	
+	//Name of the CSV file in the zip, from the csv.filename property
+	private final String csvFileName;
+	
+	//Formatter for the date.format property, or null for yyyy-MM-dd which is parsed without one
+	private final DateTimeFormatter dateFormat;
+	
+	//Holds the inflated CSV file while it is parsed, kept between loads to avoid reallocating it
+	private byte[] buffer = new byte[1 << 16];
+	
+	ZipCsvReader(String csvFileName, DateTimeFormatter dateFormat) {
+		this.csvFileName = csvFileName;
+		this.dateFormat = dateFormat;
+	}
+	
+	/**
+	 * @return the buffer filled by the last call to {@link #readCsvEntry(InputStream, boolean)}
+	 */
+	byte[] buffer() {
+		return buffer;
+	}
+	
+	/**
+	 * Finds the CSV file in the zip stream and inflates it into the buffer
+	 * 
+	 * @param in the {@link InputStream} of the zip file
+	 * @param anyCsv whether to accept any .csv file rather than only the one named by csv.filename
+	 * @return number of bytes read into the buffer, or -1 if there was no CSV file
+	 * @throws IOException
+	 */
+	int readCsvEntry(InputStream in, boolean anyCsv) throws IOException {
+		try (ZipInputStream zipInStream = new ZipInputStream(in)) {
+			if(nextCsvEntry(zipInStream, anyCsv)) {
+				return readEntry(zipInStream);
+			}
+		}
+		return -1;
+	}
+	
+	/**
+	 * Moves the zip stream to the start of the CSV file
+	 * 
+	 * @param zipInStream the zip stream
+	 * @param anyCsv whether to accept any .csv file rather than only the one named by csv.filename
+	 * @return true if the CSV file was found
+	 * @throws IOException
+	 */
+	boolean nextCsvEntry(ZipInputStream zipInStream, boolean anyCsv) throws IOException {
+		ZipEntry zipEntry;
+		//Although we expect a single csv file in the zip, looping though available files
+		//will catch occasions where there are multiple files.
+		while((zipEntry = zipInStream.getNextEntry()) != null) {
+			String name = zipEntry.getName();
+			if(name.equalsIgnoreCase(csvFileName) || (anyCsv && name.toLowerCase().endsWith(".csv"))) {
+				//At this point we've found the CSV file, so no need to loop around to any additional files in the .zip
+				return true;
+			}
+		}
+		return false;
+	}
+	
+	/**
+	 * Inflates the current zip entry into the reusable buffer, growing it if needed
+	 * 
+	 * @param zipInStream stream positioned at the start of the entry
+	 * @return number of bytes read into the buffer
+	 * @throws IOException
+	 */
+	private int readEntry(ZipInputStream zipInStream) throws IOException {
+		int length = 0;
+		int read;
+		while((read = zipInStream.read(buffer, length, buffer.length - length)) != -1) {
+			length += read;
+			if(length == buffer.length) {
+				buffer = Arrays.copyOf(buffer, buffer.length * 2);
+			}
+		}
+		return length;
+	}
+	
+	/**
+	 * Parses the CSV data with commons-csv, which copes with any valid CSV file
+	 * 
+	 * @param in the CSV data
+	 * @param currencies the currencies to keep, or null for all of them
+	 * @throws IOException
+	 */
+	ExchangeRates parseWithCommonsCsv(InputStream in, Set<String> currencies) throws IOException {
+		ExchangeRates[] parsed = new ExchangeRates[1];
+		readWithCommonsCsv(in, new EcbCsvParser.RowHandler() {
+			//Position in the file of each currency kept
+			private int[] kept;
+			private double[] projected;
+			
+			@Override
+			public void header(List<String> currencyNames) {
+				List<String> names = new ArrayList<>();
+				List<Integer> positions = new ArrayList<>();
+				for(int i=0; i<currencyNames.size(); i++) {
+					if(currencies == null || currencies.contains(currencyNames.get(i))) {
+						names.add(currencyNames.get(i));
+						positions.add(i);
+					}
+				}
+				kept = positions.stream().mapToInt(Integer::intValue).toArray();
+				projected = new double[kept.length];
+				parsed[0] = new ExchangeRates(names);
+			}
+			
+			@Override
+			public boolean row(int epochDay, double[] rates) {
+				for(int i=0; i<kept.length; i++) {
+					projected[i] = rates[kept[i]];
+				}
+				parsed[0].addRow(epochDay, projected);
+				return true;
+			}
+		});
+		return parsed[0] == null ? new ExchangeRates(new ArrayList<>()) : parsed[0];
+	}
+	
+	/**
+	 * Reads the CSV data with commons-csv, passing the header and then each row to the handler
+	 * 
+	 * @param in the CSV data
+	 * @param handler receives the rows, as from {@link EcbCsvParser}
+	 * @throws IOException
+	 */
+	void readWithCommonsCsv(InputStream in, EcbCsvParser.RowHandler handler) throws IOException {
+		try(Reader reader = new InputStreamReader(in);
+				CSVParser parser = new CSVParser(reader, CSVFormat.DEFAULT)) {
+			//Reused for every row
+			double[] rates = null;
+			for(CSVRecord csvRecord : parser) {
+				List<String> recordAsList = csvRecord.stream()
+						.skip(1) //Ignore the first field, which is Date
+						.collect(Collectors.toList());
+				
+				//if the csv file has an extra empty string at the end, so filter that out
+				if(!recordAsList.isEmpty() && recordAsList.get(recordAsList.size()-1).isEmpty()) {
+					recordAsList.remove(recordAsList.size()-1);
+				}
+				
+				if(csvRecord.getRecordNumber() == 1L) {
+					//Keep track of the currency names from the first row of the CSV
+					handler.header(recordAsList);
+					rates = new double[recordAsList.size()];
+					continue;
+				}
+				
+				//Parse the String date (yyyy-MM-dd), rows without a valid date are skipped
+				int epochDay = parseEpochDay(csvRecord.get(0));
+				if(epochDay != Integer.MIN_VALUE) {
+					for(int i=0; i<rates.length; i++) {
+						rates[i] = i < recordAsList.size() ? parseDouble(recordAsList.get(i)) : Double.NaN;
+					}
+					if(!handler.row(epochDay, rates)) {
+						return;
+					}
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Helper function to parse a string value to a double, or NaN if it is not a number
+	 * 
+	 * @param stringValue input string to be converted
+	 * @return double value or NaN
+	 */
+	private static double parseDouble(String stringValue) {
+		try {
+			return Double.parseDouble(stringValue);
+		} catch(NumberFormatException e) {
+			return Double.NaN;
+		}
+	}
+	
+	/**
+	 * Helper function to parse the String date to an epoch day, in the format given by date.format
+	 * 
+	 * @param dateStr String date
+	 * @return number of days since 1970-01-01, or Integer.MIN_VALUE if the date is not valid
+	 */
+	int parseEpochDay(String dateStr) {
+		if(dateFormat == null) {
+			return EpochDay.parse(dateStr);
+		}
+		try {
+			return EpochDay.of(LocalDate.parse(dateStr, dateFormat));
+		} catch(DateTimeParseException e) {
+			return Integer.MIN_VALUE;
+		}
+	}
+}
@@ -0,0 +1,18 @@
+package com.rr.eucentralbank.exception;
+
+/**
+ * Exception which is thrown when CSV data does not follow the layout of the ECB files, 
+ * so it has to be read by the general purpose parser instead.
+ * 
+ * @author Robert Rodrigues
+ *
+ */
+public class UnsupportedLayoutException extends Exception {
+
+	private static final long serialVersionUID = -3848817129507530457L;
+
+	public UnsupportedLayoutException(String errorMessage) {
+        super(errorMessage);
+    }
+	
+}
@@ -0,0 +1,53 @@
+package com.rr.eucentralbank.metrics;
+
+/**
+ * Receives timings and counts from {@link com.rr.eucentralbank.api.ForexImpl}. Implementations 
+ * must be thread safe, as queries report from whichever thread called them. Every method has an 
+ * empty default, so an implementation only overrides what it needs.
+ * 
+ * {@link #NONE} is the default. While it is set the queries don't read the clock at all.
+ * 
+ * @author Robert Rodrigues
+ *
+ */
+public interface ForexMetrics {
+
+	//Reports nothing
+	ForexMetrics NONE = new ForexMetrics() {
+	};
+	
+	/**
+	 * The query methods which are measured
+	 */
+	enum Query {
+		READ_DATA_FOR_DATE,
+		READ_DATA_AS_OF,
+		CONVERT_CURRENCY,
+		CONVERT_CURRENCY_AS_OF,
+		CONVERT_CURRENCIES,
+		CALCULATE_HIGHEST,
+		CALCULATE_AVERAGE,
+		CALCULATE_PERCENTILE,
+		CALCULATE_PERCENT_RANK,
+		STATISTICS
+	}
+	
+	/**
+	 * Called once a load or update has been published
+	 * 
+	 * @param load timings and sizes of the load
+	 */
+	default void loaded(LoadSummary load) {
+	}
+	
+	/**
+	 * Called as a query returns, including when it throws
+	 * 
+	 * @param query the method called
+	 * @param nanos time taken
+	 * @param rows number of rows the query covered, for a batch the number of amounts
+	 */
+	default void query(Query query, long nanos, int rows) {
+	}
+	
+}
@@ -0,0 +1,123 @@
+package com.rr.eucentralbank.metrics;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Timespan;
+
+/**
+ * Records loads and slow queries as JDK Flight Recorder events, then passes everything on to 
+ * another {@link ForexMetrics}. The events cost next to nothing while no recording is running.
+ * 
+ * @author Robert Rodrigues
+ *
+ */
+public class JfrMetrics implements ForexMetrics {
+
+	private final ForexMetrics delegate;
+	private final long slowQueryNanos;
+	
+	/**
+	 * @param delegate receives every call after the events are recorded, {@link ForexMetrics#NONE} for JFR only
+	 * @param slowQueryNanos queries taking at least this long are recorded
+	 */
+	public JfrMetrics(ForexMetrics delegate, long slowQueryNanos) {
+		this.delegate = delegate;
+		this.slowQueryNanos = slowQueryNanos;
+	}
+	
+	@Override
+	public void loaded(LoadSummary load) {
+		LoadEvent event = new LoadEvent();
+		if(event.isEnabled()) {
+			event.update = load.isUpdate();
+			event.downloadNanos = load.getDownloadNanos();
+			event.inflateNanos = load.getInflateNanos();
+			event.parseNanos = load.getParseNanos();
+			event.buildNanos = load.getBuildNanos();
+			event.compressedBytes = load.getCompressedBytes();
+			event.csvBytes = load.getCsvBytes();
+			event.rows = load.getRows();
+			event.currencies = load.getCurrencies();
+			event.commit();
+		}
+		delegate.loaded(load);
+	}
+	
+	@Override
+	public void query(Query query, long nanos, int rows) {
+		if(nanos >= slowQueryNanos) {
+			SlowQueryEvent event = new SlowQueryEvent();
+			if(event.isEnabled()) {
+				event.query = query.name();
+				event.nanos = nanos;
+				event.rows = rows;
+				event.commit();
+			}
+		}
+		delegate.query(query, nanos, rows);
+	}
+	
+	@Name("com.rr.eucentralbank.Load")
+	@Label("Exchange Rate Load")
+	@Category("Exchange Rates")
+	@Description("A load or update of the exchange rate data")
+	static class LoadEvent extends Event {
+		
+		@Label("Update")
+		boolean update;
+		
+		@Label("Download")
+		@Timespan(Timespan.NANOSECONDS)
+		long downloadNanos;
+		
+		@Label("Inflate")
+		@Timespan(Timespan.NANOSECONDS)
+		long inflateNanos;
+		
+		@Label("Parse")
+		@Timespan(Timespan.NANOSECONDS)
+		long parseNanos;
+		
+		@Label("Build")
+		@Timespan(Timespan.NANOSECONDS)
+		long buildNanos;
+		
+		@Label("Compressed Size")
+		@DataAmount
+		long compressedBytes;
+		
+		@Label("CSV Size")
+		@DataAmount
+		long csvBytes;
+		
+		@Label("Rows")
+		int rows;
+		
+		@Label("Currencies")
+		int currencies;
+		
+	}
+	
+	@Name("com.rr.eucentralbank.SlowQuery")
+	@Label("Slow Exchange Rate Query")
+	@Category("Exchange Rates")
+	@Description("A query which took longer than the configured threshold")
+	static class SlowQueryEvent extends Event {
+		
+		@Label("Query")
+		String query;
+		
+		@Label("Duration")
+		@Timespan(Timespan.NANOSECONDS)
+		long nanos;
+		
+		@Label("Rows")
+		int rows;
+		
+	}
+	
+}
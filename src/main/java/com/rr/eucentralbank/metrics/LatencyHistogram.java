@@ -0,0 +1,110 @@
+package com.rr.eucentralbank.metrics;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A concurrent histogram of durations in nanoseconds. Each power of two is split into 8 buckets, 
+ * so a percentile is accurate to within 12.5% whatever the range of values, in a fixed 4KB.
+ * Recording never allocates or locks.
+ * 
+ * @author Robert Rodrigues
+ *
+ */
+public class LatencyHistogram {
+
+	//Buckets per power of two, as a shift
+	private static final int SUB_BITS = 3;
+	private static final int SUB_BUCKETS = 1 << SUB_BITS;
+	
+	//Values below SUB_BUCKETS have a bucket each, then SUB_BUCKETS per power of two up to 2^63
+	private static final int BUCKETS = (63 - SUB_BITS + 1) * SUB_BUCKETS;
+	
+	private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+	private final LongAdder count = new LongAdder();
+	private final LongAdder total = new LongAdder();
+	private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+	
+	/**
+	 * Records a duration, negative values are counted as zero
+	 * 
+	 * @param nanos the duration
+	 */
+	public void record(long nanos) {
+		long value = Math.max(0, nanos);
+		counts.incrementAndGet(bucket(value));
+		count.increment();
+		total.add(value);
+		max.accumulate(value);
+	}
+	
+	public long getCount() {
+		return count.sum();
+	}
+	
+	public long getMax() {
+		return max.get();
+	}
+	
+	/**
+	 * @return the mean duration, or 0 if nothing was recorded
+	 */
+	public double getMean() {
+		long n = count.sum();
+		return n == 0 ? 0 : (double) total.sum() / n;
+	}
+	
+	/**
+	 * Returns an upper bound of the given percentile, which is never more than 12.5% above it
+	 * 
+	 * @param percentile between 0 and 100
+	 * @return the duration, or 0 if nothing was recorded
+	 */
+	public long getPercentile(double percentile) {
+		long n = 0;
+		long[] snapshot = new long[BUCKETS];
+		for(int i=0; i<BUCKETS; i++) {
+			snapshot[i] = counts.get(i);
+			n += snapshot[i];
+		}
+		if(n == 0) {
+			return 0;
+		}
+		long rank = Math.max(1, (long) Math.ceil(n * Math.min(100, Math.max(0, percentile)) / 100));
+		long seen = 0;
+		for(int i=0; i<BUCKETS; i++) {
+			seen += snapshot[i];
+			if(seen >= rank) {
+				//The largest value of the bucket, but never beyond the largest recorded
+				return Math.min(upperBound(i), getMax());
+			}
+		}
+		return getMax();
+	}
+	
+	private static int bucket(long value) {
+		if(value < SUB_BUCKETS) {
+			return (int) value;
+		}
+		int exponent = 63 - Long.numberOfLeadingZeros(value);
+		int sub = (int) (value >>> (exponent - SUB_BITS)) & (SUB_BUCKETS - 1);
+		return (exponent - SUB_BITS + 1) * SUB_BUCKETS + sub;
+	}
+	
+	private static long upperBound(int bucket) {
+		if(bucket < SUB_BUCKETS) {
+			return bucket;
+		}
+		int exponent = bucket / SUB_BUCKETS + SUB_BITS - 1;
+		long lower = (long) (SUB_BUCKETS + bucket % SUB_BUCKETS) << (exponent - SUB_BITS);
+		return lower + (1L << (exponent - SUB_BITS)) - 1;
+	}
+	
+	@Override
+	public String toString() {
+		return "count=" + getCount() + " mean=" + Math.round(getMean()) + "ns p50=" + getPercentile(50) 
+				+ "ns p99=" + getPercentile(99) + "ns max=" + getMax() + "ns";
+	}
+	
+}
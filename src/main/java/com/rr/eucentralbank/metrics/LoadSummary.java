@@ -0,0 +1,93 @@
+package com.rr.eucentralbank.metrics;
+
+/**
+ * Timings and sizes of a single load or update. The phases don't overlap, so their sum is the 
+ * time spent loading once the stream was open.
+ * 
+ * @author Robert Rodrigues
+ *
+ */
+public final class LoadSummary {
+
+	private final boolean update;
+	private final long downloadNanos;
+	private final long inflateNanos;
+	private final long parseNanos;
+	private final long buildNanos;
+	private final long compressedBytes;
+	private final long csvBytes;
+	private final int rows;
+	private final int currencies;
+	
+	/**
+	 * @param update whether this was an update rather than a full load
+	 * @param downloadNanos time spent waiting for the compressed data
+	 * @param inflateNanos time spent finding and inflating the CSV file, excluding the download
+	 * @param parseNanos time spent parsing the CSV file
+	 * @param buildNanos time spent sorting and merging the model before it was published
+	 * @param compressedBytes bytes read from the stream
+	 * @param csvBytes size of the inflated CSV file
+	 * @param rows rows loaded, or for an update the rows added
+	 * @param currencies currencies in the published model
+	 */
+	public LoadSummary(boolean update, long downloadNanos, long inflateNanos, long parseNanos, long buildNanos,
+			long compressedBytes, long csvBytes, int rows, int currencies) {
+		this.update = update;
+		this.downloadNanos = downloadNanos;
+		this.inflateNanos = inflateNanos;
+		this.parseNanos = parseNanos;
+		this.buildNanos = buildNanos;
+		this.compressedBytes = compressedBytes;
+		this.csvBytes = csvBytes;
+		this.rows = rows;
+		this.currencies = currencies;
+	}
+
+	public boolean isUpdate() {
+		return update;
+	}
+
+	public long getDownloadNanos() {
+		return downloadNanos;
+	}
+
+	public long getInflateNanos() {
+		return inflateNanos;
+	}
+
+	public long getParseNanos() {
+		return parseNanos;
+	}
+
+	public long getBuildNanos() {
+		return buildNanos;
+	}
+	
+	public long getTotalNanos() {
+		return downloadNanos + inflateNanos + parseNanos + buildNanos;
+	}
+
+	public long getCompressedBytes() {
+		return compressedBytes;
+	}
+
+	public long getCsvBytes() {
+		return csvBytes;
+	}
+
+	public int getRows() {
+		return rows;
+	}
+
+	public int getCurrencies() {
+		return currencies;
+	}
+	
+	@Override
+	public String toString() {
+		return (update ? "Update" : "Load") + " of " + rows + " rows x " + currencies + " currencies, "
+				+ compressedBytes + " bytes compressed, " + csvBytes + " bytes CSV: download " + downloadNanos 
+				+ "ns, inflate " + inflateNanos + "ns, parse " + parseNanos + "ns, build " + buildNanos + "ns";
+	}
+	
+}
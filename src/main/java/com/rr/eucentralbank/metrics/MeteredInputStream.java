@@ -0,0 +1,61 @@
+package com.rr.eucentralbank.metrics;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Counts the bytes read through it and the time spent waiting for them
+ * 
+ * @author Robert Rodrigues
+ *
+ */
+public class MeteredInputStream extends FilterInputStream {
+
+	private long bytes;
+	private long nanos;
+	
+	public MeteredInputStream(InputStream in) {
+		super(in);
+	}
+	
+	@Override
+	public int read() throws IOException {
+		long start = System.nanoTime();
+		int value = super.read();
+		nanos += System.nanoTime() - start;
+		if(value >= 0) {
+			bytes++;
+		}
+		return value;
+	}
+	
+	@Override
+	public int read(byte[] b, int off, int len) throws IOException {
+		long start = System.nanoTime();
+		int read = super.read(b, off, len);
+		nanos += System.nanoTime() - start;
+		if(read > 0) {
+			bytes += read;
+		}
+		return read;
+	}
+	
+	@Override
+	public long skip(long n) throws IOException {
+		long start = System.nanoTime();
+		long skipped = super.skip(n);
+		nanos += System.nanoTime() - start;
+		bytes += skipped;
+		return skipped;
+	}
+	
+	public long getBytes() {
+		return bytes;
+	}
+	
+	public long getNanos() {
+		return nanos;
+	}
+	
+}
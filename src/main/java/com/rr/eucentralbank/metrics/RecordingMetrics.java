@@ -0,0 +1,71 @@
+package com.rr.eucentralbank.metrics;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Keeps a latency histogram and a count of rows covered for each query method, and the most recent 
+ * load, in memory. An exporter can read them periodically.
+ * 
+ * @author Robert Rodrigues
+ *
+ */
+public class RecordingMetrics implements ForexMetrics {
+
+	private final Map<Query, LatencyHistogram> latencies = new EnumMap<>(Query.class);
+	private final Map<Query, LongAdder> rows = new EnumMap<>(Query.class);
+	private final LongAdder loads = new LongAdder();
+	private volatile LoadSummary lastLoad;
+	
+	public RecordingMetrics() {
+		//Filled up front, so the maps are only read after construction
+		for(Query query : Query.values()) {
+			latencies.put(query, new LatencyHistogram());
+			rows.put(query, new LongAdder());
+		}
+	}
+	
+	@Override
+	public void loaded(LoadSummary load) {
+		lastLoad = load;
+		loads.increment();
+	}
+	
+	@Override
+	public void query(Query query, long nanos, int rows) {
+		latencies.get(query).record(nanos);
+		this.rows.get(query).add(rows);
+	}
+	
+	/**
+	 * @param query the query method
+	 * @return histogram of the time taken by each call
+	 */
+	public LatencyHistogram getLatency(Query query) {
+		return latencies.get(query);
+	}
+	
+	/**
+	 * @param query the query method
+	 * @return total number of rows covered by all calls
+	 */
+	public long getRowsScanned(Query query) {
+		return rows.get(query).sum();
+	}
+	
+	/**
+	 * @return number of loads and updates reported
+	 */
+	public long getLoadCount() {
+		return loads.sum();
+	}
+	
+	/**
+	 * @return the most recent load or update, or null if there hasn't been one
+	 */
+	public LoadSummary getLastLoad() {
+		return lastLoad;
+	}
+	
+}
@@ -0,0 +1,55 @@
+package com.rr.eucentralbank.model;
+
+import java.util.Arrays;
+
+/**
+ * A {@link RateColumn} held in a primitive array on the heap. This is the only kind of column 
+ * which rows can be added to.
+ * 
+ * @author Robert Rodrigues
+ *
+ */
+public class ArrayRateColumn extends RateColumn {
+
+	//Package visible, so that the model can sort and copy whole columns at a time
+	double[] values;
+	
+	public ArrayRateColumn(int capacity) {
+		this.values = new double[capacity];
+	}
+	
+	public ArrayRateColumn(double[] values) {
+		this.values = values;
+	}
+	
+	@Override
+	public double get(int row) {
+		return values[row];
+	}
+	
+	@Override
+	public void copyTo(int from, int to, double[] target, int offset) {
+		System.arraycopy(values, from, target, offset, to - from);
+	}
+	
+	public void set(int row, double value) {
+		values[row] = value;
+	}
+	
+	/**
+	 * Grows the array so that it can hold at least the given number of rows
+	 * 
+	 * @param capacity the number of rows needed
+	 */
+	public void ensureCapacity(int capacity) {
+		if(values.length < capacity) {
+			values = Arrays.copyOf(values, capacity);
+		}
+	}
+	
+	@Override
+	public long memoryBytes() {
+		return (long) values.length * Double.BYTES;
+	}
+	
+}
@@ -0,0 +1,54 @@
+package com.rr.eucentralbank.model;
+
+/**
+ * The aggregates of a {@link CompactRateColumn}, answered from the totals the column keeps for each 
+ * block of rows. No arrays are added, so a compact column stays compact once it has been queried.
+ * Rows can't be appended, a model adding rows to a compact column copies it onto the heap first.
+ * 
+ * @author Robert Rodrigues
+ *
+ */
+class BlockAggregateIndex extends RangeAggregateIndex {
+
+	private final CompactRateColumn column;
+	
+	BlockAggregateIndex(CompactRateColumn column) {
+		this.column = column;
+	}
+	
+	@Override
+	public void append(double value) {
+		throw new UnsupportedOperationException("A compact column can't be appended to");
+	}
+	
+	@Override
+	public double sum(int from, int to) {
+		return from >= to ? 0 : column.sum(from, to);
+	}
+	
+	@Override
+	public int count(int from, int to) {
+		return from >= to ? 0 : column.count(from, to);
+	}
+	
+	@Override
+	public double max(int from, int to) {
+		return column.max(from, to);
+	}
+	
+	@Override
+	public double min(int from, int to) {
+		return column.min(from, to);
+	}
+	
+	@Override
+	public int size() {
+		return column.getRowCount();
+	}
+	
+	@Override
+	public long memoryBytes() {
+		return 0;
+	}
+	
+}
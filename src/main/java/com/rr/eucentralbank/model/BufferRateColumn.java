@@ -0,0 +1,30 @@
+package com.rr.eucentralbank.model;
+
+import java.nio.DoubleBuffer;
+
+/**
+ * A read-only {@link RateColumn} which reads straight from a {@link DoubleBuffer}, 
+ * for example a view onto a memory mapped snapshot file.
+ * 
+ * @author Robert Rodrigues
+ *
+ */
+public class BufferRateColumn extends RateColumn {
+
+	private final DoubleBuffer buffer;
+	
+	public BufferRateColumn(DoubleBuffer buffer) {
+		this.buffer = buffer;
+	}
+	
+	@Override
+	public double get(int row) {
+		return buffer.get(row);
+	}
+	
+	@Override
+	public long memoryBytes() {
+		return buffer.isDirect() ? 0 : (long) buffer.capacity() * Double.BYTES;
+	}
+	
+}
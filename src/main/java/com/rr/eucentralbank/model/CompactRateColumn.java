@@ -0,0 +1,343 @@
+package com.rr.eucentralbank.model;
+
+/**
+ * A read-only {@link RateColumn} which stores each rate as a whole number of units of its last decimal,
+ * for example 1.1602 as 11602 with a scale of 4. The rows are split into blocks of {@value #BLOCK_SIZE},
+ * and each block stores its values as the difference from the lowest value in the block, packed into
+ * as few bits as the largest difference needs. The ECB rates only have a few digits and move little
+ * from day to day, so most rates take one or two bytes rather than eight.
+ * 
+ * Each block also keeps the count, sum, lowest and highest of its rates, so that range aggregates
+ * only decode the blocks at either end of the range.
+ * 
+ * Values are decoded by the same division by a power of ten as {@link com.rr.eucentralbank.parser.EcbCsvParser}
+ * uses, so they are exactly the doubles which were encoded.
+ * 
+ * @author Robert Rodrigues
+ *
+ */
+public class CompactRateColumn extends RateColumn {
+	
+	public static final int BLOCK_SIZE = 128;
+	
+	private static final int BLOCK_SHIFT = 7;
+	
+	//Largest scale tried, and the powers of ten up to it, all exact as doubles
+	private static final int MAX_SCALE = 9;
+	private static final double[] POWERS_OF_TEN = {1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9};
+	
+	//Scaled values above this are not exact as doubles
+	private static final long MAX_SCALED = 1L << 53;
+	
+	private final int rowCount;
+	private final double divisor;
+	
+	//The packed differences of all blocks, each block starting on a new word
+	private final long[] words;
+	
+	//Per block: first word, bits per value, lowest scaled value, code of a missing value (-1 if none), 
+	//and the aggregates of its rates
+	private final int[] blockStart;
+	private final byte[] blockWidth;
+	private final long[] blockBase;
+	private final long[] blockMissing;
+	private final int[] blockCount;
+	private final double[] blockSum;
+	private final double[] blockMin;
+	private final double[] blockMax;
+	
+	private CompactRateColumn(int rowCount, int scale, int blockCount, int wordCount) {
+		this.rowCount = rowCount;
+		this.divisor = POWERS_OF_TEN[scale];
+		this.words = new long[wordCount];
+		this.blockStart = new int[blockCount];
+		this.blockWidth = new byte[blockCount];
+		this.blockBase = new long[blockCount];
+		this.blockMissing = new long[blockCount];
+		this.blockCount = new int[blockCount];
+		this.blockSum = new double[blockCount];
+		this.blockMin = new double[blockCount];
+		this.blockMax = new double[blockCount];
+	}
+	
+	/**
+	 * Encodes the first rows of a column
+	 * 
+	 * @param column the rates, NaN where missing
+	 * @param rowCount number of rows to encode
+	 * @return the encoded column, or null if a rate has too many decimals or digits to be stored exactly
+	 */
+	public static CompactRateColumn encode(RateColumn column, int rowCount) {
+		double[] values = new double[rowCount];
+		column.copyTo(0, rowCount, values, 0);
+		
+		//The scale of the column is the most decimals any of its rates needs
+		int scale = 0;
+		for(double value : values) {
+			if(!Double.isNaN(value)) {
+				while(scale <= MAX_SCALE && !isExact(value, scale)) {
+					scale++;
+				}
+				if(scale > MAX_SCALE) {
+					return null;
+				}
+			}
+		}
+		double divisor = POWERS_OF_TEN[scale];
+		
+		//Scale the values and size each block, a missing value is stored as one more than the largest difference
+		int blockCount = (rowCount + BLOCK_SIZE - 1) >> BLOCK_SHIFT;
+		long[] scaled = new long[rowCount];
+		long[] base = new long[blockCount];
+		long[] missingCode = new long[blockCount];
+		int[] width = new int[blockCount];
+		int wordCount = 0;
+		for(int b=0; b<blockCount; b++) {
+			int from = b << BLOCK_SHIFT;
+			int to = Math.min(from + BLOCK_SIZE, rowCount);
+			long min = Long.MAX_VALUE;
+			long max = Long.MIN_VALUE;
+			boolean missing = false;
+			for(int r=from; r<to; r++) {
+				if(Double.isNaN(values[r])) {
+					missing = true;
+				} else {
+					scaled[r] = Math.round(values[r] * divisor);
+					min = Math.min(min, scaled[r]);
+					max = Math.max(max, scaled[r]);
+				}
+			}
+			if(min > max) {
+				//Every value is missing
+				min = max = 0;
+			}
+			base[b] = min;
+			missingCode[b] = missing ? max - min + 1 : -1;
+			width[b] = 64 - Long.numberOfLeadingZeros(missing ? max - min + 1 : max - min);
+			wordCount += ((to - from) * width[b] + 63) >> 6;
+		}
+		
+		CompactRateColumn compact = new CompactRateColumn(rowCount, scale, blockCount, wordCount);
+		int word = 0;
+		for(int b=0; b<blockCount; b++) {
+			int from = b << BLOCK_SHIFT;
+			int to = Math.min(from + BLOCK_SIZE, rowCount);
+			compact.blockStart[b] = word;
+			compact.blockWidth[b] = (byte) width[b];
+			compact.blockBase[b] = base[b];
+			compact.blockMissing[b] = missingCode[b];
+			double sum = 0;
+			int count = 0;
+			double min = Double.POSITIVE_INFINITY;
+			double max = Double.NEGATIVE_INFINITY;
+			for(int r=from; r<to; r++) {
+				boolean missing = Double.isNaN(values[r]);
+				long code = missing ? missingCode[b] : scaled[r] - base[b];
+				compact.write(word, (long) (r - from) * width[b], width[b], code);
+				if(!missing) {
+					sum += values[r];
+					count++;
+					min = Math.min(min, values[r]);
+					max = Math.max(max, values[r]);
+				}
+			}
+			compact.blockSum[b] = sum;
+			compact.blockCount[b] = count;
+			compact.blockMin[b] = min;
+			compact.blockMax[b] = max;
+			word += ((to - from) * width[b] + 63) >> 6;
+		}
+		return compact;
+	}
+	
+	/**
+	 * Whether a rate is a whole number of units at the given scale, and decodes back to the same double
+	 */
+	static boolean isExact(double value, int scale) {
+		double scaled = Math.rint(value * POWERS_OF_TEN[scale]);
+		return Math.abs(scaled) < MAX_SCALED && scaled / POWERS_OF_TEN[scale] == value;
+	}
+	
+	/**
+	 * @return the fewest decimals at which a rate is exact, or -1 if it has too many decimals or digits
+	 */
+	static int scaleOf(double value) {
+		for(int scale=0; scale<=MAX_SCALE; scale++) {
+			if(isExact(value, scale)) {
+				return scale;
+			}
+		}
+		return -1;
+	}
+	
+	/**
+	 * @return ten to the power of a scale returned by {@link #scaleOf(double)}
+	 */
+	static double powerOfTen(int scale) {
+		return POWERS_OF_TEN[scale];
+	}
+	
+	private void write(int word, long bit, int width, long code) {
+		if(width == 0) {
+			return;
+		}
+		int w = word + (int) (bit >>> 6);
+		int shift = (int) (bit & 63);
+		words[w] |= code << shift;
+		if(shift + width > 64) {
+			words[w + 1] |= code >>> (64 - shift);
+		}
+	}
+	
+	private long read(int block, int index) {
+		int width = blockWidth[block];
+		if(width == 0) {
+			return 0;
+		}
+		long bit = (long) index * width;
+		int w = blockStart[block] + (int) (bit >>> 6);
+		int shift = (int) (bit & 63);
+		long code = words[w] >>> shift;
+		if(shift + width > 64) {
+			code |= words[w + 1] << (64 - shift);
+		}
+		return width == 64 ? code : code & ((1L << width) - 1);
+	}
+	
+	private int blockSize(int block) {
+		return Math.min(BLOCK_SIZE, rowCount - (block << BLOCK_SHIFT));
+	}
+	
+	@Override
+	public double get(int row) {
+		int block = row >> BLOCK_SHIFT;
+		long code = read(block, row & (BLOCK_SIZE - 1));
+		return code == blockMissing[block] ? Double.NaN : (blockBase[block] + code) / divisor;
+	}
+	
+	@Override
+	public void copyTo(int from, int to, double[] target, int offset) {
+		//One block at a time, so its base and missing code are only looked up once
+		for(int r=from; r<to; ) {
+			int block = r >> BLOCK_SHIFT;
+			int end = Math.min(to, (block + 1) << BLOCK_SHIFT);
+			long base = blockBase[block];
+			long missing = blockMissing[block];
+			for(; r<end; r++) {
+				long code = read(block, r & (BLOCK_SIZE - 1));
+				target[offset++] = code == missing ? Double.NaN : (base + code) / divisor;
+			}
+		}
+	}
+	
+	public int getRowCount() {
+		return rowCount;
+	}
+	
+	/**
+	 * @param from first row (inclusive)
+	 * @param to last row (exclusive)
+	 * @return sum of the non-null values in the range
+	 */
+	public double sum(int from, int to) {
+		double sum = 0;
+		for(int block = from >> BLOCK_SHIFT; from < to; block++) {
+			int end = Math.min(to, (block + 1) << BLOCK_SHIFT);
+			if(from == block << BLOCK_SHIFT && end - from == blockSize(block)) {
+				sum += blockSum[block];
+			} else {
+				for(int r=from; r<end; r++) {
+					double value = get(r);
+					if(!Double.isNaN(value)) {
+						sum += value;
+					}
+				}
+			}
+			from = end;
+		}
+		return sum;
+	}
+	
+	/**
+	 * @param from first row (inclusive)
+	 * @param to last row (exclusive)
+	 * @return number of non-null values in the range
+	 */
+	public int count(int from, int to) {
+		int count = 0;
+		for(int block = from >> BLOCK_SHIFT; from < to; block++) {
+			int end = Math.min(to, (block + 1) << BLOCK_SHIFT);
+			if(from == block << BLOCK_SHIFT && end - from == blockSize(block)) {
+				count += blockCount[block];
+			} else {
+				for(int r=from; r<end; r++) {
+					if(!Double.isNaN(get(r))) {
+						count++;
+					}
+				}
+			}
+			from = end;
+		}
+		return count;
+	}
+	
+	/**
+	 * @param from first row (inclusive)
+	 * @param to last row (exclusive)
+	 * @return the highest non-null value in the range, or -Infinity if there is none
+	 */
+	public double max(int from, int to) {
+		double max = Double.NEGATIVE_INFINITY;
+		for(int block = from >> BLOCK_SHIFT; from < to; block++) {
+			int end = Math.min(to, (block + 1) << BLOCK_SHIFT);
+			//A block can be skipped when it can't raise the result
+			if(blockMax[block] > max) {
+				if(from == block << BLOCK_SHIFT && end - from == blockSize(block)) {
+					max = blockMax[block];
+				} else {
+					for(int r=from; r<end; r++) {
+						double value = get(r);
+						if(value > max) {
+							max = value;
+						}
+					}
+				}
+			}
+			from = end;
+		}
+		return max;
+	}
+	
+	/**
+	 * @param from first row (inclusive)
+	 * @param to last row (exclusive)
+	 * @return the lowest non-null value in the range, or +Infinity if there is none
+	 */
+	public double min(int from, int to) {
+		double min = Double.POSITIVE_INFINITY;
+		for(int block = from >> BLOCK_SHIFT; from < to; block++) {
+			int end = Math.min(to, (block + 1) << BLOCK_SHIFT);
+			if(blockMin[block] < min) {
+				if(from == block << BLOCK_SHIFT && end - from == blockSize(block)) {
+					min = blockMin[block];
+				} else {
+					for(int r=from; r<end; r++) {
+						double value = get(r);
+						if(value < min) {
+							min = value;
+						}
+					}
+				}
+			}
+			from = end;
+		}
+		return min;
+	}
+	
+	@Override
+	public long memoryBytes() {
+		int blocks = blockStart.length;
+		return (long) words.length * Long.BYTES + (long) blocks * (Integer.BYTES * 2 + 1 + Long.BYTES * 2 + Double.BYTES * 3);
+	}
+	
+}
@@ -0,0 +1,133 @@
+package com.rr.eucentralbank.model;
+
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.util.Date;
+import java.util.TimeZone;
+
+/**
+ * Helper functions for converting between {@link Date} objects and the epoch-day
+ * representation (days since 1970-01-01) used by the in-memory model.
+ * 
+ * An epoch day is the same as {@link LocalDate#toEpochDay()}. A {@link Date} is an instant rather than 
+ * a calendar day, so it is converted to the day it falls on in the JVM's default time zone, which is 
+ * also the zone the old Date based parsing used.
+ * 
+ * Days outside the range of an int, such as {@link LocalDate#MIN} and {@link LocalDate#MAX}, are clamped 
+ * to Integer.MIN_VALUE and Integer.MAX_VALUE, so they still work as open ended bounds of a range.
+ * 
+ * @author Robert Rodrigues
+ *
+ */
+public final class EpochDay {
+
+	//Days before the first of each month in a non-leap year
+	private static final int[] DAYS_BEFORE_MONTH = {0, 31, 59, 90, 120, 151, 181, 212, 243, 273, 304, 334};
+	
+	private static final int[] DAYS_IN_MONTH = {31, 28, 31, 30, 31, 30, 31, 31, 30, 31, 30, 31};
+	
+	private static final long MILLIS_PER_DAY = 24 * 60 * 60 * 1000L;
+	
+	private EpochDay() {
+	}
+	
+	/**
+	 * Converts a calendar date to an epoch day without creating any objects
+	 * 
+	 * @param year the year, eg. 2021
+	 * @param month the month, 1 to 12
+	 * @param day the day of the month, starting at 1
+	 * @return number of days since 1970-01-01, or Integer.MIN_VALUE if the date is not valid
+	 */
+	public static int of(int year, int month, int day) {
+		if(month < 1 || month > 12 || day < 1) {
+			return Integer.MIN_VALUE;
+		}
+		boolean leap = (year % 4 == 0 && year % 100 != 0) || year % 400 == 0;
+		int monthLength = DAYS_IN_MONTH[month - 1] + (leap && month == 2 ? 1 : 0);
+		if(day > monthLength) {
+			return Integer.MIN_VALUE;
+		}
+		//Count whole years from 1970 using the leap days before the given year
+		int y = year - 1;
+		long days = 365L * (year - 1970) + (y / 4 - y / 100 + y / 400) - (1969 / 4 - 1969 / 100 + 1969 / 400);
+		days += DAYS_BEFORE_MONTH[month - 1] + (leap && month > 2 ? 1 : 0) + day - 1;
+		return (int) days;
+	}
+	
+	/**
+	 * Converts a {@link LocalDate} to an epoch day, clamped to the range of an int
+	 * 
+	 * @param date the {@link LocalDate} to convert
+	 * @return number of days since 1970-01-01
+	 */
+	public static int of(LocalDate date) {
+		return clamp(date.toEpochDay());
+	}
+	
+	/**
+	 * Parses a date in the yyyy-MM-dd format without a formatter
+	 * 
+	 * @param text the date
+	 * @return number of days since 1970-01-01, or Integer.MIN_VALUE if the text is not a valid date in that format
+	 */
+	public static int parse(CharSequence text) {
+		if(text.length() != 10 || text.charAt(4) != '-' || text.charAt(7) != '-') {
+			return Integer.MIN_VALUE;
+		}
+		int year = digits(text, 0, 4);
+		int month = digits(text, 5, 2);
+		int day = digits(text, 8, 2);
+		if(year < 0 || month < 0 || day < 0) {
+			return Integer.MIN_VALUE;
+		}
+		return of(year, month, day);
+	}
+	
+	/**
+	 * Reads a fixed number of digits as a number
+	 * 
+	 * @return the number, or -1 if any of the characters are not digits
+	 */
+	private static int digits(CharSequence text, int start, int count) {
+		int value = 0;
+		for(int i=start; i<start+count; i++) {
+			int digit = text.charAt(i) - '0';
+			if(digit < 0 || digit > 9) {
+				return -1;
+			}
+			value = value * 10 + digit;
+		}
+		return value;
+	}
+	
+	/**
+	 * Converts a {@link Date} to the calendar day it falls on in the system default time zone
+	 * 
+	 * @param date the {@link Date} to convert
+	 * @return number of days since 1970-01-01, clamped to the range of an int
+	 */
+	public static int fromDate(Date date) {
+		long millis = date.getTime();
+		//The offset in effect at that instant, including daylight saving. It is added to the time of 
+		//day rather than to the instant, which could overflow for dates at the ends of the range
+		int offset = TimeZone.getDefault().getOffset(millis);
+		long days = Math.floorDiv(millis, MILLIS_PER_DAY) + Math.floorDiv(Math.floorMod(millis, MILLIS_PER_DAY) + offset, MILLIS_PER_DAY);
+		return clamp(days);
+	}
+	
+	private static int clamp(long epochDay) {
+		return (int) Math.max(Integer.MIN_VALUE, Math.min(Integer.MAX_VALUE, epochDay));
+	}
+	
+	/**
+	 * Converts an epoch day to a {@link Date} at midnight in the system default time zone
+	 * 
+	 * @param epochDay number of days since 1970-01-01
+	 * @return the converted {@link Date}
+	 */
+	public static Date toDate(int epochDay) {
+		return Date.from(LocalDate.ofEpochDay(epochDay).atStartOfDay(ZoneId.systemDefault()).toInstant());
+	}
+	
+}
@@ -1,23 +1,86 @@
 package com.rr.eucentralbank.model;
 
+import java.nio.IntBuffer;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.stream.IntStream;
 import java.util.stream.Stream;
 
 /**
  * This model holds the currency data. 
- * It is structured in this way so that the number of columns can be arbitrary
+ * It is structured in this way so that the number of columns can be arbitrary.
+ * 
+ * The data is stored column by column: the dates are held as a primitive array of epoch days, 
+ * and each currency has its own {@link RateColumn} where a missing value is NaN. Columns are 
+ * normally primitive arrays, but may also read from outside the heap, such as a memory mapped file, 
+ * in which case the dates and the aggregate indexes can be read from there too.
+ * 
+ * Rows are kept in ascending date order, which allows dates to be found with a binary search.
+ * The ECB files list the newest date first, so rows which arrive out of order are sorted 
+ * before the first lookup. At the same point a {@link RangeAggregateIndex} is built for each 
+ * currency, and it is kept up to date as further rows are appended in date order. The 
+ * {@link OrderStatisticsIndex} for percentiles and ranks is built with the other indexes by 
+ * {@link #ensureIndexed()}, otherwise it is built for a currency on its first such query.
+ * 
+ * A model is built by adding rows and is then published to readers with {@link #publish()}, which 
+ * sorts it. Once published it can't be changed; newer data is added with {@link #withNewerRows(ExchangeRates)}, 
+ * which returns a new model. The new model shares the arrays of the old one and only writes past the 
+ * rows the old one can see, so readers of either model never need to lock. Sorting always writes to 
+ * new arrays, so it never reorders rows another model can see. Every model has its own version number.
+ * 
+ * A published model can be compacted with {@link #compact()}, which stores the rates as packed integers.
  * 
  * @author Robert Rodrigues
  *
  */
 public class ExchangeRates {
 
+	private static final int INITIAL_CAPACITY = 256;
+	
+	private static final AtomicLong VERSIONS = new AtomicLong();
+	
+	private final long version = VERSIONS.incrementAndGet();
+	
+	//Set once a newer model has been derived from this one and is writing into the shared arrays
+	private final AtomicBoolean derived = new AtomicBoolean();
+	
 	//Holds list of currency names (3 letters)
 	private List<String> currencyNames;
 	
-	//Initialise as empty list, because it will be added to
-	private List<ExchangeRatesRow> rowData = new ArrayList<>();
+	//Lookup from currency name to its column
+	private Map<String, Integer> currencyIndex = new HashMap<>();
+	
+	//Date of each row as days since 1970-01-01
+	private int[] epochDays;
+	
+	//The dates when they are read from outside the heap, in which case epochDays is null
+	private IntBuffer mappedDays;
+	
+	//One column of rates per currency, NaN where no rate was published
+	private RateColumn[] columns;
+	
+	private int rowCount;
+	
+	//False when a row has been added with a date not after the previous row
+	private volatile boolean sorted = true;
+	
+	//Set once the model has been handed to readers, after which it can't be changed
+	private volatile boolean published;
+	
+	//One index per currency column, null while the rows are out of order. 
+	//Entries are null until they are built, which happens on first use for columns supplied by the caller.
+	private AtomicReferenceArray<RangeAggregateIndex> aggregates;
+	
+	//One order statistics index per currency column, built on first use. Null until one is needed, 
+	//and again whenever the rows change
+	private AtomicReferenceArray<OrderStatisticsIndex> orderStatistics;
 	
 	/**
 	 * Default constructor which required a list of currency names
@@ -25,7 +88,109 @@ public class ExchangeRates {
 	 */
 	public ExchangeRates(List<String> currencyNames) {
 		super();
-		this.currencyNames = currencyNames;
+		this.currencyNames = Collections.unmodifiableList(new ArrayList<>(currencyNames));
+		this.epochDays = new int[INITIAL_CAPACITY];
+		this.columns = new RateColumn[currencyNames.size()];
+		for(int i=0; i<currencyNames.size(); i++) {
+			currencyIndex.put(currencyNames.get(i), i);
+			columns[i] = new ArrayRateColumn(INITIAL_CAPACITY);
+		}
+		this.aggregates = new AtomicReferenceArray<>(columns.length);
+	}
+	
+	/**
+	 * Constructor which wraps columns that have already been loaded. The dates must be in 
+	 * ascending order. The aggregate index of each currency is built on its first use.
+	 * 
+	 * @param currencyNames {@link List} of currency names
+	 * @param epochDays date of each row as days since 1970-01-01
+	 * @param columns one {@link RateColumn} per currency, in the same order as the names
+	 * @param rowCount number of rows
+	 */
+	public ExchangeRates(List<String> currencyNames, int[] epochDays, RateColumn[] columns, int rowCount) {
+		super();
+		if(columns.length != currencyNames.size()) {
+			throw new IllegalArgumentException("Expected one column per currency");
+		}
+		this.currencyNames = Collections.unmodifiableList(new ArrayList<>(currencyNames));
+		this.epochDays = epochDays;
+		this.columns = columns;
+		this.rowCount = rowCount;
+		this.aggregates = new AtomicReferenceArray<>(columns.length);
+		for(int i=0; i<currencyNames.size(); i++) {
+			currencyIndex.put(currencyNames.get(i), i);
+		}
+		for(int i=1; i<rowCount; i++) {
+			if(epochDays[i] <= epochDays[i-1]) {
+				throw new IllegalArgumentException("Dates must be in ascending order");
+			}
+		}
+	}
+	
+	/**
+	 * Constructor which wraps a model read from outside the heap, such as a memory mapped snapshot, 
+	 * with the aggregate index of each currency already built. The dates must be in ascending order. 
+	 * They are only copied onto the heap if a newer model derived from this one adds rows.
+	 * 
+	 * @param currencyNames {@link List} of currency names
+	 * @param epochDays date of each row as days since 1970-01-01
+	 * @param columns one {@link RateColumn} per currency, in the same order as the names
+	 * @param aggregates one {@link RangeAggregateIndex} per currency over all the rows of its column
+	 * @param rowCount number of rows
+	 */
+	public ExchangeRates(List<String> currencyNames, IntBuffer epochDays, RateColumn[] columns, 
+			RangeAggregateIndex[] aggregates, int rowCount) {
+		super();
+		if(columns.length != currencyNames.size() || aggregates.length != columns.length) {
+			throw new IllegalArgumentException("Expected one column and one index per currency");
+		}
+		this.currencyNames = Collections.unmodifiableList(new ArrayList<>(currencyNames));
+		this.mappedDays = epochDays;
+		this.columns = columns;
+		this.rowCount = rowCount;
+		this.aggregates = new AtomicReferenceArray<>(aggregates);
+		for(int i=0; i<currencyNames.size(); i++) {
+			currencyIndex.put(currencyNames.get(i), i);
+		}
+		for(int i=1; i<rowCount; i++) {
+			if(epochDays.get(i) <= epochDays.get(i-1)) {
+				throw new IllegalArgumentException("Dates must be in ascending order");
+			}
+		}
+	}
+	
+	/**
+	 * Copy constructor used to derive a newer model. The arrays of the source are shared when this
+	 * is the first model derived from it, otherwise they are copied.
+	 * 
+	 * @param source the model to start from, which must be sorted
+	 */
+	private ExchangeRates(ExchangeRates source) {
+		super();
+		boolean share = source.derived.compareAndSet(false, true);
+		this.currencyNames = source.currencyNames;
+		this.currencyIndex.putAll(source.currencyIndex);
+		//Dates read from outside the heap are copied onto it when the first row is added
+		this.mappedDays = source.mappedDays;
+		this.epochDays = source.epochDays == null || share ? source.epochDays : source.epochDays.clone();
+		this.columns = new RateColumn[source.columns.length];
+		for(int c=0; c<columns.length; c++) {
+			RateColumn column = source.columns[c];
+			if(column instanceof ArrayRateColumn) {
+				double[] values = ((ArrayRateColumn) column).values;
+				column = new ArrayRateColumn(share ? values : values.clone());
+			}
+			columns[c] = column;
+		}
+		this.rowCount = source.rowCount;
+		this.aggregates = new AtomicReferenceArray<>(columns.length);
+		for(int c=0; c<columns.length; c++) {
+			RangeAggregateIndex index = source.aggregates.get(c);
+			//A compact or mapped column is copied onto the heap before rows are added, and indexed again from there
+			if(index != null && !(index instanceof BlockAggregateIndex) && !(index instanceof MappedAggregateIndex)) {
+				aggregates.set(c, new RangeAggregateIndex(index, columns[c], share));
+			}
+		}
 	}
 	
 	/**
@@ -38,21 +203,568 @@ public class ExchangeRates {
 	}
 	
 	/**
-	 * Returns a stream of the row data
+	 * Returns the currency names in column order
+	 * 
+	 * @return unmodifiable {@link List} of names
+	 */
+	public List<String> getCurrencyNames() {
+		return currencyNames;
+	}
+	
+	/**
+	 * Returns the column of the given currency
+	 * 
+	 * @param currency String value of currency name
+	 * @return index of the column, or -1 if the currency is unknown
+	 */
+	public int indexOfCurrency(String currency) {
+		Integer index = currencyIndex.get(currency);
+		return index == null ? -1 : index;
+	}
+	
+	/**
+	 * Returns the version of this model. Every model created gets a higher version than the ones before it.
+	 * 
+	 * @return the version number
+	 */
+	public long getVersion() {
+		return version;
+	}
+	
+	public int getCurrencyCount() {
+		return currencyNames.size();
+	}
+	
+	public int getRowCount() {
+		return rowCount;
+	}
+	
+	/**
+	 * @param row index of the row
+	 * @return date of the row as days since 1970-01-01
+	 */
+	public int getEpochDay(int row) {
+		return mappedDays == null ? epochDays[row] : mappedDays.get(row);
+	}
+	
+	/**
+	 * @param currency index of the currency column
+	 * @param row index of the row
+	 * @return the rate, or NaN if there was no rate for that date
+	 */
+	public double getRate(int currency, int row) {
+		return columns[currency].get(row);
+	}
+	
+	/**
+	 * @param currency index of the currency column
+	 * @return the {@link RateColumn} holding the rates of the currency
+	 */
+	public RateColumn getColumn(int currency) {
+		return columns[currency];
+	}
+	
+	/**
+	 * Estimates the heap used by the dates and rates, not counting the aggregate indexes
+	 * 
+	 * @return approximate number of bytes
+	 */
+	public long memoryBytes() {
+		long bytes = mappedDays != null ? 0 : (long) epochDays.length * Integer.BYTES;
+		for(RateColumn column : columns) {
+			bytes += column.memoryBytes();
+		}
+		return bytes;
+	}
+	
+	/**
+	 * Returns a stream of the row data. Each row is a lightweight view over the columns.
 	 * 
 	 * @return Stream of {@link ExchangeRatesRow}
 	 */
 	public Stream<ExchangeRatesRow> streamRows() {
-		return rowData.stream();
+		return IntStream.range(0, rowCount).mapToObj(r -> new ExchangeRatesRow(this, r));
 	}
 
 	/**
-	 * Adds a row to the data. Also sets a reference to the parent which holds the currency names
-	 * @param row an {@link ExchangeRatesRow} object
+	 * Adds a row to the data. The rates are copied, so the caller may reuse the array.
+	 * 
+	 * @param epochDay date of the row as days since 1970-01-01
+	 * @param rates one rate per currency in column order, NaN where missing
+	 * @throws IllegalStateException if the model has been published
+	 */
+	public void addRow(int epochDay, double[] rates) {
+		checkNotPublished();
+		ensureCapacity(rowCount + 1);
+		if(rowCount > 0 && epochDay <= getEpochDay(rowCount-1)) {
+			sorted = false;
+			aggregates = null;
+		}
+		epochDays[rowCount] = epochDay;
+		orderStatistics = null;
+		for(int c=0; c<columns.length; c++) {
+			double rate = c < rates.length ? rates[c] : Double.NaN;
+			heap(c)[rowCount] = rate;
+			RangeAggregateIndex index = aggregates == null ? null : aggregates.get(c);
+			if(index != null) {
+				index.append(rate);
+			}
+		}
+		rowCount++;
+	}
+	
+	/**
+	 * Finds the row holding the given date
+	 * 
+	 * @param epochDay date as days since 1970-01-01
+	 * @return index of the row, or -1 if there is no data for that date
+	 */
+	public int indexOf(int epochDay) {
+		int row = lowerBound(epochDay);
+		return row < rowCount && getEpochDay(row) == epochDay ? row : -1;
+	}
+	
+	/**
+	 * Finds the first row on or after the given date
+	 * 
+	 * @param epochDay date as days since 1970-01-01
+	 * @return index of the row, or the row count if all rows are before the date
+	 */
+	public int lowerBound(int epochDay) {
+		if(!sorted) {
+			ensureSorted();
+		}
+		int low = 0;
+		int high = rowCount;
+		while(low < high) {
+			int mid = (low + high) >>> 1;
+			if(getEpochDay(mid) < epochDay) {
+				low = mid + 1;
+			} else {
+				high = mid;
+			}
+		}
+		return low;
+	}
+	
+	/**
+	 * Finds the first row after the given date
+	 * 
+	 * @param epochDay date as days since 1970-01-01
+	 * @return index of the row, or the row count if no rows are after the date
+	 */
+	public int upperBound(int epochDay) {
+		return epochDay == Integer.MAX_VALUE ? rowCount : lowerBound(epochDay + 1);
+	}
+	
+	/**
+	 * Finds the latest row on or before the given date, no further back than the given number of days
+	 * 
+	 * @param epochDay date as days since 1970-01-01
+	 * @param maxLookbackDays how many days before the date to accept, 0 for the date only
+	 * @return index of the row, or -1 if there is no data in that period
+	 */
+	public int floorIndex(int epochDay, int maxLookbackDays) {
+		int row = upperBound(epochDay) - 1;
+		return row >= 0 && getEpochDay(row) >= (long) epochDay - maxLookbackDays ? row : -1;
+	}
+	
+	/**
+	 * Returns the precomputed aggregates of a currency column
+	 * 
+	 * @param currency index of the currency column
+	 * @return the {@link RangeAggregateIndex} over all rows of the column
+	 */
+	public RangeAggregateIndex getAggregates(int currency) {
+		AtomicReferenceArray<RangeAggregateIndex> current = aggregates;
+		RangeAggregateIndex index = current == null ? null : current.get(currency);
+		return index != null ? index : buildAggregates(currency);
+	}
+	
+	/**
+	 * Returns the order statistics of a currency column, building them on first use
+	 * 
+	 * @param currency index of the currency column
+	 * @return the {@link OrderStatisticsIndex} over all rows of the column
+	 */
+	public OrderStatisticsIndex getOrderStatistics(int currency) {
+		if(!sorted) {
+			sortByDate();
+		}
+		AtomicReferenceArray<OrderStatisticsIndex> current = orderStatistics;
+		if(current == null) {
+			current = createOrderStatistics();
+		}
+		OrderStatisticsIndex index = current.get(currency);
+		if(index != null) {
+			return index;
+		}
+		OrderStatisticsIndex built = new OrderStatisticsIndex(columns[currency], rowCount);
+		//Another thread may have built the same index at the same time, in which case theirs is kept
+		return current.compareAndSet(currency, null, built) ? built : current.get(currency);
+	}
+	
+	/**
+	 * Estimates the heap used by the aggregate indexes of all currencies
+	 * 
+	 * @return approximate number of bytes
+	 */
+	public long aggregatesMemoryBytes() {
+		long bytes = 0;
+		for(int c=0; c<columns.length; c++) {
+			bytes += getAggregates(c).memoryBytes();
+		}
+		return bytes;
+	}
+	
+	/**
+	 * Puts the rows into ascending date order, if they are not already, and builds the 
+	 * aggregate indexes if they are missing.
+	 * When the same date appears more than once, the row added first is kept.
+	 */
+	public void ensureSorted() {
+		sortByDate();
+		for(int c=0; c<columns.length; c++) {
+			getAggregates(c);
+		}
+	}
+	
+	/**
+	 * Puts the rows into ascending date order and builds every index: the aggregate indexes, and the 
+	 * order statistics which would otherwise be built on the first percentile or rank query of each currency.
+	 */
+	public void ensureIndexed() {
+		ensureSorted();
+		for(int c=0; c<columns.length; c++) {
+			getOrderStatistics(c);
+		}
+	}
+	
+	/**
+	 * Sorts the rows and marks the model as published. From then on it can be read by any 
+	 * number of threads, and any attempt to change it throws an {@link IllegalStateException}.
+	 * 
+	 * @return this model
+	 */
+	public ExchangeRates publish() {
+		sortByDate();
+		published = true;
+		return this;
+	}
+	
+	/**
+	 * @return whether {@link #publish()} has been called
+	 */
+	public boolean isPublished() {
+		return published;
+	}
+	
+	/**
+	 * Puts the rows into ascending date order without building the aggregate indexes.
+	 * When the same date appears more than once, the row added first is kept.
+	 */
+	public synchronized void sortByDate() {
+		if(sorted) {
+			return;
+		}
+		if(isStrictlyDescending()) {
+			//The ECB files are newest first, so they only need reversing
+			reverseRows();
+		} else {
+			sortRows();
+		}
+		aggregates = new AtomicReferenceArray<>(columns.length);
+		orderStatistics = null;
+		sorted = true;
+	}
+	
+	/**
+	 * Appends all rows of another model with the same currencies, copying whole columns at a time
+	 * 
+	 * @param other the {@link ExchangeRates} to copy the rows from
+	 * @throws IllegalStateException if the model has been published
+	 */
+	public void addRows(ExchangeRates other) {
+		checkNotPublished();
+		if(!other.currencyNames.equals(currencyNames)) {
+			throw new IllegalArgumentException("Currencies do not match");
+		}
+		if(other.rowCount == 0) {
+			return;
+		}
+		ensureCapacity(rowCount + other.rowCount);
+		if(!other.sorted || (rowCount > 0 && other.getEpochDay(0) <= getEpochDay(rowCount-1))) {
+			sorted = false;
+			aggregates = null;
+		}
+		other.copyDaysTo(epochDays, rowCount);
+		orderStatistics = null;
+		for(int c=0; c<columns.length; c++) {
+			double[] target = heap(c);
+			for(int r=0; r<other.rowCount; r++) {
+				target[rowCount + r] = other.columns[c].get(r);
+			}
+			RangeAggregateIndex index = aggregates == null ? null : aggregates.get(c);
+			if(index != null) {
+				for(int r=0; r<other.rowCount; r++) {
+					index.append(target[rowCount + r]);
+				}
+			}
+		}
+		rowCount += other.rowCount;
+	}
+	
+	/**
+	 * Adds a currency which was not known before. It has no rates for the existing rows.
+	 * 
+	 * @param currency String value of currency name
+	 * @return index of the new column, or of the existing column if the currency is already known
+	 * @throws IllegalStateException if the currency is new and the model has been published
+	 */
+	public int addCurrency(String currency) {
+		int existing = indexOfCurrency(currency);
+		if(existing >= 0) {
+			return existing;
+		}
+		checkNotPublished();
+		List<String> names = new ArrayList<>(currencyNames);
+		names.add(currency);
+		currencyNames = Collections.unmodifiableList(names);
+		
+		double[] values = new double[heapDays().length];
+		Arrays.fill(values, Double.NaN);
+		columns = Arrays.copyOf(columns, columns.length + 1);
+		columns[columns.length - 1] = new ArrayRateColumn(values);
+		if(aggregates != null) {
+			AtomicReferenceArray<RangeAggregateIndex> extended = new AtomicReferenceArray<>(columns.length);
+			for(int c=0; c<aggregates.length(); c++) {
+				extended.set(c, aggregates.get(c));
+			}
+			aggregates = extended;
+		}
+		orderStatistics = null;
+		currencyIndex.put(currency, columns.length - 1);
+		return columns.length - 1;
+	}
+	
+	/**
+	 * Returns a copy of this model with each currency stored as a {@link CompactRateColumn}, where its 
+	 * rates allow, which also stands in for the aggregate index. The copy takes a fraction of the memory, 
+	 * so many models and versions can be kept. This model is not changed.
+	 * 
+	 * @return the compact model
 	 */
-	public void addRowData(ExchangeRatesRow row) {
-		row.parent = this;
-		rowData.add(row);
+	public ExchangeRates compact() {
+		sortByDate();
+		RateColumn[] compacted = new RateColumn[columns.length];
+		for(int c=0; c<columns.length; c++) {
+			RateColumn column = columns[c];
+			compacted[c] = column instanceof CompactRateColumn ? column : CompactRateColumn.encode(column, rowCount);
+			if(compacted[c] == null) {
+				//Too many digits to store exactly, so keep the doubles
+				double[] values = new double[rowCount];
+				column.copyTo(0, rowCount, values, 0);
+				compacted[c] = new ArrayRateColumn(values);
+			}
+		}
+		int[] days = new int[rowCount];
+		copyDaysTo(days, 0);
+		return new ExchangeRates(currencyNames, days, compacted, rowCount);
+	}
+	
+	/**
+	 * Returns a new model holding the rows of this one, followed by the rows of another model which 
+	 * are newer than the last row of this one. This model is not changed, and stays valid for its readers.
+	 * 
+	 * @param other the {@link ExchangeRates} to take the new rows from
+	 * @return the new model, or this model if there were no newer rows
+	 */
+	public ExchangeRates withNewerRows(ExchangeRates other) {
+		sortByDate();
+		other.sortByDate();
+		if(rowCount > 0 && other.upperBound(getEpochDay(rowCount-1)) == other.rowCount) {
+			return this;
+		}
+		ExchangeRates next = new ExchangeRates(this);
+		next.appendNewerRows(other);
+		return next;
+	}
+	
+	/**
+	 * Merges in the rows of another model which are newer than the last row of this one. 
+	 * Currencies are matched by name, and any currencies which are not yet known are added. 
+	 * The rows are appended in date order, so the aggregate indexes are extended rather than rebuilt.
+	 * 
+	 * @param other the {@link ExchangeRates} to take the new rows from
+	 * @return the number of rows added
+	 * @throws IllegalStateException if the model has been published
+	 */
+	public synchronized int appendNewerRows(ExchangeRates other) {
+		checkNotPublished();
+		sortByDate();
+		other.sortByDate();
+		int first = rowCount == 0 ? 0 : other.upperBound(getEpochDay(rowCount-1));
+		int added = other.rowCount - first;
+		if(added <= 0) {
+			return 0;
+		}
+		
+		int[] target = new int[other.columns.length];
+		for(int c=0; c<target.length; c++) {
+			target[c] = addCurrency(other.currencyNames.get(c));
+		}
+		double[] row = new double[columns.length];
+		for(int r=first; r<other.rowCount; r++) {
+			Arrays.fill(row, Double.NaN);
+			for(int c=0; c<target.length; c++) {
+				row[target[c]] = other.columns[c].get(r);
+			}
+			addRow(other.getEpochDay(r), row);
+		}
+		return added;
+	}
+	
+	private void checkNotPublished() {
+		if(published) {
+			throw new IllegalStateException("A published model can't be changed");
+		}
+	}
+	
+	private synchronized AtomicReferenceArray<OrderStatisticsIndex> createOrderStatistics() {
+		if(orderStatistics == null) {
+			orderStatistics = new AtomicReferenceArray<>(columns.length);
+		}
+		return orderStatistics;
+	}
+	
+	private RangeAggregateIndex buildAggregates(int currency) {
+		if(!sorted) {
+			sortByDate();
+		}
+		AtomicReferenceArray<RangeAggregateIndex> current = aggregates;
+		RateColumn column = columns[currency];
+		RangeAggregateIndex built = column instanceof CompactRateColumn ? new BlockAggregateIndex((CompactRateColumn) column) 
+				: new RangeAggregateIndex(column, rowCount);
+		//Another thread may have built the same index at the same time, in which case theirs is kept
+		return current.compareAndSet(currency, null, built) ? built : current.get(currency);
+	}
+	
+	/**
+	 * Returns the array behind a column, first copying the column onto the heap if it is stored elsewhere
+	 */
+	private double[] heap(int currency) {
+		RateColumn column = columns[currency];
+		if(!(column instanceof ArrayRateColumn)) {
+			double[] values = new double[epochDays.length];
+			column.copyTo(0, rowCount, values, 0);
+			column = new ArrayRateColumn(values);
+			columns[currency] = column;
+			//The index reads the ends of its ranges from the column, so it moves to the copy
+			AtomicReferenceArray<RangeAggregateIndex> current = aggregates;
+			RangeAggregateIndex index = current == null ? null : current.get(currency);
+			if(index instanceof BlockAggregateIndex || index instanceof MappedAggregateIndex) {
+				current.set(currency, null);
+			} else if(index != null) {
+				index.setColumn(column);
+			}
+		}
+		return ((ArrayRateColumn) column).values;
+	}
+	
+	/**
+	 * Returns the array of the dates, first copying them onto the heap if they are stored elsewhere
+	 */
+	private int[] heapDays() {
+		if(mappedDays != null) {
+			int[] days = new int[Math.max(rowCount, INITIAL_CAPACITY)];
+			copyDaysTo(days, 0);
+			epochDays = days;
+			mappedDays = null;
+		}
+		return epochDays;
+	}
+	
+	/**
+	 * Copies the dates of all the rows into an array
+	 */
+	private void copyDaysTo(int[] target, int offset) {
+		if(mappedDays == null) {
+			System.arraycopy(epochDays, 0, target, offset, rowCount);
+		} else {
+			IntBuffer days = mappedDays.duplicate();
+			days.position(0);
+			days.get(target, offset, rowCount);
+		}
+	}
+	
+	private void ensureCapacity(int capacity) {
+		if(capacity <= heapDays().length) {
+			return;
+		}
+		int newCapacity = Math.max(capacity, epochDays.length * 2);
+		epochDays = Arrays.copyOf(epochDays, newCapacity);
+		for(int c=0; c<columns.length; c++) {
+			heap(c);
+			((ArrayRateColumn) columns[c]).ensureCapacity(newCapacity);
+		}
+	}
+	
+	private boolean isStrictlyDescending() {
+		for(int i=1; i<rowCount; i++) {
+			if(epochDays[i] >= epochDays[i-1]) {
+				return false;
+			}
+		}
+		return true;
+	}
+	
+	private void reverseRows() {
+		//Into new arrays rather than in place, as the arrays may be shared with another model
+		int[] reversedDays = new int[epochDays.length];
+		for(int i=0, j=rowCount-1; i<rowCount; i++, j--) {
+			reversedDays[i] = epochDays[j];
+		}
+		//One column at a time, so each pass stays within a single array
+		for(int c=0; c<columns.length; c++) {
+			double[] column = heap(c);
+			double[] reversed = new double[column.length];
+			for(int i=0, j=rowCount-1; i<rowCount; i++, j--) {
+				reversed[i] = column[j];
+			}
+			columns[c] = new ArrayRateColumn(reversed);
+		}
+		epochDays = reversedDays;
+	}
+	
+	private void sortRows() {
+		//Each key holds the date above the row, so rows with the same date stay in 
+		//their original order and the first of any duplicate dates stays in front
+		long[] keys = new long[rowCount];
+		for(int i=0; i<rowCount; i++) {
+			keys[i] = (long) epochDays[i] << 32 | i;
+		}
+		Arrays.sort(keys);
+		
+		int[] sortedDays = new int[epochDays.length];
+		int[] order = new int[rowCount];
+		int kept = 0;
+		for(int i=0; i<rowCount; i++) {
+			int day = (int) (keys[i] >> 32);
+			if(kept == 0 || sortedDays[kept-1] != day) {
+				sortedDays[kept] = day;
+				order[kept++] = (int) keys[i];
+			}
+		}
+		for(int c=0; c<columns.length; c++) {
+			double[] column = heap(c);
+			double[] sortedColumn = new double[column.length];
+			for(int i=0; i<kept; i++) {
+				sortedColumn[i] = column[order[i]];
+			}
+			columns[c] = new ArrayRateColumn(sortedColumn);
+		}
+		epochDays = sortedDays;
+		rowCount = kept;
 	}
 	
 }
@@ -4,36 +4,36 @@ import java.util.Date;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.stream.Collectors;
 
 /**
- * Class representing a single row of data with the Date field separated out from the rates data
+ * Class representing a single row of data with the Date field separated out from the rates data.
+ * The row does not hold any rates itself, it is a view onto the columns of the parent {@link ExchangeRates}.
  * 
  * @author Robert Rodrigues
  *
  */
 public class ExchangeRatesRow {
 
-	private Date date;
-	private List<Double> rates;
-	protected ExchangeRates parent;
+	private final ExchangeRates parent;
+	private final int row;
 	
-	public ExchangeRatesRow(Date date, List<Double> exchangeRate) {
+	public ExchangeRatesRow(ExchangeRates parent, int row) {
 		super();
-		this.date = date;
-		this.rates = exchangeRate;
+		this.parent = parent;
+		this.row = row;
 	}
 	
 	/**
 	 * Converts the current row to a Map<String, Double>
 	 * 
-	 * @return Map where the key is the currency name and the value is the exchange rate
+	 * @return Map where the key is the currency name and the value is the exchange rate (null if missing)
 	 */
 	public Map<String, Double> toMap() {
+		List<String> currencyNames = parent.getCurrencyNames();
 		Map<String, Double> map = new HashMap<>();
-		List<String> currencyNames = parent.streamNames().collect(Collectors.toList());
 		for(int i=0; i<currencyNames.size(); i++) {
-			map.put(currencyNames.get(i), rates.get(i));
+			double rate = parent.getRate(i, row);
+			map.put(currencyNames.get(i), Double.isNaN(rate) ? null : rate);
 		}
 		return map;
 	}
@@ -41,13 +41,17 @@ public class ExchangeRatesRow {
 	@Override
 	public String toString() {
 		StringBuilder builder = new StringBuilder();
-		builder.append("Date=").append(date);
-		builder.append(" Values=").append(rates);
+		builder.append("Date=").append(getDate());
+		builder.append(" Values=").append(toMap());
 		return builder.toString();
 	}
 	
 	public Date getDate() {
-		return date;
+		return EpochDay.toDate(parent.getEpochDay(row));
+	}
+	
+	public int getEpochDay() {
+		return parent.getEpochDay(row);
 	}
 	
 }
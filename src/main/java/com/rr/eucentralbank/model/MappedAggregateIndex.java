@@ -0,0 +1,160 @@
+package com.rr.eucentralbank.model;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+
+/**
+ * A {@link RangeAggregateIndex} read in place from a buffer written by {@link RangeAggregateIndex#writeTo(ByteBuffer)},
+ * such as a memory mapped snapshot. Nothing is built or copied onto the heap, so every process which maps
+ * the same file shares the index. Rows can't be appended, a model adding rows copies the column onto the
+ * heap first and indexes it again.
+ * 
+ * @author Robert Rodrigues
+ * 
+ */
+class MappedAggregateIndex extends RangeAggregateIndex {
+	
+	private final RateColumn column;
+	private final int size;
+	
+	//Scale of the unit sums, or -1 when the sums are doubles
+	private final int scale;
+	private final LongBuffer prefixUnits;
+	private final DoubleBuffer prefixSums;
+	private final IntBuffer prefixCount;
+	
+	private final DoubleBuffer maxTree;
+	private final DoubleBuffer minTree;
+	private final int blocks;
+	
+	/**
+	 * @param column the rates, which the index reads the ends of its ranges from
+	 * @param rowCount number of values indexed
+	 * @param buffer the index, laid out as {@link RangeAggregateIndex#writeTo(ByteBuffer)} writes it
+	 */
+	MappedAggregateIndex(RateColumn column, int rowCount, ByteBuffer buffer) {
+		this.column = column;
+		this.size = rowCount;
+		this.blocks = rowCount >> BLOCK_SHIFT;
+		this.scale = slice(buffer, 0, Integer.BYTES).getInt(0);
+		int position = 2 * Integer.BYTES;
+		ByteBuffer sums = slice(buffer, position, (rowCount + 1) * Long.BYTES);
+		prefixUnits = scale >= 0 ? sums.asLongBuffer() : null;
+		prefixSums = scale >= 0 ? null : sums.asDoubleBuffer();
+		position += (rowCount + 1) * Long.BYTES;
+		prefixCount = slice(buffer, position, (rowCount + 1) * Integer.BYTES).asIntBuffer();
+		position += align((rowCount + 1) * Integer.BYTES);
+		maxTree = slice(buffer, position, 2 * blocks * Double.BYTES).asDoubleBuffer();
+		position += 2 * blocks * Double.BYTES;
+		minTree = slice(buffer, position, 2 * blocks * Double.BYTES).asDoubleBuffer();
+	}
+	
+	@Override
+	public void append(double value) {
+		throw new UnsupportedOperationException("A mapped index can't be appended to");
+	}
+	
+	@Override
+	public double sum(int from, int to) {
+		if(from >= to) {
+			return 0;
+		}
+		if(prefixUnits != null) {
+			return (prefixUnits.get(to) - prefixUnits.get(from)) / CompactRateColumn.powerOfTen(scale);
+		}
+		if(to - from <= SHORT_RANGE) {
+			double sum = 0;
+			for(int r=from; r<to; r++) {
+				double value = column.get(r);
+				if(!Double.isNaN(value)) {
+					sum += value;
+				}
+			}
+			return sum;
+		}
+		return prefixSums.get(to) - prefixSums.get(from);
+	}
+	
+	@Override
+	public int count(int from, int to) {
+		return from >= to ? 0 : prefixCount.get(to) - prefixCount.get(from);
+	}
+	
+	@Override
+	public double max(int from, int to) {
+		int firstBlock = (from + BLOCK_SIZE - 1) >> BLOCK_SHIFT;
+		int endBlock = to >> BLOCK_SHIFT;
+		if(firstBlock >= endBlock) {
+			return scanMax(from, to, Double.NEGATIVE_INFINITY);
+		}
+		double result = scanMax(from, firstBlock << BLOCK_SHIFT, Double.NEGATIVE_INFINITY);
+		for(int l = firstBlock + blocks, r = endBlock + blocks; l < r; l >>= 1, r >>= 1) {
+			if((l & 1) == 1) {
+				result = Math.max(result, maxTree.get(l++));
+			}
+			if((r & 1) == 1) {
+				result = Math.max(result, maxTree.get(--r));
+			}
+		}
+		return scanMax(endBlock << BLOCK_SHIFT, to, result);
+	}
+	
+	@Override
+	public double min(int from, int to) {
+		int firstBlock = (from + BLOCK_SIZE - 1) >> BLOCK_SHIFT;
+		int endBlock = to >> BLOCK_SHIFT;
+		if(firstBlock >= endBlock) {
+			return scanMin(from, to, Double.POSITIVE_INFINITY);
+		}
+		double result = scanMin(from, firstBlock << BLOCK_SHIFT, Double.POSITIVE_INFINITY);
+		for(int l = firstBlock + blocks, r = endBlock + blocks; l < r; l >>= 1, r >>= 1) {
+			if((l & 1) == 1) {
+				result = Math.min(result, minTree.get(l++));
+			}
+			if((r & 1) == 1) {
+				result = Math.min(result, minTree.get(--r));
+			}
+		}
+		return scanMin(endBlock << BLOCK_SHIFT, to, result);
+	}
+	
+	@Override
+	public int size() {
+		return size;
+	}
+	
+	@Override
+	public long memoryBytes() {
+		return 0;
+	}
+	
+	private double scanMax(int from, int to, double max) {
+		for(int r=from; r<to; r++) {
+			double value = column.get(r);
+			if(value > max) {
+				max = value;
+			}
+		}
+		return max;
+	}
+	
+	private double scanMin(int from, int to, double min) {
+		for(int r=from; r<to; r++) {
+			double value = column.get(r);
+			if(value < min) {
+				min = value;
+			}
+		}
+		return min;
+	}
+	
+	private static ByteBuffer slice(ByteBuffer buffer, int position, int length) {
+		ByteBuffer view = buffer.duplicate();
+		view.limit(position + length).position(position);
+		return view.slice().order(ByteOrder.LITTLE_ENDIAN);
+	}
+
+}
@@ -0,0 +1,229 @@
+package com.rr.eucentralbank.model;
+
+import java.util.Arrays;
+
+/**
+ * An index over a single currency column, which finds the k-th lowest rate of any range of rows,
+ * and how many rates of a range are lower than a given rate, without sorting the range.
+ * 
+ * Each rate is replaced by its position among the distinct rates of the column, and the positions
+ * are held in a wavelet matrix: one bit per row for each bit of a position, highest bit first.
+ * At each level the rows are stably reordered with the zero bits first, so a range of rows at one
+ * level maps to a range at the next, found by counting the set bits before each end. Counts of set bits
+ * are kept for every 64 rows, so each level is crossed in constant time and a query takes O(log n).
+ * Nulls are given the position after the highest rate, so they sort last and are never counted.
+ * 
+ * @author Robert Rodrigues
+ *
+ */
+public class OrderStatisticsIndex {
+	
+	//The distinct non-null rates in ascending order
+	private final double[] values;
+	
+	private final int size;
+	
+	//Number of bits in a position
+	private final int levels;
+	
+	//Per level, highest bit first: the bits of the rows, the set bits before each word, and the number of zero bits
+	private final long[][] bits;
+	private final int[][] ranks;
+	private final int[] zeros;
+	
+	/**
+	 * Builds the index over the first rowCount values of a column
+	 * 
+	 * @param column the {@link RateColumn}, NaN where missing
+	 * @param rowCount number of values to index
+	 */
+	public OrderStatisticsIndex(RateColumn column, int rowCount) {
+		double[] rates = new double[rowCount];
+		column.copyTo(0, rowCount, rates, 0);
+		for(int r=0; r<rowCount; r++) {
+			//-0.0 becomes 0.0, so that equal rates get the same position
+			rates[r] += 0.0;
+		}
+		
+		double[] sorted = rates.clone();
+		Arrays.sort(sorted);
+		int distinct = 0;
+		for(double rate : sorted) {
+			//NaN sorts after every rate
+			if(Double.isNaN(rate)) {
+				break;
+			}
+			if(distinct == 0 || sorted[distinct-1] != rate) {
+				sorted[distinct++] = rate;
+			}
+		}
+		this.values = Arrays.copyOf(sorted, distinct);
+		this.size = rowCount;
+		this.levels = Math.max(1, 32 - Integer.numberOfLeadingZeros(distinct));
+		
+		int[] codes = new int[rowCount];
+		for(int r=0; r<rowCount; r++) {
+			codes[r] = Double.isNaN(rates[r]) ? distinct : Arrays.binarySearch(values, rates[r]);
+		}
+		
+		int words = (rowCount >> 6) + 1;
+		this.bits = new long[levels][words];
+		this.ranks = new int[levels][words];
+		this.zeros = new int[levels];
+		int[] next = new int[rowCount];
+		for(int level=0; level<levels; level++) {
+			int shift = levels - 1 - level;
+			long[] levelBits = bits[level];
+			int zeroCount = 0;
+			for(int r=0; r<rowCount; r++) {
+				if(((codes[r] >>> shift) & 1) == 1) {
+					levelBits[r >> 6] |= 1L << (r & 63);
+				} else {
+					zeroCount++;
+				}
+			}
+			for(int w=1; w<words; w++) {
+				ranks[level][w] = ranks[level][w-1] + Long.bitCount(levelBits[w-1]);
+			}
+			zeros[level] = zeroCount;
+			
+			//Stable reorder for the next level, zero bits first
+			int zero = 0;
+			int one = zeroCount;
+			for(int r=0; r<rowCount; r++) {
+				if(((codes[r] >>> shift) & 1) == 1) {
+					next[one++] = codes[r];
+				} else {
+					next[zero++] = codes[r];
+				}
+			}
+			int[] swap = codes;
+			codes = next;
+			next = swap;
+		}
+	}
+	
+	/**
+	 * Finds the k-th lowest non-null rate of a range
+	 * 
+	 * @param from first row (inclusive)
+	 * @param to last row (exclusive)
+	 * @param k position among the non-null rates of the range in ascending order, from 0
+	 * @return the rate, or NaN if the range has k or fewer non-null rates
+	 */
+	public double kthLowest(int from, int to, int k) {
+		if(k < 0 || k >= count(from, to)) {
+			return Double.NaN;
+		}
+		int code = 0;
+		for(int level=0; level<levels; level++) {
+			int onesFrom = rank(level, from);
+			int onesTo = rank(level, to);
+			int zeroCount = (to - from) - (onesTo - onesFrom);
+			if(k < zeroCount) {
+				from -= onesFrom;
+				to -= onesTo;
+			} else {
+				k -= zeroCount;
+				code |= 1 << (levels - 1 - level);
+				from = zeros[level] + onesFrom;
+				to = zeros[level] + onesTo;
+			}
+		}
+		return values[code];
+	}
+	
+	/**
+	 * @param from first row (inclusive)
+	 * @param to last row (exclusive)
+	 * @param rate the rate to compare with
+	 * @return number of non-null rates in the range lower than the rate
+	 */
+	public int countLower(int from, int to, double rate) {
+		return countBelow(from, to, lowerBound(rate, false));
+	}
+	
+	/**
+	 * @param from first row (inclusive)
+	 * @param to last row (exclusive)
+	 * @param rate the rate to compare with
+	 * @return number of non-null rates in the range lower than or equal to the rate
+	 */
+	public int countLowerOrEqual(int from, int to, double rate) {
+		return countBelow(from, to, lowerBound(rate, true));
+	}
+	
+	/**
+	 * @param from first row (inclusive)
+	 * @param to last row (exclusive)
+	 * @return number of non-null rates in the range
+	 */
+	public int count(int from, int to) {
+		return countBelow(from, to, values.length);
+	}
+	
+	public int size() {
+		return size;
+	}
+	
+	/**
+	 * Estimates the heap used by the index
+	 * 
+	 * @return approximate number of bytes held by the arrays of the index
+	 */
+	public long memoryBytes() {
+		return (long) values.length * Double.BYTES + (long) levels * bits[0].length * (Long.BYTES + Integer.BYTES);
+	}
+	
+	/**
+	 * Counts the rows of a range whose position is below the given one
+	 */
+	private int countBelow(int from, int to, int code) {
+		if(from >= to) {
+			return 0;
+		}
+		int below = 0;
+		for(int level=0; level<levels && from < to; level++) {
+			int onesFrom = rank(level, from);
+			int onesTo = rank(level, to);
+			if(((code >>> (levels - 1 - level)) & 1) == 1) {
+				below += (to - from) - (onesTo - onesFrom);
+				from = zeros[level] + onesFrom;
+				to = zeros[level] + onesTo;
+			} else {
+				from -= onesFrom;
+				to -= onesTo;
+			}
+		}
+		return below;
+	}
+	
+	/**
+	 * Finds the position of the first distinct rate above the given one, or not below it
+	 */
+	private int lowerBound(double rate, boolean inclusive) {
+		if(Double.isNaN(rate)) {
+			return 0;
+		}
+		int low = 0;
+		int high = values.length;
+		while(low < high) {
+			int mid = (low + high) >>> 1;
+			if(values[mid] < rate || (inclusive && values[mid] == rate)) {
+				low = mid + 1;
+			} else {
+				high = mid;
+			}
+		}
+		return low;
+	}
+	
+	/**
+	 * Number of set bits at a level before the given row
+	 */
+	private int rank(int level, int row) {
+		int word = row >> 6;
+		return ranks[level][word] + Long.bitCount(bits[level][word] & ((1L << (row & 63)) - 1));
+	}
+	
+}
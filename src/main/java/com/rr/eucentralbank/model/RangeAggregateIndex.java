@@ -0,0 +1,437 @@
+package com.rr.eucentralbank.model;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Precomputed aggregates for a single currency column, which allow the sum, the number of
+ * non-null values, the maximum and the minimum of any range of rows to be found without
+ * scanning the rows.
+ * 
+ * Counts and sums are held as prefix arrays, so they can be read for any range in constant time.
+ * While every rate is a whole number of units of its last decimal, as the ECB rates are, the sums are
+ * held as long counts of those units, the same units a {@link CompactRateColumn} stores. The
+ * difference of two prefix sums is then exact, and a range of one row gives back the stored rate.
+ * Once a rate has too many digits for that, the sums fall back to compensated doubles, and ranges
+ * of up to {@value #SHORT_RANGE} rows are summed from the column so that short ranges stay exact.
+ * 
+ * Maximums and minimums are held for blocks of {@value #BLOCK_SIZE} rows, in trees of twice as many
+ * nodes as there are complete blocks, so a range reads O(log n) blocks and scans the rows at either end.
+ * 
+ * Values can be appended one at a time. The index reads the rows at the ends of a range from its
+ * column, so the column must hold a value before it is appended.
+ * 
+ * @author Robert Rodrigues
+ * 
+ */
+public class RangeAggregateIndex {
+	
+	//Rows per block of the maximum and minimum trees
+	static final int BLOCK_SIZE = 64;
+	static final int BLOCK_SHIFT = 6;
+	
+	//Ranges of up to this many rows are summed from the column when the prefix sums are doubles
+	static final int SHORT_RANGE = 64;
+	
+	//The rows, read for the ends of a range
+	private RateColumn column;
+	
+	//prefixUnits[i] is the sum of the first i values in units of 10^-scale, null once the sums are doubles
+	private long[] prefixUnits;
+	private int scale;
+	
+	//prefixSums[i] is the compensated sum of the first i values, only used once prefixUnits is null
+	private double[] prefixSums;
+	private double runningSum;
+	private double compensation;
+	
+	//prefixCount[i] is the number of non-null values among the first i values
+	private int[] prefixCount;
+	
+	//Trees of the maximum and minimum of each complete block: the leaf of block b is node blocks + b,
+	//and each parent node holds the result for its two children. Nulls are skipped.
+	private double[] maxTree;
+	private double[] minTree;
+	private int blocks;
+	
+	private int size;
+	
+	/**
+	 * Builds the index over the first rowCount values of a column
+	 * 
+	 * @param column the rates, NaN where missing
+	 * @param rowCount number of values to index
+	 */
+	public RangeAggregateIndex(double[] column, int rowCount) {
+		this(new ArrayRateColumn(column), rowCount);
+	}
+	
+	/**
+	 * Builds the index over the first rowCount values of a column
+	 * 
+	 * @param column the {@link RateColumn}, NaN where missing
+	 * @param rowCount number of values to index
+	 */
+	public RangeAggregateIndex(RateColumn column, int rowCount) {
+		this.column = column;
+		this.prefixCount = new int[rowCount + 1];
+		this.prefixUnits = new long[rowCount + 1];
+		//The scale of the column is the most decimals any of its rates needs, so the units are not rescaled as they are added
+		int columnScale = 0;
+		for(int i=0; i<rowCount && columnScale >= 0; i++) {
+			double value = column.get(i);
+			if(!Double.isNaN(value) && !CompactRateColumn.isExact(value, columnScale)) {
+				int needed = CompactRateColumn.scaleOf(value);
+				columnScale = needed < 0 ? -1 : Math.max(columnScale, needed);
+			}
+		}
+		if(columnScale >= 0) {
+			scale = columnScale;
+		} else {
+			prefixUnits = null;
+			prefixSums = new double[rowCount + 1];
+		}
+		for(int i=0; i<rowCount; i++) {
+			addPrefix(column.get(i));
+		}
+		this.maxTree = new double[0];
+		this.minTree = new double[0];
+		buildTrees();
+	}
+	
+	/**
+	 * Constructor for subclasses which answer from their own structures, and hold no arrays here
+	 */
+	protected RangeAggregateIndex() {
+	}
+	
+	/**
+	 * Creates an index for a newer model, starting with the same values as the source. When the
+	 * arrays are shared, appending to the copy only writes to prefix entries past the size of the
+	 * source, which queries on the source never read. The trees are replaced rather than changed.
+	 * 
+	 * @param source the index to copy
+	 * @param column the column of the newer model, which starts with the same values
+	 * @param share whether to share the arrays of the source rather than copying them
+	 */
+	public RangeAggregateIndex(RangeAggregateIndex source, RateColumn column, boolean share) {
+		this.column = column;
+		this.prefixUnits = source.prefixUnits == null || share ? source.prefixUnits : source.prefixUnits.clone();
+		this.scale = source.scale;
+		this.prefixSums = source.prefixSums == null || share ? source.prefixSums : source.prefixSums.clone();
+		this.runningSum = source.runningSum;
+		this.compensation = source.compensation;
+		this.prefixCount = share ? source.prefixCount : source.prefixCount.clone();
+		this.maxTree = source.maxTree;
+		this.minTree = source.minTree;
+		this.blocks = source.blocks;
+		this.size = source.size;
+	}
+	
+	/**
+	 * Opens an index written by {@link #writeTo(ByteBuffer)}, which answers queries straight from the buffer
+	 * 
+	 * @param column the column the index was built over
+	 * @param rowCount number of values indexed
+	 * @param buffer the written index, of {@link #serializedSize(int)} bytes
+	 * @return a read-only index, which rows can't be appended to
+	 */
+	public static RangeAggregateIndex map(RateColumn column, int rowCount, ByteBuffer buffer) {
+		return new MappedAggregateIndex(column, rowCount, buffer);
+	}
+	
+	/**
+	 * @param rowCount number of values indexed
+	 * @return number of bytes {@link #writeTo(ByteBuffer)} writes for an index of that size, a multiple of 8
+	 */
+	public static long serializedSize(int rowCount) {
+		long blocks = rowCount >> BLOCK_SHIFT;
+		return 2 * Integer.BYTES + (rowCount + 1L) * Long.BYTES + align((rowCount + 1L) * Integer.BYTES) 
+				+ 4 * blocks * Double.BYTES;
+	}
+	
+	/**
+	 * Writes the prefix arrays and trees of the index, little endian, so that {@link #map(RateColumn, int, ByteBuffer)}
+	 * can read them in place: the scale of the unit sums or -1 for double sums and 4 bytes of padding, the prefix 
+	 * sums, the prefix counts padded to a multiple of 8 bytes, then the maximum and the minimum trees.
+	 * 
+	 * @param buffer little endian buffer with at least {@link #serializedSize(int)} bytes remaining
+	 */
+	public void writeTo(ByteBuffer buffer) {
+		buffer.putInt(prefixUnits != null ? scale : -1).putInt(0);
+		for(int i=0; i<=size; i++) {
+			if(prefixUnits != null) {
+				buffer.putLong(prefixUnits[i]);
+			} else {
+				buffer.putDouble(prefixSums[i]);
+			}
+		}
+		for(int i=0; i<=size; i++) {
+			buffer.putInt(prefixCount[i]);
+		}
+		if((size & 1) == 0) {
+			buffer.putInt(0);
+		}
+		for(int node=0; node<2*blocks; node++) {
+			buffer.putDouble(maxTree[node]);
+		}
+		for(int node=0; node<2*blocks; node++) {
+			buffer.putDouble(minTree[node]);
+		}
+	}
+	
+	/**
+	 * Points the index at a copy of its column, for example once the column has been copied onto the heap
+	 * 
+	 * @param column a column holding the same values
+	 */
+	void setColumn(RateColumn column) {
+		this.column = column;
+	}
+	
+	/**
+	 * Adds the value of the next row to the index. The column must already hold it.
+	 * 
+	 * @param value the rate, or NaN if it is missing
+	 */
+	public void append(double value) {
+		if(size + 1 == prefixCount.length) {
+			int capacity = prefixCount.length + Math.max(prefixCount.length >> 3, BLOCK_SIZE);
+			prefixCount = Arrays.copyOf(prefixCount, capacity);
+			if(prefixUnits != null) {
+				prefixUnits = Arrays.copyOf(prefixUnits, capacity);
+			} else {
+				prefixSums = Arrays.copyOf(prefixSums, capacity);
+			}
+		}
+		addPrefix(value);
+		if(size == (blocks + 1) << BLOCK_SHIFT) {
+			buildTrees();
+		}
+	}
+	
+	/**
+	 * @param from first row (inclusive)
+	 * @param to last row (exclusive)
+	 * @return sum of the non-null values in the range
+	 */
+	public double sum(int from, int to) {
+		if(from >= to) {
+			return 0;
+		}
+		if(prefixUnits != null) {
+			return (prefixUnits[to] - prefixUnits[from]) / CompactRateColumn.powerOfTen(scale);
+		}
+		if(to - from <= SHORT_RANGE) {
+			double sum = 0;
+			for(int r=from; r<to; r++) {
+				double value = column.get(r);
+				if(!Double.isNaN(value)) {
+					sum += value;
+				}
+			}
+			return sum;
+		}
+		return prefixSums[to] - prefixSums[from];
+	}
+	
+	/**
+	 * @param from first row (inclusive)
+	 * @param to last row (exclusive)
+	 * @return number of non-null values in the range
+	 */
+	public int count(int from, int to) {
+		return from >= to ? 0 : prefixCount[to] - prefixCount[from];
+	}
+	
+	/**
+	 * @param from first row (inclusive)
+	 * @param to last row (exclusive)
+	 * @return the highest non-null value in the range, or -Infinity if there is none
+	 */
+	public double max(int from, int to) {
+		int firstBlock = (from + BLOCK_SIZE - 1) >> BLOCK_SHIFT;
+		int endBlock = to >> BLOCK_SHIFT;
+		if(firstBlock >= endBlock) {
+			return scanMax(from, to, Double.NEGATIVE_INFINITY);
+		}
+		double result = scanMax(from, firstBlock << BLOCK_SHIFT, Double.NEGATIVE_INFINITY);
+		for(int l = firstBlock + blocks, r = endBlock + blocks; l < r; l >>= 1, r >>= 1) {
+			if((l & 1) == 1) {
+				result = Math.max(result, maxTree[l++]);
+			}
+			if((r & 1) == 1) {
+				result = Math.max(result, maxTree[--r]);
+			}
+		}
+		return scanMax(endBlock << BLOCK_SHIFT, to, result);
+	}
+	
+	/**
+	 * @param from first row (inclusive)
+	 * @param to last row (exclusive)
+	 * @return the lowest non-null value in the range, or +Infinity if there is none
+	 */
+	public double min(int from, int to) {
+		int firstBlock = (from + BLOCK_SIZE - 1) >> BLOCK_SHIFT;
+		int endBlock = to >> BLOCK_SHIFT;
+		if(firstBlock >= endBlock) {
+			return scanMin(from, to, Double.POSITIVE_INFINITY);
+		}
+		double result = scanMin(from, firstBlock << BLOCK_SHIFT, Double.POSITIVE_INFINITY);
+		for(int l = firstBlock + blocks, r = endBlock + blocks; l < r; l >>= 1, r >>= 1) {
+			if((l & 1) == 1) {
+				result = Math.min(result, minTree[l++]);
+			}
+			if((r & 1) == 1) {
+				result = Math.min(result, minTree[--r]);
+			}
+		}
+		return scanMin(endBlock << BLOCK_SHIFT, to, result);
+	}
+	
+	public int size() {
+		return size;
+	}
+	
+	/**
+	 * Estimates the heap used by the index
+	 * 
+	 * @return approximate number of bytes held by the arrays of the index
+	 */
+	public long memoryBytes() {
+		long sums = prefixUnits != null ? (long) prefixUnits.length * Long.BYTES : (long) prefixSums.length * Double.BYTES;
+		return sums + (long) prefixCount.length * Integer.BYTES + (long) (maxTree.length + minTree.length) * Double.BYTES;
+	}
+	
+	static int align(int position) {
+		return (position + 7) & ~7;
+	}
+	
+	private static long align(long position) {
+		return (position + 7) & ~7L;
+	}
+	
+	private double scanMax(int from, int to, double max) {
+		for(int r=from; r<to; r++) {
+			double value = column.get(r);
+			if(value > max) {
+				max = value;
+			}
+		}
+		return max;
+	}
+	
+	private double scanMin(int from, int to, double min) {
+		for(int r=from; r<to; r++) {
+			double value = column.get(r);
+			if(value < min) {
+				min = value;
+			}
+		}
+		return min;
+	}
+	
+	/**
+	 * Adds a value to the prefix arrays, which have room for it
+	 */
+	private void addPrefix(double value) {
+		boolean missing = Double.isNaN(value);
+		prefixCount[size + 1] = prefixCount[size] + (missing ? 0 : 1);
+		if(prefixUnits != null && !missing && !CompactRateColumn.isExact(value, scale)) {
+			int needed = CompactRateColumn.scaleOf(value);
+			if(needed <= scale || !rescale(needed)) {
+				useDoubleSums();
+			}
+		}
+		if(prefixUnits != null) {
+			long units = missing ? 0 : Math.round(value * CompactRateColumn.powerOfTen(scale));
+			try {
+				prefixUnits[size + 1] = Math.addExact(prefixUnits[size], units);
+			} catch(ArithmeticException e) {
+				useDoubleSums();
+			}
+		}
+		if(prefixUnits == null) {
+			if(!missing) {
+				//Neumaier's compensated sum, which keeps the low-order bits lost by each addition
+				double sum = runningSum + value;
+				if(Math.abs(runningSum) >= Math.abs(value)) {
+					compensation += (runningSum - sum) + value;
+				} else {
+					compensation += (value - sum) + runningSum;
+				}
+				runningSum = sum;
+			}
+			prefixSums[size + 1] = runningSum + compensation;
+		}
+		size++;
+	}
+	
+	/**
+	 * Moves the unit sums to a finer scale, into a new array as the old one may be shared
+	 * 
+	 * @return false if the sums would overflow at that scale
+	 */
+	private boolean rescale(int newScale) {
+		long factor = Math.round(CompactRateColumn.powerOfTen(newScale - scale));
+		long[] rescaled = new long[prefixUnits.length];
+		try {
+			for(int i=1; i<=size; i++) {
+				rescaled[i] = Math.multiplyExact(prefixUnits[i], factor);
+			}
+		} catch(ArithmeticException e) {
+			return false;
+		}
+		prefixUnits = rescaled;
+		scale = newScale;
+		return true;
+	}
+	
+	/**
+	 * Replaces the unit sums of the rows so far by compensated double sums
+	 */
+	private void useDoubleSums() {
+		prefixSums = new double[prefixCount.length];
+		prefixUnits = null;
+		runningSum = 0;
+		compensation = 0;
+		for(int r=0; r<size; r++) {
+			double value = column.get(r);
+			if(!Double.isNaN(value)) {
+				double sum = runningSum + value;
+				if(Math.abs(runningSum) >= Math.abs(value)) {
+					compensation += (runningSum - sum) + value;
+				} else {
+					compensation += (value - sum) + runningSum;
+				}
+				runningSum = sum;
+			}
+			prefixSums[r + 1] = runningSum + compensation;
+		}
+	}
+	
+	/**
+	 * Builds the trees over every complete block, in new arrays as the old ones may be shared.
+	 * The leaves of blocks already in the trees are kept, only new blocks are scanned.
+	 */
+	private void buildTrees() {
+		int newBlocks = size >> BLOCK_SHIFT;
+		double[] newMax = new double[2 * newBlocks];
+		double[] newMin = new double[2 * newBlocks];
+		System.arraycopy(maxTree, blocks, newMax, newBlocks, blocks);
+		System.arraycopy(minTree, blocks, newMin, newBlocks, blocks);
+		for(int b=blocks; b<newBlocks; b++) {
+			newMax[newBlocks + b] = scanMax(b << BLOCK_SHIFT, (b + 1) << BLOCK_SHIFT, Double.NEGATIVE_INFINITY);
+			newMin[newBlocks + b] = scanMin(b << BLOCK_SHIFT, (b + 1) << BLOCK_SHIFT, Double.POSITIVE_INFINITY);
+		}
+		for(int node = newBlocks - 1; node > 0; node--) {
+			newMax[node] = Math.max(newMax[2 * node], newMax[2 * node + 1]);
+			newMin[node] = Math.min(newMin[2 * node], newMin[2 * node + 1]);
+		}
+		maxTree = newMax;
+		minTree = newMin;
+		blocks = newBlocks;
+	}
+
+}
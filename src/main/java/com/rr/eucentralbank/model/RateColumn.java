@@ -0,0 +1,39 @@
+package com.rr.eucentralbank.model;
+
+/**
+ * Storage for the rates of a single currency, one value per row with NaN where no rate was published.
+ * 
+ * @author Robert Rodrigues
+ *
+ */
+public abstract class RateColumn {
+
+	/**
+	 * @param row index of the row
+	 * @return the rate, or NaN if there was no rate for that date
+	 */
+	public abstract double get(int row);
+	
+	/**
+	 * Copies a range of rows into an array
+	 * 
+	 * @param from first row (inclusive)
+	 * @param to last row (exclusive)
+	 * @param target the array to copy into
+	 * @param offset index in the array of the first row
+	 */
+	public void copyTo(int from, int to, double[] target, int offset) {
+		for(int r=from; r<to; r++) {
+			target[offset++] = get(r);
+		}
+	}
+	
+	/**
+	 * Estimates the heap used by the column. Storage outside of the heap, such as a 
+	 * memory mapped file, is not counted.
+	 * 
+	 * @return approximate number of bytes
+	 */
+	public abstract long memoryBytes();
+	
+}
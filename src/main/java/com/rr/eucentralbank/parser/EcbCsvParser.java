@@ -0,0 +1,739 @@
+package com.rr.eucentralbank.parser;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+import com.rr.eucentralbank.exception.UnsupportedLayoutException;
+import com.rr.eucentralbank.model.EpochDay;
+import com.rr.eucentralbank.model.ExchangeRates;
+import com.rr.eucentralbank.model.RateColumn;
+
+/**
+ * Parser dedicated to the layout of the ECB CSV files: a header row of currency codes, then one row
+ * per date where the first field is a yyyy-MM-dd date and each following field is either a decimal
+ * rate or N/A. Rows may end with a trailing comma.
+ * 
+ * The parser works directly on the raw bytes of the file and writes each row straight into the
+ * primitive columns of {@link ExchangeRates}, so no Strings are created apart from the currency names.
+ * Anything outside of this layout (quoted fields, exponents, unparseable dates, ...) causes an
+ * {@link UnsupportedLayoutException}, so that the caller can fall back to a general CSV parser.
+ * 
+ * @author Robert Rodrigues
+ *
+ */
+public class EcbCsvParser {
+
+	//Powers of ten which are exactly representable as a double
+	private static final double[] POWERS_OF_TEN = {
+			1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11, 
+			1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22};
+	
+	//Integers up to this value are exactly representable as a double
+	private static final long MAX_EXACT_MANTISSA = 1L << 53;
+	
+	private static final int DATE_LENGTH = "yyyy-MM-dd".length();
+	
+	//Smallest part of the file worth handing to another thread
+	private static final int MIN_CHUNK_SIZE = 1 << 18;
+	
+	//More chunks than threads, so that threads which finish early can take more work
+	private static final int CHUNKS_PER_THREAD = 4;
+	
+	//Initial buffer size when parsing a stream, only grown for a line longer than this
+	private static final int STREAM_BUFFER_SIZE = 1 << 16;
+	
+	private List<String> currencyNames;
+	
+	//The currencies to keep, or null for all of them
+	private final Set<String> projection;
+	
+	//Column in the model of each currency in the file, -1 for those which are skipped. Null without a projection.
+	private int[] fileColumns;
+	
+	//Offset of the first byte after the header row
+	private int dataStart;
+	
+	//Offset of the row being read, where a stream which fails on that row is handed to the fallback
+	private int rowStart;
+	
+	public EcbCsvParser() {
+		this(null);
+	}
+	
+	/**
+	 * Creates a parser which only reads some of the currencies. The cells of the others 
+	 * are skipped without being converted.
+	 * 
+	 * @param currencies the currencies to read, or null for all of them
+	 */
+	public EcbCsvParser(Collection<String> currencies) {
+		this.projection = currencies == null ? null : new HashSet<>(currencies);
+	}
+	
+	/**
+	 * Parses a complete file into a new model
+	 * 
+	 * @param data buffer holding the CSV file
+	 * @param length number of valid bytes in the buffer
+	 * @return {@link ExchangeRates} holding all rows in the file
+	 * @throws UnsupportedLayoutException if the data does not follow the ECB layout
+	 */
+	public ExchangeRates parse(byte[] data, int length) throws UnsupportedLayoutException {
+		return parse(data, length, Integer.MIN_VALUE);
+	}
+	
+	/**
+	 * Parses only the rows of a file which are after a given date. The rates of older rows 
+	 * are skipped without being decoded, which makes refreshing an existing model cheap.
+	 * 
+	 * @param data buffer holding the CSV file
+	 * @param length number of valid bytes in the buffer
+	 * @param afterEpochDay rows on or before this date are skipped
+	 * @return {@link ExchangeRates} holding the newer rows
+	 * @throws UnsupportedLayoutException if the data does not follow the ECB layout
+	 */
+	public ExchangeRates parse(byte[] data, int length, int afterEpochDay) throws UnsupportedLayoutException {
+		ExchangeRates exchangeRates = new ExchangeRates(readHeader(data, length));
+		readRows(data, dataStart, length, exchangeRates, afterEpochDay);
+		return exchangeRates;
+	}
+	
+	/**
+	 * Parses a complete file into a model whose rates are converted when they are first read. 
+	 * Only the dates are parsed here, and the text of the rows is kept so that each currency 
+	 * can be converted on its own when it is first queried.
+	 * 
+	 * @param data buffer holding the CSV file, which is copied so the buffer can be reused
+	 * @param length number of valid bytes in the buffer
+	 * @return {@link ExchangeRates} holding all rows in the file, in date order
+	 * @throws UnsupportedLayoutException if the data does not follow the ECB layout
+	 */
+	public ExchangeRates parseLazy(byte[] data, int length) throws UnsupportedLayoutException {
+		List<String> names = readHeader(data, length);
+		byte[] text = Arrays.copyOfRange(data, dataStart, length);
+		int[] epochDays = new int[256];
+		int[] lineStarts = new int[256];
+		int rowCount = 0;
+		int pos = 0;
+		while(pos < text.length) {
+			int end = pos;
+			while(end < text.length && text[end] != '\n') {
+				if(text[end] == '"') {
+					throw new UnsupportedLayoutException("Quoted fields are not supported at offset "+(dataStart+end));
+				}
+				end++;
+			}
+			int lineEnd = end;
+			if(lineEnd > pos && text[lineEnd-1] == '\r') {
+				lineEnd--;
+			}
+			//Blank lines are skipped
+			if(lineEnd > pos) {
+				if(rowCount == epochDays.length) {
+					epochDays = Arrays.copyOf(epochDays, rowCount * 2);
+					lineStarts = Arrays.copyOf(lineStarts, rowCount * 2);
+				}
+				epochDays[rowCount] = readRowDate(text, pos, lineEnd);
+				if(pos + DATE_LENGTH < lineEnd && text[pos + DATE_LENGTH] != ',') {
+					throw new UnsupportedLayoutException("Expected a comma after the date at offset "+(dataStart+pos+DATE_LENGTH));
+				}
+				lineStarts[rowCount++] = pos;
+			}
+			pos = end + 1;
+		}
+		
+		//Put the rows in date order, keeping the first row of any repeated date
+		//Each key holds the date above the row, so that rows with the same date stay in file order
+		long[] keys = new long[rowCount];
+		for(int i=0; i<rowCount; i++) {
+			keys[i] = (long) epochDays[i] << 32 | i;
+		}
+		Arrays.sort(keys);
+		int[] sortedDays = new int[rowCount];
+		int[] sortedStarts = new int[rowCount];
+		int kept = 0;
+		for(int i=0; i<rowCount; i++) {
+			int day = (int) (keys[i] >> 32);
+			if(kept == 0 || sortedDays[kept-1] != day) {
+				sortedDays[kept] = day;
+				sortedStarts[kept++] = lineStarts[(int) keys[i]];
+			}
+		}
+		
+		LazyRateColumn.Rows rows = new LazyRateColumn.Rows(text, sortedStarts, kept, names.size());
+		RateColumn[] columns = new RateColumn[names.size()];
+		for(int f=0, c=0; c<columns.length; f++) {
+			if(fileColumns == null || fileColumns[f] >= 0) {
+				columns[c++] = new LazyRateColumn(rows, f);
+			}
+		}
+		return new ExchangeRates(names, sortedDays, columns, kept);
+	}
+	
+	/**
+	 * Parses a file as it is read from a stream, passing each row to the handler instead of building 
+	 * a model. Only a small buffer is used whatever the size of the file. The rows are passed in 
+	 * file order, which for the ECB files is newest first.
+	 * 
+	 * @param in the CSV data
+	 * @param handler receives the header and then each row
+	 * @throws IOException if the stream can't be read
+	 * @throws UnsupportedLayoutException if the data does not follow the ECB layout. Rows before the 
+	 * one which failed have already been passed to the handler.
+	 */
+	public void parse(InputStream in, RowHandler handler) throws IOException, UnsupportedLayoutException {
+		readStream(in, handler, null);
+	}
+	
+	/**
+	 * As {@link #parse(InputStream, RowHandler)}, but data which does not follow the ECB layout is read by 
+	 * the fallback rather than failing. The fallback is given the header row followed by the rest of the file 
+	 * from the row which failed, so the handler receives every row once and in file order, whichever parser 
+	 * read it. Only the header row is kept for this, however far into the file the row which failed is.
+	 * 
+	 * @param in the CSV data
+	 * @param handler receives the header and then each row
+	 * @param fallback reads the data from the first row which is not in the ECB layout
+	 * @throws IOException if the stream can't be read, or the fallback fails
+	 */
+	public void parse(InputStream in, RowHandler handler, Fallback fallback) throws IOException {
+		try {
+			readStream(in, handler, Objects.requireNonNull(fallback));
+		} catch(UnsupportedLayoutException e) {
+			//Only thrown without a fallback
+			throw new IllegalStateException(e);
+		}
+	}
+	
+	/**
+	 * Parses a stream a buffer at a time
+	 * 
+	 * @param fallback reads the rest of the data from a row which is not in the ECB layout, or null to throw
+	 */
+	private void readStream(InputStream in, RowHandler handler, Fallback fallback) throws IOException, UnsupportedLayoutException {
+		byte[] data = new byte[STREAM_BUFFER_SIZE];
+		int length = 0;
+		//Start of the unparsed data, -1 until the header has been read
+		int start = -1;
+		//The header row as read, which the fallback is given in front of the rest of the file
+		byte[] header = null;
+		double[] row = null;
+		boolean ended = false;
+		while(!ended) {
+			if(start > 0) {
+				System.arraycopy(data, start, data, 0, length - start);
+				length -= start;
+				start = 0;
+			}
+			if(length == data.length) {
+				data = Arrays.copyOf(data, data.length * 2);
+			}
+			int read = in.read(data, length, data.length - length);
+			if(read < 0) {
+				ended = true;
+			} else {
+				length += read;
+			}
+			
+			//Only complete lines are parsed, the rest waits for the next read
+			int from = Math.max(start, 0);
+			int to = ended ? length : lineEnd(data, from, length);
+			try {
+				if(start < 0) {
+					if(to == 0 && !ended) {
+						continue;
+					}
+					List<String> names = readHeader(data, to);
+					header = Arrays.copyOf(data, dataStart);
+					handler.header(names);
+					row = new double[currencyNames.size()];
+					start = dataStart;
+				}
+				if(!readRows(data, start, to, Integer.MIN_VALUE, row, handler)) {
+					return;
+				}
+			} catch(UnsupportedLayoutException e) {
+				if(fallback == null) {
+					throw e;
+				}
+				InputStream rest = header == null ? new SequenceInputStream(new ByteArrayInputStream(data, 0, length), in)
+						: new SequenceInputStream(Collections.enumeration(Arrays.asList(new ByteArrayInputStream(header), 
+								new ByteArrayInputStream(data, rowStart, length - rowStart), in)));
+				fallback.read(rest, new FallbackHandler(handler, header != null));
+				return;
+			}
+			start = to;
+		}
+	}
+	
+	/**
+	 * Finds the end of the last complete line in part of a buffer
+	 * 
+	 * @return offset after the last line feed, or from if there is none
+	 */
+	private static int lineEnd(byte[] data, int from, int to) {
+		for(int p=to-1; p>=from; p--) {
+			if(data[p] == '\n') {
+				return p + 1;
+			}
+		}
+		return from;
+	}
+	
+	/**
+	 * Parses a complete file into a new model, splitting the rows into chunks on line boundaries 
+	 * and parsing the chunks concurrently on the given pool. The chunks are merged in date order.
+	 * 
+	 * @param data buffer holding the CSV file
+	 * @param length number of valid bytes in the buffer
+	 * @param pool the {@link ForkJoinPool} to parse the chunks on
+	 * @return {@link ExchangeRates} holding all rows in the file
+	 * @throws UnsupportedLayoutException if the data does not follow the ECB layout
+	 */
+	public ExchangeRates parse(byte[] data, int length, ForkJoinPool pool) throws UnsupportedLayoutException {
+		List<String> names = readHeader(data, length);
+		int chunkCount = Math.min(pool.getParallelism() * CHUNKS_PER_THREAD, (length - dataStart) / MIN_CHUNK_SIZE);
+		if(chunkCount < 2) {
+			return parse(data, length);
+		}
+		
+		List<ChunkTask> tasks = new ArrayList<>(chunkCount);
+		int chunkSize = (length - dataStart) / chunkCount;
+		int from = dataStart;
+		while(from < length) {
+			//Move the end of the chunk forward to the start of the next line
+			int to = Math.min(from + chunkSize, length);
+			while(to < length && data[to-1] != '\n') {
+				to++;
+			}
+			tasks.add(new ChunkTask(data, from, to, this));
+			from = to;
+		}
+		
+		List<ExchangeRates> chunks = new ArrayList<>(tasks.size());
+		try {
+			tasks.forEach(pool::execute);
+			for(ChunkTask task : tasks) {
+				chunks.add(task.join());
+			}
+		} catch(RuntimeException e) {
+			//The pool may wrap the exception of a chunk, so look for it in the causes
+			for(Throwable cause = e; cause != null; cause = cause.getCause()) {
+				if(cause instanceof UnsupportedLayoutException) {
+					throw (UnsupportedLayoutException) cause;
+				}
+			}
+			throw e;
+		}
+		
+		//Each chunk is already sorted, so adding them by their first date keeps the rows in order
+		chunks.sort(Comparator.comparingInt(c -> c.getRowCount() == 0 ? Integer.MAX_VALUE : c.getEpochDay(0)));
+		ExchangeRates exchangeRates = new ExchangeRates(names);
+		for(ExchangeRates chunk : chunks) {
+			exchangeRates.addRows(chunk);
+		}
+		return exchangeRates;
+	}
+	
+	/**
+	 * Reads the header row, which holds the currency names
+	 * 
+	 * @param data buffer holding the CSV file
+	 * @param length number of valid bytes in the buffer
+	 * @return {@link List} of currency names, in column order. With a projection only the currencies 
+	 * which are kept are listed.
+	 * @throws UnsupportedLayoutException if the header does not follow the ECB layout
+	 */
+	public List<String> readHeader(byte[] data, int length) throws UnsupportedLayoutException {
+		int pos = 0;
+		//Skip a UTF-8 byte order mark
+		if(length >= 3 && (data[0] & 0xFF) == 0xEF && (data[1] & 0xFF) == 0xBB && (data[2] & 0xFF) == 0xBF) {
+			pos = 3;
+		}
+		int end = pos;
+		while(end < length && data[end] != '\n') {
+			end++;
+		}
+		dataStart = Math.min(end + 1, length);
+		if(end > pos && data[end-1] == '\r') {
+			end--;
+		}
+		
+		List<String> fields = new ArrayList<>();
+		int fieldStart = pos;
+		for(int p=pos; p<=end; p++) {
+			if(p == end || data[p] == ',') {
+				fields.add(new String(data, fieldStart, p - fieldStart, StandardCharsets.UTF_8));
+				fieldStart = p + 1;
+			} else if(data[p] == '"') {
+				throw new UnsupportedLayoutException("Quoted header fields are not supported");
+			}
+		}
+		if(fields.size() < 2 || !fields.get(0).equalsIgnoreCase("Date")) {
+			throw new UnsupportedLayoutException("Header does not start with a Date column");
+		}
+		//The header has an extra empty field at the end, so filter that out
+		if(fields.get(fields.size()-1).isEmpty()) {
+			fields.remove(fields.size()-1);
+		}
+		currencyNames = new ArrayList<>(fields.subList(1, fields.size()));
+		if(projection != null) {
+			fileColumns = new int[currencyNames.size()];
+			List<String> kept = new ArrayList<>();
+			for(int f=0; f<fileColumns.length; f++) {
+				fileColumns[f] = projection.contains(currencyNames.get(f)) ? kept.size() : -1;
+				if(fileColumns[f] >= 0) {
+					kept.add(currencyNames.get(f));
+				}
+			}
+			currencyNames = kept;
+		}
+		return currencyNames;
+	}
+	
+	/**
+	 * Offset of the first data row, valid after {@link #readHeader(byte[], int)}
+	 * 
+	 * @return offset of the first byte after the header row
+	 */
+	public int getDataStart() {
+		return dataStart;
+	}
+	
+	/**
+	 * Reads the data rows in a part of the buffer and adds them to the model.
+	 * The header must have been read first.
+	 * 
+	 * @param data buffer holding the CSV file
+	 * @param from offset of the start of the first row
+	 * @param to offset after the end of the last row
+	 * @param exchangeRates the model to add the rows to
+	 * @throws UnsupportedLayoutException if a row does not follow the ECB layout
+	 */
+	public void readRows(byte[] data, int from, int to, ExchangeRates exchangeRates) throws UnsupportedLayoutException {
+		readRows(data, from, to, exchangeRates, Integer.MIN_VALUE);
+	}
+	
+	/**
+	 * Reads the data rows after a given date in a part of the buffer and adds them to the model.
+	 * The header must have been read first.
+	 * 
+	 * @param data buffer holding the CSV file
+	 * @param from offset of the start of the first row
+	 * @param to offset after the end of the last row
+	 * @param exchangeRates the model to add the rows to
+	 * @param afterEpochDay rows on or before this date are skipped
+	 * @throws UnsupportedLayoutException if a row does not follow the ECB layout
+	 */
+	public void readRows(byte[] data, int from, int to, ExchangeRates exchangeRates, int afterEpochDay) throws UnsupportedLayoutException {
+		//Reused for every row, the model copies the values into its columns
+		double[] row = new double[currencyNames.size()];
+		readRows(data, from, to, afterEpochDay, row, (epochDay, rates) -> {
+			exchangeRates.addRow(epochDay, rates);
+			return true;
+		});
+	}
+	
+	/**
+	 * Reads the data rows after a given date in a part of the buffer and passes them to the handler
+	 * 
+	 * @param row array to read each row into, one element per currency
+	 * @return false if the handler asked to stop
+	 */
+	private boolean readRows(byte[] data, int from, int to, int afterEpochDay, double[] row, RowHandler handler) throws UnsupportedLayoutException {
+		int pos = from;
+		while(pos < to) {
+			rowStart = pos;
+			int end = pos;
+			while(end < to && data[end] != '\n') {
+				end++;
+			}
+			int lineEnd = end;
+			if(lineEnd > pos && data[lineEnd-1] == '\r') {
+				lineEnd--;
+			}
+			//Blank lines are skipped
+			if(lineEnd > pos && (afterEpochDay == Integer.MIN_VALUE || readRowDate(data, pos, lineEnd) > afterEpochDay)
+					&& !handler.row(readRow(data, pos, lineEnd, row), row)) {
+				return false;
+			}
+			pos = end + 1;
+		}
+		return true;
+	}
+	
+	/**
+	 * Receives the rows of a file as they are parsed
+	 */
+	@FunctionalInterface
+	public interface RowHandler {
+		
+		/**
+		 * Called once with the currency names, before any row
+		 * 
+		 * @param currencyNames the currency names, in column order
+		 */
+		default void header(List<String> currencyNames) {
+		}
+		
+		/**
+		 * Called for each row
+		 * 
+		 * @param epochDay the date of the row as days since 1970-01-01
+		 * @param rates one rate per currency, NaN if missing. The array is reused for the next row.
+		 * @return true to carry on, or false to stop parsing
+		 */
+		boolean row(int epochDay, double[] rates);
+		
+	}
+	
+	/**
+	 * Reads the data which {@link EcbCsvParser#parse(InputStream, RowHandler, Fallback)} can't, 
+	 * with a general purpose CSV parser
+	 */
+	@FunctionalInterface
+	public interface Fallback {
+		
+		/**
+		 * Reads CSV data, passing the header and then each row to the handler
+		 * 
+		 * @param csv the CSV data, starting with the header row
+		 * @param handler receives the header, and each row with a rate for every currency in the header
+		 * @throws IOException
+		 */
+		void read(InputStream csv, RowHandler handler) throws IOException;
+		
+	}
+	
+	/**
+	 * Passes the rows read by a fallback on to the handler, keeping the currencies this parser keeps
+	 */
+	private class FallbackHandler implements RowHandler {
+		
+		private final RowHandler handler;
+		
+		//Whether the handler has already been given the header, by this parser
+		private final boolean headerPassed;
+		
+		//Position in the handler's rows of each currency in the header, -1 for those which are skipped
+		private int[] columns;
+		private double[] projected;
+		
+		FallbackHandler(RowHandler handler, boolean headerPassed) {
+			this.handler = handler;
+			this.headerPassed = headerPassed;
+		}
+		
+		@Override
+		public void header(List<String> names) {
+			List<String> kept = new ArrayList<>();
+			columns = new int[names.size()];
+			for(int f=0; f<columns.length; f++) {
+				columns[f] = projection == null || projection.contains(names.get(f)) ? kept.size() : -1;
+				if(columns[f] >= 0) {
+					kept.add(names.get(f));
+				}
+			}
+			projected = new double[kept.size()];
+			if(!headerPassed) {
+				handler.header(kept);
+			}
+		}
+		
+		@Override
+		public boolean row(int epochDay, double[] rates) {
+			for(int f=0; f<columns.length; f++) {
+				if(columns[f] >= 0) {
+					projected[columns[f]] = f < rates.length ? rates[f] : Double.NaN;
+				}
+			}
+			return handler.row(epochDay, projected);
+		}
+	}
+	
+	/**
+	 * Parses one chunk of rows into its own model, sorted by date
+	 */
+	private static class ChunkTask extends RecursiveTask<ExchangeRates> {
+		
+		private static final long serialVersionUID = 1L;
+		
+		private final byte[] data;
+		private final int from;
+		private final int to;
+		//The parser which read the header
+		private final EcbCsvParser header;
+		
+		ChunkTask(byte[] data, int from, int to, EcbCsvParser header) {
+			this.data = data;
+			this.from = from;
+			this.to = to;
+			this.header = header;
+		}
+		
+		@Override
+		protected ExchangeRates compute() {
+			EcbCsvParser parser = new EcbCsvParser(header.projection);
+			parser.currencyNames = header.currencyNames;
+			parser.fileColumns = header.fileColumns;
+			ExchangeRates chunk = new ExchangeRates(parser.currencyNames);
+			try {
+				parser.readRows(data, from, to, chunk);
+			} catch(UnsupportedLayoutException e) {
+				throw new CompletionException(e);
+			}
+			chunk.sortByDate();
+			return chunk;
+		}
+	}
+	
+	/**
+	 * Reads a single row into the given array
+	 * 
+	 * @return the date of the row as an epoch day
+	 */
+	private int readRow(byte[] data, int start, int end, double[] row) throws UnsupportedLayoutException {
+		int epochDay = readRowDate(data, start, end);
+		int p = start + DATE_LENGTH;
+		if(p < end && data[p] != ',') {
+			throw new UnsupportedLayoutException("Expected a comma after the date at offset "+p);
+		}
+		
+		int fileColumnCount = fileColumns == null ? row.length : fileColumns.length;
+		if(fileColumns != null) {
+			Arrays.fill(row, Double.NaN);
+		}
+		int column = 0;
+		while(p < end) {
+			//p is at a comma
+			int cellStart = ++p;
+			while(p < end && data[p] != ',') {
+				p++;
+			}
+			if(column < fileColumnCount) {
+				int target = fileColumns == null ? column : fileColumns[column];
+				//Skipped currencies are not converted
+				if(target >= 0) {
+					row[target] = readRate(data, cellStart, p);
+				}
+			} else if(p > cellStart) {
+				throw new UnsupportedLayoutException("More values than currencies at offset "+cellStart);
+			}
+			column++;
+		}
+		if(fileColumns == null && column < row.length) {
+			Arrays.fill(row, column, row.length, Double.NaN);
+		}
+		return epochDay;
+	}
+	
+	/**
+	 * Reads the date at the start of a row
+	 * 
+	 * @return the epoch day
+	 */
+	private static int readRowDate(byte[] data, int start, int end) throws UnsupportedLayoutException {
+		int epochDay = end - start < DATE_LENGTH ? Integer.MIN_VALUE : readDate(data, start);
+		if(epochDay == Integer.MIN_VALUE) {
+			throw new UnsupportedLayoutException("Invalid date at offset "+start);
+		}
+		return epochDay;
+	}
+	
+	/**
+	 * Reads a yyyy-MM-dd date
+	 * 
+	 * @return the epoch day, or Integer.MIN_VALUE if the date is not valid
+	 */
+	private static int readDate(byte[] data, int p) {
+		if(data[p+4] != '-' || data[p+7] != '-') {
+			return Integer.MIN_VALUE;
+		}
+		int year = digits(data, p, 4);
+		int month = digits(data, p + 5, 2);
+		int day = digits(data, p + 8, 2);
+		if(year < 0 || month < 0 || day < 0) {
+			return Integer.MIN_VALUE;
+		}
+		return EpochDay.of(year, month, day);
+	}
+	
+	/**
+	 * Reads a fixed number of digits as a number
+	 * 
+	 * @return the number, or -1 if any of the characters are not digits
+	 */
+	private static int digits(byte[] data, int p, int count) {
+		int value = 0;
+		for(int i=p; i<p+count; i++) {
+			int digit = data[i] - '0';
+			if(digit < 0 || digit > 9) {
+				return -1;
+			}
+			value = value * 10 + digit;
+		}
+		return value;
+	}
+	
+	/**
+	 * Reads a single rate, which is either a plain decimal number, N/A or empty
+	 * 
+	 * @return the rate, or NaN if it is missing
+	 */
+	static double readRate(byte[] data, int start, int end) throws UnsupportedLayoutException {
+		if(start == end) {
+			return Double.NaN;
+		}
+		if(end - start == 3 && data[start] == 'N' && data[start+1] == '/' && data[start+2] == 'A') {
+			return Double.NaN;
+		}
+		
+		long mantissa = 0;
+		int scale = 0;
+		int digitCount = 0;
+		boolean seenPoint = false;
+		for(int p=start; p<end; p++) {
+			byte b = data[p];
+			if(b >= '0' && b <= '9') {
+				if(mantissa < MAX_EXACT_MANTISSA) {
+					mantissa = mantissa * 10 + (b - '0');
+					if(seenPoint) {
+						scale++;
+					}
+				} else {
+					//Too many digits to convert exactly, so leave it to the JDK
+					return Double.parseDouble(new String(data, start, end - start, StandardCharsets.US_ASCII));
+				}
+				digitCount++;
+			} else if(b == '.' && !seenPoint) {
+				seenPoint = true;
+			} else {
+				throw new UnsupportedLayoutException("Invalid rate at offset "+start);
+			}
+		}
+		if(digitCount == 0) {
+			throw new UnsupportedLayoutException("Invalid rate at offset "+start);
+		}
+		if(mantissa >= MAX_EXACT_MANTISSA || scale >= POWERS_OF_TEN.length) {
+			return Double.parseDouble(new String(data, start, end - start, StandardCharsets.US_ASCII));
+		}
+		//Both values are exact, so the division is correctly rounded like Double.parseDouble
+		return mantissa / POWERS_OF_TEN[scale];
+	}
+	
+}
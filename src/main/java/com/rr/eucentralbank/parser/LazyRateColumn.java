@@ -0,0 +1,119 @@
+package com.rr.eucentralbank.parser;
+
+import java.nio.charset.StandardCharsets;
+
+import com.rr.eucentralbank.exception.UnsupportedLayoutException;
+import com.rr.eucentralbank.model.RateColumn;
+
+/**
+ * A {@link RateColumn} which keeps the text of the rows, and converts the rates of its currency
+ * the first time any of them is read. The text is shared by all the columns of a file, and is
+ * released once every column has been converted.
+ * 
+ * @author Robert Rodrigues
+ *
+ */
+class LazyRateColumn extends RateColumn {
+
+	//The rows, until the rates have been converted
+	private Rows rows;
+	
+	//Position of the currency in the file, 0 for the first currency after the date
+	private final int field;
+	
+	private volatile double[] values;
+	
+	LazyRateColumn(Rows rows, int field) {
+		this.rows = rows;
+		this.field = field;
+	}
+	
+	/**
+	 * The text of the rows of a file, in date order
+	 */
+	static final class Rows {
+		
+		private final byte[] text;
+		//Offset of the start of each row in the text
+		private final int[] starts;
+		private final int rowCount;
+		//Number of columns sharing the text, to divide its size between them
+		private final int columnCount;
+		
+		Rows(byte[] text, int[] starts, int rowCount, int columnCount) {
+			this.text = text;
+			this.starts = starts;
+			this.rowCount = rowCount;
+			this.columnCount = columnCount;
+		}
+	}
+	
+	@Override
+	public double get(int row) {
+		double[] converted = values;
+		if(converted == null) {
+			converted = convert();
+		}
+		return converted[row];
+	}
+	
+	/**
+	 * Converts the cells of this currency in every row
+	 */
+	private synchronized double[] convert() {
+		if(values != null) {
+			return values;
+		}
+		byte[] text = rows.text;
+		double[] converted = new double[rows.rowCount];
+		for(int r=0; r<converted.length; r++) {
+			//Skip the date and the cells before this currency
+			int p = rows.starts[r];
+			int commas = 0;
+			while(p < text.length && text[p] != '\n' && commas <= field) {
+				if(text[p++] == ',') {
+					commas++;
+				}
+			}
+			if(commas <= field) {
+				converted[r] = Double.NaN;
+				continue;
+			}
+			int end = p;
+			while(end < text.length && text[end] != ',' && text[end] != '\n' && text[end] != '\r') {
+				end++;
+			}
+			converted[r] = readRate(text, p, end);
+		}
+		values = converted;
+		rows = null;
+		return converted;
+	}
+	
+	/**
+	 * Reads one cell. Only the dates were checked when the file was loaded, so a cell which is not 
+	 * a number is taken as missing, as the general CSV parser would.
+	 */
+	private static double readRate(byte[] text, int start, int end) {
+		try {
+			return EcbCsvParser.readRate(text, start, end);
+		} catch(UnsupportedLayoutException e) {
+			try {
+				return Double.parseDouble(new String(text, start, end - start, StandardCharsets.US_ASCII));
+			} catch(NumberFormatException notNumber) {
+				return Double.NaN;
+			}
+		}
+	}
+	
+	@Override
+	public long memoryBytes() {
+		double[] converted = values;
+		if(converted != null) {
+			return (long) converted.length * Double.BYTES;
+		}
+		Rows unconverted = rows;
+		return unconverted == null ? 0 : (unconverted.text.length + (long) unconverted.starts.length * Integer.BYTES) / unconverted.columnCount;
+	}
+	
+}
@@ -0,0 +1,390 @@
+package com.rr.eucentralbank.server;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.rr.eucentralbank.api.Forex;
+import com.rr.eucentralbank.api.ForexImpl;
+import com.rr.eucentralbank.exception.CurrencyUnavailableException;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Serves the queries of a {@link Forex} over HTTP, using the server built into the JDK. 
+ * Responses are JSON and dates are yyyy-MM-dd.
+ * <ul>
+ * <li>GET /rates?date=2021-10-15</li>
+ * <li>GET /convert?date=2021-10-15&amp;amount=100&amp;from=USD&amp;to=GBP</li>
+ * <li>GET /highest?start=2021-10-01&amp;end=2021-10-15&amp;currency=USD</li>
+ * <li>GET /average?start=2021-10-01&amp;end=2021-10-15&amp;currency=USD&amp;removeNulls=true</li>
+ * <li>POST /convert/batch with one date,amount,from,to line per amount, at most {@link #MAX_BATCH_BYTES} in all</li>
+ * </ul>
+ * Any other path gets 404. Requests are handled on a fixed pool of threads. Identical GET requests 
+ * which arrive while one is being answered share its answer rather than each running the query.
+ * 
+ * @author Robert Rodrigues
+ *
+ */
+public class ForexServer {
+
+	//Largest batch body accepted, so one request can't make the server hold an unbounded body in memory
+	public static final int MAX_BATCH_BYTES = 8 << 20;
+	
+	private static final int OK = 200;
+	private static final int BAD_REQUEST = 400;
+	private static final int NOT_FOUND = 404;
+	private static final int METHOD_NOT_ALLOWED = 405;
+	private static final int PAYLOAD_TOO_LARGE = 413;
+	private static final int INTERNAL_SERVER_ERROR = 500;
+	
+	private final Forex forex;
+	private final HttpServer server;
+	private final ExecutorService executor;
+	private final RequestCoalescer<String, Response> coalescer = new RequestCoalescer<>();
+	
+	/**
+	 * Creates the server, which starts listening on {@link #start()}
+	 * 
+	 * @param forex the data to serve, which may be reloaded while the server runs
+	 * @param address address to listen on, port 0 for any free port
+	 * @param threads number of threads handling requests
+	 * @throws IOException if the address can't be bound
+	 */
+	public ForexServer(Forex forex, InetSocketAddress address, int threads) throws IOException {
+		this.forex = forex;
+		AtomicInteger count = new AtomicInteger();
+		this.executor = Executors.newFixedThreadPool(threads, task -> {
+			Thread thread = new Thread(task, "forex-http-" + count.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		});
+		this.server = HttpServer.create(address, 0);
+		server.setExecutor(executor);
+		server.createContext("/rates", exchange -> get(exchange, this::rates));
+		server.createContext("/convert", exchange -> get(exchange, this::convert));
+		server.createContext("/highest", exchange -> get(exchange, this::highest));
+		server.createContext("/average", exchange -> get(exchange, this::average));
+		server.createContext("/convert/batch", this::batch);
+		//Without it the server's own 404 closes the connection, which clients may already be reusing
+		server.createContext("/", ForexServer::notFound);
+	}
+	
+	public void start() {
+		server.start();
+	}
+	
+	/**
+	 * Stops the server once the requests in progress are answered, waiting at most the given time
+	 * 
+	 * @param delaySeconds how long to wait for requests in progress
+	 */
+	public void stop(int delaySeconds) {
+		server.stop(delaySeconds);
+		executor.shutdown();
+	}
+	
+	/**
+	 * @return the port the server listens on
+	 */
+	public int getPort() {
+		return server.getAddress().getPort();
+	}
+	
+	/**
+	 * A query answered from the request parameters
+	 */
+	@FunctionalInterface
+	private interface Query {
+		Response answer(Map<String, String> parameters) throws CurrencyUnavailableException;
+	}
+	
+	/**
+	 * A complete response, which may be sent to several coalesced requests
+	 */
+	private static final class Response {
+		
+		private final int status;
+		private final byte[] body;
+		
+		Response(int status, StringBuilder json) {
+			this.status = status;
+			this.body = json.toString().getBytes(StandardCharsets.UTF_8);
+		}
+	}
+	
+	private void get(HttpExchange exchange, Query query) throws IOException {
+		try {
+			if(!isContextPath(exchange)) {
+				send(exchange, error(NOT_FOUND, "No such path"));
+				return;
+			}
+			if(!"GET".equals(exchange.getRequestMethod())) {
+				send(exchange, error(METHOD_NOT_ALLOWED, "Use GET"));
+				return;
+			}
+			String rawQuery = exchange.getRequestURI().getRawQuery();
+			String key = exchange.getRequestURI().getPath() + '?' + rawQuery;
+			send(exchange, coalescer.get(key, () -> answer(query, rawQuery)));
+		} finally {
+			exchange.close();
+		}
+	}
+	
+	/**
+	 * Runs a query, turning failures into error responses
+	 */
+	private static Response answer(Query query, String rawQuery) {
+		try {
+			return query.answer(parameters(rawQuery));
+		} catch(CurrencyUnavailableException e) {
+			return error(NOT_FOUND, e.getMessage());
+		} catch(IllegalArgumentException | DateTimeParseException e) {
+			return error(BAD_REQUEST, e.getMessage());
+		} catch(RuntimeException e) {
+			return error(INTERNAL_SERVER_ERROR, "Internal error");
+		}
+	}
+	
+	private static void notFound(HttpExchange exchange) throws IOException {
+		try {
+			send(exchange, error(NOT_FOUND, "No such path"));
+		} finally {
+			exchange.close();
+		}
+	}
+	
+	/**
+	 * Contexts match every path which starts with theirs, so /ratesXYZ would reach /rates without this check
+	 */
+	private static boolean isContextPath(HttpExchange exchange) {
+		return exchange.getRequestURI().getPath().equals(exchange.getHttpContext().getPath());
+	}
+	
+	private Response rates(Map<String, String> parameters) {
+		LocalDate date = date(parameters, "date");
+		Map<String, Double> rates = forex.readDataForDate(date);
+		if(rates.isEmpty()) {
+			return error(NOT_FOUND, "No data for " + date);
+		}
+		StringBuilder json = new StringBuilder("{");
+		Json.string(Json.name(json, "date"), date.toString());
+		Json.rates(Json.name(json, "rates"), rates);
+		return new Response(OK, json.append('}'));
+	}
+	
+	private Response convert(Map<String, String> parameters) throws CurrencyUnavailableException {
+		LocalDate date = date(parameters, "date");
+		double amount = Double.parseDouble(required(parameters, "amount"));
+		String from = required(parameters, "from");
+		String to = required(parameters, "to");
+		double result = forex.convertCurrency(date, amount, from, to);
+		StringBuilder json = new StringBuilder("{");
+		Json.string(Json.name(json, "date"), date.toString());
+		Json.number(Json.name(json, "amount"), amount);
+		Json.string(Json.name(json, "from"), from);
+		Json.string(Json.name(json, "to"), to);
+		Json.number(Json.name(json, "result"), result);
+		return new Response(OK, json.append('}'));
+	}
+	
+	private Response highest(Map<String, String> parameters) throws CurrencyUnavailableException {
+		String currency = required(parameters, "currency");
+		double highest = forex.calculateHighest(date(parameters, "start"), date(parameters, "end"), currency);
+		StringBuilder json = new StringBuilder("{");
+		Json.string(Json.name(json, "currency"), currency);
+		Json.number(Json.name(json, "highest"), highest);
+		return new Response(OK, json.append('}'));
+	}
+	
+	private Response average(Map<String, String> parameters) throws CurrencyUnavailableException {
+		String currency = required(parameters, "currency");
+		boolean removeNulls = Boolean.parseBoolean(parameters.getOrDefault("removeNulls", "true"));
+		double average = forex.calculateAverage(date(parameters, "start"), date(parameters, "end"), currency, removeNulls);
+		StringBuilder json = new StringBuilder("{");
+		Json.string(Json.name(json, "currency"), currency);
+		Json.number(Json.name(json, "average"), average);
+		return new Response(OK, json.append('}'));
+	}
+	
+	/**
+	 * Converts the lines of the request body with {@link Forex#convertCurrencies}. The results are 
+	 * returned in the same order, with null and a {@link com.rr.eucentralbank.api.ConversionStatus} 
+	 * code for amounts which could not be converted.
+	 */
+	private void batch(HttpExchange exchange) throws IOException {
+		try {
+			if(!isContextPath(exchange)) {
+				send(exchange, error(NOT_FOUND, "No such path"));
+				return;
+			}
+			if(!"POST".equals(exchange.getRequestMethod())) {
+				send(exchange, error(METHOD_NOT_ALLOWED, "Use POST"));
+				return;
+			}
+			String length = exchange.getRequestHeaders().getFirst("Content-Length");
+			if(length != null && Long.parseLong(length) > MAX_BATCH_BYTES) {
+				tooLarge(exchange);
+				return;
+			}
+			//A chunked body has no length, so read one byte more than the limit to tell if it is over
+			byte[] body = exchange.getRequestBody().readNBytes(MAX_BATCH_BYTES + 1);
+			if(body.length > MAX_BATCH_BYTES) {
+				tooLarge(exchange);
+				return;
+			}
+			List<String> lines = new ArrayList<>();
+			try(BufferedReader reader = new BufferedReader(new InputStreamReader(new ByteArrayInputStream(body), StandardCharsets.UTF_8))) {
+				String line;
+				while((line = reader.readLine()) != null) {
+					if(!line.isBlank()) {
+						lines.add(line);
+					}
+				}
+			}
+			
+			int n = lines.size();
+			int[] epochDays = new int[n];
+			double[] amounts = new double[n];
+			String[] sources = new String[n];
+			String[] targets = new String[n];
+			//The same String for each currency lets the batch reuse its lookups
+			Map<String, String> names = new HashMap<>();
+			for(int i=0; i<n; i++) {
+				String[] fields = lines.get(i).split(",");
+				if(fields.length != 4) {
+					send(exchange, error(BAD_REQUEST, "Expected date,amount,from,to on line " + (i + 1)));
+					return;
+				}
+				try {
+					epochDays[i] = (int) LocalDate.parse(fields[0].trim()).toEpochDay();
+					amounts[i] = Double.parseDouble(fields[1].trim());
+				} catch(DateTimeParseException | NumberFormatException e) {
+					send(exchange, error(BAD_REQUEST, e.getMessage() + " on line " + (i + 1)));
+					return;
+				}
+				sources[i] = names.computeIfAbsent(fields[2].trim(), name -> name);
+				targets[i] = names.computeIfAbsent(fields[3].trim(), name -> name);
+			}
+			
+			double[] results = new double[n];
+			byte[] statuses = new byte[n];
+			int failures;
+			try {
+				failures = forex.convertCurrencies(epochDays, amounts, sources, targets, results, statuses);
+			} catch(RuntimeException e) {
+				send(exchange, error(INTERNAL_SERVER_ERROR, "Internal error"));
+				return;
+			}
+			StringBuilder json = new StringBuilder(32 + n * 24).append('{');
+			Json.name(json, "results").append('[');
+			for(int i=0; i<n; i++) {
+				Json.number(i == 0 ? json : json.append(','), results[i]);
+			}
+			Json.name(json.append(']'), "statuses").append('[');
+			for(int i=0; i<n; i++) {
+				(i == 0 ? json : json.append(',')).append(statuses[i]);
+			}
+			Json.name(json.append(']'), "failures").append(failures);
+			send(exchange, new Response(OK, json.append('}')));
+		} finally {
+			exchange.close();
+		}
+	}
+	
+	/**
+	 * Refuses a batch over the limit. Up to the limit again of the rest of the body is read and discarded first, 
+	 * as closing a connection with unread data resets it, and the client could lose the response.
+	 */
+	private static void tooLarge(HttpExchange exchange) throws IOException {
+		InputStream body = exchange.getRequestBody();
+		byte[] discard = new byte[8192];
+		long discarded = 0;
+		int read;
+		while(discarded < MAX_BATCH_BYTES && (read = body.read(discard)) != -1) {
+			discarded += read;
+		}
+		send(exchange, error(PAYLOAD_TOO_LARGE, "The batch is larger than " + MAX_BATCH_BYTES + " bytes"));
+	}
+	
+	private static Response error(int status, String message) {
+		StringBuilder json = new StringBuilder("{");
+		Json.string(Json.name(json, "error"), message == null ? "" : message);
+		return new Response(status, json.append('}'));
+	}
+	
+	private static void send(HttpExchange exchange, Response response) throws IOException {
+		exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+		exchange.sendResponseHeaders(response.status, response.body.length);
+		try(OutputStream out = exchange.getResponseBody()) {
+			out.write(response.body);
+		}
+	}
+	
+	/**
+	 * Splits a raw query string into decoded parameters
+	 */
+	private static Map<String, String> parameters(String rawQuery) {
+		Map<String, String> parameters = new HashMap<>();
+		if(rawQuery == null) {
+			return parameters;
+		}
+		for(String pair : rawQuery.split("&")) {
+			int equals = pair.indexOf('=');
+			if(equals > 0) {
+				parameters.put(URLDecoder.decode(pair.substring(0, equals), StandardCharsets.UTF_8), 
+						URLDecoder.decode(pair.substring(equals + 1), StandardCharsets.UTF_8));
+			}
+		}
+		return parameters;
+	}
+	
+	private static String required(Map<String, String> parameters, String name) {
+		String value = parameters.get(name);
+		if(value == null || value.isEmpty()) {
+			throw new IllegalArgumentException("Missing parameter " + name);
+		}
+		return value;
+	}
+	
+	private static LocalDate date(Map<String, String> parameters, String name) {
+		return LocalDate.parse(required(parameters, name));
+	}
+	
+	/**
+	 * Loads the data and serves it until the process is stopped. 
+	 * Arguments: port (default 8080), then optionally a zip file to load instead of the live site.
+	 * 
+	 * @param args port and zip file
+	 * @throws IOException
+	 */
+	public static void main(String[] args) throws IOException {
+		int port = args.length > 0 ? Integer.parseInt(args[0]) : 8080;
+		ForexImpl forex = new ForexImpl();
+		if(args.length > 1) {
+			forex.loadDataFromZip(new File(args[1]));
+		} else {
+			forex.loadDataLiveSite();
+		}
+		ForexServer server = new ForexServer(forex, new InetSocketAddress(port), Runtime.getRuntime().availableProcessors());
+		server.start();
+		System.out.println("Serving " + forex.getCurrencyNames().size() + " currencies on port " + server.getPort());
+	}
+	
+}
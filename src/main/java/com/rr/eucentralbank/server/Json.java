@@ -0,0 +1,88 @@
+package com.rr.eucentralbank.server;
+
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Writes the few JSON shapes the server returns straight into a {@link StringBuilder}
+ * 
+ * @author Robert Rodrigues
+ *
+ */
+final class Json {
+
+	private Json() {
+	}
+	
+	/**
+	 * Appends a quoted and escaped string
+	 */
+	static StringBuilder string(StringBuilder out, String value) {
+		out.append('"');
+		for(int i=0; i<value.length(); i++) {
+			char ch = value.charAt(i);
+			switch(ch) {
+			case '"':
+				out.append("\\\"");
+				break;
+			case '\\':
+				out.append("\\\\");
+				break;
+			case '\n':
+				out.append("\\n");
+				break;
+			case '\r':
+				out.append("\\r");
+				break;
+			case '\t':
+				out.append("\\t");
+				break;
+			default:
+				if(ch < 0x20) {
+					out.append(String.format("\\u%04x", (int) ch));
+				} else {
+					out.append(ch);
+				}
+			}
+		}
+		return out.append('"');
+	}
+	
+	/**
+	 * Appends a number, or null for NaN and infinity which JSON can't represent
+	 */
+	static StringBuilder number(StringBuilder out, double value) {
+		if(Double.isNaN(value) || Double.isInfinite(value)) {
+			return out.append("null");
+		}
+		return out.append(value);
+	}
+	
+	/**
+	 * Appends "name": with a leading comma unless it is the first member of the object
+	 */
+	static StringBuilder name(StringBuilder out, String name) {
+		char last = out.charAt(out.length() - 1);
+		if(last != '{') {
+			out.append(',');
+		}
+		return string(out, name).append(':');
+	}
+	
+	/**
+	 * Appends an object of rates, sorted by currency name, with missing rates as null
+	 */
+	static StringBuilder rates(StringBuilder out, Map<String, Double> rates) {
+		out.append('{');
+		for(Map.Entry<String, Double> entry : new TreeMap<>(rates).entrySet()) {
+			name(out, entry.getKey());
+			if(entry.getValue() == null) {
+				out.append("null");
+			} else {
+				number(out, entry.getValue());
+			}
+		}
+		return out.append('}');
+	}
+	
+}
@@ -0,0 +1,62 @@
+package com.rr.eucentralbank.server;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+
+/**
+ * Lets concurrent callers asking for the same key share one computation. The first caller computes 
+ * the value and the others wait for it. Nothing is cached: once the value is returned, the next 
+ * call for the key computes it again.
+ * 
+ * @author Robert Rodrigues
+ *
+ * @param <K> type of the keys
+ * @param <V> type of the values
+ */
+public class RequestCoalescer<K, V> {
+
+	private final ConcurrentHashMap<K, CompletableFuture<V>> inFlight = new ConcurrentHashMap<>();
+	
+	/**
+	 * Returns the value for the key, computed by this call or by a call for the same key already in progress
+	 * 
+	 * @param key identifies the computation
+	 * @param supplier computes the value if no call for the key is in progress
+	 * @return the value
+	 */
+	public V get(K key, Supplier<V> supplier) {
+		CompletableFuture<V> future = new CompletableFuture<>();
+		CompletableFuture<V> existing = inFlight.putIfAbsent(key, future);
+		if(existing != null) {
+			try {
+				return existing.join();
+			} catch(CompletionException e) {
+				//Rethrow what the computing caller saw
+				if(e.getCause() instanceof RuntimeException) {
+					throw (RuntimeException) e.getCause();
+				}
+				throw e;
+			}
+		}
+		try {
+			V value = supplier.get();
+			future.complete(value);
+			return value;
+		} catch(RuntimeException | Error e) {
+			future.completeExceptionally(e);
+			throw e;
+		} finally {
+			inFlight.remove(key, future);
+		}
+	}
+	
+	/**
+	 * @return the number of computations in progress
+	 */
+	public int inFlight() {
+		return inFlight.size();
+	}
+	
+}
@@ -0,0 +1,220 @@
+package com.rr.eucentralbank.snapshot;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+import com.rr.eucentralbank.model.BufferRateColumn;
+import com.rr.eucentralbank.model.ExchangeRates;
+import com.rr.eucentralbank.model.RangeAggregateIndex;
+import com.rr.eucentralbank.model.RateColumn;
+
+/**
+ * Reads and writes the binary snapshot format, which allows a model to be opened again 
+ * without any parsing. The file is laid out as follows, all values little endian:
+ * 
+ * <pre>
+ * int magic, int version, int currency count, int row count, int offset of the dates
+ * for each currency: short length, UTF-8 bytes of the name
+ * padding to a multiple of 8 bytes
+ * int epoch day of each row, in ascending order
+ * padding to a multiple of 8 bytes
+ * for each currency: double rate of each row, NaN where missing
+ * for each currency: the aggregate index of the column, as written by {@link RangeAggregateIndex#writeTo(ByteBuffer)}
+ * </pre>
+ * 
+ * Snapshots are opened by reading the header and mapping the rest, so the dates, the rate columns 
+ * and their aggregate indexes are read straight from the page cache and are shared by every process 
+ * on the host which opens the same file. Nothing is built when a snapshot is opened. A 
+ * snapshot is never rewritten in place, as that would pull the pages from under any process
+ * which still has it mapped; a new file is written alongside and moved over the old one.
+ * 
+ * @author Robert Rodrigues
+ *
+ */
+public final class Snapshot {
+
+	//"ECBS" in ASCII
+	private static final int MAGIC = 0x45434253;
+	
+	private static final int VERSION = 2;
+	
+	private static final int FIXED_HEADER_SIZE = 5 * Integer.BYTES;
+	
+	private Snapshot() {
+	}
+	
+	/**
+	 * Writes the model to a snapshot file, replacing the file if it exists. The data is 
+	 * written to a temporary file in the same directory which is then atomically moved over
+	 * the destination, so existing mappings of the old file stay valid.
+	 * 
+	 * @param exchangeRates the model to write
+	 * @param file the destination file
+	 * @throws IOException
+	 */
+	public static void write(ExchangeRates exchangeRates, File file) throws IOException {
+		Path target = file.toPath().toAbsolutePath();
+		//Not Files.createTempFile, which would make the snapshot unreadable to other users
+		Path temp = target.resolveSibling(target.getFileName()+"."+UUID.randomUUID()+".tmp");
+		try {
+			writeTo(exchangeRates, temp);
+			Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+		} catch(IOException | RuntimeException e) {
+			Files.deleteIfExists(temp);
+			throw e;
+		}
+	}
+	
+	private static void writeTo(ExchangeRates exchangeRates, Path path) throws IOException {
+		exchangeRates.sortByDate();
+		List<byte[]> names = new ArrayList<>();
+		int headerSize = FIXED_HEADER_SIZE;
+		for(String name : exchangeRates.getCurrencyNames()) {
+			byte[] bytes = name.getBytes(StandardCharsets.UTF_8);
+			names.add(bytes);
+			headerSize += Short.BYTES + bytes.length;
+		}
+		int rowCount = exchangeRates.getRowCount();
+		long datesStart = align(headerSize);
+		long columnsStart = align(datesStart + (long) rowCount * Integer.BYTES);
+		long aggregatesStart = columnsStart + (long) names.size() * rowCount * Double.BYTES;
+		long indexSize = RangeAggregateIndex.serializedSize(rowCount);
+		long size = aggregatesStart + names.size() * indexSize;
+		
+		try(FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE_NEW, 
+				StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+			ByteBuffer header = ByteBuffer.allocate((int) datesStart).order(ByteOrder.LITTLE_ENDIAN);
+			header.putInt(MAGIC).putInt(VERSION).putInt(names.size()).putInt(rowCount).putInt((int) datesStart);
+			for(byte[] name : names) {
+				header.putShort((short) name.length).put(name);
+			}
+			header.rewind();
+			channel.write(header, 0);
+			
+			//Map the body in slices, as a single map is limited to 2GB
+			long position = datesStart;
+			MappedByteBuffer body = map(channel, FileChannel.MapMode.READ_WRITE, position, columnsStart - position);
+			for(int r=0; r<rowCount; r++) {
+				body.putInt(exchangeRates.getEpochDay(r));
+			}
+			body.force();
+			for(int c=0; c<names.size(); c++) {
+				body = map(channel, FileChannel.MapMode.READ_WRITE, columnsStart + (long) c * rowCount * Double.BYTES, (long) rowCount * Double.BYTES);
+				for(int r=0; r<rowCount; r++) {
+					body.putDouble(exchangeRates.getRate(c, r));
+				}
+				body.force();
+			}
+			//Built afresh, as the model's own indexes may be held in another form such as a compact column
+			for(int c=0; c<names.size(); c++) {
+				body = map(channel, FileChannel.MapMode.READ_WRITE, aggregatesStart + c * indexSize, indexSize);
+				new RangeAggregateIndex(exchangeRates.getColumn(c), rowCount).writeTo(body);
+				body.force();
+			}
+			channel.truncate(size);
+			channel.force(true);
+		}
+	}
+	
+	/**
+	 * Opens a snapshot file. Only the header is read, the dates, the rates and the aggregate 
+	 * indexes are memory mapped and read directly from the file.
+	 * 
+	 * @param file the snapshot file
+	 * @return {@link ExchangeRates} backed by the file
+	 * @throws IOException if the file can't be read or is not a snapshot
+	 */
+	public static ExchangeRates open(File file) throws IOException {
+		try(FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+			//The mappings stay valid after the channel is closed
+			long size = channel.size();
+			ByteBuffer buffer = read(channel, 0, (int) Math.min(size, FIXED_HEADER_SIZE));
+			if(buffer.remaining() < 2 * Integer.BYTES || buffer.getInt() != MAGIC) {
+				throw new IOException(file+" is not a snapshot file");
+			}
+			int version = buffer.getInt();
+			if(version != VERSION) {
+				throw new IOException(file+" has unsupported snapshot version "+version);
+			}
+			if(buffer.remaining() < FIXED_HEADER_SIZE - 2 * Integer.BYTES) {
+				throw new IOException(file+" is truncated");
+			}
+			int currencyCount = buffer.getInt();
+			int rowCount = buffer.getInt();
+			int datesStart = buffer.getInt();
+			if(datesStart < FIXED_HEADER_SIZE || datesStart > size) {
+				throw new IOException(file+" is truncated");
+			}
+			
+			buffer = read(channel, FIXED_HEADER_SIZE, datesStart - FIXED_HEADER_SIZE);
+			List<String> names = new ArrayList<>(currencyCount);
+			for(int c=0; c<currencyCount; c++) {
+				byte[] name = new byte[buffer.getShort()];
+				buffer.get(name);
+				names.add(new String(name, StandardCharsets.UTF_8));
+			}
+			
+			long columnsStart = align(datesStart + (long) rowCount * Integer.BYTES);
+			long columnSize = (long) rowCount * Double.BYTES;
+			long aggregatesStart = columnsStart + currencyCount * columnSize;
+			long indexSize = RangeAggregateIndex.serializedSize(rowCount);
+			if(size < aggregatesStart + currencyCount * indexSize) {
+				throw new IOException(file+" is truncated");
+			}
+			IntBuffer epochDays = map(channel, FileChannel.MapMode.READ_ONLY, datesStart, (long) rowCount * Integer.BYTES).asIntBuffer();
+			
+			RateColumn[] columns = new RateColumn[currencyCount];
+			RangeAggregateIndex[] aggregates = new RangeAggregateIndex[currencyCount];
+			for(int c=0; c<currencyCount; c++) {
+				ByteBuffer column = map(channel, FileChannel.MapMode.READ_ONLY, columnsStart + c * columnSize, columnSize);
+				columns[c] = new BufferRateColumn(column.asDoubleBuffer());
+				ByteBuffer index = map(channel, FileChannel.MapMode.READ_ONLY, aggregatesStart + c * indexSize, indexSize);
+				aggregates[c] = RangeAggregateIndex.map(columns[c], rowCount, index);
+			}
+			return new ExchangeRates(names, epochDays, columns, aggregates, rowCount);
+		} catch(BufferUnderflowException e) {
+			throw new IOException(file+" is truncated", e);
+		}
+	}
+	
+	/**
+	 * Reads part of a file onto the heap
+	 * 
+	 * @return little endian buffer holding the bytes read, fewer than asked for if the file ends first
+	 */
+	private static ByteBuffer read(FileChannel channel, long position, int size) throws IOException {
+		ByteBuffer buffer = ByteBuffer.allocate(size).order(ByteOrder.LITTLE_ENDIAN);
+		while(buffer.hasRemaining()) {
+			if(channel.read(buffer, position + buffer.position()) < 0) {
+				break;
+			}
+		}
+		buffer.flip();
+		return buffer;
+	}
+	
+	private static MappedByteBuffer map(FileChannel channel, FileChannel.MapMode mode, long position, long size) throws IOException {
+		MappedByteBuffer buffer = channel.map(mode, position, size);
+		buffer.order(ByteOrder.LITTLE_ENDIAN);
+		return buffer;
+	}
+	
+	private static long align(long position) {
+		return (position + 7) & ~7L;
+	}
+	
+}
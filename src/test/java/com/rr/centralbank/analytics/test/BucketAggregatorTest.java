@@ -0,0 +1,86 @@
+package com.rr.centralbank.analytics.test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.time.LocalDate;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import org.junit.jupiter.api.Test;
+
+import com.rr.eucentralbank.analytics.BucketAggregator;
+import com.rr.eucentralbank.analytics.CalendarBucket;
+import com.rr.eucentralbank.analytics.OhlcTable;
+import com.rr.eucentralbank.model.ExchangeRates;
+
+class BucketAggregatorTest {
+
+	/**
+	 * Compares each period against a plain scan of its rows, sequentially and in parallel
+	 */
+	@Test
+	void testBucketsMatchScan() {
+		Random random = new Random(9);
+		ExchangeRates rates = new ExchangeRates(Arrays.asList("A", "B"));
+		LocalDate date = LocalDate.of(1999, 1, 4);
+		for(int i=0; i<6000; i++) {
+			if(date.getDayOfWeek().getValue() < 6) {
+				rates.addRow((int) date.toEpochDay(), new double[] {
+						random.nextInt(5) == 0 ? Double.NaN : random.nextDouble(), i < 100 ? Double.NaN : i});
+			}
+			date = date.plusDays(1);
+		}
+		int start = (int) LocalDate.of(1999, 3, 17).toEpochDay();
+		int end = (int) LocalDate.of(2013, 7, 2).toEpochDay();
+		
+		ForkJoinPool pool = new ForkJoinPool(4);
+		try {
+			for(CalendarBucket bucket : CalendarBucket.values()) {
+				OhlcTable sequential = BucketAggregator.aggregate(rates, start, end, bucket, null, null);
+				OhlcTable parallel = BucketAggregator.aggregate(rates, start, end, bucket, Arrays.asList("B", "A", "X"), pool);
+				assertEquals(sequential.getBucketCount(), parallel.getBucketCount());
+				
+				int rowsSeen = 0;
+				for(int b=0; b<sequential.getBucketCount(); b++) {
+					int bucketStart = sequential.getBucketStarts()[b];
+					int from = Math.max(rates.lowerBound(bucketStart), rates.lowerBound(start));
+					int to = Math.min(rates.lowerBound(bucket.nextStart(bucketStart)), rates.upperBound(end));
+					assertTrue(to > from, "Expect only periods with data");
+					rowsSeen += to - from;
+					for(int c=0; c<2; c++) {
+						double open = Double.NaN;
+						double close = Double.NaN;
+						double high = Double.NaN;
+						double sum = 0;
+						int count = 0;
+						for(int r=from; r<to; r++) {
+							double v = rates.getRate(c, r);
+							if(!Double.isNaN(v)) {
+								open = count == 0 ? v : open;
+								close = v;
+								high = count == 0 ? v : Math.max(high, v);
+								sum += v;
+								count++;
+							}
+						}
+						//The parallel table lists B first
+						int p = 1 - c;
+						assertEquals(open, sequential.getOpens(c)[b]);
+						assertEquals(close, parallel.getCloses(p)[b]);
+						assertEquals(high, parallel.getHighs(p)[b]);
+						assertEquals(sum, sequential.getSums(c)[b], 1e-9);
+						assertEquals(count, parallel.getCounts(p)[b]);
+						assertEquals(to - from - count, sequential.getNullCounts(c)[b]);
+					}
+					assertEquals(to - from, parallel.getNullCounts(2)[b], "Expect an unknown currency to be all nulls");
+				}
+				assertEquals(rates.upperBound(end) - rates.lowerBound(start), rowsSeen);
+			}
+		} finally {
+			pool.shutdown();
+		}
+	}
+	
+}
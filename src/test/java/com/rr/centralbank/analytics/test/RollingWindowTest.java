@@ -0,0 +1,112 @@
+package com.rr.centralbank.analytics.test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import org.junit.jupiter.api.Test;
+
+import com.rr.eucentralbank.analytics.RollingSeries;
+import com.rr.eucentralbank.analytics.RollingWindow;
+import com.rr.eucentralbank.model.ExchangeRates;
+
+class RollingWindowTest {
+
+	/**
+	 * Compares every window against a plain scan, with nulls both removed and counted as zero
+	 */
+	@Test
+	void testWindowsMatchScan() {
+		Random random = new Random(5);
+		ExchangeRates rates = new ExchangeRates(Arrays.asList("A", "B"));
+		for(int r=0; r<500; r++) {
+			//Column B has a run of nulls longer than the window
+			double b = r >= 100 && r < 140 ? Double.NaN : 100 + random.nextGaussian();
+			rates.addRow(r, new double[] {random.nextInt(6) == 0 ? Double.NaN : 1 + random.nextDouble(), b});
+		}
+		
+		ForkJoinPool pool = new ForkJoinPool(2);
+		try {
+			for(boolean removeNulls : new boolean[] {true, false}) {
+				for(int window : new int[] {1, 2, 30, 250, 600}) {
+					Map<String, RollingSeries> all = RollingWindow.computeAll(rates, window, removeNulls, window % 2 == 0 ? pool : null);
+					for(int c=0; c<2; c++) {
+						RollingSeries series = all.get(rates.getCurrencyNames().get(c));
+						for(int i=0; i<rates.getRowCount(); i++) {
+							assertWindow(rates, c, i, window, removeNulls, series);
+						}
+					}
+				}
+			}
+		} finally {
+			pool.shutdown();
+		}
+	}
+	
+	/**
+	 * A window longer than the data only sizes its buffers by the rows there are
+	 */
+	@Test
+	void testWindowLongerThanData() {
+		ExchangeRates rates = new ExchangeRates(Arrays.asList("A"));
+		for(int r=0; r<10; r++) {
+			rates.addRow(r, new double[] {r});
+		}
+		RollingSeries series = RollingWindow.compute(rates, "A", Integer.MAX_VALUE, true);
+		assertEquals(10, series.getCounts()[9]);
+		assertTrue(Double.isNaN(series.getMeans()[9]));
+	}
+	
+	private static void assertWindow(ExchangeRates rates, int c, int i, int window, boolean removeNulls, RollingSeries series) {
+		String message = "column "+c+" row "+i+" window "+window+" removeNulls "+removeNulls;
+		if(i < window - 1) {
+			assertTrue(Double.isNaN(series.getMeans()[i]), message);
+			return;
+		}
+		int n = 0;
+		double sum = 0;
+		double min = Double.POSITIVE_INFINITY;
+		double max = Double.NEGATIVE_INFINITY;
+		for(int r=i-window+1; r<=i; r++) {
+			double v = rates.getRate(c, r);
+			if(Double.isNaN(v)) {
+				if(removeNulls) {
+					continue;
+				}
+				v = 0;
+			}
+			n++;
+			sum += v;
+			min = Math.min(min, v);
+			max = Math.max(max, v);
+		}
+		assertEquals(n, series.getCounts()[i], message);
+		if(n == 0) {
+			assertTrue(Double.isNaN(series.getMeans()[i]) && Double.isNaN(series.getMinimums()[i]), message);
+			return;
+		}
+		double mean = sum / n;
+		double squares = 0;
+		for(int r=i-window+1; r<=i; r++) {
+			double v = rates.getRate(c, r);
+			if(!Double.isNaN(v) || !removeNulls) {
+				double d = (Double.isNaN(v) ? 0 : v) - mean;
+				squares += d * d;
+			}
+		}
+		assertEquals(mean, series.getMeans()[i], 1e-9, message);
+		assertEquals(min, series.getMinimums()[i], message);
+		assertEquals(max, series.getMaximums()[i], message);
+		if(n > 1) {
+			//Nulls as zero make the variance jump by 10^4, so allow for the rounding error of that when it drops back
+			assertEquals(Math.sqrt(squares / (n - 1)), series.getStandardDeviations()[i], 1e-5, message);
+		} else {
+			assertTrue(Double.isNaN(series.getStandardDeviations()[i]), message);
+		}
+	}
+	
+}
@@ -7,19 +7,54 @@ import static org.junit.jupiter.api.Assertions.assertTrue;
 
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
 import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Flow;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipOutputStream;
 
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
 
+import com.rr.eucentralbank.analytics.CalendarBucket;
+import com.rr.eucentralbank.api.AsOf;
+import com.rr.eucentralbank.api.ConversionStatus;
+import com.rr.eucentralbank.api.CrossRateCache;
 import com.rr.eucentralbank.api.Forex;
 import com.rr.eucentralbank.api.ForexImpl;
+import com.rr.eucentralbank.api.ForexRegistry;
+import com.rr.eucentralbank.api.IndexedForex;
+import com.rr.eucentralbank.api.LoadOptions;
+import com.rr.eucentralbank.api.RateRow;
 import com.rr.eucentralbank.exception.CurrencyUnavailableException;
+import com.rr.eucentralbank.metrics.ForexMetrics.Query;
+import com.rr.eucentralbank.model.EpochDay;
+import com.rr.eucentralbank.metrics.LoadSummary;
+import com.rr.eucentralbank.metrics.RecordingMetrics;
+import com.sun.net.httpserver.HttpServer;
 
 class ExchangeRateToolTest {
 
@@ -42,6 +77,17 @@ class ExchangeRateToolTest {
 	 * @throws IOException
 	 */
 	private InputStream createDummyStream() throws IOException {
+		return createDummyStream(testData);
+	}
+
+	/**
+	 * Creates an in-memory zip stream holding the given CSV data
+	 * 
+	 * @param testData the CSV data
+	 * @return InputStream
+	 * @throws IOException
+	 */
+	private InputStream createDummyStream(String testData) throws IOException {
 		ByteArrayOutputStream baos = new ByteArrayOutputStream();
 		ZipOutputStream zos = new ZipOutputStream(baos);
 		ZipEntry entry = new ZipEntry("eurofxref-hist.csv");
@@ -61,7 +107,7 @@ class ExchangeRateToolTest {
 	 */
 	@Test
 	void testFetchingRow() throws IOException, ParseException {
-		Forex t = new ForexImpl();
+		IndexedForex t = new ForexImpl();
 		t.loadDataFromInputStream(createDummyStream());
 
 		SimpleDateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd");
@@ -84,7 +130,7 @@ class ExchangeRateToolTest {
 	 */
 	@Test
 	void testConversion() throws IOException, CurrencyUnavailableException, ParseException {
-		Forex t = new ForexImpl();
+		IndexedForex t = new ForexImpl();
 		t.loadDataFromInputStream(createDummyStream());
 
 		SimpleDateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd");
@@ -113,7 +159,7 @@ class ExchangeRateToolTest {
 	 */
 	@Test
 	void testCalculateMaximum() throws IOException, CurrencyUnavailableException, ParseException {
-		Forex t = new ForexImpl();
+		IndexedForex t = new ForexImpl();
 		t.loadDataFromInputStream(createDummyStream());
 
 		SimpleDateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd");
@@ -143,7 +189,7 @@ class ExchangeRateToolTest {
 	 */
 	@Test
 	void testCalculateAverage() throws IOException, CurrencyUnavailableException, ParseException {
-		Forex t = new ForexImpl();
+		IndexedForex t = new ForexImpl();
 		t.loadDataFromInputStream(createDummyStream());
 
 		SimpleDateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd");
@@ -167,4 +213,894 @@ class ExchangeRateToolTest {
 			assertFalse(true, "Expect exception to be thrown");
 		});
 	}
+
+	/**
+	 * Tests that the average over a single day is exactly the stored rate, for a large 
+	 * currency late in a long history, where a difference of running totals loses precision
+	 * 
+	 * @throws IOException
+	 * @throws CurrencyUnavailableException
+	 */
+	@Test
+	void testSingleDayAverageIsExact() throws IOException, CurrencyUnavailableException {
+		StringBuilder csv = new StringBuilder("Date,IDR,KRW,\r\n");
+		LocalDate date = LocalDate.of(2000, 1, 3);
+		double[] idr = new double[6000];
+		for(int i=0; i<idr.length; i++) {
+			idr[i] = 16000 + (i * 7919 % 100000) / 1000.0 + 0.01;
+			csv.append(date.plusDays(i)).append(',').append(idr[i]).append(",1395.67,\r\n");
+		}
+		IndexedForex t = new ForexImpl();
+		t.loadDataFromInputStream(createDummyStream(csv.toString()));
+
+		for(int i=idr.length-10; i<idr.length; i++) {
+			LocalDate day = date.plusDays(i);
+			assertEquals(idr[i], t.calculateAverage(day, day, "IDR", true), "average of "+day);
+			assertEquals(1395.67, t.calculateAverage(day, day, "KRW", false), "average of "+day);
+		}
+	}
+
+	/**
+	 * Tests percentiles, the median and ranks, removing nulls or treating them as zero
+	 * 
+	 * @throws IOException
+	 * @throws CurrencyUnavailableException
+	 * @throws ParseException 
+	 */
+	@Test
+	void testPercentiles() throws IOException, CurrencyUnavailableException, ParseException {
+		IndexedForex t = new ForexImpl();
+		t.loadDataFromInputStream(createDummyStream());
+
+		SimpleDateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd");
+		LocalDate start = LocalDate.of(2021, 10, 4);
+		LocalDate end = LocalDate.of(2021, 10, 15);
+
+		// USD in order: 1.1542, 1.1555, 1.1562, 1.1562, 1.1569, 1.1574, 1.1602, 1.1602, 1.1602, 1.1636
+		assertEquals(1.1542, t.calculatePercentile(dateFormat.parse("2021-10-04"), dateFormat.parse("2021-10-15"), "USD", 0, true));
+		assertEquals(1.1636, t.calculatePercentile(start, end, "USD", 100, true));
+		assertEquals(1.15715, t.calculateMedian(start, end, "USD", true), 1e-12);
+		assertEquals(75, t.calculatePercentRank(start, end, "USD", 1.1602, true), 1e-12);
+		assertEquals(0, t.calculatePercentRank(start, end, "USD", 1, true));
+		assertEquals(1.15715, t.calculateMedian(dateFormat.parse("2021-10-04"), dateFormat.parse("2021-10-15"), "USD", true), 1e-12);
+		assertEquals(1.15715, t.calculateMedian((int) start.toEpochDay(), (int) end.toEpochDay(), "USD", true), 1e-12);
+		assertEquals(75, t.calculatePercentRank(dateFormat.parse("2021-10-04"), dateFormat.parse("2021-10-15"), "USD", 1.1602, true), 1e-12);
+
+		// AAA has five rates of 1 and five nulls, which are zero unless removed
+		assertEquals(1, t.calculateMedian(start, end, "AAA", true));
+		assertEquals(0.5, t.calculateMedian(start, end, "AAA", false));
+		assertEquals(50, t.calculatePercentRank(start, end, "AAA", 1, true));
+		assertEquals(75, t.calculatePercentRank(start, end, "AAA", 1, false));
+
+		int usd = t.currencyHandle("USD");
+		int aaa = t.currencyHandle("AAA");
+		assertEquals(1.1562, t.kthLowest((int) start.toEpochDay(), (int) end.toEpochDay(), usd, 3, true));
+		assertEquals(0, t.kthLowest((int) start.toEpochDay(), (int) end.toEpochDay(), aaa, 4, false));
+		assertEquals(1, t.kthLowest((int) start.toEpochDay(), (int) end.toEpochDay(), aaa, 0, true));
+		assertTrue(Double.isNaN(t.kthLowest((int) start.toEpochDay(), (int) end.toEpochDay(), aaa, 5, true)), "Expect NaN past the last rate");
+		assertEquals(6, t.rank((int) start.toEpochDay(), (int) end.toEpochDay(), usd, 1.1602, true));
+		assertEquals(5, t.rank((int) start.toEpochDay(), (int) end.toEpochDay(), aaa, 1, false));
+		assertEquals(-1, t.rank((int) start.toEpochDay(), (int) end.toEpochDay(), -1, 1, false));
+
+		// No data in range, or no such percentile. Expect exception
+		assertThrows(CurrencyUnavailableException.class, () -> {
+			t.calculateMedian(start, LocalDate.of(2021, 10, 8), "AAA", true);
+		});
+		assertThrows(IllegalArgumentException.class, () -> {
+			t.calculatePercentile(start, end, "USD", 101, true);
+		});
+
+		// The index is built again for the rows added by an update
+		String update = "Date,USD,GBP,AAA,\r\n"
+				+ "2021-10-18,1.1500,0.84450,1,\r\n";
+		t.updateFromInputStream(createDummyStream(update));
+		assertEquals(1.1500, t.calculatePercentile(start, end.plusDays(3), "USD", 0, true));
+	}
+
+	/**
+	 * Tests that a snapshot written after loading gives the same results when opened again
+	 * 
+	 * @throws IOException
+	 * @throws CurrencyUnavailableException
+	 * @throws ParseException 
+	 */
+	@Test
+	void testSnapshotRoundTrip(@TempDir Path tempDir) throws IOException, CurrencyUnavailableException, ParseException {
+		IndexedForex original = new ForexImpl();
+		original.loadDataFromInputStream(createDummyStream());
+		File snapshot = tempDir.resolve("rates.snapshot").toFile();
+		original.writeSnapshot(snapshot);
+
+		IndexedForex t = new ForexImpl();
+		t.loadDataFromSnapshot(snapshot);
+
+		SimpleDateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd");
+
+		assertEquals(original.readDataForDate(dateFormat.parse("2021-10-08")), t.readDataForDate(dateFormat.parse("2021-10-08")));
+		assertEquals(0.7271849681089468, t.convertCurrency(dateFormat.parse("2021-10-15"), 1D, "USD", "GBP"));
+		assertEquals(1.1636, t.calculateHighest(dateFormat.parse("2021-10-04"), dateFormat.parse("2021-10-15"), "USD"));
+		assertEquals(0.5, t.calculateAverage(dateFormat.parse("2021-10-04"), dateFormat.parse("2021-10-15"), "AAA", false));
+	}
+
+	/**
+	 * Tests that a snapshot can be rewritten while it is still mapped, both by the instance
+	 * which loaded it and by another one, without invalidating the existing mappings
+	 * 
+	 * @throws IOException
+	 * @throws CurrencyUnavailableException
+	 * @throws ParseException 
+	 */
+	@Test
+	void testSnapshotOverwriteWhileLoaded(@TempDir Path tempDir) throws IOException, CurrencyUnavailableException, ParseException {
+		IndexedForex original = new ForexImpl();
+		original.loadDataFromInputStream(createDummyStream());
+		File snapshot = tempDir.resolve("rates.snapshot").toFile();
+		original.writeSnapshot(snapshot);
+
+		IndexedForex reader = new ForexImpl();
+		reader.loadDataFromSnapshot(snapshot);
+		IndexedForex t = new ForexImpl();
+		t.loadDataFromSnapshot(snapshot);
+		t.writeSnapshot(snapshot);
+
+		IndexedForex updated = new ForexImpl();
+		updated.loadDataFromInputStream(createDummyStream("Date,USD,GBP,AAA,\r\n" 
+				+ "2021-10-15,2.0,1.0,1,\r\n"));
+		updated.writeSnapshot(snapshot);
+
+		SimpleDateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd");
+
+		assertEquals(1.1636, reader.calculateHighest(dateFormat.parse("2021-10-04"), dateFormat.parse("2021-10-15"), "USD"));
+		assertEquals(1.1636, t.calculateHighest(dateFormat.parse("2021-10-04"), dateFormat.parse("2021-10-15"), "USD"));
+
+		IndexedForex reopened = new ForexImpl();
+		reopened.loadDataFromSnapshot(snapshot);
+		assertEquals(2.0, reopened.calculateHighest(dateFormat.parse("2021-10-04"), dateFormat.parse("2021-10-15"), "USD"));
+		assertEquals(1, tempDir.toFile().list().length);
+	}
+
+	/**
+	 * Tests that an update only adds the newer rows, including a currency which was not there before
+	 * 
+	 * @throws IOException
+	 * @throws CurrencyUnavailableException
+	 * @throws ParseException 
+	 */
+	@Test
+	void testIncrementalUpdate() throws IOException, CurrencyUnavailableException, ParseException {
+		IndexedForex t = new ForexImpl();
+		t.loadDataFromInputStream(createDummyStream());
+
+		String update = "Date,USD,BBB,GBP,AAA,\r\n"
+				+ "2021-10-19,1.1633,2,0.84335,1,\r\n"
+				+ "2021-10-18,1.1600,2,0.84450,1,\r\n"
+				+ "2021-10-15,9.9999,2,9.99999,9,\r\n";
+		assertEquals(2, t.updateFromInputStream(createDummyStream(update)), "Expect only the 2 new rows");
+		assertEquals(0, t.updateFromInputStream(createDummyStream(update)), "Expect nothing new the second time");
+
+		SimpleDateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd");
+
+		assertEquals(1.1633, t.readDataForDate(dateFormat.parse("2021-10-19")).get("USD"));
+		assertEquals(1.1602, t.readDataForDate(dateFormat.parse("2021-10-15")).get("USD"), "Expect existing rows to be kept");
+		assertEquals(2, t.convertCurrency(dateFormat.parse("2021-10-18"), 1D, "AAA", "BBB"));
+		assertThrows(CurrencyUnavailableException.class, () -> {
+			t.convertCurrency(dateFormat.parse("2021-10-15"), 1D, "USD", "BBB");
+		});
+		assertEquals(1.1636, t.calculateHighest(dateFormat.parse("2021-10-04"), dateFormat.parse("2021-10-19"), "USD"));
+		assertEquals(0.5, t.calculateAverage(dateFormat.parse("2021-10-04"), dateFormat.parse("2021-10-15"), "AAA", false));
+		assertEquals(7D / 12, t.calculateAverage(dateFormat.parse("2021-10-04"), dateFormat.parse("2021-10-19"), "AAA", false));
+	}
+
+	/**
+	 * Tests that a pinned view keeps reading the same version while the instance is updated
+	 * 
+	 * @throws IOException
+	 * @throws ParseException 
+	 */
+	@Test
+	void testPinnedViewAcrossUpdate() throws IOException, ParseException {
+		ForexImpl t = new ForexImpl();
+		t.loadDataFromInputStream(createDummyStream());
+		IndexedForex view = t.pinned();
+		long version = view.getVersion();
+
+		t.updateFromInputStream(createDummyStream("Date,USD,GBP,AAA,\r\n2021-10-18,1.1600,0.84450,1,\r\n"));
+
+		SimpleDateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd");
+		assertTrue(t.getVersion() > version, "Expect the update to publish a new version");
+		assertEquals(1.16, t.readDataForDate(dateFormat.parse("2021-10-18")).get("USD"));
+		assertTrue(view.readDataForDate(dateFormat.parse("2021-10-18")).isEmpty(), "Expect the view to keep the old data");
+		assertEquals(version, view.getVersion());
+		assertThrows(UnsupportedOperationException.class, () -> view.loadDataFromInputStream(createDummyStream()));
+	}
+
+	/**
+	 * Tests batch conversion, including the status codes of failed conversions
+	 * 
+	 * @throws IOException
+	 * @throws CurrencyUnavailableException
+	 * @throws ParseException 
+	 */
+	@Test
+	void testBatchConversion() throws IOException, CurrencyUnavailableException, ParseException {
+		IndexedForex t = new ForexImpl();
+		t.loadDataFromInputStream(createDummyStream());
+
+		int day15 = (int) LocalDate.of(2021, 10, 15).toEpochDay();
+		int day10 = (int) LocalDate.of(2021, 10, 10).toEpochDay();
+		int day08 = (int) LocalDate.of(2021, 10, 8).toEpochDay();
+		int[] days = {day15, day15, day10, day08, day08};
+		double[] amounts = {1, 2, 1, 1, 1};
+		String[] sources = {"USD", "USD", "USD", "AAA", "USD"};
+		String[] targets = {"GBP", "GBP", "GBP", "USD", "XXX"};
+		double[] results = new double[5];
+		byte[] statuses = new byte[5];
+
+		assertEquals(3, t.convertCurrencies(days, amounts, sources, targets, results, statuses), "Expect 3 failures");
+
+		SimpleDateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd");
+		assertEquals(t.convertCurrency(dateFormat.parse("2021-10-15"), 1D, "USD", "GBP"), results[0]);
+		assertEquals(t.convertCurrency(dateFormat.parse("2021-10-15"), 2D, "USD", "GBP"), results[1]);
+		assertEquals(ConversionStatus.OK, statuses[1]);
+		assertEquals(ConversionStatus.DATE_UNAVAILABLE, statuses[2]);
+		assertEquals(ConversionStatus.SOURCE_UNAVAILABLE, statuses[3]);
+		assertEquals(ConversionStatus.TARGET_UNAVAILABLE, statuses[4]);
+		assertTrue(Double.isNaN(results[4]), "Expect NaN for a failed conversion");
+	}
+
+	/**
+	 * Tests a large interleaved batch, with currency names built separately on each line, 
+	 * split across a parse pool
+	 * 
+	 * @throws IOException
+	 * @throws CurrencyUnavailableException
+	 */
+	@Test
+	void testInterleavedBatchOnPool() throws IOException, CurrencyUnavailableException {
+		ForexImpl t = new ForexImpl();
+		t.loadDataFromInputStream(createDummyStream());
+		ForkJoinPool pool = new ForkJoinPool(2);
+		t.setParsePool(pool);
+
+		int length = 200000;
+		String[] names = {"USD", "GBP", "AAA", "XXX"};
+		int[] days = new int[length];
+		double[] amounts = new double[length];
+		String[] sources = new String[length];
+		String[] targets = new String[length];
+		for(int i=0; i<length; i++) {
+			days[i] = (int) LocalDate.of(2021, 10, 4 + i % 12).toEpochDay();
+			amounts[i] = i % 100;
+			sources[i] = new String(names[i % 3].toCharArray());
+			targets[i] = new String(names[(i / 3 + 1) % 4].toCharArray());
+		}
+		double[] results = new double[length];
+		byte[] statuses = new byte[length];
+		int failures = t.convertCurrencies(days, amounts, sources, targets, results, statuses);
+		pool.shutdown();
+
+		int expectedFailures = 0;
+		for(int i=0; i<length; i++) {
+			try {
+				assertEquals(t.convertCurrency(LocalDate.ofEpochDay(days[i]), amounts[i], sources[i], targets[i]), results[i]);
+				assertEquals(ConversionStatus.OK, statuses[i]);
+			} catch(CurrencyUnavailableException e) {
+				assertTrue(Double.isNaN(results[i]), "Expect NaN for a failed conversion");
+				expectedFailures++;
+			}
+		}
+		assertEquals(expectedFailures, failures);
+	}
+
+	/**
+	 * Tests the primitive query methods, which take handles and return NaN instead of throwing
+	 * 
+	 * @throws IOException
+	 * @throws CurrencyUnavailableException
+	 * @throws ParseException 
+	 */
+	@Test
+	void testHandleQueries() throws IOException, CurrencyUnavailableException, ParseException {
+		ForexImpl loaded = new ForexImpl();
+		loaded.loadDataFromInputStream(createDummyStream());
+		IndexedForex t = loaded.pinned();
+
+		int usd = t.currencyHandle("USD");
+		int gbp = t.currencyHandle("GBP");
+		int aaa = t.currencyHandle("AAA");
+		int start = (int) LocalDate.of(2021, 10, 4).toEpochDay();
+		int end = (int) LocalDate.of(2021, 10, 15).toEpochDay();
+		int day = t.dateHandle(end);
+
+		SimpleDateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd");
+		assertEquals(-1, t.currencyHandle("XXX"));
+		assertEquals(-1, t.dateHandle((int) LocalDate.of(2021, 10, 10).toEpochDay()));
+		assertEquals(1.1602, t.rate(day, usd));
+		assertEquals(t.convertCurrency(dateFormat.parse("2021-10-15"), 1D, "USD", "GBP"), t.convert(day, 1, usd, gbp));
+		assertTrue(Double.isNaN(t.convert(t.dateHandle(start), 1, usd, aaa)), "Expect NaN for a null rate");
+		assertEquals(1.1636, t.highest(start, end, usd));
+		assertTrue(Double.isNaN(t.highest(end, start, usd)), "Expect NaN for an empty period");
+		assertEquals(1, t.average(start, end, aaa, true));
+		assertEquals(0.5, t.average(start, end, aaa, false));
+	}
+
+	/**
+	 * Tests the cross rate cache: hits, eviction, and starting again after a reload
+	 * 
+	 * @throws IOException
+	 * @throws CurrencyUnavailableException
+	 * @throws ParseException 
+	 */
+	@Test
+	void testCrossRateCache() throws IOException, CurrencyUnavailableException, ParseException {
+		IndexedForex t = new ForexImpl();
+		t.loadDataFromInputStream(createDummyStream());
+		CrossRateCache cache = new CrossRateCache(t, 2, Long.MAX_VALUE);
+
+		SimpleDateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd");
+		assertEquals(t.convertCurrency(dateFormat.parse("2021-10-15"), 1D, "USD", "GBP"), cache.convertCurrency(dateFormat.parse("2021-10-15"), 1D, "USD", "GBP"), 1e-15);
+		assertEquals(1.1602 / 0.84368, cache.convertCurrency(dateFormat.parse("2021-10-15"), 1D, "GBP", "USD"), 1e-15);
+		assertEquals(1, cache.getMisses());
+		assertEquals(1, cache.getHits());
+		assertThrows(CurrencyUnavailableException.class, () -> {
+			cache.convertCurrency(dateFormat.parse("2021-10-08"), 1D, "USD", "AAA");
+		});
+		assertThrows(CurrencyUnavailableException.class, () -> {
+			cache.convertCurrency(dateFormat.parse("2021-10-10"), 1D, "USD", "GBP");
+		});
+
+		cache.convertCurrency(dateFormat.parse("2021-10-14"), 1D, "USD", "GBP");
+		assertEquals(2, cache.size(), "Expect no more than 2 dates");
+		assertEquals(1, cache.getEvictions());
+
+		t.updateFromInputStream(createDummyStream("Date,USD,GBP,AAA,\r\n2021-10-18,1.1600,0.84450,1,\r\n"));
+		assertEquals(1 / 1.16, cache.convertCurrency(dateFormat.parse("2021-10-18"), 1D, "USD", "AAA"), 1e-15);
+		assertEquals(1, cache.size(), "Expect the cache to start again after the update");
+	}
+	
+	/**
+	 * Checks that loads, updates and queries are reported to the metrics
+	 */
+	@Test
+	void testMetrics() throws IOException, CurrencyUnavailableException, ParseException {
+		ForexImpl t = new ForexImpl();
+		RecordingMetrics metrics = new RecordingMetrics();
+		t.setMetrics(metrics);
+		t.loadDataFromInputStream(createDummyStream());
+		
+		LoadSummary load = metrics.getLastLoad();
+		assertFalse(load.isUpdate());
+		assertEquals(testData.length(), load.getCsvBytes());
+		assertTrue(load.getCompressedBytes() > 0, "Expect the zip to be counted");
+		assertEquals(10, load.getRows());
+		assertEquals(3, load.getCurrencies());
+		
+		SimpleDateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd");
+		t.calculateAverage(dateFormat.parse("2021-10-04"), dateFormat.parse("2021-10-15"), "USD", true);
+		t.pinned().convertCurrency(dateFormat.parse("2021-10-15"), 1D, "USD", "GBP");
+		assertThrows(CurrencyUnavailableException.class, 
+				() -> t.convertCurrency(dateFormat.parse("2021-10-10"), 1D, "USD", "GBP"));
+		
+		assertEquals(1, metrics.getLatency(Query.CALCULATE_AVERAGE).getCount());
+		assertEquals(10, metrics.getRowsScanned(Query.CALCULATE_AVERAGE));
+		assertEquals(0, metrics.getLatency(Query.STATISTICS).getCount(), "Expect the average to be reported once");
+		assertEquals(2, metrics.getLatency(Query.CONVERT_CURRENCY).getCount(), "Expect the view and the failure to be reported");
+		assertEquals(1, metrics.getRowsScanned(Query.CONVERT_CURRENCY));
+		
+		t.updateFromInputStream(createDummyStream("Date,USD,GBP,AAA,\r\n2021-10-18,1.1600,0.84450,1,\r\n"));
+		assertTrue(metrics.getLastLoad().isUpdate());
+		assertEquals(1, metrics.getLastLoad().getRows());
+		assertEquals(2, metrics.getLoadCount());
+	}
+	
+	/**
+	 * Checks that streaming passes the rows one at a time as requested, and can build the model as well
+	 */
+	@Test
+	void testStreaming() throws IOException, ParseException {
+		List<String> received = new ArrayList<>();
+		boolean[] completed = new boolean[1];
+		Flow.Subscriber<RateRow> subscriber = new Flow.Subscriber<RateRow>() {
+			private Flow.Subscription subscription;
+			
+			@Override
+			public void onSubscribe(Flow.Subscription subscription) {
+				this.subscription = subscription;
+				subscription.request(1);
+			}
+			
+			@Override
+			public void onNext(RateRow row) {
+				received.add(LocalDate.ofEpochDay(row.getEpochDay()) + "=" + row.getRate("USD") + "/" + row.getRate("AAA"));
+				if(received.size() == 3) {
+					subscription.cancel();
+				} else {
+					subscription.request(1);
+				}
+			}
+			
+			@Override
+			public void onError(Throwable throwable) {
+			}
+			
+			@Override
+			public void onComplete() {
+				completed[0] = true;
+			}
+		};
+		
+		ForexImpl t = new ForexImpl();
+		assertEquals(3, t.streamFromInputStream(createDummyStream(), subscriber, true));
+		assertEquals(List.of("2021-10-15=1.1602/1.0", "2021-10-14=1.1602/1.0", "2021-10-13=1.1562/1.0"), received);
+		assertFalse(completed[0], "Expect no completion after cancelling");
+		assertTrue(t.getCurrencyNames().isEmpty(), "Expect a cancelled stream not to replace the model");
+		
+		//A subscriber which asks for everything up front
+		received.clear();
+		Flow.Subscriber<RateRow> unbounded = new Flow.Subscriber<RateRow>() {
+			@Override
+			public void onSubscribe(Flow.Subscription subscription) {
+				subscription.request(Long.MAX_VALUE);
+			}
+			
+			@Override
+			public void onNext(RateRow row) {
+				received.add(row.getDate().toString());
+			}
+			
+			@Override
+			public void onError(Throwable throwable) {
+			}
+			
+			@Override
+			public void onComplete() {
+				completed[0] = true;
+			}
+		};
+		assertEquals(10, t.streamFromInputStream(createDummyStream(), unbounded, true));
+		assertTrue(completed[0]);
+		assertEquals(10, received.size());
+		SimpleDateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd");
+		assertEquals(1.1636, t.readDataForDate(dateFormat.parse("2021-10-04")).get("USD"));
+		
+		//A row only commons-csv can read, well into the file, is read by it along with the rows after it
+		StringBuilder csv = new StringBuilder("Date,USD,\r\n");
+		LocalDate date = LocalDate.of(2021, 10, 15);
+		for(int i=0; i<6000; i++) {
+			csv.append(date.minusDays(i)).append(",1.").append(i).append(",\r\n");
+		}
+		csv.append('"').append(date.minusDays(6000)).append("\",2.5,\r\n");
+		csv.append(date.minusDays(6001)).append(",3.5,\r\n");
+		received.clear();
+		completed[0] = false;
+		assertEquals(6002, t.streamFromInputStream(createDummyStream(csv.toString()), unbounded, true));
+		assertTrue(completed[0]);
+		assertEquals(6002, received.size());
+		assertEquals(2.5, t.readDataForDate(date.minusDays(6000)).get("USD"));
+		assertEquals(3.5, t.readDataForDate(date.minusDays(6001)).get("USD"));
+		assertEquals(1.5999, t.readDataForDate(date.minusDays(5999)).get("USD"));
+	}
+	
+	/**
+	 * Checks that the LocalDate and epoch day overloads agree with the Date methods, 
+	 * and that a Date at any time of the day finds that day
+	 */
+	@Test
+	void testLocalDateOverloads() throws IOException, CurrencyUnavailableException, ParseException {
+		IndexedForex t = new ForexImpl();
+		//Quoted dates are not in the ECB layout, so this also covers the commons-csv dates
+		t.loadDataFromInputStream(createDummyStream(testData.replace("2021-10-15", "\"2021-10-15\"")));
+		
+		LocalDate start = LocalDate.of(2021, 10, 4);
+		LocalDate end = LocalDate.of(2021, 10, 15);
+		SimpleDateFormat dateTimeFormat = new SimpleDateFormat("yyyy-MM-dd HH:mm");
+		assertEquals(t.readDataForDate(dateTimeFormat.parse("2021-10-15 23:59")), t.readDataForDate(end));
+		assertEquals(1.1602, t.readDataForDate((int) end.toEpochDay()).get("USD"));
+		assertEquals(t.convertCurrency(dateTimeFormat.parse("2021-10-15 12:00"), 10D, "USD", "GBP"), t.convertCurrency(end, 10, "USD", "GBP"));
+		assertEquals(1.1636, t.calculateHighest(start, end, "USD"));
+		assertEquals(0.5, t.calculateAverage(start, end, "AAA", false));
+		assertThrows(CurrencyUnavailableException.class, () -> t.convertCurrency(LocalDate.of(2021, 10, 10), 1, "USD", "GBP"));
+		
+		assertEquals(end.toEpochDay(), EpochDay.parse("2021-10-15"));
+		assertEquals(Integer.MIN_VALUE, EpochDay.parse("2021-02-29"));
+		assertEquals(Integer.MIN_VALUE, EpochDay.parse("2021/10/15"));
+	}
+
+	/**
+	 * Tests LocalDate.MIN and LocalDate.MAX, and far away Dates, as open ended bounds of a range
+	 * 
+	 * @throws IOException
+	 * @throws CurrencyUnavailableException
+	 */
+	@Test
+	void testOpenEndedBounds() throws IOException, CurrencyUnavailableException {
+		IndexedForex t = new ForexImpl();
+		t.loadDataFromInputStream(createDummyStream());
+
+		assertEquals(1.1636, t.calculateHighest(LocalDate.MIN, LocalDate.MAX, "USD"));
+		assertEquals(1, t.calculateAverage(LocalDate.MIN, LocalDate.MAX, "AAA", true));
+		assertEquals(1.1636, t.calculatePercentile(LocalDate.MIN, LocalDate.MAX, "USD", 100, true));
+		assertEquals(100, t.calculatePercentRank(LocalDate.MIN, LocalDate.MAX, "USD", 2, true));
+		assertEquals(1.1636, t.calculateHighest(LocalDate.of(2021, 10, 4), LocalDate.MAX, "USD"));
+		assertEquals(1.1636, t.calculateHighest(LocalDate.MIN, LocalDate.of(2021, 10, 4), "USD"));
+		assertEquals(2, t.aggregate(LocalDate.MIN, LocalDate.MAX, CalendarBucket.WEEK, null, false).getBucketCount());
+		assertTrue(t.readDataForDate(LocalDate.MAX).isEmpty());
+		assertThrows(CurrencyUnavailableException.class, () -> t.convertCurrency(LocalDate.MIN, 1, "USD", "GBP"));
+
+		assertEquals(1.1636, t.calculateHighest(new Date(Long.MIN_VALUE), new Date(Long.MAX_VALUE), "USD"));
+		assertEquals(Integer.MAX_VALUE, EpochDay.fromDate(new Date(Long.MAX_VALUE)));
+		assertEquals(Integer.MIN_VALUE, EpochDay.fromDate(new Date(Long.MIN_VALUE)));
+		assertEquals(Integer.MAX_VALUE, EpochDay.of(LocalDate.MAX));
+	}
+	
+	/**
+	 * Checks that as-of queries on a weekend use the Friday before, within the lookback
+	 */
+	@Test
+	void testAsOf() throws IOException, CurrencyUnavailableException {
+		IndexedForex t = new ForexImpl();
+		t.loadDataFromInputStream(createDummyStream());
+		LocalDate sunday = LocalDate.of(2021, 10, 10);
+		LocalDate friday = LocalDate.of(2021, 10, 8);
+		
+		AsOf<Map<String, Double>> rates = t.readDataAsOf(sunday, 3);
+		assertEquals(friday, rates.getDate());
+		assertTrue(rates.isFilledForward());
+		assertEquals(1.1569, rates.getValue().get("USD"));
+		assertEquals(null, t.readDataAsOf(sunday, 1), "Expect nothing within one day of Sunday");
+		assertEquals(null, t.readDataAsOf(LocalDate.of(2021, 10, 1), 30), "Expect nothing before the first date");
+		assertFalse(t.readDataAsOf(friday, 0).isFilledForward());
+		
+		AsOf<Double> converted = t.convertCurrencyAsOf(sunday, 10, "USD", "GBP", 7);
+		assertEquals(friday, converted.getDate());
+		assertEquals(t.convertCurrency(friday, 10, "USD", "GBP"), converted.getValue());
+		assertThrows(CurrencyUnavailableException.class, () -> t.convertCurrencyAsOf(sunday, 10, "USD", "AAA", 7), 
+				"Expect no search further back for a missing rate");
+		assertThrows(CurrencyUnavailableException.class, () -> t.convertCurrencyAsOf(sunday, 10, "USD", "GBP", 0));
+		assertThrows(IllegalArgumentException.class, () -> t.readDataAsOf(sunday, -1));
+		
+		AsOf<Map<String, Double>> latest = t.readDataAsOf(LocalDate.MAX, Integer.MAX_VALUE);
+		assertEquals(LocalDate.of(2021, 10, 15), latest.getDate());
+		assertEquals(t.convertCurrency(LocalDate.of(2021, 10, 15), 10, "USD", "GBP"), t.convertCurrencyAsOf(LocalDate.MAX, 10, "USD", "GBP", Integer.MAX_VALUE).getValue());
+		assertEquals(null, t.readDataAsOf(LocalDate.MIN, Integer.MAX_VALUE), "Expect nothing before the first date");
+		
+		int handle = t.dateHandleAsOf((int) sunday.toEpochDay(), 2);
+		assertEquals(friday.toEpochDay(), t.epochDayOf(handle));
+		assertEquals(1.1569, t.rate(handle, t.currencyHandle("USD")));
+	}
+	
+	/**
+	 * Checks that a refresh downloads once, then sends the validators and skips the reload on 304
+	 */
+	@Test
+	void testConditionalRefresh() throws IOException, CurrencyUnavailableException {
+		byte[] zip = createDummyStream().readAllBytes();
+		List<String> conditions = new ArrayList<>();
+		HttpServer server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+		server.createContext("/eurofxref-hist.zip", exchange -> {
+			String condition = exchange.getRequestHeaders().getFirst("If-None-Match");
+			conditions.add(condition);
+			if("\"v1\"".equals(condition)) {
+				exchange.sendResponseHeaders(304, -1);
+			} else {
+				exchange.getResponseHeaders().set("ETag", "\"v1\"");
+				exchange.sendResponseHeaders(200, zip.length);
+				exchange.getResponseBody().write(zip);
+			}
+			exchange.close();
+		});
+		server.start();
+		try {
+			ForexImpl t = new ForexImpl();
+			URI uri = URI.create("http://localhost:" + server.getAddress().getPort() + "/eurofxref-hist.zip");
+			assertTrue(t.refreshFromUri(uri).join(), "Expect the first refresh to load");
+			long version = t.getVersion();
+			assertEquals(1.1562, t.readDataForDate(LocalDate.of(2021, 10, 13)).get("USD"));
+			
+			assertFalse(t.refreshFromUri(uri).join(), "Expect nothing to load when unchanged");
+			assertEquals(version, t.getVersion());
+			assertEquals(Arrays.asList(null, "\"v1\""), conditions);
+			
+			//Once other data is loaded the validators no longer apply
+			t.loadDataFromInputStream(createDummyStream());
+			assertTrue(t.refreshFromUri(uri).join());
+			assertEquals(null, conditions.get(2));
+			
+			//A refresh keeps to the options of the load, lazy or compact
+			for(LoadOptions options : Arrays.asList(LoadOptions.currencies("USD").lazy(), LoadOptions.currencies("USD").compact())) {
+				ForexImpl loaded = new ForexImpl();
+				loaded.loadDataFromInputStream(createDummyStream(), options);
+				assertTrue(loaded.refreshFromUri(uri).join());
+				assertEquals(Arrays.asList("USD"), loaded.getCurrencyNames());
+				assertEquals(1.1562, loaded.readDataForDate(LocalDate.of(2021, 10, 13)).get("USD"));
+				assertEquals(1.1636, loaded.calculateHighest(LocalDate.of(2021, 10, 1), LocalDate.of(2021, 10, 15), "USD"));
+			}
+			
+			URI missing = URI.create("http://localhost:" + server.getAddress().getPort() + "/missing.zip");
+			CompletionException e = assertThrows(CompletionException.class, () -> t.refreshFromUri(missing).join());
+			assertTrue(e.getCause() instanceof IOException);
+		} finally {
+			server.stop(0);
+		}
+	}
+	
+	/**
+	 * Checks that a refresh which is overtaken by a load doesn't replace the loaded data
+	 * 
+	 * @throws Exception
+	 */
+	@Test
+	void testRefreshOvertakenByLoad() throws Exception {
+		byte[] zip = createDummyStream().readAllBytes();
+		CountDownLatch requested = new CountDownLatch(1);
+		CountDownLatch respond = new CountDownLatch(1);
+		HttpServer server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+		server.createContext("/eurofxref-hist.zip", exchange -> {
+			requested.countDown();
+			try {
+				respond.await();
+			} catch(InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			exchange.sendResponseHeaders(200, zip.length);
+			exchange.getResponseBody().write(zip);
+			exchange.close();
+		});
+		server.start();
+		try {
+			ForexImpl t = new ForexImpl();
+			URI uri = URI.create("http://localhost:" + server.getAddress().getPort() + "/eurofxref-hist.zip");
+			CompletableFuture<Boolean> refresh = t.refreshFromUri(uri);
+			requested.await();
+			t.loadDataFromInputStream(createDummyStream("Date,USD,\r\n2021-10-18,1.1600,\r\n"));
+			long version = t.getVersion();
+			respond.countDown();
+			
+			assertFalse(refresh.get(30, TimeUnit.SECONDS), "Expect the refresh to be discarded");
+			assertEquals(version, t.getVersion());
+			assertEquals(Arrays.asList("USD"), t.getCurrencyNames());
+			assertTrue(t.refreshFromUri(uri).get(30, TimeUnit.SECONDS), "Expect a new refresh to load");
+			assertEquals(Arrays.asList("USD", "GBP", "AAA"), t.getCurrencyNames());
+		} finally {
+			respond.countDown();
+			server.stop(0);
+		}
+	}
+	
+	/**
+	 * Tests a refresh of a large file with a client which has a single thread, which the parse 
+	 * must not take, and that the refresh reports its load
+	 * 
+	 * @throws Exception
+	 */
+	@Test
+	void testRefreshWithBoundedClientExecutor() throws Exception {
+		StringBuilder csv = new StringBuilder("Date,USD,GBP,\r\n");
+		LocalDate date = LocalDate.of(2021, 10, 15);
+		for(int i=0; i<100000; i++) {
+			csv.append(date.minusDays(i)).append(",1.").append(1000 + i % 9000).append(",0.8").append(i % 10).append(",\r\n");
+		}
+		byte[] zip = createDummyStream(csv.toString()).readAllBytes();
+		HttpServer server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+		server.createContext("/eurofxref-hist.zip", exchange -> {
+			exchange.sendResponseHeaders(200, zip.length);
+			exchange.getResponseBody().write(zip);
+			exchange.close();
+		});
+		server.start();
+		ExecutorService clientExecutor = Executors.newSingleThreadExecutor();
+		try {
+			ForexImpl t = new ForexImpl();
+			t.setHttpClient(HttpClient.newBuilder().executor(clientExecutor).build());
+			RecordingMetrics metrics = new RecordingMetrics();
+			t.setMetrics(metrics);
+			URI uri = URI.create("http://localhost:" + server.getAddress().getPort() + "/eurofxref-hist.zip");
+			assertTrue(t.refreshFromUri(uri).get(30, TimeUnit.SECONDS));
+			assertEquals(1.1000, t.readDataForDate(date).get("USD"));
+			assertEquals(100000, metrics.getLastLoad().getRows());
+			assertEquals(csv.length(), metrics.getLastLoad().getCsvBytes());
+		} finally {
+			clientExecutor.shutdownNow();
+			server.stop(0);
+		}
+	}
+	
+	/**
+	 * Checks that only the chosen currencies are loaded, lazily or not, and that updates keep to them
+	 */
+	@Test
+	void testLoadOptions() throws IOException, CurrencyUnavailableException {
+		LocalDate day = LocalDate.of(2021, 10, 15);
+		IndexedForex full = new ForexImpl();
+		full.loadDataFromInputStream(createDummyStream());
+		
+		for(LoadOptions options : Arrays.asList(LoadOptions.currencies("GBP", "USD"), LoadOptions.currencies("GBP", "USD").lazy(), 
+				LoadOptions.currencies("GBP", "USD").compact())) {
+			IndexedForex t = new ForexImpl();
+			t.loadDataFromInputStream(createDummyStream(), options);
+			assertEquals(Arrays.asList("USD", "GBP"), t.getCurrencyNames());
+			assertEquals(full.convertCurrency(day, 10, "USD", "GBP"), t.convertCurrency(day, 10, "USD", "GBP"));
+			assertEquals(full.calculateAverage(day.minusDays(30), day, "GBP", true), t.calculateAverage(day.minusDays(30), day, "GBP", true));
+			assertThrows(CurrencyUnavailableException.class, () -> t.convertCurrency(day, 10, "USD", "AAA"));
+			
+			t.updateFromInputStream(createDummyStream("Date,USD,GBP,AAA,\r\n2021-10-18,1.1600,0.84450,1,\r\n"));
+			assertEquals(Arrays.asList("USD", "GBP"), t.getCurrencyNames(), "Expect the update to skip AAA");
+			assertEquals(1.16, t.readDataForDate(LocalDate.of(2021, 10, 18)).get("USD"));
+		}
+		
+		IndexedForex lazy = new ForexImpl();
+		lazy.loadDataFromInputStream(createDummyStream(), LoadOptions.ALL.lazy());
+		assertEquals(full.getCurrencyNames(), lazy.getCurrencyNames());
+		assertEquals(full.readDataForDate(LocalDate.of(2021, 10, 8)), lazy.readDataForDate(LocalDate.of(2021, 10, 8)));
+		assertEquals(full.calculateHighest(day.minusDays(30), day, "AAA"), lazy.calculateHighest(day.minusDays(30), day, "AAA"));
+	}
+	
+	/**
+	 * Checks that instances opened on the same file share one model, which is refreshed for all of them 
+	 * and freed when the last one is closed
+	 */
+	@Test
+	void testRegistry(@TempDir Path tempDir) throws IOException {
+		File zip = tempDir.resolve("rates.zip").toFile();
+		Files.write(zip.toPath(), createDummyStream().readAllBytes());
+		ForexRegistry registry = new ForexRegistry(new Properties());
+		
+		ForexImpl first = registry.openZip(zip);
+		ForexImpl second = registry.openZip(zip);
+		assertEquals(1, registry.size());
+		assertEquals(first.getVersion(), second.getVersion(), "Expect one shared model");
+		assertEquals(1.1562, second.readDataForDate(LocalDate.of(2021, 10, 13)).get("USD"));
+		assertThrows(UnsupportedOperationException.class, () -> second.loadDataFromZip(zip));
+		assertFalse(first.refreshLiveSite().join(), "Expect no reload while the file is unchanged");
+		
+		Files.write(zip.toPath(), createDummyStream("Date,USD,GBP,AAA,\r\n2021-10-18,1.1600,0.84450,1,\r\n").readAllBytes());
+		zip.setLastModified(zip.lastModified() + 10000);
+		assertTrue(first.refreshLiveSite().join());
+		assertEquals(first.getVersion(), second.getVersion());
+		assertEquals(1.16, second.readDataForDate(LocalDate.of(2021, 10, 18)).get("USD"));
+		
+		first.close();
+		first.close();
+		assertEquals(1, registry.size());
+		assertTrue(first.getCurrencyNames().isEmpty(), "Expect no data once closed");
+		second.close();
+		assertEquals(0, registry.size(), "Expect the data to be freed with the last instance");
+		
+		try(ForexImpl reopened = registry.openZip(zip)) {
+			assertEquals(1.16, reopened.readDataForDate(LocalDate.of(2021, 10, 18)).get("USD"), "Expect the file to be loaded again");
+		}
+		assertThrows(IOException.class, () -> registry.openZip(tempDir.resolve("missing.zip").toFile()));
+		assertEquals(0, registry.size());
+		
+		//Configuration passed in code rather than read from a file
+		Properties config = new Properties();
+		config.setProperty("csv.filename", "other.csv");
+		ForexImpl configured = new ForexImpl(config);
+		configured.loadDataFromZip(zip);
+		assertTrue(configured.getCurrencyNames().isEmpty(), "Expect eurofxref-hist.csv to be ignored");
+	}
+	
+	/**
+	 * Checks that instances opened while the first load of a source is running wait for it rather 
+	 * than loading the source again, and that a failed load is not kept
+	 * 
+	 * @throws Exception
+	 */
+	@Test
+	void testRegistrySharesFirstLoad() throws Exception {
+		byte[] zip = createDummyStream().readAllBytes();
+		CountDownLatch requested = new CountDownLatch(1);
+		CountDownLatch respond = new CountDownLatch(1);
+		List<String> requests = new ArrayList<>();
+		HttpServer server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+		server.createContext("/eurofxref-hist.zip", exchange -> {
+			synchronized(requests) {
+				requests.add(exchange.getRequestURI().getPath());
+			}
+			requested.countDown();
+			try {
+				respond.await();
+			} catch(InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			exchange.sendResponseHeaders(200, zip.length);
+			exchange.getResponseBody().write(zip);
+			exchange.close();
+		});
+		server.start();
+		ExecutorService executor = Executors.newFixedThreadPool(2);
+		try {
+			ForexRegistry registry = new ForexRegistry(new Properties());
+			URI uri = URI.create("http://localhost:" + server.getAddress().getPort() + "/eurofxref-hist.zip");
+			CompletableFuture<ForexImpl> first = CompletableFuture.supplyAsync(() -> open(registry, uri), executor);
+			requested.await();
+			CompletableFuture<ForexImpl> second = CompletableFuture.supplyAsync(() -> open(registry, uri), executor);
+			assertEquals(1, registry.size());
+			respond.countDown();
+			
+			try(ForexImpl a = first.get(30, TimeUnit.SECONDS); ForexImpl b = second.get(30, TimeUnit.SECONDS)) {
+				assertEquals(a.getVersion(), b.getVersion(), "Expect one shared model");
+				assertEquals(1.1562, b.readDataForDate(LocalDate.of(2021, 10, 13)).get("USD"));
+				assertEquals(1, requests.size(), "Expect the source to be downloaded once");
+			}
+			
+			URI missing = URI.create("http://localhost:" + server.getAddress().getPort() + "/missing.zip");
+			assertThrows(IOException.class, () -> registry.openUri(missing));
+			assertThrows(IOException.class, () -> registry.openUri(missing), "Expect a failed load to be tried again");
+			assertEquals(0, registry.size());
+		} finally {
+			respond.countDown();
+			executor.shutdownNow();
+			server.stop(0);
+		}
+	}
+	
+	private static ForexImpl open(ForexRegistry registry, URI uri) {
+		try {
+			return registry.openUri(uri);
+		} catch(IOException e) {
+			throw new CompletionException(e);
+		}
+	}
+	
+	/**
+	 * Checks that an implementation of only the original methods works through the default methods
+	 */
+	@Test
+	void testBaselineImplementation() throws IOException, CurrencyUnavailableException {
+		ForexImpl impl = new ForexImpl();
+		impl.loadDataFromInputStream(createDummyStream());
+		Forex t = new Forex() {
+			@Override
+			public Map<String, Double> readDataForDate(Date date) {
+				return impl.readDataForDate(date);
+			}
+			@Override
+			public Double convertCurrency(Date date, Double amount, String sourceCurrency, String targetCurrency) throws CurrencyUnavailableException {
+				return impl.convertCurrency(date, amount, sourceCurrency, targetCurrency);
+			}
+			@Override
+			public Double calculateHighest(Date start, Date end, String currency) throws CurrencyUnavailableException {
+				return impl.calculateHighest(start, end, currency);
+			}
+			@Override
+			public Double calculateAverage(Date start, Date end, String currency, boolean removeNulls) throws CurrencyUnavailableException {
+				return impl.calculateAverage(start, end, currency, removeNulls);
+			}
+			@Override
+			public void loadDataFromZip(File zipFile) throws IOException {
+				impl.loadDataFromZip(zipFile);
+			}
+			@Override
+			public void loadDataLiveSite() throws IOException {
+				impl.loadDataLiveSite();
+			}
+			@Override
+			public void loadDataFromInputStream(InputStream in) throws IOException {
+				impl.loadDataFromInputStream(in);
+			}
+		};
+		LocalDate start = LocalDate.of(2021, 10, 4);
+		LocalDate day = LocalDate.of(2021, 10, 15);
+		assertEquals(impl.readDataForDate(day), t.readDataForDate(day));
+		assertEquals(impl.convertCurrency(day, 10, "USD", "GBP"), t.convertCurrency(day, 10, "USD", "GBP"));
+		assertEquals(1.1636, t.calculateHighest(start, day, "USD"));
+		assertEquals(impl.calculateAverage(start, day, "USD", true), t.calculateAverage(start, day, "USD", true));
+		
+		int[] days = {EpochDay.of(day), EpochDay.of(day), EpochDay.of(start), EpochDay.of(start), EpochDay.of(LocalDate.of(2021, 10, 16))};
+		double[] amounts = {10, 10, 10, 10, 10};
+		String[] sources = {"USD", "XXX", "USD", "USD", "USD"};
+		String[] targets = {"GBP", "GBP", "AAA", "GBP", "GBP"};
+		double[] expected = new double[amounts.length];
+		byte[] expectedStatuses = new byte[amounts.length];
+		double[] results = new double[amounts.length];
+		byte[] statuses = new byte[amounts.length];
+		assertEquals(impl.convertCurrencies(days, amounts, sources, targets, expected, expectedStatuses), 
+				t.convertCurrencies(days, amounts, sources, targets, results, statuses));
+		assertTrue(Arrays.equals(expected, results));
+		assertTrue(Arrays.equals(expectedStatuses, statuses));
+		assertEquals(ConversionStatus.SOURCE_UNAVAILABLE, statuses[1]);
+		assertEquals(ConversionStatus.TARGET_UNAVAILABLE, statuses[2]);
+		assertEquals(ConversionStatus.DATE_UNAVAILABLE, statuses[4]);
+	}
 }
@@ -0,0 +1,49 @@
+package com.rr.centralbank.metrics.test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+import com.rr.eucentralbank.metrics.LatencyHistogram;
+
+class LatencyHistogramTest {
+
+	/**
+	 * Compares percentiles against the exact values of a sorted sample spanning several powers of ten
+	 */
+	@Test
+	void testPercentilesWithinBucketError() {
+		Random random = new Random(42);
+		long[] values = new long[10000];
+		LatencyHistogram histogram = new LatencyHistogram();
+		for(int i=0; i<values.length; i++) {
+			values[i] = (long) Math.pow(10, 1 + random.nextDouble() * 6);
+			histogram.record(values[i]);
+		}
+		Arrays.sort(values);
+		
+		assertEquals(values.length, histogram.getCount());
+		assertEquals(values[values.length-1], histogram.getMax());
+		for(double percentile : new double[] {1, 50, 90, 99, 99.9, 100}) {
+			long exact = values[(int) Math.ceil(values.length * percentile / 100) - 1];
+			long estimate = histogram.getPercentile(percentile);
+			assertTrue(estimate >= exact && estimate <= exact * 1.125, percentile+"th: "+estimate+" vs "+exact);
+		}
+	}
+	
+	@Test
+	void testEmptyAndSmallValues() {
+		LatencyHistogram histogram = new LatencyHistogram();
+		assertEquals(0, histogram.getPercentile(50));
+		histogram.record(-5);
+		histogram.record(3);
+		assertEquals(0, histogram.getPercentile(50));
+		assertEquals(3, histogram.getPercentile(100));
+		assertEquals(1.5, histogram.getMean());
+	}
+	
+}
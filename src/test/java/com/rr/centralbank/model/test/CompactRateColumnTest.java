@@ -0,0 +1,96 @@
+package com.rr.centralbank.model.test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+import com.rr.eucentralbank.model.ArrayRateColumn;
+import com.rr.eucentralbank.model.CompactRateColumn;
+import com.rr.eucentralbank.model.ExchangeRates;
+import com.rr.eucentralbank.model.RangeAggregateIndex;
+
+class CompactRateColumnTest {
+
+	/**
+	 * Creates a random walk of 4 decimal rates, with scattered nulls and a block of nothing but nulls
+	 */
+	private static double[] randomRates(Random random, int rows) {
+		double[] column = new double[rows];
+		long scaled = 11602;
+		for(int i=0; i<rows; i++) {
+			scaled = Math.max(1, scaled + random.nextInt(41) - 20);
+			boolean missing = random.nextInt(10) == 0 || (i >= 256 && i < 384);
+			column[i] = missing ? Double.NaN : scaled / 1e4;
+		}
+		return column;
+	}
+	
+	/**
+	 * Checks that every rate decodes to the same double, and that range aggregates match the heap index
+	 */
+	@Test
+	void testMatchesHeapColumn() {
+		Random random = new Random(17);
+		double[] column = randomRates(random, 1000);
+		CompactRateColumn compact = CompactRateColumn.encode(new ArrayRateColumn(column), column.length);
+		RangeAggregateIndex index = new RangeAggregateIndex(column, column.length);
+		
+		for(int r=0; r<column.length; r++) {
+			assertEquals(Double.doubleToLongBits(column[r]), Double.doubleToLongBits(compact.get(r)), "Row " + r);
+		}
+		double[] copy = new double[column.length];
+		compact.copyTo(0, column.length, copy, 0);
+		assertTrue(Arrays.equals(column, copy));
+		
+		for(int from=0; from<column.length; from+=13) {
+			for(int to=from; to<=column.length; to+=29) {
+				assertEquals(index.count(from, to), compact.count(from, to));
+				assertEquals(index.max(from, to), compact.max(from, to));
+				assertEquals(index.min(from, to), compact.min(from, to));
+				assertEquals(index.sum(from, to), compact.sum(from, to), 1e-9);
+			}
+		}
+		assertTrue(compact.memoryBytes() * 4 < column.length * Double.BYTES, "Expect at least 4 times smaller");
+		
+		assertNull(CompactRateColumn.encode(new ArrayRateColumn(new double[] {Math.PI}), 1), "Expect too many decimals to be refused");
+	}
+	
+	/**
+	 * Checks that a compact model answers like the original, and can still have rows added
+	 */
+	@Test
+	void testCompactModel() {
+		Random random = new Random(23);
+		ExchangeRates rates = new ExchangeRates(Arrays.asList("A", "B"));
+		double[] a = randomRates(random, 3000);
+		for(int r=0; r<a.length; r++) {
+			rates.addRow(10000 + r, new double[] {a[r], random.nextInt(1000000) / 100.0});
+		}
+		rates.ensureSorted();
+		ExchangeRates compact = rates.compact();
+		compact.ensureSorted();
+		
+		assertTrue(compact.memoryBytes() + compact.aggregatesMemoryBytes() < (rates.memoryBytes() + rates.aggregatesMemoryBytes()) / 3);
+		for(int c=0; c<2; c++) {
+			for(int r=0; r<a.length; r++) {
+				assertEquals(rates.getRate(c, r), compact.getRate(c, r));
+			}
+			assertEquals(rates.getAggregates(c).max(100, 2900), compact.getAggregates(c).max(100, 2900));
+			assertEquals(rates.getAggregates(c).count(100, 2900), compact.getAggregates(c).count(100, 2900));
+		}
+		
+		ExchangeRates newer = new ExchangeRates(Arrays.asList("A", "B"));
+		newer.addRow(20000, new double[] {9.5, 1});
+		ExchangeRates next = compact.withNewerRows(newer);
+		next.ensureSorted();
+		assertEquals(a.length + 1, next.getRowCount());
+		assertEquals(9.5, next.getAggregates(0).max(0, next.getRowCount()));
+		assertEquals(a.length, compact.getRowCount(), "Expect the compact model to be unchanged");
+	}
+	
+}
@@ -0,0 +1,95 @@
+package com.rr.centralbank.model.test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import com.rr.eucentralbank.model.ExchangeRates;
+import com.rr.eucentralbank.model.RangeAggregateIndex;
+import com.rr.eucentralbank.snapshot.Snapshot;
+
+class ExchangeRatesTest {
+
+	/**
+	 * Checks that a published model refuses changes, and that a newer model derived from it
+	 * can be sorted without reordering the rows the published model reads
+	 */
+	@Test
+	void testPublishedModelIsNotChanged() {
+		ExchangeRates rates = new ExchangeRates(Arrays.asList("A"));
+		rates.addRow(10000, new double[] {1.5});
+		rates.publish();
+		assertThrows(IllegalStateException.class, () -> rates.addRow(20000, new double[] {1}));
+		assertThrows(IllegalStateException.class, () -> rates.addCurrency("B"));
+		assertEquals(0, rates.addCurrency("A"), "Expect a known currency to be found");
+
+		ExchangeRates newer = new ExchangeRates(Arrays.asList("A"));
+		newer.addRow(10010, new double[] {10});
+		ExchangeRates next = rates.withNewerRows(newer);
+		//Out of order, so the derived model, which shares the arrays, is sorted when it is published
+		next.addRow(9000, new double[] {-1});
+		next.publish();
+
+		assertEquals(9000, next.getEpochDay(0));
+		assertEquals(10010, next.getEpochDay(next.getRowCount() - 1));
+		assertEquals(1, rates.getRowCount());
+		assertEquals(10000, rates.getEpochDay(0));
+		assertEquals(1.5, rates.getRate(0, 0));
+		assertEquals(0, rates.indexOf(10000));
+	}
+
+	
+	/**
+	 * Checks that a snapshot is opened with its dates and aggregate indexes mapped rather than 
+	 * built on the heap, that they answer as indexes built from the rates would, and that a newer 
+	 * model can still be derived from it
+	 * 
+	 * @throws IOException
+	 */
+	@Test
+	void testSnapshotMapsIndexes(@TempDir Path tempDir) throws IOException {
+		Random random = new Random(11);
+		ExchangeRates rates = new ExchangeRates(Arrays.asList("A", "B"));
+		for(int r=0; r<1000; r++) {
+			//B has too many digits for exact unit sums, so its index holds double sums
+			rates.addRow(10000 + r, new double[] {random.nextInt(5) == 0 ? Double.NaN : 1 + random.nextInt(10000) / 1e4, 
+					random.nextDouble()});
+		}
+		rates.publish();
+		File file = tempDir.resolve("rates.snapshot").toFile();
+		Snapshot.write(rates, file);
+		ExchangeRates opened = Snapshot.open(file).publish();
+		
+		assertEquals(0, opened.memoryBytes());
+		assertEquals(0, opened.aggregatesMemoryBytes());
+		assertEquals(rates.indexOf(10500), opened.indexOf(10500));
+		for(int c=0; c<2; c++) {
+			RangeAggregateIndex expected = new RangeAggregateIndex(rates.getColumn(c), rates.getRowCount());
+			RangeAggregateIndex mapped = opened.getAggregates(c);
+			for(int i=0; i<2000; i++) {
+				int from = random.nextInt(1001);
+				int to = from + random.nextInt(1001 - from);
+				assertEquals(expected.sum(from, to), mapped.sum(from, to), "sum of "+from+".."+to);
+				assertEquals(expected.count(from, to), mapped.count(from, to));
+				assertEquals(expected.max(from, to), mapped.max(from, to));
+				assertEquals(expected.min(from, to), mapped.min(from, to));
+			}
+		}
+		
+		ExchangeRates newer = new ExchangeRates(Arrays.asList("A", "B"));
+		newer.addRow(11000, new double[] {2.5, 0.25});
+		ExchangeRates next = opened.withNewerRows(newer).publish();
+		assertEquals(1001, next.getRowCount());
+		assertEquals(11000, next.getEpochDay(1000));
+		assertEquals(rates.getAggregates(0).sum(0, 1000) + 2.5, next.getAggregates(0).sum(0, 1001), 1e-9);
+		assertEquals(1000, opened.getRowCount());
+	}
+}
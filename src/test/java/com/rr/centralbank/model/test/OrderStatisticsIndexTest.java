@@ -0,0 +1,64 @@
+package com.rr.centralbank.model.test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+import com.rr.eucentralbank.model.ArrayRateColumn;
+import com.rr.eucentralbank.model.OrderStatisticsIndex;
+
+class OrderStatisticsIndexTest {
+	
+	/**
+	 * Compares every k-th lowest rate and rank of many ranges against sorting the range,
+	 * for a column with nulls and many repeated rates
+	 */
+	@Test
+	void testRangesMatchSort() {
+		Random random = new Random(7);
+		double[] column = new double[700];
+		for(int i=0; i<column.length; i++) {
+			column[i] = random.nextInt(6) == 0 ? Double.NaN : random.nextInt(300) / 100.0 - 0.5;
+		}
+		OrderStatisticsIndex index = new OrderStatisticsIndex(new ArrayRateColumn(column), column.length);
+		assertEquals(column.length, index.size());
+		
+		for(int from=0; from<column.length; from+=23) {
+			for(int to=from; to<=column.length; to+=31) {
+				double[] sorted = Arrays.stream(column, from, to).filter(v -> !Double.isNaN(v)).sorted().toArray();
+				assertEquals(sorted.length, index.count(from, to), "count of "+from+".."+to);
+				for(int k=0; k<sorted.length; k++) {
+					assertEquals(sorted[k], index.kthLowest(from, to, k), "k="+k+" of "+from+".."+to);
+				}
+				assertTrue(Double.isNaN(index.kthLowest(from, to, sorted.length)), "Expect NaN past the last rate");
+				for(double rate : new double[] {-1, -0.5, 0, 0.25, 1.005, 2.49, 3}) {
+					int lower = 0;
+					int lowerOrEqual = 0;
+					for(double value : sorted) {
+						lower += value < rate ? 1 : 0;
+						lowerOrEqual += value <= rate ? 1 : 0;
+					}
+					assertEquals(lower, index.countLower(from, to, rate), "lower than "+rate+" in "+from+".."+to);
+					assertEquals(lowerOrEqual, index.countLowerOrEqual(from, to, rate), "up to "+rate+" in "+from+".."+to);
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Checks a column holding nothing but nulls
+	 */
+	@Test
+	void testOnlyNulls() {
+		double[] column = new double[100];
+		Arrays.fill(column, Double.NaN);
+		OrderStatisticsIndex index = new OrderStatisticsIndex(new ArrayRateColumn(column), column.length);
+		assertEquals(0, index.count(0, 100));
+		assertEquals(0, index.countLowerOrEqual(0, 100, 1));
+		assertTrue(Double.isNaN(index.kthLowest(0, 100, 0)));
+	}
+}
@@ -0,0 +1,88 @@
+package com.rr.centralbank.model.test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.math.BigDecimal;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+import com.rr.eucentralbank.model.RangeAggregateIndex;
+
+class RangeAggregateIndexTest {
+
+	/**
+	 * Compares every range of a column containing nulls against a plain scan,
+	 * growing the index past its initial capacity one value at a time
+	 */
+	@Test
+	void testRangesMatchScan() {
+		Random random = new Random(42);
+		double[] column = new double[600];
+		for(int i=0; i<column.length; i++) {
+			column[i] = random.nextInt(5) == 0 ? Double.NaN : random.nextDouble() * 100;
+		}
+		
+		RangeAggregateIndex index = new RangeAggregateIndex(column, 0);
+		for(int n=1; n<=column.length; n++) {
+			index.append(column[n-1]);
+			if(n % 97 != 0 && n != column.length) {
+				continue;
+			}
+			for(int from=0; from<n; from+=7) {
+				for(int to=from; to<=n; to+=5) {
+					double sum = 0;
+					int count = 0;
+					double max = Double.NEGATIVE_INFINITY;
+					double min = Double.POSITIVE_INFINITY;
+					for(int i=from; i<to; i++) {
+						if(!Double.isNaN(column[i])) {
+							sum += column[i];
+							count++;
+							max = Math.max(max, column[i]);
+							min = Math.min(min, column[i]);
+						}
+					}
+					assertEquals(sum, index.sum(from, to), 1e-9, "sum of "+from+".."+to);
+					assertEquals(count, index.count(from, to), "count of "+from+".."+to);
+					assertEquals(max, index.max(from, to), "max of "+from+".."+to);
+					assertEquals(min, index.min(from, to), "min of "+from+".."+to);
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Sums of rates with a few decimals are exact, whatever the range, and stay close once a rate 
+	 * with more digits than can be counted in units is appended
+	 */
+	@Test
+	void testSumsAreExact() {
+		Random random = new Random(7);
+		double[] column = new double[1000];
+		for(int i=0; i<column.length - 1; i++) {
+			column[i] = (1000000 + random.nextInt(20000)) / 1e4;
+		}
+		column[column.length - 1] = Math.PI;
+		
+		RangeAggregateIndex index = new RangeAggregateIndex(column, column.length - 1);
+		for(int from=0; from<column.length - 1; from+=13) {
+			assertEquals(column[from], index.sum(from, from + 1), 0, "Expect a single row to give back its rate");
+			BigDecimal exact = BigDecimal.ZERO;
+			for(int to=from + 1; to<column.length; to++) {
+				exact = exact.add(new BigDecimal(Double.toString(column[to - 1])));
+				assertEquals(exact.doubleValue(), index.sum(from, to), 0, "sum of "+from+".."+to);
+			}
+		}
+		
+		index.append(column[column.length - 1]);
+		for(int from=0; from<column.length; from+=13) {
+			assertEquals(column[from], index.sum(from, from + 1), 0, "Expect a single row to give back its rate");
+			double sum = 0;
+			for(int i=from; i<column.length; i++) {
+				sum += column[i];
+			}
+			assertEquals(sum, index.sum(from, column.length), 1e-9);
+		}
+	}
+}
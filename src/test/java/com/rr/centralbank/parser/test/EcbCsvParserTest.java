@@ -0,0 +1,344 @@
+package com.rr.centralbank.parser.test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+
+import org.junit.jupiter.api.Test;
+
+import com.rr.eucentralbank.exception.UnsupportedLayoutException;
+import com.rr.eucentralbank.model.ExchangeRates;
+import com.rr.eucentralbank.parser.EcbCsvParser;
+
+class EcbCsvParserTest {
+
+	/**
+	 * Tests a file in the ECB layout, including missing values and the trailing comma
+	 * 
+	 * @throws UnsupportedLayoutException
+	 */
+	@Test
+	void testEcbLayout() throws UnsupportedLayoutException {
+		byte[] data = ("Date,USD,GBP,AAA,\r\n"
+				+ "2021-10-15,1.1602,0.84368,1,\r\n"
+				+ "2020-02-29,1.1636,N/A,,\r\n"
+				+ "\r\n"
+				+ "2021-10-04,0.8553").getBytes(StandardCharsets.US_ASCII);
+		ExchangeRates rates = new EcbCsvParser().parse(data, data.length);
+		rates.ensureSorted();
+
+		assertEquals(Arrays.asList("USD", "GBP", "AAA"), rates.getCurrencyNames());
+		assertEquals(3, rates.getRowCount());
+		assertEquals(LocalDate.of(2020, 2, 29).toEpochDay(), rates.getEpochDay(0));
+		assertEquals(1.1636, rates.getRate(0, 0));
+		assertTrue(Double.isNaN(rates.getRate(1, 0)), "Expect N/A to be NaN");
+		assertTrue(Double.isNaN(rates.getRate(2, 0)), "Expect empty value to be NaN");
+		assertEquals(0.8553, rates.getRate(0, 1));
+		assertTrue(Double.isNaN(rates.getRate(1, 1)), "Expect short row to be padded with NaN");
+		assertEquals(0.84368, rates.getRate(1, 2));
+	}
+
+	/**
+	 * Tests that decimals are converted exactly as Double.parseDouble would
+	 * 
+	 * @throws UnsupportedLayoutException
+	 */
+	@Test
+	void testDecimalsMatchJdk() throws UnsupportedLayoutException {
+		Random random = new Random(7);
+		StringBuilder csv = new StringBuilder("Date,A,\n");
+		String[] values = new String[2000];
+		LocalDate date = LocalDate.of(1999, 1, 4);
+		for(int i=0; i<values.length; i++) {
+			values[i] = random.nextInt(100000) + "." + random.nextInt(1000000);
+			csv.append(date.plusDays(i)).append(',').append(values[i]).append(",\n");
+		}
+		byte[] data = csv.toString().getBytes(StandardCharsets.US_ASCII);
+		ExchangeRates rates = new EcbCsvParser().parse(data, data.length);
+		for(int i=0; i<values.length; i++) {
+			assertEquals(Double.parseDouble(values[i]), rates.getRate(0, i), values[i]);
+		}
+	}
+
+	/**
+	 * Tests that parsing in chunks on a pool gives the same model as parsing on one thread
+	 * 
+	 * @throws UnsupportedLayoutException
+	 */
+	@Test
+	void testParallelMatchesSequential() throws UnsupportedLayoutException {
+		Random random = new Random(11);
+		StringBuilder csv = new StringBuilder("Date,A,B,C,\r\n");
+		LocalDate date = LocalDate.of(2030, 1, 1);
+		for(int i=0; i<40000; i++) {
+			csv.append(date.minusDays(i));
+			for(int c=0; c<3; c++) {
+				csv.append(',').append(random.nextInt(10) == 0 ? "N/A" : random.nextInt(1000) + "." + random.nextInt(10000));
+			}
+			csv.append(",\r\n");
+		}
+		byte[] data = csv.toString().getBytes(StandardCharsets.US_ASCII);
+		
+		ExchangeRates sequential = new EcbCsvParser().parse(data, data.length);
+		sequential.ensureSorted();
+		ForkJoinPool pool = new ForkJoinPool(4);
+		try {
+			ExchangeRates parallel = new EcbCsvParser().parse(data, data.length, pool);
+			parallel.ensureSorted();
+			assertEquals(sequential.getRowCount(), parallel.getRowCount());
+			for(int r=0; r<sequential.getRowCount(); r++) {
+				assertEquals(sequential.getEpochDay(r), parallel.getEpochDay(r));
+				for(int c=0; c<3; c++) {
+					assertEquals(sequential.getRate(c, r), parallel.getRate(c, r));
+				}
+			}
+		} finally {
+			pool.shutdown();
+		}
+	}
+
+	/**
+	 * Tests that data outside of the layout is rejected, so that the caller can fall back
+	 */
+	@Test
+	void testRejectsOtherLayouts() {
+		EcbCsvParser parser = new EcbCsvParser();
+		byte[] quoted = "Date,USD\n\"2021-10-15\",1.16\n".getBytes(StandardCharsets.US_ASCII);
+		assertThrows(UnsupportedLayoutException.class, () -> parser.parse(quoted, quoted.length));
+		
+		byte[] exponent = "Date,USD\n2021-10-15,1.1e0\n".getBytes(StandardCharsets.US_ASCII);
+		assertThrows(UnsupportedLayoutException.class, () -> parser.parse(exponent, exponent.length));
+		
+		byte[] badDate = "Date,USD\n2021-02-30,1.16\n".getBytes(StandardCharsets.US_ASCII);
+		assertThrows(UnsupportedLayoutException.class, () -> parser.parse(badDate, badDate.length));
+	}
+	
+	/**
+	 * Tests that parsing a stream delivered in small irregular reads gives the same rows as parsing the whole buffer
+	 * 
+	 * @throws IOException
+	 * @throws UnsupportedLayoutException
+	 */
+	@Test
+	void testStreamMatchesBuffer() throws IOException, UnsupportedLayoutException {
+		Random random = new Random(3);
+		StringBuilder csv = new StringBuilder("\uFEFFDate,A,B,\r\n");
+		LocalDate date = LocalDate.of(2030, 1, 1);
+		for(int i=0; i<20000; i++) {
+			csv.append(date.minusDays(i)).append(',').append(random.nextInt(1000) + "." + random.nextInt(10000))
+					.append(',').append(random.nextInt(10) == 0 ? "N/A" : "1." + random.nextInt(100)).append(",\r\n");
+		}
+		//The last row has no line end
+		csv.append(date.minusDays(20000)).append(",1.5,2.5");
+		byte[] data = csv.toString().getBytes(StandardCharsets.UTF_8);
+		ExchangeRates expected = new EcbCsvParser().parse(data, data.length);
+		
+		InputStream trickle = new ByteArrayInputStream(data) {
+			@Override
+			public synchronized int read(byte[] b, int off, int len) {
+				return super.read(b, off, Math.min(len, 1 + random.nextInt(700)));
+			}
+		};
+		List<String> header = new ArrayList<>();
+		int[] rows = new int[1];
+		new EcbCsvParser().parse(trickle, new EcbCsvParser.RowHandler() {
+			@Override
+			public void header(List<String> currencyNames) {
+				header.addAll(currencyNames);
+			}
+			
+			@Override
+			public boolean row(int epochDay, double[] rates) {
+				int r = rows[0]++;
+				assertEquals(expected.getEpochDay(r), epochDay);
+				for(int c=0; c<rates.length; c++) {
+					assertEquals(expected.getRate(c, r), rates[c]);
+				}
+				return true;
+			}
+		});
+		assertEquals(expected.getCurrencyNames(), header);
+		assertEquals(expected.getRowCount(), rows[0]);
+		
+		//Stopping early reads no further rows
+		rows[0] = 0;
+		new EcbCsvParser().parse(new ByteArrayInputStream(data), (epochDay, rates) -> ++rows[0] < 10);
+		assertEquals(10, rows[0]);
+	}
+	
+	/**
+	 * Tests that a stream hands the rest of the file to the fallback from the row which failed, 
+	 * however far past the first buffer it is, and that the fallback's rows are projected
+	 * 
+	 * @throws IOException
+	 */
+	@Test
+	void testStreamFallsBackFromFailingRow() throws IOException {
+		StringBuilder csv = new StringBuilder("Date,A,B,\n");
+		LocalDate date = LocalDate.of(2030, 1, 1);
+		for(int i=0; i<5000; i++) {
+			csv.append(date.minusDays(i)).append(',').append(i).append(".5,").append(i).append(".25,\n");
+		}
+		//Well past the parser's first buffer, and followed by rows in the ECB layout again
+		csv.append('"').append(date.minusDays(5000)).append("\",1.5,2.5,\n");
+		csv.append(date.minusDays(5001)).append(",3.5,4.5,\n");
+		byte[] data = csv.toString().getBytes(StandardCharsets.US_ASCII);
+		assertTrue(data.length > 1 << 16);
+		
+		List<String> header = new ArrayList<>();
+		List<String> fallbackHeader = new ArrayList<>();
+		List<Double> rates = new ArrayList<>();
+		List<Integer> days = new ArrayList<>();
+		new EcbCsvParser(Set.of("B")).parse(new ByteArrayInputStream(data), new EcbCsvParser.RowHandler() {
+			@Override
+			public void header(List<String> currencyNames) {
+				header.addAll(currencyNames);
+			}
+			
+			@Override
+			public boolean row(int epochDay, double[] row) {
+				days.add(epochDay);
+				rates.add(row[0]);
+				return true;
+			}
+		}, (in, handler) -> readQuoted(in, handler, fallbackHeader));
+		assertEquals(List.of("B"), header);
+		assertEquals(List.of("A", "B"), fallbackHeader, "Expect the fallback to read the header again");
+		assertEquals(5002, days.size());
+		for(int i=0; i<days.size(); i++) {
+			assertEquals((int) date.minusDays(i).toEpochDay(), days.get(i));
+		}
+		assertEquals(4999.25, rates.get(4999));
+		assertEquals(2.5, rates.get(5000));
+		assertEquals(4.5, rates.get(5001));
+		
+		//A header the parser can't read leaves the whole file to the fallback
+		byte[] quotedHeader = "\"Date\",A,\n2030-01-01,1.5,\n".getBytes(StandardCharsets.US_ASCII);
+		header.clear();
+		fallbackHeader.clear();
+		days.clear();
+		new EcbCsvParser().parse(new ByteArrayInputStream(quotedHeader), new EcbCsvParser.RowHandler() {
+			@Override
+			public void header(List<String> currencyNames) {
+				header.addAll(currencyNames);
+			}
+			
+			@Override
+			public boolean row(int epochDay, double[] row) {
+				days.add(epochDay);
+				return true;
+			}
+		}, (in, handler) -> readQuoted(in, handler, fallbackHeader));
+		assertEquals(List.of("A"), header);
+		assertEquals(List.of((int) date.toEpochDay()), days);
+	}
+	
+	/**
+	 * A minimal fallback, for rows whose fields may be quoted
+	 */
+	private static void readQuoted(InputStream in, EcbCsvParser.RowHandler handler, List<String> header) throws IOException {
+		String[] lines = new String(in.readAllBytes(), StandardCharsets.US_ASCII).replace("\"", "").split("\n");
+		String[] fields = lines[0].split(",");
+		List<String> names = new ArrayList<>(Arrays.asList(fields).subList(1, fields.length));
+		header.addAll(names);
+		handler.header(names);
+		double[] rates = new double[names.size()];
+		for(int l=1; l<lines.length; l++) {
+			fields = lines[l].split(",");
+			for(int c=0; c<rates.length; c++) {
+				rates[c] = Double.parseDouble(fields[c + 1]);
+			}
+			handler.row((int) LocalDate.parse(fields[0]).toEpochDay(), rates);
+		}
+	}
+	
+	/**
+	 * Tests that projected and lazy parsing give the same rates as parsing every currency
+	 * 
+	 * @throws UnsupportedLayoutException
+	 */
+	@Test
+	void testProjectionAndLazyMatchFull() throws UnsupportedLayoutException {
+		Random random = new Random(5);
+		StringBuilder csv = new StringBuilder("Date,A,B,C,D,\r\n");
+		LocalDate date = LocalDate.of(2030, 1, 1);
+		for(int i=0; i<30000; i++) {
+			csv.append(date.minusDays(i));
+			for(int c=0; c<4; c++) {
+				csv.append(',').append(random.nextInt(10) == 0 ? "N/A" : random.nextInt(1000) + "." + random.nextInt(10000));
+			}
+			csv.append(i % 1000 == 0 ? ",\r\n\r\n" : ",\r\n");
+		}
+		//A short row and a repeated date, of which the first is kept
+		csv.append(date.minusDays(30000)).append(",1.5\r\n");
+		csv.append(date.minusDays(30000)).append(",2.5,2.5,2.5,2.5\r\n");
+		byte[] data = csv.toString().getBytes(StandardCharsets.US_ASCII);
+		ExchangeRates full = new EcbCsvParser().parse(data, data.length);
+		full.ensureSorted();
+		
+		List<String> projection = Arrays.asList("D", "B", "X");
+		ExchangeRates projected = new EcbCsvParser(projection).parse(data, data.length);
+		projected.ensureSorted();
+		ForkJoinPool pool = new ForkJoinPool(4);
+		ExchangeRates parallel;
+		try {
+			parallel = new EcbCsvParser(projection).parse(data, data.length, pool);
+			parallel.ensureSorted();
+		} finally {
+			pool.shutdown();
+		}
+		ExchangeRates lazy = new EcbCsvParser().parseLazy(data, data.length);
+		ExchangeRates lazyProjected = new EcbCsvParser(projection).parseLazy(data, data.length);
+		
+		assertEquals(Arrays.asList("B", "D"), projected.getCurrencyNames(), "Expect file order, without unknown currencies");
+		assertEquals(Arrays.asList("B", "D"), parallel.getCurrencyNames());
+		assertEquals(Arrays.asList("B", "D"), lazyProjected.getCurrencyNames());
+		assertTrue(projected.memoryBytes() < full.memoryBytes() * 0.6, "Expect only two columns in memory");
+		for(ExchangeRates other : Arrays.asList(projected, parallel, lazy, lazyProjected)) {
+			assertEquals(full.getRowCount(), other.getRowCount());
+			for(int c=0; c<other.getCurrencyCount(); c++) {
+				int fullColumn = full.indexOfCurrency(other.getCurrencyNames().get(c));
+				for(int r=0; r<full.getRowCount(); r++) {
+					assertEquals(full.getEpochDay(r), other.getEpochDay(r));
+					assertEquals(full.getRate(fullColumn, r), other.getRate(c, r));
+				}
+			}
+		}
+		assertEquals(1.5, lazy.getRate(0, 0));
+		assertTrue(Double.isNaN(lazy.getRate(3, 0)), "Expect short row to be padded with NaN");
+		
+		//Skipped cells are not converted, so they are not checked either
+		byte[] exponent = "Date,USD,GBP\n2021-10-15,1.16,1.1e0\n".getBytes(StandardCharsets.US_ASCII);
+		assertEquals(1.16, new EcbCsvParser(Arrays.asList("USD")).parse(exponent, exponent.length).getRate(0, 0));
+		byte[] quoted = "Date,USD\n2021-10-15,\"1.16\"\n".getBytes(StandardCharsets.US_ASCII);
+		assertThrows(UnsupportedLayoutException.class, () -> new EcbCsvParser().parseLazy(quoted, quoted.length));
+	}
+	
+	@Test
+	public void testDuplicateDatesKeepFirstRow() throws Exception {
+		//Out of order, with a repeated date and dates before 1970, whose sort keys are negative
+		byte[] data = "Date,USD\n2021-10-15,1.1\n1969-12-30,0.9\n2021-10-15,1.2\n1969-12-31,0.8\n1969-12-30,0.7\n"
+				.getBytes(StandardCharsets.US_ASCII);
+		for(ExchangeRates rates : Arrays.asList(new EcbCsvParser().parse(data, data.length), 
+				new EcbCsvParser().parseLazy(data, data.length))) {
+			rates.ensureSorted();
+			assertEquals(3, rates.getRowCount());
+			assertEquals(-2, rates.getEpochDay(0));
+			assertEquals(0.9, rates.getRate(0, 0), "Expect the first row of a repeated date");
+			assertEquals(0.8, rates.getRate(0, 1));
+			assertEquals(1.1, rates.getRate(0, 2), "Expect the first row of a repeated date");
+		}
+	}
+}
@@ -0,0 +1,272 @@
+package com.rr.centralbank.server.test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import com.rr.eucentralbank.api.ConversionStatus;
+import com.rr.eucentralbank.api.Forex;
+import com.rr.eucentralbank.api.ForexImpl;
+import com.rr.eucentralbank.server.ForexServer;
+import com.rr.eucentralbank.server.RequestCoalescer;
+
+class ForexServerTest {
+
+	private String testData = "Date,USD,GBP,AAA,\r\n" 
+							+ "2021-10-15,1.1602,0.84368,1,\r\n" 
+							+ "2021-10-14,1.1602,0.84618,1,\r\n" 
+							+ "2021-10-13,1.1562,0.84898,1,\r\n" 
+							+ "2021-10-08,1.1569,0.8489,N/A,\r\n";
+	
+	private ForexServer server;
+	private HttpClient client;
+	
+	@BeforeEach
+	void start() throws IOException {
+		ForexImpl forex = new ForexImpl();
+		forex.loadDataFromInputStream(createDummyStream());
+		server = new ForexServer(forex, new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 2);
+		server.start();
+		client = HttpClient.newHttpClient();
+	}
+	
+	@AfterEach
+	void stop() {
+		server.stop(0);
+	}
+	
+	/**
+	 * Creates an in-memory zip stream holding the test data
+	 * 
+	 * @return InputStream
+	 * @throws IOException
+	 */
+	private InputStream createDummyStream() throws IOException {
+		ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		try(ZipOutputStream zos = new ZipOutputStream(baos)) {
+			zos.putNextEntry(new ZipEntry("eurofxref-hist.csv"));
+			zos.write(testData.getBytes());
+			zos.closeEntry();
+		}
+		return new ByteArrayInputStream(baos.toByteArray());
+	}
+	
+	private HttpResponse<String> get(String pathAndQuery) throws IOException, InterruptedException {
+		HttpRequest request = HttpRequest.newBuilder(uri(pathAndQuery)).GET().build();
+		return client.send(request, HttpResponse.BodyHandlers.ofString());
+	}
+	
+	private URI uri(String pathAndQuery) {
+		return URI.create("http://localhost:" + server.getPort() + pathAndQuery);
+	}
+	
+	/**
+	 * Tests each GET endpoint and its errors
+	 * 
+	 * @throws IOException
+	 * @throws InterruptedException
+	 */
+	@Test
+	void testQueries() throws IOException, InterruptedException {
+		HttpResponse<String> rates = get("/rates?date=2021-10-08");
+		assertEquals(200, rates.statusCode());
+		assertEquals("{\"date\":\"2021-10-08\",\"rates\":{\"AAA\":null,\"GBP\":0.8489,\"USD\":1.1569}}", rates.body());
+		assertEquals(404, get("/rates?date=2021-10-10").statusCode(), "Expect 404 for a date without data");
+		
+		HttpResponse<String> convert = get("/convert?date=2021-10-15&amount=1&from=USD&to=GBP");
+		assertEquals(200, convert.statusCode());
+		assertTrue(convert.body().contains("\"result\":0.7271849681089468"), convert.body());
+		assertEquals(404, get("/convert?date=2021-10-08&amount=1&from=USD&to=AAA").statusCode());
+		assertEquals(400, get("/convert?date=2021-10-15&amount=x&from=USD&to=GBP").statusCode());
+		assertEquals(400, get("/convert?date=15/10/2021&amount=1&from=USD&to=GBP").statusCode());
+		assertEquals(400, get("/convert?date=2021-10-15&from=USD&to=GBP").statusCode());
+		
+		assertEquals("{\"currency\":\"USD\",\"highest\":1.1602}", 
+				get("/highest?start=2021-10-01&end=2021-10-31&currency=USD").body());
+		assertEquals("{\"currency\":\"AAA\",\"average\":0.75}", 
+				get("/average?start=2021-10-01&end=2021-10-31&currency=AAA&removeNulls=false").body());
+		assertEquals("{\"currency\":\"AAA\",\"average\":1.0}", 
+				get("/average?start=2021-10-01&end=2021-10-31&currency=AAA").body());
+		
+		HttpRequest post = HttpRequest.newBuilder(uri("/rates?date=2021-10-08"))
+				.POST(HttpRequest.BodyPublishers.noBody()).build();
+		assertEquals(405, client.send(post, HttpResponse.BodyHandlers.ofString()).statusCode());
+	}
+	
+	/**
+	 * Tests the batch conversion endpoint, which reports failed lines by status rather than failing
+	 * 
+	 * @throws IOException
+	 * @throws InterruptedException
+	 */
+	@Test
+	void testBatch() throws IOException, InterruptedException {
+		String body = "2021-10-15,1,USD,GBP\n2021-10-15,2,USD,GBP\n\n2021-10-10,1,USD,GBP\n";
+		HttpRequest request = HttpRequest.newBuilder(uri("/convert/batch"))
+				.POST(HttpRequest.BodyPublishers.ofString(body)).build();
+		HttpResponse<String> response = client.send(request, HttpResponse.BodyHandlers.ofString());
+		assertEquals(200, response.statusCode());
+		assertTrue(response.body().startsWith("{\"results\":[0.7271849681089468,"), response.body());
+		assertTrue(response.body().endsWith(",null],\"statuses\":[0,0," + ConversionStatus.DATE_UNAVAILABLE + "],\"failures\":1}"), response.body());
+		
+		HttpRequest bad = HttpRequest.newBuilder(uri("/convert/batch"))
+				.POST(HttpRequest.BodyPublishers.ofString("2021-10-15,1,USD\n")).build();
+		assertEquals(400, client.send(bad, HttpResponse.BodyHandlers.ofString()).statusCode());
+	}
+	
+	/**
+	 * Tests that only the exact paths are served
+	 * 
+	 * @throws IOException
+	 * @throws InterruptedException
+	 */
+	@Test
+	void testUnknownPaths() throws IOException, InterruptedException {
+		assertEquals(404, get("/ratesXYZ?date=2021-10-08").statusCode());
+		assertEquals(404, get("/rates/2021-10-08").statusCode());
+		assertEquals(404, get("/convertfoo?date=2021-10-15&amount=1&from=USD&to=GBP").statusCode());
+		assertEquals(404, get("/").statusCode());
+		HttpRequest request = HttpRequest.newBuilder(uri("/convert/batchXYZ"))
+				.POST(HttpRequest.BodyPublishers.ofString("2021-10-15,1,USD,GBP\n")).build();
+		assertEquals(404, client.send(request, HttpResponse.BodyHandlers.ofString()).statusCode());
+	}
+	
+	/**
+	 * Tests that a batch over the size limit is refused without being converted
+	 * 
+	 * @throws IOException
+	 * @throws InterruptedException
+	 */
+	@Test
+	void testBatchTooLarge() throws IOException, InterruptedException {
+		byte[] line = "2021-10-15,1,USD,GBP\n".getBytes();
+		byte[] body = new byte[ForexServer.MAX_BATCH_BYTES + line.length];
+		for(int i=0; i+line.length<=body.length; i+=line.length) {
+			System.arraycopy(line, 0, body, i, line.length);
+		}
+		HttpRequest sized = HttpRequest.newBuilder(uri("/convert/batch"))
+				.POST(HttpRequest.BodyPublishers.ofByteArray(body)).build();
+		assertEquals(413, client.send(sized, HttpResponse.BodyHandlers.ofString()).statusCode());
+		
+		//Without a length the body is read up to the limit
+		HttpRequest chunked = HttpRequest.newBuilder(uri("/convert/batch"))
+				.POST(HttpRequest.BodyPublishers.ofInputStream(() -> new ByteArrayInputStream(body))).build();
+		assertEquals(413, client.send(chunked, HttpResponse.BodyHandlers.ofString()).statusCode());
+		
+		HttpRequest fits = HttpRequest.newBuilder(uri("/convert/batch"))
+				.POST(HttpRequest.BodyPublishers.ofByteArray(Arrays.copyOf(body, ForexServer.MAX_BATCH_BYTES / line.length * line.length))).build();
+		assertEquals(200, client.send(fits, HttpResponse.BodyHandlers.ofString()).statusCode());
+	}
+	
+	/**
+	 * Tests that an unexpected failure of a query is answered with 500
+	 * 
+	 * @throws IOException
+	 * @throws InterruptedException
+	 */
+	@Test
+	void testInternalError() throws IOException, InterruptedException {
+		server.stop(0);
+		Forex failing = new Forex() {
+			@Override
+			public Map<String, Double> readDataForDate(Date date) {
+				throw new IllegalStateException("failed");
+			}
+			@Override
+			public Double convertCurrency(Date date, Double amount, String sourceCurrency, String targetCurrency) {
+				throw new IllegalStateException("failed");
+			}
+			@Override
+			public Double calculateHighest(Date start, Date end, String currency) {
+				throw new IllegalStateException("failed");
+			}
+			@Override
+			public Double calculateAverage(Date start, Date end, String currency, boolean removeNulls) {
+				throw new IllegalStateException("failed");
+			}
+			@Override
+			public void loadDataFromZip(File zipFile) {
+			}
+			@Override
+			public void loadDataLiveSite() {
+			}
+			@Override
+			public void loadDataFromInputStream(InputStream in) {
+			}
+		};
+		server = new ForexServer(failing, new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 2);
+		server.start();
+		assertEquals(500, get("/rates?date=2021-10-08").statusCode());
+		assertEquals(500, get("/convert?date=2021-10-15&amount=1&from=USD&to=GBP").statusCode());
+		HttpRequest request = HttpRequest.newBuilder(uri("/convert/batch"))
+				.POST(HttpRequest.BodyPublishers.ofString("2021-10-15,1,USD,GBP\n")).build();
+		assertEquals(500, client.send(request, HttpResponse.BodyHandlers.ofString()).statusCode());
+	}
+	
+	/**
+	 * Tests that a request arriving while an identical one is running waits for its result
+	 * 
+	 * @throws InterruptedException
+	 */
+	@Test
+	void testCoalescing() throws InterruptedException {
+		RequestCoalescer<String, Integer> coalescer = new RequestCoalescer<>();
+		CountDownLatch running = new CountDownLatch(1);
+		CountDownLatch release = new CountDownLatch(1);
+		AtomicInteger calls = new AtomicInteger();
+		
+		Thread first = new Thread(() -> coalescer.get("key", () -> {
+			calls.incrementAndGet();
+			running.countDown();
+			try {
+				release.await();
+			} catch(InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			return 42;
+		}));
+		first.start();
+		running.await();
+		
+		AtomicReference<Integer> second = new AtomicReference<>();
+		Thread waiter = new Thread(() -> second.set(coalescer.get("key", calls::incrementAndGet)));
+		waiter.start();
+		while(waiter.getState() != Thread.State.WAITING && waiter.isAlive()) {
+			Thread.sleep(1);
+		}
+		assertEquals(1, coalescer.inFlight());
+		release.countDown();
+		first.join();
+		waiter.join();
+		
+		assertEquals(42, second.get(), "Expect the waiting request to share the result");
+		assertEquals(1, calls.get(), "Expect the query to run once");
+		assertEquals(0, coalescer.inFlight());
+		assertFalse(waiter.isAlive());
+	}
+	
+}